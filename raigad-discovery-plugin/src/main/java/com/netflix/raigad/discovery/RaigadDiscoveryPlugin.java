@@ -25,14 +25,18 @@ import org.elasticsearch.plugins.DiscoveryPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.transport.TransportService;
 
+import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.Supplier;
 
 public class RaigadDiscoveryPlugin extends Plugin implements DiscoveryPlugin {
     private static final Logger logger = Loggers.getLogger(RaigadDiscoveryPlugin.class);
 
     private final Settings settings;
+    private final List<RaigadUnicastHostsProvider> providers = new CopyOnWriteArrayList<>();
 
     public RaigadDiscoveryPlugin(Settings settings) {
         this.settings = settings;
@@ -44,6 +48,18 @@ public class RaigadDiscoveryPlugin extends Plugin implements DiscoveryPlugin {
             TransportService transportService, NetworkService networkService) {
         return Collections.singletonMap(
                 "raigad",
-                () -> new RaigadUnicastHostsProvider(settings, transportService));
+                () -> {
+                    RaigadUnicastHostsProvider provider = new RaigadUnicastHostsProvider(settings, transportService);
+                    providers.add(provider);
+                    return provider;
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RaigadUnicastHostsProvider provider : providers) {
+            provider.close();
+        }
+        providers.clear();
     }
 }
@@ -23,18 +23,89 @@ import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.discovery.zen.UnicastHostsProvider;
+import org.elasticsearch.env.Environment;
 import org.elasticsearch.transport.TransportService;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
-public class RaigadUnicastHostsProvider extends AbstractComponent implements UnicastHostsProvider {
+public class RaigadUnicastHostsProvider extends AbstractComponent implements UnicastHostsProvider, Closeable {
     private static final String GET_NODES_ISLAND_URL = "http://127.0.0.1:8080/Raigad/REST/v1/esconfig/get_nodes";
     private static final String GET_NODES_TRIBE_URL_PREFIX = "http://127.0.0.1:8080/Raigad/REST/v1/esconfig/get_tribe_nodes/";
+    // Older Raigad versions only produce text/plain, which is the legacy format
+    private static final String NODES_ACCEPT = "application/vnd.raigad.nodes.v2+json, text/plain;q=0.5";
+    private static final String NODES_CACHE_FILE = "raigad-discovery-nodes.json";
+
+    private static final int RESOLVE_THREADS = 8;
+    private static final int RESOLVE_QUEUE_SIZE = 64;
+    private static final long RESOLVE_TIMEOUT_MS = 2000;
+
+    private static final long WAIT_SECONDS = 30;
+    private static final long WATCH_STALE_MS = TimeUnit.SECONDS.toMillis(2 * WAIT_SECONDS);
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30 * 1000;
 
     private final String nodeName;
+    private final String localInstanceId;
     private final TransportService transportService;
+    private final Path cacheFile;
+    private final ExecutorService resolver;
+    private final ConcurrentMap<String, TransportAddress> addressCache = new ConcurrentHashMap<>();
+
+    // Lookups still running, address lookups can not be interrupted so they are waited on again instead of resubmitted
+    private final ConcurrentMap<String, Future<TransportAddress>> inFlight = new ConcurrentHashMap<>();
+
+    // Last good node list, used when nothing changed and whenever Raigad can not be reached
+    private volatile CachedNodes cachedNodes;
+
+    // Last time the watcher heard back from Raigad, its node list is trusted while this is recent
+    private volatile long lastWatchTime;
+    private final AtomicBoolean watcherStarted = new AtomicBoolean();
+    private volatile Thread watcher;
+    private volatile boolean closed;
+
+    /**
+     * Node list as returned by Raigad together with the tag identifying that response
+     */
+    private static class CachedNodes {
+        private final String tag;
+        private final long version;
+        private final List<RaigadInstance> instances;
+
+        CachedNodes(String tag, long version, List<RaigadInstance> instances) {
+            this.tag = tag;
+            this.version = version;
+            this.instances = Collections.unmodifiableList(instances);
+        }
+    }
 
     RaigadUnicastHostsProvider(Settings settings, TransportService transportService) {
         super(settings);
@@ -42,6 +113,15 @@ public class RaigadUnicastHostsProvider extends AbstractComponent implements Uni
 
         nodeName = settings.get("node.name");
         logger.info("[raigad-discovery] Node name [{}]", nodeName);
+        localInstanceId = getLocalInstanceId(nodeName);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RESOLVE_THREADS, RESOLVE_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(RESOLVE_QUEUE_SIZE), EsExecutors.daemonThreadFactory(settings, "raigad_discovery_resolver"));
+        executor.allowCoreThreadTimeOut(true);
+        resolver = executor;
+
+        cacheFile = getCacheFile(settings);
+        cachedNodes = loadCachedNodes();
     }
 
     @Override
@@ -49,42 +129,315 @@ public class RaigadUnicastHostsProvider extends AbstractComponent implements Uni
 
         final List<DiscoveryNode> discoveryNodes = new ArrayList<>();
 
-        try {
-            //Extract tribe ID from name field of settings and query accordingly
-            String discoveryNodesJsonString;
-
-            if (isTribeNode()) {
-                String tribeId = nodeName.substring(nodeName.indexOf("/") + 1);
-                logger.debug("[raigad-discovery] Tribe ID detected [{}]", tribeId);
-                discoveryNodesJsonString = DataFetcher.fetchData(GET_NODES_TRIBE_URL_PREFIX + tribeId, logger);
-            } else {
-                discoveryNodesJsonString = DataFetcher.fetchData(GET_NODES_ISLAND_URL, logger);
+        List<RaigadInstance> instances = sortByProximity(getInstances());
+        Map<String, TransportAddress> addresses = resolveAddresses(instances);
+
+        for (RaigadInstance instance : instances) {
+            TransportAddress address = addresses.get(instance.getHostIP());
+
+            if (address != null) {
+                logger.debug("[raigad-discovery] Adding instance [{}], address [{}], transport address [{}]",
+                        instance.getId(), instance.getHostIP(), address);
+
+                discoveryNodes.add(new DiscoveryNode(instance.getId(), address, Version.CURRENT.minimumCompatibilityVersion()));
             }
+        }
+
+        logger.debug("[raigad-discovery] Using dynamic discovery nodes {}", discoveryNodes);
+
+        return discoveryNodes;
+    }
+
+    /**
+     * Resolve transport addresses concurrently, one slow host only costs its own timeout and
+     * addresses resolved before are reused for as long as their instance is around
+     */
+    private Map<String, TransportAddress> resolveAddresses(List<RaigadInstance> instances) {
+        Map<String, TransportAddress> resolved = new HashMap<>();
+        Map<String, Future<TransportAddress>> pending = new LinkedHashMap<>();
+        Set<String> hostIPs = new HashSet<>();
 
-            List<RaigadInstance> instances = ElasticsearchUtil.getRaigadInstancesFromJsonString(discoveryNodesJsonString, logger);
+        for (RaigadInstance instance : instances) {
+            String hostIP = instance.getHostIP();
+            if (hostIP == null || !hostIPs.add(hostIP)) {
+                continue;
+            }
+
+            TransportAddress cached = addressCache.get(hostIP);
+            if (cached != null) {
+                resolved.put(hostIP, cached);
+                continue;
+            }
 
-            for (RaigadInstance instance : instances) {
+            Future<TransportAddress> lookup = inFlight.get(hostIP);
+            if (lookup == null) {
                 try {
-                    TransportAddress[] addresses = transportService.addressesFromString(instance.getHostIP(), 1);
+                    lookup = resolver.submit(() -> resolveAddress(hostIP));
+                    inFlight.put(hostIP, lookup);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("[raigad-discovery] Too many address lookups pending, skipping [{}] this round", hostIP);
+                    continue;
+                }
+            }
+
+            pending.put(hostIP, lookup);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESOLVE_TIMEOUT_MS);
+
+        for (Map.Entry<String, Future<TransportAddress>> entry : pending.entrySet()) {
+            try {
+                TransportAddress address = entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                inFlight.remove(entry.getKey(), entry.getValue());
+
+                if (address != null) {
+                    resolved.put(entry.getKey(), address);
+                    addressCache.put(entry.getKey(), address);
+                }
+            } catch (TimeoutException e) {
+                // Left in flight, the next round waits for the same lookup
+                logger.warn("[raigad-discovery] Timed out resolving address [{}] after {} ms", entry.getKey(), RESOLVE_TIMEOUT_MS);
+            } catch (ExecutionException e) {
+                inFlight.remove(entry.getKey(), entry.getValue());
+                logger.warn("[raigad-discovery] Failed to resolve address [{}]", entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Instances which are gone do not need their addresses anymore
+        addressCache.keySet().retainAll(hostIPs);
+        inFlight.keySet().retainAll(hostIPs);
+
+        return resolved;
+    }
+
+    private TransportAddress resolveAddress(String hostIP) throws Exception {
+        TransportAddress[] addresses = transportService.addressesFromString(hostIP, 1);
+        return addresses != null && addresses.length > 0 ? addresses[0] : null;
+    }
+
+    /**
+     * Nodes in our own zone come first, then the ones in our region, so pings reach the closest nodes first
+     */
+    private List<RaigadInstance> sortByProximity(List<RaigadInstance> instances) {
+        RaigadInstance localInstance = null;
+        for (RaigadInstance instance : instances) {
+            if (instance.getInstanceId() != null && instance.getInstanceId().equals(localInstanceId)) {
+                localInstance = instance;
+                break;
+            }
+        }
+
+        if (localInstance == null) {
+            return instances;
+        }
+
+        final RaigadInstance local = localInstance;
+        List<RaigadInstance> sorted = new ArrayList<>(instances);
+        sorted.sort(Comparator.comparingInt(instance -> getDistance(local, instance)));
+        return sorted;
+    }
+
+    private static int getDistance(RaigadInstance local, RaigadInstance instance) {
+        if (!Objects.equals(local.getDC(), instance.getDC())) {
+            return 2;
+        }
+
+        return Objects.equals(local.getAvailabilityZone(), instance.getAvailabilityZone()) ? 0 : 1;
+    }
+
+    /**
+     * Raigad names nodes [rac].[instance ID], tribe nodes have their tribe ID appended after a slash
+     */
+    private static String getLocalInstanceId(String nodeName) {
+        if (nodeName == null) {
+            return null;
+        }
+
+        int slash = nodeName.indexOf('/');
+        String name = slash < 0 ? nodeName : nodeName.substring(0, slash);
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Node list kept fresh by the watcher when Raigad supports long-polling, otherwise fetched on every ping.
+     * Any failure falls back to the last good list.
+     */
+    private List<RaigadInstance> getInstances() {
+        startWatcher();
+
+        CachedNodes current = cachedNodes;
+        if (current != null && System.currentTimeMillis() - lastWatchTime < WATCH_STALE_MS) {
+            return current.instances;
+        }
 
-                    if (addresses != null && addresses.length > 0) {
-                        logger.info("[raigad-discovery] Adding instance [{}], address [{}], transport address [{}]",
-                                instance.getId(), instance.getHostIP(), addresses[0]);
+        try {
+            return fetchNodes(getNodesUrl(), DataFetcher.DEFAULT_READ_TIMEOUT_MS).instances;
+        } catch (Exception e) {
+            if (current == null) {
+                logger.error("[raigad-discovery] Unable to get nodes from Raigad and no cached nodes are available", e);
+                return Collections.emptyList();
+            }
+
+            logger.warn("[raigad-discovery] Unable to get nodes from Raigad, using {} cached instances", current.instances.size(), e);
+            return current.instances;
+        }
+    }
+
+    /**
+     * Ask Raigad for the node list, only parsing the response when it differs from the cached one
+     */
+    private CachedNodes fetchNodes(String url, int readTimeoutMs) throws IOException {
+        CachedNodes current = cachedNodes;
+
+        DataFetcher.Response response = DataFetcher.fetchData(url, NODES_ACCEPT, current == null ? null : current.tag, readTimeoutMs, logger);
 
-                        discoveryNodes.add(new DiscoveryNode(instance.getId(), addresses[0], Version.CURRENT.minimumCompatibilityVersion()));
+        if (response.isNotModified() && current != null) {
+            return current;
+        }
+
+        String body = response.getBody();
+        String tag = response.getETag() != null ? response.getETag() : checksum(body);
+
+        // Servers not sending an ETag still let us skip parsing an identical body
+        if (current != null && tag.equals(current.tag)) {
+            return current;
+        }
+
+        List<RaigadInstance> instances = ElasticsearchUtil.getRaigadInstancesFromJsonString(body, logger);
+        CachedNodes fetched = new CachedNodes(tag, response.getVersion(), instances);
+        cachedNodes = fetched;
+        persist(body);
+
+        logger.info("[raigad-discovery] Node list changed, {} instances", instances.size());
+        return fetched;
+    }
+
+    private void startWatcher() {
+        if (!closed && watcherStarted.compareAndSet(false, true)) {
+            watcher = EsExecutors.daemonThreadFactory(settings, "raigad_discovery_watcher").newThread(this::watch);
+            watcher.start();
+        }
+    }
+
+    /**
+     * Stop the watcher and the resolver threads, lookups still running finish on their own daemon threads
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        Thread current = watcher;
+        if (current != null) {
+            current.interrupt();
+        }
+
+        resolver.shutdownNow();
+        inFlight.clear();
+    }
+
+    /**
+     * Long-poll Raigad for membership changes so new nodes are known before the next ping asks for them.
+     * Stops if Raigad does not report membership versions, discovery then fetches on every ping as before.
+     */
+    private void watch() {
+        long backoffMs = MIN_BACKOFF_MS;
+
+        while (!closed && !Thread.currentThread().isInterrupted()) {
+            try {
+                CachedNodes current = cachedNodes;
+                CachedNodes fetched;
+
+                if (current == null || current.version < 0) {
+                    fetched = fetchNodes(getNodesUrl(), DataFetcher.DEFAULT_READ_TIMEOUT_MS);
+                    if (fetched.version < 0) {
+                        logger.info("[raigad-discovery] Raigad does not support long-polling, fetching nodes on every ping");
+                        return;
                     }
-                } catch (Exception e) {
-                    logger.warn("[raigad-discovery] Failed to add instance [{}], address [{}]", e, instance.getId(), instance.getHostIP());
+                } else {
+                    String url = getNodesUrl() + "?sinceVersion=" + current.version + "&wait=" + WAIT_SECONDS + "s";
+                    fetchNodes(url, (int) TimeUnit.SECONDS.toMillis(WAIT_SECONDS + 15));
+                }
+
+                lastWatchTime = System.currentTimeMillis();
+                backoffMs = MIN_BACKOFF_MS;
+            } catch (Exception e) {
+                logger.warn("[raigad-discovery] Watching nodes failed, retrying in {} ms", backoffMs, e);
+
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
                 }
+
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    private String getNodesUrl() {
+        //Extract tribe ID from name field of settings and query accordingly
+        if (isTribeNode()) {
+            String tribeId = nodeName.substring(nodeName.indexOf("/") + 1);
+            logger.debug("[raigad-discovery] Tribe ID detected [{}]", tribeId);
+            return GET_NODES_TRIBE_URL_PREFIX + tribeId;
+        }
+
+        return GET_NODES_ISLAND_URL;
+    }
+
+    private Path getCacheFile(Settings settings) {
+        try {
+            Path[] dataFiles = new Environment(settings).dataFiles();
+            if (dataFiles.length > 0) {
+                return dataFiles[0].resolve(NODES_CACHE_FILE);
             }
         } catch (Exception e) {
-            logger.error("[raigad-discovery] Exception while trying to build dynamic discovery nodes", e);
-            throw new RuntimeException(e);
+            logger.warn("[raigad-discovery] Unable to determine data path, nodes will only be cached in memory", e);
         }
 
-        logger.debug("[raigad-discovery] Using dynamic discovery nodes {}", discoveryNodes);
+        return null;
+    }
 
-        return discoveryNodes;
+    private CachedNodes loadCachedNodes() {
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return null;
+        }
+
+        try {
+            String body = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+            List<RaigadInstance> instances = ElasticsearchUtil.getRaigadInstancesFromJsonString(body, logger);
+            logger.info("[raigad-discovery] Loaded {} cached instances from {}", instances.size(), cacheFile);
+
+            // No ETag is known for the persisted copy, the checksum still avoids parsing an identical response
+            return new CachedNodes(checksum(body), -1, instances);
+        } catch (Exception e) {
+            logger.warn("[raigad-discovery] Ignoring unreadable node cache {}", cacheFile, e);
+            return null;
+        }
+    }
+
+    private void persist(String body) {
+        if (cacheFile == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temporary = cacheFile.resolveSibling(NODES_CACHE_FILE + ".tmp");
+            Files.write(temporary, body.getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("[raigad-discovery] Failed to persist node cache {}", cacheFile, e);
+        }
+    }
+
+    private static String checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return "crc-" + Long.toHexString(crc.getValue());
     }
 
     private boolean isTribeNode() {
@@ -26,17 +26,89 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 
 public class DataFetcher {
+    public static final int HTTP_OK = 200;
+    public static final int HTTP_NOT_MODIFIED = 304;
+    public static final String NODES_VERSION_HEADER = "X-Raigad-Nodes-Version";
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+
+    /**
+     * Response of a conditional fetch, the body is null when the server reported no change
+     */
+    public static class Response {
+        private final int status;
+        private final String body;
+        private final String eTag;
+        private final long version;
+
+        Response(int status, String body, String eTag, long version) {
+            this.status = status;
+            this.body = body;
+            this.eTag = eTag;
+            this.version = version;
+        }
+
+        public boolean isNotModified() {
+            return status == HTTP_NOT_MODIFIED;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        /**
+         * @return membership version of the node list, -1 if the server does not report one
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
+
     public static String fetchData(String url, Logger logger) {
+        return fetchData(url, null, null, logger).getBody();
+    }
+
+    /**
+     * Fetch the given URL, sending the ETag of the copy we already have so the server can answer with 304
+     *
+     * @param accept media types we can read, null to leave the choice to the server
+     */
+    public static Response fetchData(String url, String accept, String eTag, Logger logger) {
+        return fetchData(url, accept, eTag, DEFAULT_READ_TIMEOUT_MS, logger);
+    }
+
+    /**
+     * Same as {@link #fetchData(String, String, String, Logger)} with a read timeout long enough for long-polling requests
+     */
+    public static Response fetchData(String url, String accept, String eTag, int readTimeoutMs, Logger logger) {
         HttpURLConnection httpConnection = null;
         DataInputStream responseStream = null;
 
         try {
             httpConnection = (HttpURLConnection) new URL(url).openConnection();
             httpConnection.setConnectTimeout(1000);
-            httpConnection.setReadTimeout(10000);
+            httpConnection.setReadTimeout(readTimeoutMs);
             httpConnection.setRequestMethod("GET");
 
-            if (httpConnection.getResponseCode() != 200) {
+            if (accept != null) {
+                httpConnection.setRequestProperty("Accept", accept);
+            }
+
+            if (eTag != null) {
+                httpConnection.setRequestProperty("If-None-Match", eTag);
+            }
+
+            int responseCode = httpConnection.getResponseCode();
+
+            if (responseCode == HTTP_NOT_MODIFIED) {
+                logger.debug("Raigad ({}) reported no change for {}", url, eTag);
+                return new Response(responseCode, null, eTag, -1);
+            }
+
+            if (responseCode != HTTP_OK) {
                 logger.error("Unable to get data from URL [" + url + "]");
                 throw new RuntimeException("Unable to fetch data from Raigad API");
             }
@@ -51,9 +123,10 @@ public class DataFetcher {
             }
 
             String result = new String(byteArrayOutputStream.toByteArray(), StandardCharsets.UTF_8);
-            logger.info("Raigad ({}) returned {}", url, result);
+            logger.debug("Raigad ({}) returned {}", url, result);
 
-            return result;
+            String version = httpConnection.getHeaderField(NODES_VERSION_HEADER);
+            return new Response(responseCode, result, httpConnection.getHeaderField("ETag"), version == null ? -1 : Long.parseLong(version));
 
         } catch (Exception ex) {
             throw new RuntimeException(ex);
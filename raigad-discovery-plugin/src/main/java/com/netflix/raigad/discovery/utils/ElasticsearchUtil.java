@@ -25,7 +25,6 @@ import org.elasticsearch.common.xcontent.json.JsonXContent;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class ElasticsearchUtil {
     private static final String TOP_LEVEL_ELEMENT = "instances";
@@ -39,39 +38,67 @@ public class ElasticsearchUtil {
     private static final String DC = "dc";
     private static final String UPDATE_TIME = "update_time";
 
-    @SuppressWarnings("unchecked")
-    public static List<RaigadInstance> getRaigadInstancesFromJsonString(String jsonInstances, Logger logger) {
+    /**
+     * Parse a node list in either the compact format, {"version":N,"instances":[{...},...]},
+     * or the legacy one, {"instances":{"instance-0":{...},...}}, in a single streaming pass
+     */
+    public static List<RaigadInstance> getRaigadInstancesFromJsonString(String jsonInstances, Logger logger) throws IOException {
         List<RaigadInstance> raigadInstances = new ArrayList<RaigadInstance>();
 
-        try {
-            Map<String, Object> topLevelInstanceMap = (Map<String, Object>) jsonToMap(jsonInstances).get(TOP_LEVEL_ELEMENT);
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, jsonInstances)) {
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+                throw new IOException("Nodes response must be a JSON object");
+            }
 
-            for (String instanceKey : topLevelInstanceMap.keySet()) {
-                Map<String, Object> instParamMap = (Map<String, Object>) topLevelInstanceMap.get(instanceKey);
-                RaigadInstance raigadInstance = new RaigadInstance();
-                raigadInstance.setApp((String) instParamMap.get(APP_NAME));
-                raigadInstance.setAvailabilityZone((String) instParamMap.get(AVAILABILITY_ZONE));
-                raigadInstance.setDC((String) instParamMap.get(DC));
-                raigadInstance.setHostIP((String) instParamMap.get(PUBLIC_IP));
-                raigadInstance.setHostName((String) instParamMap.get(HOST_NAME));
-                raigadInstance.setId((String) instParamMap.get(ID));
-                raigadInstance.setInstanceId((String) instParamMap.get(INSTANCE_ID));
-                raigadInstance.setUpdatetime((Long) instParamMap.get(UPDATE_TIME));
-                logger.info("Raigad instance: {}", raigadInstance.toString());
+            while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                String field = parser.currentName();
+                XContentParser.Token token = parser.nextToken();
 
-                //Add to the list
-                raigadInstances.add(raigadInstance);
+                if (!TOP_LEVEL_ELEMENT.equals(field)) {
+                    parser.skipChildren();
+                } else if (token == XContentParser.Token.START_ARRAY) {
+                    while (parser.nextToken() == XContentParser.Token.START_OBJECT) {
+                        raigadInstances.add(parseInstance(parser, logger));
+                    }
+                } else if (token == XContentParser.Token.START_OBJECT) {
+                    // Legacy format, every instance is keyed by its position
+                    while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+                        parser.nextToken();
+                        raigadInstances.add(parseInstance(parser, logger));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
             }
         } catch (IOException e) {
             logger.error("Error caught while parsing JSON", e);
+            throw e;
         }
 
         return raigadInstances;
     }
 
-    private static Map<String, Object> jsonToMap(String jsonString) throws IOException {
-        try (XContentParser parser = JsonXContent.jsonXContent.createParser(NamedXContentRegistry.EMPTY, jsonString)) {
-            return parser.mapOrdered();
+    private static RaigadInstance parseInstance(XContentParser parser, Logger logger) throws IOException {
+        RaigadInstance raigadInstance = new RaigadInstance();
+
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+
+            switch (name) {
+                case APP_NAME: raigadInstance.setApp(parser.textOrNull()); break;
+                case AVAILABILITY_ZONE: raigadInstance.setAvailabilityZone(parser.textOrNull()); break;
+                case DC: raigadInstance.setDC(parser.textOrNull()); break;
+                case PUBLIC_IP: raigadInstance.setHostIP(parser.textOrNull()); break;
+                case HOST_NAME: raigadInstance.setHostName(parser.textOrNull()); break;
+                case ID: raigadInstance.setId(parser.textOrNull()); break;
+                case INSTANCE_ID: raigadInstance.setInstanceId(parser.textOrNull()); break;
+                case UPDATE_TIME: raigadInstance.setUpdatetime(parser.longValue()); break;
+                default: parser.skipChildren();
+            }
         }
+
+        logger.debug("Raigad instance: {}", raigadInstance);
+        return raigadInstance;
     }
 }
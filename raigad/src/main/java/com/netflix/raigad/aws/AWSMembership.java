@@ -16,6 +16,7 @@
 
 package com.netflix.raigad.aws;
 
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.autoscaling.AmazonAutoScaling;
 import com.amazonaws.services.autoscaling.AmazonAutoScalingClient;
 import com.amazonaws.services.autoscaling.model.*;
@@ -23,27 +24,79 @@ import com.amazonaws.services.autoscaling.model.Instance;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.identity.IMembership;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.Timer;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.PreDestroy;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class to query amazon ASG for its members to provide - Number of valid nodes
  * in the ASG - Number of zones - Methods for adding ACLs for the nodes
+ * <p>
+ * AWS clients are created once and shared, they are thread safe. Security group and ASG
+ * descriptions are cached for a short time, our own security group and ASG updates
+ * invalidate the cache right away.
  */
+@Singleton
 public class AWSMembership implements IMembership {
     private static final Logger logger = LoggerFactory.getLogger(AWSMembership.class);
 
+    private static final long DESCRIBE_CACHE_TTL_SECONDS = 30;
+    private static final int DESCRIBE_CACHE_MAX_SIZE = 100;
+
+    // Rules (IP range and port pairs) sent in a single authorize or revoke request
+    static final int MAX_RULES_PER_REQUEST = 100;
+
+    private static final String DUPLICATE_PERMISSION = "InvalidPermission.Duplicate";
+    private static final String MISSING_PERMISSION = "InvalidPermission.NotFound";
+
+    private static final Timer securityGroupUpdateLatency = new BasicTimer(
+            MonitorConfig.builder("securityGroupUpdateLatency").withTag("class", "AWSMembership").build(), TimeUnit.MILLISECONDS);
+    private static final Counter aclsAdded = new BasicCounter(
+            MonitorConfig.builder("aclsAdded").withTag("class", "AWSMembership").build());
+    private static final Counter aclsRemoved = new BasicCounter(
+            MonitorConfig.builder("aclsRemoved").withTag("class", "AWSMembership").build());
+
+    static {
+        Monitors.registerObject(securityGroupUpdateLatency);
+        Monitors.registerObject(aclsAdded);
+        Monitors.registerObject(aclsRemoved);
+    }
+
     private final IConfiguration config;
     private final ICredential provider;
 
+    private final Cache<String, List<SecurityGroup>> securityGroupCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(DESCRIBE_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+            .maximumSize(DESCRIBE_CACHE_MAX_SIZE)
+            .build();
+
+    private final Cache<String, List<AutoScalingGroup>> autoScalingGroupCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(DESCRIBE_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+            .maximumSize(DESCRIBE_CACHE_MAX_SIZE)
+            .build();
+
+    private volatile AmazonAutoScaling autoScalingClient;
+    private volatile AmazonEC2 ec2Client;
+
     @Inject
     public AWSMembership(IConfiguration config, ICredential provider) {
         this.config = config;
@@ -56,36 +109,23 @@ public class AWSMembership implements IMembership {
             return Collections.emptyMap();
         }
 
-        AmazonAutoScaling client = null;
-
-        try {
-            client = getAutoScalingClient();
-            DescribeAutoScalingGroupsRequest describeAutoScalingGroupsRequest =
-                    new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(autoScalingGroupNames);
-            DescribeAutoScalingGroupsResult describeAutoScalingGroupsResult = client.describeAutoScalingGroups(describeAutoScalingGroupsRequest);
-
-            Map<String, List<String>> asgs = new HashMap<>();
-            for (AutoScalingGroup autoScalingGroup : describeAutoScalingGroupsResult.getAutoScalingGroups()) {
-                List<String> asgInstanceIds = Lists.newArrayList();
-                for (Instance asgInstance : autoScalingGroup.getInstances()) {
-                    if (!(asgInstance.getLifecycleState().equalsIgnoreCase("terminating") ||
-                            asgInstance.getLifecycleState().equalsIgnoreCase("shutting-down") ||
-                            asgInstance.getLifecycleState().equalsIgnoreCase("terminated"))) {
-                        asgInstanceIds.add(asgInstance.getInstanceId());
-                    }
+        Map<String, List<String>> asgs = new HashMap<>();
+        for (AutoScalingGroup autoScalingGroup : describeAutoScalingGroups(autoScalingGroupNames)) {
+            List<String> asgInstanceIds = Lists.newArrayList();
+            for (Instance asgInstance : autoScalingGroup.getInstances()) {
+                if (!(asgInstance.getLifecycleState().equalsIgnoreCase("terminating") ||
+                        asgInstance.getLifecycleState().equalsIgnoreCase("shutting-down") ||
+                        asgInstance.getLifecycleState().equalsIgnoreCase("terminated"))) {
+                    asgInstanceIds.add(asgInstance.getInstanceId());
                 }
-                asgs.put(autoScalingGroup.getAutoScalingGroupName(), asgInstanceIds);
-                logger.info("AWS returned the following instance ID's for {} ASG: {}",
-                        autoScalingGroup.getAutoScalingGroupName(),
-                        StringUtils.join(asgInstanceIds, ","));
-            }
-
-            return asgs;
-        } finally {
-            if (client != null) {
-                client.shutdown();
             }
+            asgs.put(autoScalingGroup.getAutoScalingGroupName(), asgInstanceIds);
+            logger.info("AWS returned the following instance ID's for {} ASG: {}",
+                    autoScalingGroup.getAutoScalingGroupName(),
+                    StringUtils.join(asgInstanceIds, ","));
         }
+
+        return asgs;
     }
 
     /**
@@ -93,26 +133,14 @@ public class AWSMembership implements IMembership {
      */
     @Override
     public int getRacMembershipSize() {
-        AmazonAutoScaling client = null;
-
-        try {
-            client = getAutoScalingClient();
-            DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(config.getASGName());
-            DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
-
-            int size = 0;
-            for (AutoScalingGroup asg : res.getAutoScalingGroups()) {
-                size += asg.getMaxSize();
-            }
+        int size = 0;
+        for (AutoScalingGroup asg : describeAutoScalingGroups(Collections.singletonList(config.getASGName()))) {
+            size += asg.getMaxSize();
+        }
 
-            logger.info(String.format("Query on ASG returning %d instances", size));
+        logger.info(String.format("Query on ASG returning %d instances", size));
 
-            return size;
-        } finally {
-            if (client != null) {
-                client.shutdown();
-            }
-        }
+        return size;
     }
 
     @Override
@@ -124,183 +152,349 @@ public class AWSMembership implements IMembership {
      * Adds a list of IP's to the SG
      */
     public void addACL(Collection<String> listIPs, int from, int to) {
-        AmazonEC2 client = null;
+        List<IpPermission> ipPermissions = new ArrayList<IpPermission>();
+        ipPermissions.add(new IpPermission().withFromPort(from).withIpProtocol("tcp").withIpRanges(listIPs).withToPort(to));
 
         try {
-            client = getEc2Client();
-            List<IpPermission> ipPermissions = new ArrayList<IpPermission>();
-            ipPermissions.add(new IpPermission().withFromPort(from).withIpProtocol("tcp").withIpRanges(listIPs).withToPort(to));
-
             if (config.isDeployedInVPC()) {
-                if (config.getACLGroupIdForVPC().isEmpty()) {
-                    throw new RuntimeException("ACLGroupIdForVPC cannot be empty, check if SetVPCSecurityGroupID had any errors");
-                }
-
-                client.authorizeSecurityGroupIngress(
+                getEc2Client().authorizeSecurityGroupIngress(
                         new AuthorizeSecurityGroupIngressRequest()
-                                .withGroupId(config.getACLGroupIdForVPC())
+                                .withGroupId(getVPCGroupId())
                                 .withIpPermissions(ipPermissions));
             } else {
-                client.authorizeSecurityGroupIngress(
+                getEc2Client().authorizeSecurityGroupIngress(
                         new AuthorizeSecurityGroupIngressRequest(config.getACLGroupName(), ipPermissions));
             }
-
-            logger.info("Added " + StringUtils.join(listIPs, ",") + " to ACL");
         } finally {
-            if (client != null) {
-                client.shutdown();
-            }
+            securityGroupCache.invalidateAll();
         }
+
+        logger.info("Added " + StringUtils.join(listIPs, ",") + " to ACL");
     }
 
     /**
      * Removes a list of IP's from the SG
      */
     public void removeACL(Collection<String> listIPs, int from, int to) {
-        AmazonEC2 client = null;
+        List<IpPermission> ipPermissions = new ArrayList<IpPermission>();
+        ipPermissions.add(new IpPermission().withFromPort(from).withIpProtocol("tcp").withIpRanges(listIPs).withToPort(to));
 
         try {
-            client = getEc2Client();
-            List<IpPermission> ipPermissions = new ArrayList<IpPermission>();
-            ipPermissions.add(new IpPermission().withFromPort(from).withIpProtocol("tcp").withIpRanges(listIPs).withToPort(to));
-
             if (config.isDeployedInVPC()) {
-                if (config.getACLGroupIdForVPC().isEmpty()) {
-                    throw new RuntimeException("ACLGroupIdForVPC cannot be empty, check if SetVPCSecurityGroupID had any errors");
-                }
-
-                client.revokeSecurityGroupIngress(
+                getEc2Client().revokeSecurityGroupIngress(
                         new RevokeSecurityGroupIngressRequest()
-                                .withGroupId(config.getACLGroupIdForVPC())
+                                .withGroupId(getVPCGroupId())
                                 .withIpPermissions(ipPermissions));
             } else {
-                client.revokeSecurityGroupIngress(
+                getEc2Client().revokeSecurityGroupIngress(
                         new RevokeSecurityGroupIngressRequest(config.getACLGroupName(), ipPermissions));
             }
-
-            logger.info("Removed " + StringUtils.join(listIPs, ",") + " from ACL");
         } finally {
-            if (client != null) {
-                client.shutdown();
-            }
+            securityGroupCache.invalidateAll();
         }
-    }
 
-    /**
-     * List SG ACL's
-     */
-    public List<String> listACL(int from, int to) {
-        AmazonEC2 client = null;
+        logger.info("Removed " + StringUtils.join(listIPs, ",") + " from ACL");
+    }
 
-        try {
-            client = getEc2Client();
-            List<String> ipPermissions = new ArrayList<String>();
-            DescribeSecurityGroupsResult result;
+    @Override
+    public void addACLs(Collection<String> listIPs, Collection<Integer> ports) {
+        for (List<IpPermission> ipPermissions : toBatches(listIPs, ports)) {
+            try {
+                authorize(ipPermissions);
+            } catch (AmazonServiceException e) {
+                if (!DUPLICATE_PERMISSION.equals(e.getErrorCode())) {
+                    throw e;
+                }
 
-            if (config.isDeployedInVPC()) {
-                if (config.getACLGroupIdForVPC().isEmpty()) {
-                    throw new RuntimeException("ACLGroupIdForVPC cannot be empty, check if SetVPCSecurityGroupID had any errors");
+                // A single existing rule fails the whole request, the other rules still have to go in
+                logger.info("Some of the rules on ports {} already exist, adding them one by one", ports);
+                for (IpPermission rule : toSingleRules(ipPermissions)) {
+                    try {
+                        authorize(Collections.singletonList(rule));
+                    } catch (AmazonServiceException ruleException) {
+                        if (!DUPLICATE_PERMISSION.equals(ruleException.getErrorCode())) {
+                            throw ruleException;
+                        }
+                    }
                 }
-                DescribeSecurityGroupsRequest describeSecurityGroupsRequest =
-                        new DescribeSecurityGroupsRequest().withGroupIds(config.getACLGroupIdForVPC());
-                result = client.describeSecurityGroups(describeSecurityGroupsRequest);
-            } else {
-                DescribeSecurityGroupsRequest describeSecurityGroupsRequest =
-                        new DescribeSecurityGroupsRequest().withGroupNames(Arrays.asList(config.getACLGroupName()));
-                result = client.describeSecurityGroups(describeSecurityGroupsRequest);
             }
 
-            for (SecurityGroup group : result.getSecurityGroups()) {
-                for (IpPermission perm : group.getIpPermissions()) {
-                    if (perm.getFromPort() == from && perm.getToPort() == to) {
-                        ipPermissions.addAll(perm.getIpRanges());
+            int ranges = ipPermissions.get(0).getIpRanges().size();
+            aclsAdded.increment(ranges);
+            logger.info("Added {} IP ranges on ports {} to ACL", ranges, ports);
+        }
+    }
+
+    @Override
+    public void removeACLs(Collection<String> listIPs, Collection<Integer> ports) {
+        for (List<IpPermission> ipPermissions : toBatches(listIPs, ports)) {
+            try {
+                revoke(ipPermissions);
+            } catch (AmazonServiceException e) {
+                if (!MISSING_PERMISSION.equals(e.getErrorCode())) {
+                    throw e;
+                }
+
+                // Same as for adding, a single rule already gone fails the whole request
+                logger.info("Some of the rules on ports {} are already gone, removing them one by one", ports);
+                for (IpPermission rule : toSingleRules(ipPermissions)) {
+                    try {
+                        revoke(Collections.singletonList(rule));
+                    } catch (AmazonServiceException ruleException) {
+                        if (!MISSING_PERMISSION.equals(ruleException.getErrorCode())) {
+                            throw ruleException;
+                        }
                     }
                 }
             }
 
-            return ipPermissions;
-        } finally {
-            if (client != null) {
-                client.shutdown();
-            }
+            int ranges = ipPermissions.get(0).getIpRanges().size();
+            aclsRemoved.increment(ranges);
+            logger.info("Removed {} IP ranges on ports {} from ACL", ranges, ports);
         }
     }
 
-    public Map<String, List<Integer>> getACLPortMap(String acl) {
-        AmazonEC2 client = null;
-        Map<String, List<Integer>> aclPortMap = new HashMap<String, List<Integer>>();
+    private void authorize(List<IpPermission> ipPermissions) {
+        Stopwatch stopwatch = securityGroupUpdateLatency.start();
 
         try {
-            client = getEc2Client();
-            DescribeSecurityGroupsResult result;
+            if (config.isDeployedInVPC()) {
+                getEc2Client().authorizeSecurityGroupIngress(
+                        new AuthorizeSecurityGroupIngressRequest()
+                                .withGroupId(getVPCGroupId())
+                                .withIpPermissions(ipPermissions));
+            } else {
+                getEc2Client().authorizeSecurityGroupIngress(
+                        new AuthorizeSecurityGroupIngressRequest(config.getACLGroupName(), ipPermissions));
+            }
+        } finally {
+            stopwatch.stop();
+            securityGroupCache.invalidateAll();
+        }
+    }
 
+    private void revoke(List<IpPermission> ipPermissions) {
+        Stopwatch stopwatch = securityGroupUpdateLatency.start();
+
+        try {
             if (config.isDeployedInVPC()) {
-                if (config.getACLGroupIdForVPC().isEmpty()) {
-                    throw new RuntimeException("ACLGroupIdForVPC cannot be empty, check if SetVPCSecurityGroupID had any errors");
-                }
-                DescribeSecurityGroupsRequest describeSecurityGroupsRequest =
-                        new DescribeSecurityGroupsRequest().withGroupIds(config.getACLGroupIdForVPC());
-                result = client.describeSecurityGroups(describeSecurityGroupsRequest);
+                getEc2Client().revokeSecurityGroupIngress(
+                        new RevokeSecurityGroupIngressRequest()
+                                .withGroupId(getVPCGroupId())
+                                .withIpPermissions(ipPermissions));
             } else {
-                DescribeSecurityGroupsRequest describeSecurityGroupsRequest =
-                        new DescribeSecurityGroupsRequest().withGroupNames(Arrays.asList(config.getACLGroupName()));
-                result = client.describeSecurityGroups(describeSecurityGroupsRequest);
+                getEc2Client().revokeSecurityGroupIngress(
+                        new RevokeSecurityGroupIngressRequest(config.getACLGroupName(), ipPermissions));
             }
+        } finally {
+            stopwatch.stop();
+            securityGroupCache.invalidateAll();
+        }
+    }
 
-            for (SecurityGroup group : result.getSecurityGroups()) {
-                for (IpPermission perm : group.getIpPermissions()) {
-                    for (String ipRange : perm.getIpRanges()) {
-                        // If given ACL matches from the list of IP ranges then look for "from" and "to" ports
-                        if (acl.equalsIgnoreCase(ipRange)) {
-                            List<Integer> fromToList = new ArrayList<Integer>();
-                            fromToList.add(perm.getFromPort());
-                            fromToList.add(perm.getToPort());
-                            logger.info("ACL: {}, from: {}, to: {}", acl, perm.getFromPort(), perm.getToPort());
-                            aclPortMap.put(acl, fromToList);
-                        }
-                    }
+    /**
+     * Split a batch back into one permission per IP range and port
+     */
+    private static List<IpPermission> toSingleRules(List<IpPermission> ipPermissions) {
+        List<IpPermission> rules = new ArrayList<>();
+        for (IpPermission ipPermission : ipPermissions) {
+            for (String range : ipPermission.getIpRanges()) {
+                rules.add(new IpPermission().withFromPort(ipPermission.getFromPort()).withIpProtocol("tcp")
+                        .withIpRanges(range).withToPort(ipPermission.getToPort()));
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Split IP ranges into batches, each batch carries one permission per port and
+     * stays within {@link #MAX_RULES_PER_REQUEST} rules
+     */
+    static List<List<IpPermission>> toBatches(Collection<String> listIPs, Collection<Integer> ports) {
+        List<List<IpPermission>> batches = new ArrayList<>();
+        if (CollectionUtils.isEmpty(listIPs) || CollectionUtils.isEmpty(ports)) {
+            return batches;
+        }
+
+        int rangesPerBatch = Math.max(1, MAX_RULES_PER_REQUEST / ports.size());
+
+        for (List<String> ranges : Lists.partition(new ArrayList<>(listIPs), rangesPerBatch)) {
+            List<IpPermission> ipPermissions = new ArrayList<>();
+            for (int port : ports) {
+                ipPermissions.add(new IpPermission().withFromPort(port).withIpProtocol("tcp").withIpRanges(ranges).withToPort(port));
+            }
+            batches.add(ipPermissions);
+        }
+
+        return batches;
+    }
+
+    /**
+     * List SG ACL's
+     */
+    public List<String> listACL(int from, int to) {
+        List<String> ipPermissions = new ArrayList<String>();
+
+        for (SecurityGroup group : describeSecurityGroups()) {
+            for (IpPermission perm : group.getIpPermissions()) {
+                if (perm.getFromPort() == from && perm.getToPort() == to) {
+                    ipPermissions.addAll(perm.getIpRanges());
                 }
             }
+        }
 
-            return aclPortMap;
-        } finally {
-            if (client != null) {
-                client.shutdown();
+        return ipPermissions;
+    }
+
+    public Map<String, List<Integer>> getACLPortMap(String acl) {
+        Map<String, List<Integer>> aclPortMap = new HashMap<String, List<Integer>>();
+
+        for (SecurityGroup group : describeSecurityGroups()) {
+            for (IpPermission perm : group.getIpPermissions()) {
+                for (String ipRange : perm.getIpRanges()) {
+                    // If given ACL matches from the list of IP ranges then look for "from" and "to" ports
+                    if (acl.equalsIgnoreCase(ipRange)) {
+                        List<Integer> fromToList = new ArrayList<Integer>();
+                        fromToList.add(perm.getFromPort());
+                        fromToList.add(perm.getToPort());
+                        logger.info("ACL: {}, from: {}, to: {}", acl, perm.getFromPort(), perm.getToPort());
+                        aclPortMap.put(acl, fromToList);
+                    }
+                }
             }
         }
+
+        return aclPortMap;
     }
 
     @Override
     public void expandRacMembership(int count) {
-        AmazonAutoScaling client = null;
-
         try {
-            client = getAutoScalingClient();
             DescribeAutoScalingGroupsRequest asgReq = new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(config.getASGName());
-            DescribeAutoScalingGroupsResult res = client.describeAutoScalingGroups(asgReq);
+            DescribeAutoScalingGroupsResult res = getAutoScalingClient().describeAutoScalingGroups(asgReq);
             AutoScalingGroup asg = res.getAutoScalingGroups().get(0);
             UpdateAutoScalingGroupRequest ureq = new UpdateAutoScalingGroupRequest();
             ureq.setAutoScalingGroupName(asg.getAutoScalingGroupName());
             ureq.setMinSize(asg.getMinSize() + 1);
             ureq.setMaxSize(asg.getMinSize() + 1);
             ureq.setDesiredCapacity(asg.getMinSize() + 1);
-            client.updateAutoScalingGroup(ureq);
+            getAutoScalingClient().updateAutoScalingGroup(ureq);
         } finally {
-            if (client != null) {
-                client.shutdown();
+            autoScalingGroupCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Drop all cached security group and ASG descriptions
+     */
+    public void invalidateCache() {
+        securityGroupCache.invalidateAll();
+        autoScalingGroupCache.invalidateAll();
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (autoScalingClient != null) {
+            autoScalingClient.shutdown();
+            autoScalingClient = null;
+        }
+
+        if (ec2Client != null) {
+            ec2Client.shutdown();
+            ec2Client = null;
+        }
+    }
+
+    private List<SecurityGroup> describeSecurityGroups() {
+        String groupKey = config.isDeployedInVPC() ? getVPCGroupId() : config.getACLGroupName();
+        List<SecurityGroup> securityGroups = securityGroupCache.getIfPresent(groupKey);
+
+        if (securityGroups == null) {
+            DescribeSecurityGroupsRequest describeSecurityGroupsRequest;
+
+            if (config.isDeployedInVPC()) {
+                describeSecurityGroupsRequest = new DescribeSecurityGroupsRequest().withGroupIds(groupKey);
+            } else {
+                describeSecurityGroupsRequest = new DescribeSecurityGroupsRequest().withGroupNames(Arrays.asList(groupKey));
             }
+
+            securityGroups = getEc2Client().describeSecurityGroups(describeSecurityGroupsRequest).getSecurityGroups();
+            securityGroupCache.put(groupKey, securityGroups);
         }
+
+        return securityGroups;
+    }
+
+    private List<AutoScalingGroup> describeAutoScalingGroups(Collection<String> autoScalingGroupNames) {
+        List<String> sortedNames = new ArrayList<>(autoScalingGroupNames);
+        Collections.sort(sortedNames);
+
+        String groupsKey = StringUtils.join(sortedNames, ",");
+        List<AutoScalingGroup> autoScalingGroups = autoScalingGroupCache.getIfPresent(groupsKey);
+
+        if (autoScalingGroups == null) {
+            DescribeAutoScalingGroupsRequest describeAutoScalingGroupsRequest =
+                    new DescribeAutoScalingGroupsRequest().withAutoScalingGroupNames(sortedNames);
+            autoScalingGroups = getAutoScalingClient().describeAutoScalingGroups(describeAutoScalingGroupsRequest).getAutoScalingGroups();
+            autoScalingGroupCache.put(groupsKey, autoScalingGroups);
+        }
+
+        return autoScalingGroups;
+    }
+
+    private String getVPCGroupId() {
+        if (StringUtils.isEmpty(config.getACLGroupIdForVPC())) {
+            throw new RuntimeException("ACLGroupIdForVPC cannot be empty, check if SetVPCSecurityGroupID had any errors");
+        }
+
+        return config.getACLGroupIdForVPC();
     }
 
     protected AmazonAutoScaling getAutoScalingClient() {
+        AmazonAutoScaling client = autoScalingClient;
+
+        if (client == null) {
+            synchronized (this) {
+                if (autoScalingClient == null) {
+                    autoScalingClient = createAutoScalingClient();
+                }
+                client = autoScalingClient;
+            }
+        }
+
+        return client;
+    }
+
+    protected AmazonEC2 getEc2Client() {
+        AmazonEC2 client = ec2Client;
+
+        if (client == null) {
+            synchronized (this) {
+                if (ec2Client == null) {
+                    ec2Client = createEc2Client();
+                }
+                client = ec2Client;
+            }
+        }
+
+        return client;
+    }
+
+    /**
+     * Override to point at a different endpoint, e.g. a local AWS stand-in
+     */
+    protected AmazonAutoScaling createAutoScalingClient() {
         AmazonAutoScaling client = new AmazonAutoScalingClient(provider.getAwsCredentialProvider());
         client.setEndpoint("autoscaling." + config.getDC() + ".amazonaws.com");
         return client;
     }
 
-    protected AmazonEC2 getEc2Client() {
+    /**
+     * Override to point at a different endpoint, e.g. a local AWS stand-in
+     */
+    protected AmazonEC2 createEc2Client() {
         AmazonEC2 client = new AmazonEC2Client(provider.getAwsCredentialProvider());
         client.setEndpoint("ec2." + config.getDC() + ".amazonaws.com");
         return client;
     }
-}
\ No newline at end of file
+}
@@ -15,13 +15,12 @@
  */
 package com.netflix.raigad.aws;
 
-import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.identity.IMembership;
-import com.netflix.raigad.identity.IRaigadInstanceFactory;
 import com.netflix.raigad.identity.InstanceManager;
+import com.netflix.raigad.identity.MembershipWatcher;
 import com.netflix.raigad.identity.RaigadInstance;
 import com.netflix.raigad.scheduler.SimpleTimer;
 import com.netflix.raigad.scheduler.Task;
@@ -30,10 +29,7 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 /**
  * This class will associate public IP's with a new instance so they can talk across the regions.
@@ -55,64 +51,86 @@ public class UpdateSecuritySettings extends Task {
     public static final String JOB_NAME = "Update_SG";
     public static boolean firstTimeUpdated = false;
     private static final Random RANDOM = new Random();
+    private static final long FULL_RECONCILE_INTERVAL_MS = 30 * 60 * 1000;
 
     private final IMembership membership;
-    private final IRaigadInstanceFactory factory;
+    private final MembershipWatcher membershipWatcher;
+
+    // Membership version the security group was last reconciled against
+    private long reconciledVersion = -1;
+    private long lastReconcileTime;
 
 
     @Inject
-    public UpdateSecuritySettings(IConfiguration config, IMembership membership, IRaigadInstanceFactory factory) {
+    public UpdateSecuritySettings(IConfiguration config, IMembership membership, MembershipWatcher membershipWatcher) {
         super(config);
         this.membership = membership;
-        this.factory = factory;
+        this.membershipWatcher = membershipWatcher;
     }
 
     /**
      * Master nodes execute this at the specified interval, others run only on startup
      */
     @Override
-    public void execute() {
-        int transportPort = config.getTransportTcpPort();
-        int restPort = config.getHttpPort();
-
-        List<String> accessControlLists = membership.listACL(transportPort, transportPort);
+    public synchronized void execute() {
+        // Version is read first, a change right after it only causes one extra run
+        long membershipVersion = membershipWatcher.getVersion();
 
         // Get instances based on node types (tribe / non-tribe)
         List<RaigadInstance> instances = getInstanceList();
 
-        // Iterate cluster nodes and build a list of IP's
-        List<String> ipsToAdd = Lists.newArrayList();
-        List<String> currentRanges = Lists.newArrayList();
+        if (isReconciled(membershipVersion)) {
+            logger.debug("Membership unchanged since version {}, skipping security group update", membershipVersion);
+            return;
+        }
+
+        int transportPort = config.getTransportTcpPort();
+        int restPort = config.getHttpPort();
+
+        long startTime = System.currentTimeMillis();
+        Set<String> accessControlLists = new HashSet<>(membership.listACL(transportPort, transportPort));
+
+        // Iterate cluster nodes and build a set of IP's
+        Set<String> currentRanges = new HashSet<>();
         for (RaigadInstance instance : instances) {
-            String range = instance.getHostIP() + "/32";
-            currentRanges.add(range);
-            if (!accessControlLists.contains(range)) {
-                ipsToAdd.add(range);
-            }
+            currentRanges.add(instance.getHostIP() + "/32");
         }
 
+        Set<String> ipsToAdd = new HashSet<>(currentRanges);
+        ipsToAdd.removeAll(accessControlLists);
+
+        Set<String> ipsToRemove = new HashSet<>(accessControlLists);
+        ipsToRemove.removeAll(currentRanges);
+
+        // Both ports are updated together, one request per batch of IP's
+        List<Integer> ports = Arrays.asList(transportPort, restPort);
+
         if (ipsToAdd.size() > 0) {
             logger.info("Adding IPs on ports {} and {}: {}", transportPort, restPort, ipsToAdd);
-            membership.addACL(ipsToAdd, transportPort, transportPort);
-            membership.addACL(ipsToAdd, restPort, restPort);
+            membership.addACLs(ipsToAdd, ports);
             firstTimeUpdated = true;
         }
 
-        // Create a list of IP's to remove
-        List<String> ipsToRemove = Lists.newArrayList();
-        for (String accessControlList : accessControlLists) {
-            // Remove if not found
-            if (!currentRanges.contains(accessControlList)) {
-                ipsToRemove.add(accessControlList);
-            }
-        }
-
         if (ipsToRemove.size() > 0) {
             logger.info("Removing IPs on ports {} and {}: {}", transportPort, restPort, ipsToRemove);
-            membership.removeACL(ipsToRemove, transportPort, transportPort);
-            membership.removeACL(ipsToRemove, restPort, restPort);
+            membership.removeACLs(ipsToRemove, ports);
             firstTimeUpdated = true;
         }
+
+        logger.info("Security group reconciled for {} instances: {} added, {} removed in {} ms",
+                instances.size(), ipsToAdd.size(), ipsToRemove.size(), System.currentTimeMillis() - startTime);
+
+        reconciledVersion = membershipVersion;
+        lastReconcileTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Security group only needs to be looked at again when membership changed, apart from
+     * a periodic full pass which also catches changes made to the security group outside of Raigad
+     */
+    private boolean isReconciled(long membershipVersion) {
+        return membershipVersion == reconciledVersion &&
+                System.currentTimeMillis() - lastReconcileTime < FULL_RECONCILE_INTERVAL_MS;
     }
 
     private List<RaigadInstance> getInstanceList() {
@@ -121,7 +139,7 @@ public class UpdateSecuritySettings extends Task {
         List<String> tribeClusters = new ArrayList<String>(Arrays.asList(StringUtils.split(config.getCommaSeparatedTribeClusterNames(), ",")));
         assert (tribeClusters.size() != 0) : "Need at least one tribe cluster";
 
-        tribeClusters.forEach(tribeClusterName -> instances.addAll(factory.getAllIds(tribeClusterName)));
+        tribeClusters.forEach(tribeClusterName -> instances.addAll(membershipWatcher.getInstances(tribeClusterName)));
 
         if (config.isDebugEnabled()) {
             instances.forEach(instance -> logger.debug(instance.toString()));
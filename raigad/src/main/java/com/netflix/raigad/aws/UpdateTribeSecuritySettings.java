@@ -20,8 +20,8 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.identity.IMembership;
-import com.netflix.raigad.identity.IRaigadInstanceFactory;
 import com.netflix.raigad.identity.InstanceManager;
+import com.netflix.raigad.identity.MembershipWatcher;
 import com.netflix.raigad.identity.RaigadInstance;
 import com.netflix.raigad.scheduler.SimpleTimer;
 import com.netflix.raigad.scheduler.Task;
@@ -55,8 +55,14 @@ public class UpdateTribeSecuritySettings extends Task {
     private static final String PARAM_SEPARATOR = "=";
 
     private static final Random ran = new Random();
+    private static final long FULL_RECONCILE_INTERVAL_MS = 30 * 60 * 1000;
+
     private final IMembership membership;
-    private final IRaigadInstanceFactory factory;
+    private final MembershipWatcher membershipWatcher;
+
+    // Membership version the security group was last reconciled against
+    private long reconciledVersion = -1;
+    private long lastReconcileTime;
 
     /**
      * clusterPortMap
@@ -67,10 +73,10 @@ public class UpdateTribeSecuritySettings extends Task {
     private final Map<String, Integer> clusterPortMap = new HashMap<String, Integer>();
 
     @Inject
-    public UpdateTribeSecuritySettings(IConfiguration config, IMembership membership, IRaigadInstanceFactory factory) {
+    public UpdateTribeSecuritySettings(IConfiguration config, IMembership membership, MembershipWatcher membershipWatcher) {
         super(config);
         this.membership = membership;
-        this.factory = factory;
+        this.membershipWatcher = membershipWatcher;
     }
 
     /**
@@ -78,71 +84,90 @@ public class UpdateTribeSecuritySettings extends Task {
      * Other nodes run only on startup.
      */
     @Override
-    public void execute() {
+    public synchronized void execute() {
         // Initializing cluster-port map from config properties
         initializeClusterPortMap();
 
-        List<String> accessControlLists = new ArrayList<>();
-        for (String clusterName : clusterPortMap.keySet()) {
-            List<String> aclList = membership.listACL(clusterPortMap.get(clusterName), clusterPortMap.get(clusterName));
-            accessControlLists.addAll(aclList);
+        // Version is read first, a change right after it only causes one extra run
+        long membershipVersion = membershipWatcher.getVersion();
+        List<RaigadInstance> instances = getInstanceList();
+
+        if (isReconciled(membershipVersion)) {
+            logger.debug("Membership unchanged since version {}, skipping security group update", membershipVersion);
+            return;
         }
 
-        List<RaigadInstance> instances = getInstanceList();
-        Map<String, String> addAclClusterMap = new HashMap<>();
-        Map<String, String> currentIpClusterMap = new HashMap<>();
+        long startTime = System.currentTimeMillis();
+
+        // Ranges each port has to allow: instances of the cluster on that port, tribe nodes talk to every cluster
+        Map<Integer, Set<String>> wantedRanges = new HashMap<>();
+        for (int port : clusterPortMap.values()) {
+            wantedRanges.put(port, new HashSet<>());
+        }
 
+        Set<String> currentRanges = new HashSet<>();
         for (RaigadInstance instance : instances) {
             String range = instance.getHostIP() + "/32";
-            if (!accessControlLists.contains(range)) {
-                addAclClusterMap.put(range, instance.getApp());
+            currentRanges.add(range);
+
+            if (instance.getApp().startsWith("es_tribe_")) {
+                wantedRanges.values().forEach(ranges -> ranges.add(range));
+            } else if (clusterPortMap.containsKey(instance.getApp())) {
+                wantedRanges.get(clusterPortMap.get(instance.getApp())).add(range);
             }
+        }
 
-            // Just generating ranges
-            currentIpClusterMap.put(range, instance.getApp());
+        // Existing rules are all listed before anything is changed, so one description serves every port
+        Map<Integer, Set<String>> existingRanges = new HashMap<>();
+        for (int port : wantedRanges.keySet()) {
+            existingRanges.put(port, new HashSet<>(membership.listACL(port, port)));
         }
 
-        if (addAclClusterMap.keySet().size() > 0) {
-            /**
-             * clusterInstancesMap
-             * es_tribe : 50.60.70.80,50.60.70.81
-             * es_tribe_source1 : 60.70.80.90,60.70.80.91
-             * es_tribe_source2 : 70.80.90.00,70.80.90.01
-             */
-            Map<String, List<String>> clusterInstancesMap = generateClusterToAclListMap(addAclClusterMap);
-
-            for (String currentClusterName : clusterInstancesMap.keySet()) {
-                if (currentClusterName.startsWith("es_tribe_")) {
-                    clusterPortMap.forEach((clusterName, transportPort) -> {
-                        logger.info("Adding IPs for {} on port {}: {}", currentClusterName, transportPort, clusterInstancesMap.get(currentClusterName));
-                        membership.addACL(clusterInstancesMap.get(currentClusterName), transportPort, transportPort);
-                    });
-                } else {
-                    logger.info("Adding IPs for {} on port {}: {}", currentClusterName, clusterPortMap.get(currentClusterName), clusterInstancesMap.get(currentClusterName));
-                    membership.addACL(clusterInstancesMap.get(currentClusterName), clusterPortMap.get(currentClusterName), clusterPortMap.get(currentClusterName));
-                }
-            }
+        int addedCount = 0;
+        int removedCount = 0;
 
-            firstTimeUpdated = true;
-        }
+        for (Map.Entry<Integer, Set<String>> entry : wantedRanges.entrySet()) {
+            int port = entry.getKey();
+            Set<String> existing = existingRanges.get(port);
+
+            Set<String> ipsToAdd = new HashSet<>(entry.getValue());
+            ipsToAdd.removeAll(existing);
+
+            // Only ranges no current instance has any more are removed
+            Set<String> ipsToRemove = new HashSet<>(existing);
+            ipsToRemove.removeAll(currentRanges);
 
-        // Iterating to remove ACL's
-        List<String> removeAclList = new ArrayList<>();
-        for (String acl : accessControlLists) {
-            if (!currentIpClusterMap.containsKey(acl)) {
-                removeAclList.add(acl);
+            if (!ipsToAdd.isEmpty()) {
+                logger.info("Adding IPs on port {}: {}", port, ipsToAdd);
+                membership.addACLs(ipsToAdd, Collections.singletonList(port));
+                addedCount += ipsToAdd.size();
             }
-        }
 
-        if (removeAclList.size() > 0) {
-            for (String acl : removeAclList) {
-                Map<String, List<Integer>> aclPortMap = membership.getACLPortMap(acl);
-                int from = aclPortMap.get(acl).get(0);
-                int to = aclPortMap.get(acl).get(1);
-                membership.removeACL(Collections.singletonList(acl), from, to);
+            if (!ipsToRemove.isEmpty()) {
+                logger.info("Removing IPs on port {}: {}", port, ipsToRemove);
+                membership.removeACLs(ipsToRemove, Collections.singletonList(port));
+                removedCount += ipsToRemove.size();
             }
+        }
+
+        if (addedCount > 0 || removedCount > 0) {
             firstTimeUpdated = true;
         }
+
+        logger.info("Tribe security group reconciled for {} instances: {} added, {} removed in {} ms",
+                instances.size(), addedCount, removedCount, System.currentTimeMillis() - startTime);
+
+        reconciledVersion = membershipVersion;
+        lastReconcileTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Security group only needs to be looked at again when membership changed, apart from
+     * a periodic full pass which also catches changes made to the security group outside of Raigad
+     */
+    private boolean isReconciled(long membershipVersion) {
+        return membershipVersion == reconciledVersion &&
+                System.currentTimeMillis() - lastReconcileTime < FULL_RECONCILE_INTERVAL_MS;
     }
 
     private void initializeClusterPortMap() {
@@ -172,27 +197,11 @@ public class UpdateTribeSecuritySettings extends Task {
         }
     }
 
-    private Map<String, List<String>> generateClusterToAclListMap(Map<String, String> addAclClusterMap) {
-        Map<String, List<String>> clusterAclsMap = new HashMap<>();
-
-        for (String acl : addAclClusterMap.keySet()) {
-            if (clusterAclsMap.containsKey(addAclClusterMap.get(acl))) {
-                clusterAclsMap.get(addAclClusterMap.get(acl)).add(acl);
-            } else {
-                List<String> aclList = new ArrayList<>();
-                aclList.add(acl);
-                clusterAclsMap.put(addAclClusterMap.get(acl), aclList);
-            }
-        }
-
-        return clusterAclsMap;
-    }
-
     private List<RaigadInstance> getInstanceList() {
         List<RaigadInstance> instances = new ArrayList<>();
 
         for (String clusterName : clusterPortMap.keySet()) {
-            instances.addAll(factory.getAllIds(clusterName));
+            instances.addAll(membershipWatcher.getInstances(clusterName));
         }
 
         if (config.isDebugEnabled()) {
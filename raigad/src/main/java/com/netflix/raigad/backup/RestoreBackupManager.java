@@ -23,6 +23,7 @@ import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.scheduler.SimpleTimer;
 import com.netflix.raigad.scheduler.Task;
 import com.netflix.raigad.scheduler.TaskTimer;
+import com.netflix.raigad.utils.AdminOperationGate;
 import com.netflix.raigad.utils.ElasticsearchProcessMonitor;
 import com.netflix.raigad.utils.ElasticsearchTransportClient;
 import com.netflix.raigad.utils.ElasticsearchUtils;
@@ -45,6 +46,7 @@ public class RestoreBackupManager extends Task {
     public static String JOBNAME = "RestoreBackupManager";
     private final AbstractRepository repository;
     private final HttpModule httpModule;
+    private final AdminOperationGate adminOperationGate;
     private static final AtomicBoolean isRestoreRunning = new AtomicBoolean(false);
     private static final String ALL_INDICES_TAG = "_all";
     private static final String SUFFIX_SEPARATOR_TAG = "-";
@@ -52,10 +54,12 @@ public class RestoreBackupManager extends Task {
 
 
     @Inject
-    public RestoreBackupManager(IConfiguration config, @Named("s3") AbstractRepository repository, HttpModule httpModule) {
+    public RestoreBackupManager(IConfiguration config, @Named("s3") AbstractRepository repository, HttpModule httpModule,
+                                AdminOperationGate adminOperationGate) {
         super(config);
         this.repository = repository;
         this.httpModule = httpModule;
+        this.adminOperationGate = adminOperationGate;
     }
 
     @Override
@@ -129,6 +133,11 @@ public class RestoreBackupManager extends Task {
         }
         logger.info("Indices param : <" + commaSeparatedIndices + ">");
 
+        // Restores are what brings a red cluster back, only pending tasks and heap of the master hold them off
+        if (!adminOperationGate.admit(esTransportClient, JOBNAME, true)) {
+            throw new RestoreBackupException("Master is under pressure, not restoring snapshot " + snapshotN);
+        }
+
         RestoreSnapshotResponse restoreSnapshotResponse = getRestoreSnapshotResponse(esTransportClient,
                 commaSeparatedIndices, restoreRepositoryName, snapshotN, renamePattern, renameReplacement);
 
@@ -18,6 +18,7 @@ package com.netflix.raigad.backup;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
+import com.netflix.raigad.backup.exception.SnapshotBackupException;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.scheduler.CronTimer;
 import com.netflix.raigad.scheduler.SimpleTimer;
@@ -27,16 +28,23 @@ import com.netflix.raigad.utils.*;
 import com.netflix.servo.monitor.*;
 import org.apache.commons.lang.StringUtils;
 import org.elasticsearch.action.admin.cluster.snapshots.create.CreateSnapshotResponse;
+import org.elasticsearch.action.admin.cluster.snapshots.status.SnapshotIndexShardStatus;
+import org.elasticsearch.action.admin.cluster.snapshots.status.SnapshotStatus;
+import org.elasticsearch.action.admin.cluster.snapshots.status.SnapshotsStatusResponse;
 import org.elasticsearch.client.Client;
-import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.snapshots.SnapshotInfo;
 import org.elasticsearch.snapshots.SnapshotShardFailure;
+import org.elasticsearch.snapshots.SnapshotState;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
@@ -45,23 +53,36 @@ public class SnapshotBackupManager extends Task {
     public static String JOBNAME = "SnapshotBackupManager";
     private final AbstractRepository repository;
     private final HttpModule httpModule;
+    private final AdminOperationGate adminOperationGate;
     private final AtomicInteger snapshotSuccess = new AtomicInteger(0);
     private final AtomicInteger snapshotFailure = new AtomicInteger(0);
-    private static final AtomicBoolean isSnapshotRunning = new AtomicBoolean(false);
+    private static final int MAX_JOBS = 20;
     private static final DateTimeZone currentZone = DateTimeZone.UTC;
     private static final String S3_REPO_FOLDER_DATE_FORMAT = "yyyyMMddHHmm";
     private static final String COMMA_SEPARATOR = ",";
     private static Timer snapshotDuration = new BasicTimer(MonitorConfig.builder("snapshotDuration").withTag("class", "Elasticsearch_SnapshotBackupReporter").build(), TimeUnit.SECONDS);
+    private static final Counter snapshotBytes = new BasicCounter(MonitorConfig.builder("snapshotBytes").withTag("class", "Elasticsearch_SnapshotBackupReporter").build());
 
     static {
         Monitors.registerObject(snapshotDuration);
+        Monitors.registerObject(snapshotBytes);
     }
 
+    // Jobs by ID in start order, only the most recent ones are kept
+    private final Map<String, SnapshotJob> jobs = new LinkedHashMap<String, SnapshotJob>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SnapshotJob> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
     @Inject
-    public SnapshotBackupManager(IConfiguration config, @Named("s3") AbstractRepository repository, HttpModule httpModule) {
+    public SnapshotBackupManager(IConfiguration config, @Named("s3") AbstractRepository repository, HttpModule httpModule,
+                                 AdminOperationGate adminOperationGate) {
         super(config);
         this.repository = repository;
         this.httpModule = httpModule;
+        this.adminOperationGate = adminOperationGate;
     }
 
     @Override
@@ -95,53 +116,177 @@ public class SnapshotBackupManager extends Task {
         }
     }
 
-    public void runSnapshotBackup() throws Exception {
+    /**
+     * Start a snapshot without waiting for it, its progress is polled by {@link SnapshotJobPoller} until it completes.
+     * A snapshot still running is returned instead of starting another one, Elasticsearch only runs one at a time.
+     */
+    public synchronized SnapshotJob runSnapshotBackup() throws Exception {
+        SnapshotJob runningJob = getLatestJob();
+        if (runningJob != null && !runningJob.isDone()) {
+            logger.info("Snapshot {} is still running, not starting another one", runningJob.getId());
+            return runningJob;
+        }
+
         // Create or Get Repository
         String repositoryName = repository.createOrGetSnapshotRepository();
 
         // StartBackup
         String snapshotName = getSnapshotName(config.getCommaSeparatedIndicesToBackup(), config.includeIndexNameInSnapshot());
-        logger.info("Repository Name : <" + repositoryName + "> Snapshot Name : <" + snapshotName + "> Indices : <" + config.getCommaSeparatedIndicesToBackup() + "> \nRunning Snapshot now ... ");
+        logger.info("Repository Name : <" + repositoryName + "> Snapshot Name : <" + snapshotName + "> Indices : <" + config.getCommaSeparatedIndicesToBackup() + "> \nStarting Snapshot now ... ");
 
         Client esTransportClient = ElasticsearchTransportClient.instance(config).getTransportClient();
 
-        Stopwatch snapshotTimer = snapshotDuration.start();
-        //This is a blocking call. It'll wait until Snapshot is finished.
-        CreateSnapshotResponse createSnapshotResponse = getCreateSnapshotResponse(esTransportClient, repositoryName, snapshotName);
+        if (!adminOperationGate.admit(esTransportClient, JOBNAME)) {
+            throw new SnapshotBackupException("Master is under pressure, not starting snapshot " + snapshotName);
+        }
 
-        logger.info("Snapshot Status = " + createSnapshotResponse.status().toString());
-        if (createSnapshotResponse.status() == RestStatus.OK) {
-            //TODO Add Servo Monitoring so that it can be verified from dashboard
-            printSnapshotDetails(createSnapshotResponse);
-            snapshotSuccess.incrementAndGet();
-        } else if (createSnapshotResponse.status() == RestStatus.INTERNAL_SERVER_ERROR) {
-            //TODO Add Servo Monitoring so that it can be verified from dashboard
-            logger.info("Snapshot Completely Failed");
+        SnapshotJob job = new SnapshotJob(repositoryName, snapshotName, System.currentTimeMillis());
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+
+        CreateSnapshotResponse createSnapshotResponse;
+        try {
+            createSnapshotResponse = getCreateSnapshotResponse(esTransportClient, repositoryName, snapshotName);
+        } catch (Exception e) {
+            // Counted as a failure by the caller
+            job.fail(e.getMessage(), System.currentTimeMillis());
+            throw e;
+        }
+
+        logger.info("Snapshot {} Status = {}", snapshotName, createSnapshotResponse.status());
+        if (createSnapshotResponse.getSnapshotInfo() != null && createSnapshotResponse.getSnapshotInfo().state().completed()) {
+            completeJob(esTransportClient, job, createSnapshotResponse.getSnapshotInfo(), null);
+        }
+
+        return job;
+    }
+
+    /**
+     * Refresh the progress of the running snapshot if there is one, locked against starting or completing it meanwhile
+     */
+    public synchronized void pollRunningJob() {
+        SnapshotJob runningJob = getLatestJob();
+        if (runningJob != null && !runningJob.isDone()) {
+            pollSnapshotJob(runningJob);
+        }
+    }
+
+    /**
+     * Refresh the progress of a running snapshot, completing the job once the snapshot completed
+     */
+    void pollSnapshotJob(SnapshotJob job) {
+        try {
+            Client esTransportClient = ElasticsearchTransportClient.instance(config).getTransportClient();
+
+            SnapshotInfo snapshotInfo = getSnapshotInfo(esTransportClient, job.getRepositoryName(), job.getSnapshotName());
+            if (snapshotInfo == null) {
+                completeJob(esTransportClient, job, null, "Snapshot no longer exists");
+                return;
+            }
+
+            if (snapshotInfo.state().completed()) {
+                completeJob(esTransportClient, job, snapshotInfo, null);
+                return;
+            }
+
+            job.updateProgress(getShardProgress(esTransportClient, job.getRepositoryName(), job.getSnapshotName()));
+            if (config.isDebugEnabled()) {
+                logger.debug("Snapshot progress: {}", job);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to poll status of snapshot " + job.getId() + ", polling again", e);
+        }
+    }
+
+    /**
+     * Record the outcome of a snapshot, once, a job that is already done is left as it is
+     */
+    void completeJob(Client esTransportClient, SnapshotJob job, SnapshotInfo snapshotInfo, String failure) {
+        if (job.isDone()) {
+            return;
+        }
+
+        long endTime = System.currentTimeMillis();
+
+        if (snapshotInfo == null) {
+            job.fail(failure, endTime);
+        } else {
+            SnapshotJob.State state;
+            if (snapshotInfo.state() == SnapshotState.SUCCESS) {
+                state = SnapshotJob.State.SUCCESS;
+            } else if (snapshotInfo.state() == SnapshotState.PARTIAL) {
+                state = SnapshotJob.State.PARTIAL;
+            } else {
+                state = SnapshotJob.State.FAILED;
+            }
+
+            // Bytes of the last poll are behind, or missing if the snapshot completed in between
+            try {
+                job.updateProgress(getShardProgress(esTransportClient, job.getRepositoryName(), job.getSnapshotName()));
+            } catch (Exception e) {
+                logger.warn("Failed to read final status of snapshot " + job.getId() + ", counting the last polled bytes", e);
+            }
+
+            if (snapshotInfo.endTime() > 0) {
+                endTime = snapshotInfo.endTime();
+            }
+
+            job.complete(state, snapshotInfo.totalShards(), snapshotInfo.successfulShards(), snapshotInfo.failedShards(),
+                    endTime, snapshotInfo.reason());
+            printSnapshotDetails(snapshotInfo);
+        }
+
+        if (job.getState() == SnapshotJob.State.FAILED) {
+            logger.info("Snapshot {} Failed: {}", job.getId(), job.getFailure());
             snapshotFailure.incrementAndGet();
+        } else {
+            snapshotSuccess.incrementAndGet();
+        }
+
+        snapshotDuration.record(job.getEndTime() - job.getStartTime(), TimeUnit.MILLISECONDS);
+        snapshotBytes.increment(job.getProcessedBytes());
+    }
+
+    public SnapshotJob getJob(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * @return most recently started snapshot, null if none ran since startup
+     */
+    public SnapshotJob getLatestJob() {
+        synchronized (jobs) {
+            SnapshotJob latestJob = null;
+            for (SnapshotJob job : jobs.values()) {
+                latestJob = job;
+            }
+            return latestJob;
         }
-        //Stop the timer
-        snapshotTimer.stop();
     }
 
     //TODO: Map to Java Class and Create JSON
-    public void printSnapshotDetails(CreateSnapshotResponse createSnapshotResponse) {
+    public void printSnapshotDetails(SnapshotInfo snapshotInfo) {
         StringBuilder builder = new StringBuilder();
         builder.append("Snapshot Details:");
-        builder.append("\n\t Name = " + createSnapshotResponse.getSnapshotInfo().snapshotId().getName());
+        builder.append("\n\t Name = " + snapshotInfo.snapshotId().getName());
+        builder.append("\n\t State = " + snapshotInfo.state());
         builder.append("\n\t Indices : ");
-        for (String index : createSnapshotResponse.getSnapshotInfo().indices()) {
+        for (String index : snapshotInfo.indices()) {
             builder.append("\n\t\t Index = " + index);
         }
-        builder.append("\n\t Start Time = " + createSnapshotResponse.getSnapshotInfo().startTime());
-        builder.append("\n\t End Time = " + createSnapshotResponse.getSnapshotInfo().endTime());
-        long minuteDuration = (createSnapshotResponse.getSnapshotInfo().endTime() - createSnapshotResponse.getSnapshotInfo().startTime()) / (1000 * 60);
+        builder.append("\n\t Start Time = " + snapshotInfo.startTime());
+        builder.append("\n\t End Time = " + snapshotInfo.endTime());
+        long minuteDuration = (snapshotInfo.endTime() - snapshotInfo.startTime()) / (1000 * 60);
         builder.append("\n\t Total Time Taken = " + minuteDuration + " Minutes");
-        builder.append("\n\t Total Shards = " + createSnapshotResponse.getSnapshotInfo().totalShards());
-        builder.append("\n\t Successful Shards = " + createSnapshotResponse.getSnapshotInfo().successfulShards());
-        builder.append("\n\t Total Failed Shards = " + createSnapshotResponse.getSnapshotInfo().failedShards());
+        builder.append("\n\t Total Shards = " + snapshotInfo.totalShards());
+        builder.append("\n\t Successful Shards = " + snapshotInfo.successfulShards());
+        builder.append("\n\t Total Failed Shards = " + snapshotInfo.failedShards());
 
-        if (createSnapshotResponse.getSnapshotInfo().failedShards() > 0) {
-            for (SnapshotShardFailure failedShard : createSnapshotResponse.getSnapshotInfo().shardFailures()) {
+        if (snapshotInfo.failedShards() > 0) {
+            for (SnapshotShardFailure failedShard : snapshotInfo.shardFailures()) {
                 builder.append("\n\t Failed Shards : ");
                 builder.append("\n\t\t Index = " + failedShard.index());
                 builder.append("\n\t\t Shard Id = " + failedShard.shardId());
@@ -194,31 +339,32 @@ public class SnapshotBackupManager extends Task {
     }
 
     public CreateSnapshotResponse getCreateSnapshotResponse(Client esTransportClient, String repositoryName, String snapshotName) {
+        // Not waiting for completion, progress is polled instead of holding the calling thread for the whole snapshot
         return esTransportClient.admin().cluster().prepareCreateSnapshot(repositoryName, snapshotName)
-                .setWaitForCompletion(config.waitForCompletionOfBackup())
+                .setWaitForCompletion(false)
                 .setIndices(config.getCommaSeparatedIndicesToBackup().split(COMMA_SEPARATOR))
                 .setIncludeGlobalState(config.includeGlobalStateDuringBackup())
                 .setPartial(config.partiallyBackupIndices()).get();
     }
-    //                (esTransportClient.admin().cluster().prepareGetSnapshots("test-repo").setSnapshots("test-snap").get().getSnapshots().get(0).state());//, equalTo(SnapshotState.SUCCESS));
-
-    /*
-                    NON-Blocking SnapshotRequest
-                    ----------------------------
-                    CreateSnapshotRequest createSnapshotRequest = new CreateSnapshotRequest(repositoryName,snapshotName);
-                    esTransportClient.admin().cluster().createSnapshot(createSnapshotRequest
-                            .indices(config.getCommaSeparatedIndicesToBackup())
-                            .includeGlobalState(config.includeGlobalStateDuringBackup())
-                            .waitForCompletion(config.waitForCompletionOfBackup()), new ActionListener<CreateSnapshotResponse>() {
-                        @Override
-                        public void onResponse(CreateSnapshotResponse createSnapshotResponse) {
-                            logger.info("Time take for Snapshot = ["+(createSnapshotResponse.getSnapshotInfo().endTime()-createSnapshotResponse.getSnapshotInfo().startTime())+"] Seconds");
-                        }
-
-                        @Override
-                        public void onFailure(Throwable e) {
-                            logger.info("Snapshot Completely Failed");
-                        }
-                    });
-     */
+
+    SnapshotInfo getSnapshotInfo(Client esTransportClient, String repositoryName, String snapshotName) {
+        List<SnapshotInfo> snapshots = esTransportClient.admin().cluster().prepareGetSnapshots(repositoryName)
+                .setSnapshots(snapshotName).get().getSnapshots();
+        return snapshots.isEmpty() ? null : snapshots.get(0);
+    }
+
+    List<SnapshotJob.ShardProgress> getShardProgress(Client esTransportClient, String repositoryName, String snapshotName) {
+        SnapshotsStatusResponse response = esTransportClient.admin().cluster().prepareSnapshotStatus(repositoryName)
+                .setSnapshots(snapshotName).get();
+
+        List<SnapshotJob.ShardProgress> shardProgress = new ArrayList<>();
+        for (SnapshotStatus snapshotStatus : response.getSnapshots()) {
+            for (SnapshotIndexShardStatus shardStatus : snapshotStatus.getShards()) {
+                shardProgress.add(new SnapshotJob.ShardProgress(shardStatus.getIndex(), shardStatus.getShardId(),
+                        shardStatus.getStage().name(), shardStatus.getStats().getProcessedSize(), shardStatus.getStats().getTotalSize()));
+            }
+        }
+
+        return shardProgress;
+    }
 }
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.backup;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A snapshot started without waiting for it, followed by polling the snapshot status until it completes.
+ * Jobs are identified by the name of their snapshot, which is unique within the repository.
+ */
+public class SnapshotJob {
+
+    public enum State {
+        STARTED,
+        IN_PROGRESS,
+        SUCCESS,
+        PARTIAL,
+        FAILED;
+
+        public boolean isDone() {
+            return this == SUCCESS || this == PARTIAL || this == FAILED;
+        }
+    }
+
+    public static class ShardProgress {
+        private final String index;
+        private final int shard;
+        private final String stage;
+        private final long processedBytes;
+        private final long totalBytes;
+
+        public ShardProgress(String index, int shard, String stage, long processedBytes, long totalBytes) {
+            this.index = index;
+            this.shard = shard;
+            this.stage = stage;
+            this.processedBytes = processedBytes;
+            this.totalBytes = totalBytes;
+        }
+
+        public String getIndex() {
+            return index;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        public long getProcessedBytes() {
+            return processedBytes;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+    }
+
+    private final String repositoryName;
+    private final String snapshotName;
+    private final long startTime;
+
+    private volatile State state = State.STARTED;
+    private volatile long endTime;
+    private volatile List<ShardProgress> shardProgress = Collections.emptyList();
+    private volatile int totalShards;
+    private volatile int successfulShards;
+    private volatile int failedShards;
+    private volatile String failure;
+
+    public SnapshotJob(String repositoryName, String snapshotName, long startTime) {
+        this.repositoryName = repositoryName;
+        this.snapshotName = snapshotName;
+        this.startTime = startTime;
+    }
+
+    public String getId() {
+        return snapshotName;
+    }
+
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isDone() {
+        return state.isDone();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return time the snapshot completed, 0 while it runs
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public List<ShardProgress> getShardProgress() {
+        return shardProgress;
+    }
+
+    public long getProcessedBytes() {
+        return shardProgress.stream().mapToLong(ShardProgress::getProcessedBytes).sum();
+    }
+
+    public long getTotalBytes() {
+        return shardProgress.stream().mapToLong(ShardProgress::getTotalBytes).sum();
+    }
+
+    public int getTotalShards() {
+        return totalShards;
+    }
+
+    public int getSuccessfulShards() {
+        return successfulShards;
+    }
+
+    public int getFailedShards() {
+        return failedShards;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Progress of a running snapshot, as reported by the snapshot status. A job that is done keeps its state and shard counts.
+     */
+    void updateProgress(List<ShardProgress> shardProgress) {
+        this.shardProgress = Collections.unmodifiableList(shardProgress);
+        if (state.isDone()) {
+            return;
+        }
+
+        this.totalShards = shardProgress.size();
+        this.successfulShards = (int) shardProgress.stream().filter(shard -> "DONE".equals(shard.getStage())).count();
+        this.failedShards = (int) shardProgress.stream().filter(shard -> "FAILURE".equals(shard.getStage())).count();
+        this.state = State.IN_PROGRESS;
+    }
+
+    void complete(State state, int totalShards, int successfulShards, int failedShards, long endTime, String failure) {
+        this.totalShards = totalShards;
+        this.successfulShards = successfulShards;
+        this.failedShards = failedShards;
+        this.endTime = endTime;
+        this.failure = failure;
+        this.state = state;
+    }
+
+    void fail(String failure, long endTime) {
+        complete(State.FAILED, totalShards, successfulShards, failedShards, endTime, failure);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"id\": \"%s\", \"repository\": \"%s\", \"state\": \"%s\", \"shards\": %d/%d, \"failedShards\": %d, \"bytes\": %d/%d}",
+                getId(), repositoryName, state, successfulShards, totalShards, failedShards, getProcessedBytes(), getTotalBytes());
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.backup;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.raigad.scheduler.SimpleTimer;
+import com.netflix.raigad.scheduler.Task;
+import com.netflix.raigad.scheduler.TaskTimer;
+
+/**
+ * Polls the progress of the snapshot {@link SnapshotBackupManager} started until it completes,
+ * on the scheduler rather than on a thread of its own. Nothing is read while no snapshot runs.
+ */
+@Singleton
+public class SnapshotJobPoller extends Task {
+    public static final String JOB_NAME = "SnapshotJobPoller";
+
+    private final SnapshotBackupManager snapshotBackupManager;
+
+    @Inject
+    public SnapshotJobPoller(IConfiguration config, SnapshotBackupManager snapshotBackupManager) {
+        super(config);
+        this.snapshotBackupManager = snapshotBackupManager;
+    }
+
+    @Override
+    public void execute() {
+        snapshotBackupManager.pollRunningJob();
+    }
+
+    @Override
+    public String getName() {
+        return JOB_NAME;
+    }
+
+    public static TaskTimer getTimer(IConfiguration config) {
+        return new SimpleTimer(JOB_NAME, Math.max(1, config.getSnapshotPollSeconds()) * 1000L);
+    }
+}
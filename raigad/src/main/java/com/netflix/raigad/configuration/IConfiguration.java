@@ -332,4 +332,99 @@ public interface IConfiguration {
      * Get the MAC id for an instance
      */
     String getMacIdForInstance();
-}
\ No newline at end of file
+
+    /**
+     * Get the registry used to keep track of instances: cassandra (default) or file
+     */
+    String getInstanceFactory();
+
+    /**
+     * Get the directory used by the file based instance registry
+     */
+    String getInstanceStoreLocation();
+
+    /**
+     * Number of expired indices deleted per request by index retention
+     */
+    int getIndexRetentionDeleteBatchSize();
+
+    /**
+     * Admin operations hold off while the master has more pending cluster tasks than this
+     */
+    int getAdminMaxPendingTasks();
+
+    /**
+     * Node attribute telling hot, warm and cold data nodes apart, used by index tier transitions
+     */
+    String getIndexTierAttribute();
+
+    /**
+     * Index tier transitions hold off while at least this many shards are relocating
+     */
+    int getIndexTierMaxRelocatingShards();
+
+    /**
+     * Off-peak window (HH:mm-HH:mm, UTC) in which read-only indices are force merged, empty for any time
+     */
+    String getIndexForceMergeWindow();
+
+    /**
+     * Maximum number of force merges running at once across the cluster
+     */
+    int getIndexForceMergeMaxConcurrent();
+
+    /**
+     * Nodes running at least this many merges are under I/O pressure and get no force merges
+     */
+    int getIndexForceMergeMaxNodeMerges();
+
+    /**
+     * Maximum number of indices being shrunk at once
+     */
+    int getIndexShrinkMaxConcurrent();
+
+    /**
+     * Indices opened on demand are closed again after this many minutes without being opened
+     */
+    int getIndexOnDemandIdleMinutes();
+
+    /**
+     * Maximum number of closed indices open on demand at once, the least recently opened one is closed to make room
+     */
+    int getIndexOnDemandMaxOpen();
+
+    /**
+     * Replica schedule holds off adding replicas while at least this many shards are initializing
+     */
+    int getIndexReplicaMaxRecoveries();
+
+    /**
+     * Scheduled index management only logs its plan, nothing is changed
+     */
+    boolean isIndexManagementDryRun();
+
+    /**
+     * Rate a shard copy is expected to recover or relocate at, used for index management plan estimates
+     */
+    int getIndexPlanRecoveryMbPerSec();
+
+    /**
+     * Rate a shard is expected to be force merged at, used for index management plan estimates
+     */
+    int getIndexPlanMergeMbPerSec();
+
+    /**
+     * Admin operations hold off while the heap use of the master is above this percentage
+     */
+    int getAdminMaxMasterHeapPercent();
+
+    /**
+     * Longest an admin operation waits for the master to recover before it is given up for the run
+     */
+    int getAdminMaxWaitSeconds();
+
+    /**
+     * Interval in seconds between polls of the status of a running snapshot
+     */
+    int getSnapshotPollSeconds();
+}
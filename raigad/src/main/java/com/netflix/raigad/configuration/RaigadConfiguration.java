@@ -123,6 +123,25 @@ public class RaigadConfiguration implements IConfiguration {
     private static final String CONFIG_REGION_NAME = MY_WEBAPP_NAME + ".az.region";
     private static final String CONFIG_ACL_GROUP_NAME = MY_WEBAPP_NAME + ".acl.groupname";
     private static final String CONFIG_ACL_GROUP_NAME_FOR_VPC = MY_WEBAPP_NAME + ".acl.groupname.vpc";
+    private static final String CONFIG_INSTANCE_FACTORY = MY_WEBAPP_NAME + ".instance.factory";
+    private static final String CONFIG_INSTANCE_STORE_LOCATION = MY_WEBAPP_NAME + ".instance.store.location";
+    private static final String CONFIG_INDEX_RETENTION_DELETE_BATCH_SIZE = MY_WEBAPP_NAME + ".index.retention.delete.batch.size";
+    private static final String CONFIG_ADMIN_MAX_PENDING_TASKS = MY_WEBAPP_NAME + ".admin.max.pending.tasks";
+    private static final String CONFIG_INDEX_TIER_ATTRIBUTE = MY_WEBAPP_NAME + ".index.tier.attribute";
+    private static final String CONFIG_INDEX_TIER_MAX_RELOCATING_SHARDS = MY_WEBAPP_NAME + ".index.tier.max.relocating.shards";
+    private static final String CONFIG_INDEX_FORCE_MERGE_WINDOW = MY_WEBAPP_NAME + ".index.forcemerge.window";
+    private static final String CONFIG_INDEX_FORCE_MERGE_MAX_CONCURRENT = MY_WEBAPP_NAME + ".index.forcemerge.max.concurrent";
+    private static final String CONFIG_INDEX_FORCE_MERGE_MAX_NODE_MERGES = MY_WEBAPP_NAME + ".index.forcemerge.max.node.merges";
+    private static final String CONFIG_INDEX_SHRINK_MAX_CONCURRENT = MY_WEBAPP_NAME + ".index.shrink.max.concurrent";
+    private static final String CONFIG_INDEX_ON_DEMAND_IDLE_MINUTES = MY_WEBAPP_NAME + ".index.ondemand.idle.minutes";
+    private static final String CONFIG_INDEX_ON_DEMAND_MAX_OPEN = MY_WEBAPP_NAME + ".index.ondemand.max.open";
+    private static final String CONFIG_INDEX_REPLICA_MAX_RECOVERIES = MY_WEBAPP_NAME + ".index.replicas.max.recoveries";
+    private static final String CONFIG_INDEX_MANAGEMENT_DRY_RUN = MY_WEBAPP_NAME + ".index.management.dry.run";
+    private static final String CONFIG_INDEX_PLAN_RECOVERY_MB_PER_SEC = MY_WEBAPP_NAME + ".index.plan.recovery.mb.per.sec";
+    private static final String CONFIG_INDEX_PLAN_MERGE_MB_PER_SEC = MY_WEBAPP_NAME + ".index.plan.merge.mb.per.sec";
+    private static final String CONFIG_ADMIN_MAX_MASTER_HEAP_PERCENT = MY_WEBAPP_NAME + ".admin.max.master.heap.percent";
+    private static final String CONFIG_ADMIN_MAX_WAIT_SECONDS = MY_WEBAPP_NAME + ".admin.max.wait.seconds";
+    private static final String CONFIG_SNAPSHOT_POLL_SECONDS = MY_WEBAPP_NAME + ".snapshot.poll.seconds";
 
     private static Boolean IS_DEPLOYED_IN_VPC = false;
     private static Boolean IS_VPC_EXTERNAL = false;
@@ -249,6 +268,25 @@ public class RaigadConfiguration implements IConfiguration {
     private static final boolean DEFAULT_REPORT_METRICS_FROM_MASTER_ONLY = false;
     private static final String DEFAULT_TRIBE_PREFERRED_CLUSTER_ID_ON_CONFLICT = "t0";
     private static final String DEFAULT_ACL_GROUP_NAME_FOR_VPC = "es_samplecluster";
+    private static final String DEFAULT_INSTANCE_FACTORY = "cassandra";
+    private static final String DEFAULT_INSTANCE_STORE_LOCATION = "/mnt/data/raigad/instances";
+    private static final int DEFAULT_INDEX_RETENTION_DELETE_BATCH_SIZE = 50;
+    private static final int DEFAULT_ADMIN_MAX_PENDING_TASKS = 100;
+    private static final String DEFAULT_INDEX_TIER_ATTRIBUTE = "box_type";
+    private static final int DEFAULT_INDEX_TIER_MAX_RELOCATING_SHARDS = 4;
+    private static final String DEFAULT_INDEX_FORCE_MERGE_WINDOW = "01:00-05:00";
+    private static final int DEFAULT_INDEX_FORCE_MERGE_MAX_CONCURRENT = 2;
+    private static final int DEFAULT_INDEX_FORCE_MERGE_MAX_NODE_MERGES = 2;
+    private static final int DEFAULT_INDEX_SHRINK_MAX_CONCURRENT = 1;
+    private static final int DEFAULT_INDEX_ON_DEMAND_IDLE_MINUTES = 60;
+    private static final int DEFAULT_INDEX_ON_DEMAND_MAX_OPEN = 10;
+    private static final int DEFAULT_INDEX_REPLICA_MAX_RECOVERIES = 4;
+    private static final boolean DEFAULT_INDEX_MANAGEMENT_DRY_RUN = false;
+    private static final int DEFAULT_INDEX_PLAN_RECOVERY_MB_PER_SEC = 40;
+    private static final int DEFAULT_INDEX_PLAN_MERGE_MB_PER_SEC = 20;
+    private static final int DEFAULT_ADMIN_MAX_MASTER_HEAP_PERCENT = 85;
+    private static final int DEFAULT_ADMIN_MAX_WAIT_SECONDS = 60;
+    private static final int DEFAULT_SNAPSHOT_POLL_SECONDS = 30;
 
     private final IConfigSource config;
     private final ICredential provider;
@@ -328,6 +366,25 @@ public class RaigadConfiguration implements IConfiguration {
     private final DynamicBooleanProperty REPORT_METRICS_FROM_MASTER_ONLY = DynamicPropertyFactory.getInstance().getBooleanProperty(CONFIG_REPORT_METRICS_FROM_MASTER_ONLY, DEFAULT_REPORT_METRICS_FROM_MASTER_ONLY);
     private final DynamicStringProperty TRIBE_PREFERRED_CLUSTER_ID_ON_CONFLICT = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_TRIBE_PREFERRED_CLUSTER_ID_ON_CONFLICT, DEFAULT_TRIBE_PREFERRED_CLUSTER_ID_ON_CONFLICT);
     private final DynamicStringProperty ACL_GROUP_NAME_FOR_VPC = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_ACL_GROUP_NAME_FOR_VPC, DEFAULT_ACL_GROUP_NAME_FOR_VPC);
+    private final DynamicStringProperty INSTANCE_FACTORY = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_INSTANCE_FACTORY, DEFAULT_INSTANCE_FACTORY);
+    private final DynamicStringProperty INSTANCE_STORE_LOCATION = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_INSTANCE_STORE_LOCATION, DEFAULT_INSTANCE_STORE_LOCATION);
+    private final DynamicIntProperty INDEX_RETENTION_DELETE_BATCH_SIZE = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_RETENTION_DELETE_BATCH_SIZE, DEFAULT_INDEX_RETENTION_DELETE_BATCH_SIZE);
+    private final DynamicIntProperty ADMIN_MAX_PENDING_TASKS = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_ADMIN_MAX_PENDING_TASKS, DEFAULT_ADMIN_MAX_PENDING_TASKS);
+    private final DynamicStringProperty INDEX_TIER_ATTRIBUTE = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_INDEX_TIER_ATTRIBUTE, DEFAULT_INDEX_TIER_ATTRIBUTE);
+    private final DynamicIntProperty INDEX_TIER_MAX_RELOCATING_SHARDS = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_TIER_MAX_RELOCATING_SHARDS, DEFAULT_INDEX_TIER_MAX_RELOCATING_SHARDS);
+    private final DynamicStringProperty INDEX_FORCE_MERGE_WINDOW = DynamicPropertyFactory.getInstance().getStringProperty(CONFIG_INDEX_FORCE_MERGE_WINDOW, DEFAULT_INDEX_FORCE_MERGE_WINDOW);
+    private final DynamicIntProperty INDEX_FORCE_MERGE_MAX_CONCURRENT = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_FORCE_MERGE_MAX_CONCURRENT, DEFAULT_INDEX_FORCE_MERGE_MAX_CONCURRENT);
+    private final DynamicIntProperty INDEX_FORCE_MERGE_MAX_NODE_MERGES = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_FORCE_MERGE_MAX_NODE_MERGES, DEFAULT_INDEX_FORCE_MERGE_MAX_NODE_MERGES);
+    private final DynamicIntProperty INDEX_SHRINK_MAX_CONCURRENT = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_SHRINK_MAX_CONCURRENT, DEFAULT_INDEX_SHRINK_MAX_CONCURRENT);
+    private final DynamicIntProperty INDEX_ON_DEMAND_IDLE_MINUTES = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_ON_DEMAND_IDLE_MINUTES, DEFAULT_INDEX_ON_DEMAND_IDLE_MINUTES);
+    private final DynamicIntProperty INDEX_ON_DEMAND_MAX_OPEN = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_ON_DEMAND_MAX_OPEN, DEFAULT_INDEX_ON_DEMAND_MAX_OPEN);
+    private final DynamicIntProperty INDEX_REPLICA_MAX_RECOVERIES = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_REPLICA_MAX_RECOVERIES, DEFAULT_INDEX_REPLICA_MAX_RECOVERIES);
+    private final DynamicBooleanProperty INDEX_MANAGEMENT_DRY_RUN = DynamicPropertyFactory.getInstance().getBooleanProperty(CONFIG_INDEX_MANAGEMENT_DRY_RUN, DEFAULT_INDEX_MANAGEMENT_DRY_RUN);
+    private final DynamicIntProperty INDEX_PLAN_RECOVERY_MB_PER_SEC = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_PLAN_RECOVERY_MB_PER_SEC, DEFAULT_INDEX_PLAN_RECOVERY_MB_PER_SEC);
+    private final DynamicIntProperty INDEX_PLAN_MERGE_MB_PER_SEC = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_INDEX_PLAN_MERGE_MB_PER_SEC, DEFAULT_INDEX_PLAN_MERGE_MB_PER_SEC);
+    private final DynamicIntProperty ADMIN_MAX_MASTER_HEAP_PERCENT = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_ADMIN_MAX_MASTER_HEAP_PERCENT, DEFAULT_ADMIN_MAX_MASTER_HEAP_PERCENT);
+    private final DynamicIntProperty ADMIN_MAX_WAIT_SECONDS = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_ADMIN_MAX_WAIT_SECONDS, DEFAULT_ADMIN_MAX_WAIT_SECONDS);
+    private final DynamicIntProperty SNAPSHOT_POLL_SECONDS = DynamicPropertyFactory.getInstance().getIntProperty(CONFIG_SNAPSHOT_POLL_SECONDS, DEFAULT_SNAPSHOT_POLL_SECONDS);
 
     @Inject
     public RaigadConfiguration(ICredential provider, IConfigSource config) {
@@ -917,4 +974,99 @@ public class RaigadConfiguration implements IConfiguration {
     public String getMacIdForInstance() {
         return MAC_ID;
     }
+
+    @Override
+    public String getInstanceFactory() {
+        return INSTANCE_FACTORY.get();
+    }
+
+    @Override
+    public String getInstanceStoreLocation() {
+        return INSTANCE_STORE_LOCATION.get();
+    }
+
+    @Override
+    public int getIndexRetentionDeleteBatchSize() {
+        return INDEX_RETENTION_DELETE_BATCH_SIZE.get();
+    }
+
+    @Override
+    public int getAdminMaxPendingTasks() {
+        return ADMIN_MAX_PENDING_TASKS.get();
+    }
+
+    @Override
+    public String getIndexTierAttribute() {
+        return INDEX_TIER_ATTRIBUTE.get();
+    }
+
+    @Override
+    public int getIndexTierMaxRelocatingShards() {
+        return INDEX_TIER_MAX_RELOCATING_SHARDS.get();
+    }
+
+    @Override
+    public String getIndexForceMergeWindow() {
+        return INDEX_FORCE_MERGE_WINDOW.get();
+    }
+
+    @Override
+    public int getIndexForceMergeMaxConcurrent() {
+        return INDEX_FORCE_MERGE_MAX_CONCURRENT.get();
+    }
+
+    @Override
+    public int getIndexForceMergeMaxNodeMerges() {
+        return INDEX_FORCE_MERGE_MAX_NODE_MERGES.get();
+    }
+
+    @Override
+    public int getIndexShrinkMaxConcurrent() {
+        return INDEX_SHRINK_MAX_CONCURRENT.get();
+    }
+
+    @Override
+    public int getIndexOnDemandIdleMinutes() {
+        return INDEX_ON_DEMAND_IDLE_MINUTES.get();
+    }
+
+    @Override
+    public int getIndexOnDemandMaxOpen() {
+        return INDEX_ON_DEMAND_MAX_OPEN.get();
+    }
+
+    @Override
+    public int getIndexReplicaMaxRecoveries() {
+        return INDEX_REPLICA_MAX_RECOVERIES.get();
+    }
+
+    @Override
+    public boolean isIndexManagementDryRun() {
+        return INDEX_MANAGEMENT_DRY_RUN.get();
+    }
+
+    @Override
+    public int getIndexPlanRecoveryMbPerSec() {
+        return INDEX_PLAN_RECOVERY_MB_PER_SEC.get();
+    }
+
+    @Override
+    public int getIndexPlanMergeMbPerSec() {
+        return INDEX_PLAN_MERGE_MB_PER_SEC.get();
+    }
+
+    @Override
+    public int getAdminMaxMasterHeapPercent() {
+        return ADMIN_MAX_MASTER_HEAP_PERCENT.get();
+    }
+
+    @Override
+    public int getAdminMaxWaitSeconds() {
+        return ADMIN_MAX_WAIT_SECONDS.get();
+    }
+
+    @Override
+    public int getSnapshotPollSeconds() {
+        return SNAPSHOT_POLL_SECONDS.get();
+    }
 }
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.common.base.Supplier;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.connectionpool.Host;
+import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
+import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
+import com.netflix.astyanax.connectionpool.impl.ConnectionPoolType;
+import com.netflix.astyanax.connectionpool.impl.CountingConnectionPoolMonitor;
+import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
+import com.netflix.astyanax.thrift.ThriftFamilyFactory;
+import com.netflix.raigad.configuration.IConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connection to the keyspace of the bootstrap cluster, shared by the instance DAO and the registration lock
+ */
+@Singleton
+public class CassandraBootKeyspace {
+    private static final Logger logger = LoggerFactory.getLogger(CassandraBootKeyspace.class);
+
+    private final IConfiguration config;
+    private final EurekaHostsSupplier eurekaHostsSupplier;
+    private final String BOOT_CLUSTER;
+    private final String KS_NAME;
+    private final int thriftPortForAstyanax;
+    private final AstyanaxContext<Keyspace> ctx;
+    private final Keyspace keyspace;
+
+    @Inject
+    public CassandraBootKeyspace(IConfiguration config, EurekaHostsSupplier eurekaHostsSupplier) {
+        this.config = config;
+
+        BOOT_CLUSTER = config.getBootClusterName();
+
+        if (BOOT_CLUSTER == null || BOOT_CLUSTER.isEmpty()) {
+            throw new RuntimeException("Boot cluster can not be blank. Please use getBootClusterName() property");
+        }
+
+        KS_NAME = config.getCassandraKeyspaceName();
+
+        if (KS_NAME == null || KS_NAME.isEmpty()) {
+            throw new RuntimeException("Cassandra keyspace can not be blank. Please use getCassandraKeyspaceName() property");
+        }
+
+        thriftPortForAstyanax = config.getCassandraThriftPortForAstyanax();
+
+        if (thriftPortForAstyanax <= 0) {
+            throw new RuntimeException("Thrift port for Astyanax can not be blank. Please use getCassandraThriftPortForAstyanax() property");
+        }
+
+        this.eurekaHostsSupplier = eurekaHostsSupplier;
+
+        if (config.isEurekaHostSupplierEnabled()) {
+            ctx = initWithThriftDriverWithEurekaHostsSupplier();
+        }
+        else {
+            ctx = initWithThriftDriverWithExternalHostsSupplier();
+        }
+
+        ctx.start();
+        keyspace = ctx.getClient();
+    }
+
+    public Keyspace getKeyspace() {
+        return keyspace;
+    }
+
+    public String getKeyspaceName() {
+        return KS_NAME;
+    }
+
+    private AstyanaxContext<Keyspace> initWithThriftDriverWithEurekaHostsSupplier() {
+        logger.info("Boot cluster (BOOT_CLUSTER) is {}, keyspace name (KS_NAME) is {}", BOOT_CLUSTER, KS_NAME);
+
+        return new AstyanaxContext.Builder()
+                .forCluster(BOOT_CLUSTER)
+                .forKeyspace(KS_NAME)
+                .withAstyanaxConfiguration(
+                        new AstyanaxConfigurationImpl()
+                                .setDiscoveryType(
+                                        NodeDiscoveryType.DISCOVERY_SERVICE))
+                .withConnectionPoolConfiguration(
+                        new ConnectionPoolConfigurationImpl(
+                                "MyConnectionPool")
+                                .setMaxConnsPerHost(3)
+                                .setPort(thriftPortForAstyanax))
+                .withHostSupplier(eurekaHostsSupplier.getSupplier(BOOT_CLUSTER))
+                .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
+                .buildKeyspace(ThriftFamilyFactory.getInstance());
+
+    }
+
+    private AstyanaxContext<Keyspace> initWithThriftDriverWithExternalHostsSupplier() {
+        logger.info("Boot cluster (BOOT_CLUSTER) is {}, keyspace name (KS_NAME) is {}", BOOT_CLUSTER, KS_NAME);
+
+        return new AstyanaxContext.Builder()
+                .forCluster(BOOT_CLUSTER)
+                .forKeyspace(KS_NAME)
+                .withAstyanaxConfiguration(
+                        new AstyanaxConfigurationImpl()
+                                .setDiscoveryType(
+                                        NodeDiscoveryType.DISCOVERY_SERVICE)
+                                .setConnectionPoolType(
+                                        ConnectionPoolType.ROUND_ROBIN))
+                .withConnectionPoolConfiguration(
+                        new ConnectionPoolConfigurationImpl(
+                                "MyConnectionPool")
+                                .setMaxConnsPerHost(3)
+                                .setPort(thriftPortForAstyanax))
+                .withHostSupplier(getSupplier())
+                .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
+                .buildKeyspace(ThriftFamilyFactory.getInstance());
+
+    }
+
+    private Supplier<List<Host>> getSupplier() {
+        return new Supplier<List<Host>>() {
+            @Override
+            public List<Host> get() {
+                List<Host> hosts = new ArrayList<>();
+                List<String> cassandraHostnames = new ArrayList<>(Arrays.asList(StringUtils.split(config.getCommaSeparatedCassandraHostNames(), ",")));
+
+                if (cassandraHostnames.size() == 0) {
+                    throw new RuntimeException("Cassandra host names can not be blank, at least one host is needed." +
+                            "Please use getCommaSeparatedCassandraHostNames() property.");
+                }
+
+                for (String cassHost : cassandraHostnames) {
+                    logger.info("Adding Cassandra host {}", cassHost);
+                    hosts.add(new Host(cassHost, thriftPortForAstyanax));
+                }
+
+                return hosts;
+            }
+        };
+    }
+}
@@ -121,4 +121,10 @@ public class CassandraInstanceFactory implements IRaigadInstanceFactory {
     public void attachVolumes(RaigadInstance arg0, String arg1, String arg2) {
         // TODO Auto-generated method stub
     }
+
+    @Override
+    public boolean addChangeListener(ChangeListener listener) {
+        // Cassandra has no change notifications, the registry is polled
+        return false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.model.Column;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.model.ColumnList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registration lock backed by a Cassandra column family.
+ * <p>
+ * Thrift has no compare-and-set, so every contender writes its own column into
+ * the lock row using a client timestamp and reads the row back once. The live
+ * column with the lowest timestamp (ties broken by owner name) holds the lock,
+ * every other contender removes its column and fails. Acquisition therefore
+ * costs exactly one write and one read, without sleeping between them.
+ * <p>
+ * Mutual exclusion assumes the node clocks are synchronized closer than the time between two
+ * contenders' writes. A contender whose clock is behind by more than that writes a lower timestamp
+ * after the other one already read the row: both read themselves as the holder. Registration runs
+ * once per instance at boot and NTP keeps skew to milliseconds, so this is accepted rather than
+ * paying for a compare-and-set the thrift driver does not have.
+ * <p>
+ * Fencing tokens are the microsecond client timestamps of the lock writes, made strictly
+ * increasing within this process. Across nodes they are ordered under the same assumption: a
+ * contender whose clock is behind by more than the time between two acquisitions gets a lower
+ * token than the previous holder. Releasing deletes at the token of the lease, so it never
+ * removes the column of a contender that came after.
+ */
+@Singleton
+public class CassandraRegistrationLock implements IRegistrationLock {
+    private static final Logger logger = LoggerFactory.getLogger(CassandraRegistrationLock.class);
+
+    // Same lease the previous lock row used
+    public static final int DEFAULT_LEASE_SECONDS = 600;
+
+    private final Keyspace keyspace;
+    private final ColumnFamily<String, String> lockColumnFamily;
+    private final int leaseSeconds;
+    private final AtomicLong lastToken = new AtomicLong();
+
+    @Inject
+    public CassandraRegistrationLock(CassandraBootKeyspace cassandraBootKeyspace) {
+        this(cassandraBootKeyspace.getKeyspace(), InstanceDataDAOCassandra.CF_LOCKS);
+    }
+
+    public CassandraRegistrationLock(Keyspace keyspace, ColumnFamily<String, String> lockColumnFamily) {
+        this(keyspace, lockColumnFamily, DEFAULT_LEASE_SECONDS);
+    }
+
+    public CassandraRegistrationLock(Keyspace keyspace, ColumnFamily<String, String> lockColumnFamily, int leaseSeconds) {
+        this.keyspace = keyspace;
+        this.lockColumnFamily = lockColumnFamily;
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    @Override
+    public RegistrationLease acquire(String lockKey, String owner) throws Exception {
+        long token = nextToken();
+
+        MutationBatch mutationBatch = keyspace.prepareMutationBatch().setTimestamp(token);
+        mutationBatch.withRow(lockColumnFamily, lockKey).putColumn(owner, String.valueOf(token), leaseSeconds);
+        mutationBatch.execute();
+
+        ColumnList<String> contenders = keyspace.prepareQuery(lockColumnFamily).getKey(lockKey).execute().getResult();
+        Column<String> holder = null;
+
+        for (Column<String> contender : contenders) {
+            if (holder == null || contender.getTimestamp() < holder.getTimestamp() ||
+                    (contender.getTimestamp() == holder.getTimestamp() && contender.getName().compareTo(holder.getName()) < 0)) {
+                holder = contender;
+            }
+        }
+
+        if (holder == null || !owner.equals(holder.getName())) {
+            MutationBatch cleanup = keyspace.prepareMutationBatch();
+            cleanup.withRow(lockColumnFamily, lockKey).deleteColumn(owner);
+            cleanup.execute();
+
+            throw new Exception(String.format("Lock %s already taken by %s", lockKey,
+                    holder == null ? "unknown" : holder.getName()));
+        }
+
+        RegistrationLease lease = new RegistrationLease(lockKey, owner, token,
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(leaseSeconds));
+        logger.info("Got lock {}", lease);
+
+        return lease;
+    }
+
+    @Override
+    public void release(RegistrationLease lease) throws Exception {
+        MutationBatch mutationBatch = keyspace.prepareMutationBatch().setTimestamp(lease.getFencingToken());
+        mutationBatch.withRow(lockColumnFamily, lease.getLockKey()).delete();
+        mutationBatch.execute();
+    }
+
+    private long nextToken() {
+        long now = keyspace.getConfig().getClock().getCurrentTime();
+        return lastToken.updateAndGet(last -> Math.max(last + 1, now));
+    }
+}
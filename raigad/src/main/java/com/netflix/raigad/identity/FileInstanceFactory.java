@@ -0,0 +1,166 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.raigad.configuration.IConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory keeping instance data in a local {@link FileInstanceStore} instead of the bootstrap Cassandra cluster.
+ * Meant for single host clusters, CI and local testing.
+ */
+@Singleton
+public class FileInstanceFactory implements IRaigadInstanceFactory {
+    private static final Logger logger = LoggerFactory.getLogger(FileInstanceFactory.class);
+
+    private final IConfiguration config;
+    private final FileInstanceStore store;
+
+    @Inject
+    public FileInstanceFactory(IConfiguration config) throws IOException {
+        this(config, new FileInstanceStore(Paths.get(config.getInstanceStoreLocation())));
+    }
+
+    FileInstanceFactory(IConfiguration config, FileInstanceStore store) {
+        this.config = config;
+        this.store = store;
+    }
+
+    @Override
+    public RaigadInstance create(String app, String id, String instanceID,
+                                 String hostname, String ip, String zone, String dc, String asgName,
+                                 Map<String, Object> volumes) {
+        try {
+            logger.info("Creating entry for instance {} (node ID {}, hostname {}, IP {}) in {} ES cluster in {}, {}",
+                    instanceID, id, hostname, ip, app, zone, dc);
+
+            RaigadInstance existing = store.get(app, dc, instanceID);
+            if (existing != null) {
+                logger.info("Instance {} already registered", instanceID);
+                return existing;
+            }
+
+            RaigadInstance raigadInstance = new RaigadInstance();
+            raigadInstance.setAvailabilityZone(zone);
+            raigadInstance.setHostIP(ip);
+            raigadInstance.setHostName(hostname);
+            raigadInstance.setId(id);
+            raigadInstance.setInstanceId(instanceID);
+            raigadInstance.setDC(dc);
+            raigadInstance.setApp(app);
+            raigadInstance.setAsg(asgName);
+            raigadInstance.setUpdatetime(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+
+            store.put(raigadInstance);
+            return raigadInstance;
+        }
+        catch (IOException e) {
+            logger.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<RaigadInstance> getAllIds(String appName) {
+        try {
+            List<RaigadInstance> raigadInstances = store.getAll(appName);
+
+            if (config.isDebugEnabled()) {
+                for (RaigadInstance instance : raigadInstances) {
+                    logger.debug("Instance details: " + instance.getInstanceId());
+                }
+            }
+
+            return raigadInstances;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public RaigadInstance getInstance(String appName, String dc, String id) {
+        try {
+            return store.get(appName, dc, id);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void sort(List<RaigadInstance> list) {
+        Collections.sort(list, new Comparator<RaigadInstance>() {
+            @Override
+            public int compare(RaigadInstance esInstance1, RaigadInstance esInstance2) {
+                int azCompare = esInstance1.getAvailabilityZone().compareTo(esInstance2.getAvailabilityZone());
+                if (azCompare == 0) {
+                    return esInstance1.getId().compareTo(esInstance2.getId());
+                }
+                else {
+                    return azCompare;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void delete(RaigadInstance instance) {
+        try {
+            store.delete(instance);
+        }
+        catch (IOException e) {
+            logger.error(e.getMessage());
+            throw new RuntimeException("Unable to deregister Raigad instance", e);
+        }
+    }
+
+    @Override
+    public void update(RaigadInstance instance) {
+        try {
+            store.put(instance);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Unable to update Raigad instance", e);
+        }
+    }
+
+    @Override
+    public void attachVolumes(RaigadInstance instance, String mountPath, String device) {
+        // Nothing to attach for locally stored instances
+    }
+
+    /**
+     * Changes made by other processes sharing the directory are noticed as well
+     */
+    @Override
+    public boolean addChangeListener(ChangeListener listener) {
+        store.addListener(listener::onChange);
+        return true;
+    }
+}
@@ -0,0 +1,483 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Instance registry kept in a local directory, for deployments and tests that do not have a bootstrap
+ * Cassandra cluster.
+ * <p>
+ * Every change is appended to a log file. Once the log holds enough records it is folded into a compacted
+ * snapshot, which is read back through a memory mapped buffer. All entries live in memory, so lookups only
+ * check whether the log changed since the last read and never parse anything otherwise. A lock file makes
+ * the directory safe to share between processes on the same host.
+ * <p>
+ * Listeners are told which clusters changed whenever a refresh picks up new entries, no matter which
+ * process wrote them.
+ */
+public class FileInstanceStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(FileInstanceStore.class);
+
+    public interface Listener {
+        void onChange(String app);
+    }
+
+    static final String LOG_FILE = "instances.log";
+    static final String SNAPSHOT_FILE = "instances.snapshot";
+    static final String LOCK_FILE = "instances.lock";
+
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1000;
+    private static final long WATCH_INTERVAL_MS = 1000;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+
+    // The log starts with its generation, which changes every time the log is compacted
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    // File locks are held per process, threads of the same process are serialized on these monitors
+    private static final ConcurrentMap<Path, Object> processLocks = new ConcurrentHashMap<>();
+
+    private final Path snapshotPath;
+    private final int compactionThreshold;
+    private final Object processLock;
+    private final FileChannel logChannel;
+    private final FileChannel lockChannel;
+
+    private final ConcurrentMap<String, RaigadInstance> instances = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile long generation = -1;
+    private volatile long logOffset;
+    private int logRecords;
+
+    private ScheduledExecutorService watcher;
+
+    public FileInstanceStore(Path directory) throws IOException {
+        this(directory, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public FileInstanceStore(Path directory, int compactionThreshold) throws IOException {
+        Path location = directory.toAbsolutePath().normalize();
+        Files.createDirectories(location);
+
+        this.snapshotPath = location.resolve(SNAPSHOT_FILE);
+        this.compactionThreshold = compactionThreshold;
+        this.processLock = processLocks.computeIfAbsent(location, key -> new Object());
+
+        this.logChannel = FileChannel.open(location.resolve(LOG_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lockChannel = FileChannel.open(location.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        synchronized (processLock) {
+            try (FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, false)) {
+                if (logChannel.size() < LOG_HEADER_SIZE) {
+                    writeGeneration(0);
+                    logChannel.truncate(LOG_HEADER_SIZE);
+                    logChannel.force(true);
+                }
+            }
+        }
+
+        refresh();
+        logger.info("Loaded {} instances from {}", instances.size(), location);
+    }
+
+    public List<RaigadInstance> getAll(String app) throws IOException {
+        refresh();
+
+        List<RaigadInstance> result = new ArrayList<>();
+        for (RaigadInstance instance : instances.values()) {
+            if (app.equals(instance.getApp())) {
+                result.add(copyOf(instance));
+            }
+        }
+
+        return result;
+    }
+
+    public RaigadInstance get(String app, String dc, String instanceId) throws IOException {
+        refresh();
+
+        RaigadInstance instance = instances.get(getKey(app, dc, instanceId));
+        return instance == null ? null : copyOf(instance);
+    }
+
+    public void put(RaigadInstance instance) throws IOException {
+        append(OP_PUT, instance);
+    }
+
+    public void delete(RaigadInstance instance) throws IOException {
+        append(OP_DELETE, instance);
+    }
+
+    /**
+     * Register a listener and start polling the directory for changes made by other processes
+     */
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+
+        if (watcher == null) {
+            watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "raigad-instance-store-watcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            watcher.scheduleWithFixedDelay(() -> {
+                try {
+                    refresh();
+                }
+                catch (Exception e) {
+                    logger.warn("Failed to refresh instance store", e);
+                }
+            }, WATCH_INTERVAL_MS, WATCH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Pick up changes appended since the last read. This is a single size and header check when nothing changed.
+     */
+    public void refresh() throws IOException {
+        if (generation == readGeneration() && logChannel.size() == logOffset) {
+            return;
+        }
+
+        Set<String> changedApps = new HashSet<>();
+
+        synchronized (processLock) {
+            try (FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, true)) {
+                refreshLocked(changedApps);
+            }
+        }
+
+        notifyListeners(changedApps);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+
+        logChannel.close();
+        lockChannel.close();
+    }
+
+    int getLogRecords() {
+        return logRecords;
+    }
+
+    private void append(byte op, RaigadInstance instance) throws IOException {
+        byte[] record = encodeRecord(op, instance);
+        Set<String> changedApps = new HashSet<>();
+
+        synchronized (processLock) {
+            try (FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, false)) {
+                refreshLocked(changedApps);
+
+                // Drop a partially written record left behind by a crashed writer
+                if (logChannel.size() > logOffset) {
+                    logger.warn("Truncating {} bytes of incomplete records", logChannel.size() - logOffset);
+                    logChannel.truncate(logOffset);
+                }
+
+                writeFully(ByteBuffer.wrap(record), logOffset);
+                logChannel.force(false);
+
+                applyRecords(ByteBuffer.wrap(record), instances, changedApps);
+                logOffset += record.length;
+                logRecords++;
+
+                if (logRecords >= compactionThreshold) {
+                    compact();
+                }
+            }
+        }
+
+        notifyListeners(changedApps);
+    }
+
+    private void refreshLocked(Set<String> changedApps) throws IOException {
+        long currentGeneration = readGeneration();
+        long size = logChannel.size();
+
+        if (currentGeneration != generation || size < logOffset) {
+            reload(currentGeneration, changedApps);
+        }
+        else if (size > logOffset) {
+            replayLog(logOffset, size, instances, changedApps);
+        }
+    }
+
+    private void reload(long currentGeneration, Set<String> changedApps) throws IOException {
+        Map<String, RaigadInstance> loaded = new HashMap<>();
+        Set<String> ignored = new HashSet<>();
+
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel snapshotChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0, snapshotChannel.size());
+                applyRecords(buffer, loaded, ignored);
+            }
+        }
+
+        logOffset = LOG_HEADER_SIZE;
+        logRecords = 0;
+        replayLog(LOG_HEADER_SIZE, logChannel.size(), loaded, ignored);
+
+        for (RaigadInstance instance : instances.values()) {
+            changedApps.add(instance.getApp());
+        }
+        for (RaigadInstance instance : loaded.values()) {
+            changedApps.add(instance.getApp());
+        }
+
+        instances.keySet().retainAll(loaded.keySet());
+        instances.putAll(loaded);
+        generation = currentGeneration;
+    }
+
+    private void replayLog(long from, long to, Map<String, RaigadInstance> target, Set<String> changedApps) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, from + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+
+        logRecords += applyRecords(buffer, target, changedApps);
+        logOffset = from + buffer.position();
+    }
+
+    /**
+     * Write all live entries into a new snapshot, swap it in atomically and start a new, empty log generation
+     */
+    private void compact() throws IOException {
+        Path temporary = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+
+        try (FileChannel snapshotChannel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (RaigadInstance instance : instances.values()) {
+                ByteBuffer record = ByteBuffer.wrap(encodeRecord(OP_PUT, instance));
+                while (record.hasRemaining()) {
+                    snapshotChannel.write(record);
+                }
+            }
+            snapshotChannel.force(true);
+        }
+
+        Files.move(temporary, snapshotPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Readers seeing the new generation reload the snapshot, replaying the old log on top of it is harmless
+        long nextGeneration = generation + 1;
+        writeGeneration(nextGeneration);
+        logChannel.truncate(LOG_HEADER_SIZE);
+        logChannel.force(true);
+
+        generation = nextGeneration;
+        logOffset = LOG_HEADER_SIZE;
+        logRecords = 0;
+
+        logger.info("Compacted instance store into {} entries", instances.size());
+    }
+
+    private long readGeneration() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        while (buffer.hasRemaining()) {
+            if (logChannel.read(buffer, buffer.position()) < 0) {
+                return -1;
+            }
+        }
+        buffer.flip();
+        return buffer.getLong();
+    }
+
+    private void writeGeneration(long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        buffer.putLong(value).flip();
+        writeFully(buffer, 0);
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += logChannel.write(buffer, position);
+        }
+    }
+
+    private void notifyListeners(Set<String> changedApps) {
+        for (String app : changedApps) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.onChange(app);
+                }
+                catch (Exception e) {
+                    logger.warn("Instance store listener failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply complete records from the buffer, stopping at the first truncated or corrupt one.
+     * The buffer is left positioned right after the last applied record.
+     *
+     * @return number of applied records
+     */
+    private static int applyRecords(ByteBuffer buffer, Map<String, RaigadInstance> target, Set<String> changedApps)
+            throws IOException {
+        int applied = 0;
+
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            byte op = input.readByte();
+            String key = input.readUTF();
+
+            if (op == OP_PUT) {
+                RaigadInstance instance = readInstance(input);
+                target.put(key, instance);
+                changedApps.add(instance.getApp());
+            }
+            else {
+                RaigadInstance removed = target.remove(key);
+                if (removed != null) {
+                    changedApps.add(removed.getApp());
+                }
+            }
+
+            applied++;
+        }
+
+        return applied;
+    }
+
+    private static byte[] encodeRecord(byte op, RaigadInstance instance) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(op);
+        output.writeUTF(getKey(instance.getApp(), instance.getDC(), instance.getInstanceId()));
+
+        if (op == OP_PUT) {
+            writeInstance(output, instance);
+        }
+        output.flush();
+
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return record.array();
+    }
+
+    private static void writeInstance(DataOutputStream output, RaigadInstance instance) throws IOException {
+        writeString(output, instance.getApp());
+        writeString(output, instance.getDC());
+        writeString(output, instance.getId());
+        writeString(output, instance.getInstanceId());
+        writeString(output, instance.getHostName());
+        writeString(output, instance.getHostIP());
+        writeString(output, instance.getAvailabilityZone());
+        writeString(output, instance.getAsg());
+        output.writeLong(instance.getUpdatetime());
+    }
+
+    private static RaigadInstance readInstance(DataInputStream input) throws IOException {
+        RaigadInstance instance = new RaigadInstance();
+        instance.setApp(readString(input));
+        instance.setDC(readString(input));
+        instance.setId(readString(input));
+        instance.setInstanceId(readString(input));
+        instance.setHostName(readString(input));
+        instance.setHostIP(readString(input));
+        instance.setAvailabilityZone(readString(input));
+        instance.setAsg(readString(input));
+        instance.setUpdatetime(input.readLong());
+        return instance;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static RaigadInstance copyOf(RaigadInstance instance) {
+        RaigadInstance copy = new RaigadInstance();
+        copy.setApp(instance.getApp());
+        copy.setDC(instance.getDC());
+        copy.setId(instance.getId());
+        copy.setInstanceId(instance.getInstanceId());
+        copy.setHostName(instance.getHostName());
+        copy.setHostIP(instance.getHostIP());
+        copy.setAvailabilityZone(instance.getAvailabilityZone());
+        copy.setAsg(instance.getAsg());
+        copy.setUpdatetime(instance.getUpdatetime());
+        return copy;
+    }
+
+    private static String getKey(String app, String dc, String instanceId) {
+        return app + "_" + dc + "_" + instanceId;
+    }
+}
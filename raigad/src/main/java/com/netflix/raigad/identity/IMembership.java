@@ -62,6 +62,22 @@ public interface IMembership {
      */
     void removeACL(Collection<String> listIPs, int from, int to);
 
+    /**
+     * Add security group ACLs for every given port, batching as many rules per request as AWS allows
+     *
+     * @param listIPs
+     * @param ports
+     */
+    void addACLs(Collection<String> listIPs, Collection<Integer> ports);
+
+    /**
+     * Remove security group ACLs for every given port, batching as many rules per request as AWS allows
+     *
+     * @param listIPs
+     * @param ports
+     */
+    void removeACLs(Collection<String> listIPs, Collection<Integer> ports);
+
     /**
      * List all ACLs
      */
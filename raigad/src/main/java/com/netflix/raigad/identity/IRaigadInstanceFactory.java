@@ -24,6 +24,13 @@ import java.util.Map;
  */
 
 public interface IRaigadInstanceFactory {
+    /**
+     * Told the name of a cluster whose instances changed in the registry
+     */
+    interface ChangeListener {
+        void onChange(String appName);
+    }
+
     /**
      * Return a list of all Elasticsearch server nodes registered.
      * @param appName the cluster name
@@ -81,4 +88,11 @@ public interface IRaigadInstanceFactory {
      * @param device
      */
     void attachVolumes(RaigadInstance instance, String mountPath, String device);
+
+    /**
+     * Get notified whenever the instances of a cluster change, for registries able to notice changes themselves
+     * @param listener
+     * @return false if the registry can not notify and has to be polled instead
+     */
+    boolean addChangeListener(ChangeListener listener);
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Lock guarding registration and removal of a single instance entry.
+ * Implementations hand out a time-bound lease carrying a fencing token that
+ * is strictly greater for every later successful acquisition of the same key,
+ * within the limits stated by the implementation.
+ */
+@ImplementedBy(CassandraRegistrationLock.class)
+public interface IRegistrationLock {
+    /**
+     * Acquire the lock for the given key on behalf of the given owner
+     *
+     * @throws Exception if the lock is held by a different owner
+     */
+    RegistrationLease acquire(String lockKey, String owner) throws Exception;
+
+    /**
+     * Release a lease obtained from {@link #acquire(String, String)}
+     */
+    void release(RegistrationLease lease) throws Exception;
+}
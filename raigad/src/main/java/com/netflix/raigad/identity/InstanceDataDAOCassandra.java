@@ -16,31 +16,30 @@
 
 package com.netflix.raigad.identity;
 
-import com.google.common.base.Supplier;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
-import com.netflix.astyanax.connectionpool.Host;
-import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
 import com.netflix.astyanax.connectionpool.OperationResult;
-import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
-import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
-import com.netflix.astyanax.connectionpool.impl.ConnectionPoolType;
-import com.netflix.astyanax.connectionpool.impl.CountingConnectionPoolMonitor;
-import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
 import com.netflix.astyanax.model.*;
+import com.netflix.astyanax.query.CqlQuery;
+import com.netflix.astyanax.query.PreparedCqlQuery;
 import com.netflix.astyanax.serializers.StringSerializer;
-import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 import com.netflix.astyanax.util.TimeUUIDUtils;
 import com.netflix.raigad.configuration.IConfiguration;
-import org.apache.commons.lang.StringUtils;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Use bootstrap cluster to find nodes
@@ -62,51 +61,59 @@ public class InstanceDataDAOCassandra {
 
     private final Keyspace bootKeyspace;
     private final IConfiguration config;
-    private final EurekaHostsSupplier eurekaHostsSupplier;
-    private final String BOOT_CLUSTER;
-    private final String KS_NAME;
-    private final int thriftPortForAstyanax;
-    private final AstyanaxContext<Keyspace> ctx;
 
     public static final ColumnFamily<String, String> CF_INSTANCES =
             new ColumnFamily<String, String>(CF_NAME_INSTANCES, StringSerializer.get(), StringSerializer.get());
+    // Also holds the rows of CassandraRegistrationLock, keyed by lock key
     public static final ColumnFamily<String, String> CF_LOCKS =
             new ColumnFamily<String, String>(CF_NAME_LOCKS, StringSerializer.get(), StringSerializer.get());
 
-    @Inject
-    public InstanceDataDAOCassandra(IConfiguration config, EurekaHostsSupplier eurekaHostsSupplier)
-            throws ConnectionException {
-        this.config = config;
-
-        BOOT_CLUSTER = config.getBootClusterName();
-
-        if (BOOT_CLUSTER == null || BOOT_CLUSTER.isEmpty()) {
-            throw new RuntimeException("Boot cluster can not be blank. Please use getBootClusterName() property");
-        }
-
-        KS_NAME = config.getCassandraKeyspaceName();
-
-        if (KS_NAME == null || KS_NAME.isEmpty()) {
-            throw new RuntimeException("Cassandra keyspace can not be blank. Please use getCassandraKeyspaceName() property");
-        }
-
-        thriftPortForAstyanax = config.getCassandraThriftPortForAstyanax();
+    // CQL statements are prepared once on the server and only the bound values are sent on every call
+    private static final String CQL_SELECT_BY_CLUSTER = String.format(
+            "SELECT * FROM %s WHERE %s = ?", CF_NAME_INSTANCES, CN_CLUSTER);
+    private static final String CQL_SELECT_BY_CLUSTER_AND_LOCATION = String.format(
+            "SELECT * FROM %s WHERE %s = ? AND %s = ?", CF_NAME_INSTANCES, CN_CLUSTER, CN_LOCATION);
+    private static final String CQL_SELECT_BY_CLUSTER_INSTANCE_AND_LOCATION = String.format(
+            "SELECT * FROM %s WHERE %s = ? AND %s = ? AND %s = ?", CF_NAME_INSTANCES, CN_CLUSTER, CN_INSTANCEID, CN_LOCATION);
+
+    private static final Timer getAllInstancesLatency = new BasicTimer(
+            MonitorConfig.builder("getAllInstancesLatency").withTag("class", "InstanceDataDAOCassandra").build(), TimeUnit.MILLISECONDS);
+    private static final Timer findKeyLatency = new BasicTimer(
+            MonitorConfig.builder("findKeyLatency").withTag("class", "InstanceDataDAOCassandra").build(), TimeUnit.MILLISECONDS);
+    private static final Counter getAllInstancesErrors = new BasicCounter(
+            MonitorConfig.builder("getAllInstancesErrors").withTag("class", "InstanceDataDAOCassandra").build());
+    private static final Counter findKeyErrors = new BasicCounter(
+            MonitorConfig.builder("findKeyErrors").withTag("class", "InstanceDataDAOCassandra").build());
+
+    static {
+        Monitors.registerObject(getAllInstancesLatency);
+        Monitors.registerObject(findKeyLatency);
+        Monitors.registerObject(getAllInstancesErrors);
+        Monitors.registerObject(findKeyErrors);
+    }
 
-        if (thriftPortForAstyanax <= 0) {
-            throw new RuntimeException("Thrift port for Astyanax can not be blank. Please use getCassandraThriftPortForAstyanax() property");
-        }
+    /**
+     * Statements are built once and only bound on every call. The thrift driver keeps the prepared
+     * statement ID on each connection keyed by the CQL, so a statement is prepared once per connection.
+     */
+    private final CqlQuery<String, String> selectByCluster;
+    private final CqlQuery<String, String> selectByClusterAndLocation;
+    private final CqlQuery<String, String> selectByClusterInstanceAndLocation;
 
-        this.eurekaHostsSupplier = eurekaHostsSupplier;
+    private final IRegistrationLock registrationLock;
 
-        if (config.isEurekaHostSupplierEnabled()) {
-            ctx = initWithThriftDriverWithEurekaHostsSupplier();
-        }
-        else {
-            ctx = initWithThriftDriverWithExternalHostsSupplier();
-        }
-
-        ctx.start();
-        bootKeyspace = ctx.getClient();
+    @Inject
+    public InstanceDataDAOCassandra(IConfiguration config, CassandraBootKeyspace cassandraBootKeyspace,
+                                    IRegistrationLock registrationLock) {
+        this.config = config;
+        this.bootKeyspace = cassandraBootKeyspace.getKeyspace();
+        this.registrationLock = registrationLock;
+
+        ColumnFamily<String, String> cqlColumnFamily = ColumnFamily.newColumnFamily(
+                cassandraBootKeyspace.getKeyspaceName(), StringSerializer.get(), StringSerializer.get());
+        selectByCluster = bootKeyspace.prepareQuery(cqlColumnFamily).withCql(CQL_SELECT_BY_CLUSTER);
+        selectByClusterAndLocation = bootKeyspace.prepareQuery(cqlColumnFamily).withCql(CQL_SELECT_BY_CLUSTER_AND_LOCATION);
+        selectByClusterInstanceAndLocation = bootKeyspace.prepareQuery(cqlColumnFamily).withCql(CQL_SELECT_BY_CLUSTER_INSTANCE_AND_LOCATION);
     }
 
     public void createInstanceEntry(RaigadInstance instance) throws Exception {
@@ -119,10 +126,10 @@ public class InstanceDataDAOCassandra {
             return;
         }
 
-        // Grab the lock
-        getLock(instance);
+        // Grab the lock, everything written under it carries the fencing token as timestamp
+        RegistrationLease lease = registrationLock.acquire(getLockingKey(instance), instance.getInstanceId());
 
-        MutationBatch mutationBatch = bootKeyspace.prepareMutationBatch();
+        MutationBatch mutationBatch = bootKeyspace.prepareMutationBatch().setTimestamp(lease.getFencingToken());
         ColumnListMutation<String> columnListMutation = mutationBatch.withRow(CF_INSTANCES, key);
         columnListMutation.putColumn(CN_CLUSTER, instance.getApp(), null);
         columnListMutation.putColumn(CN_AZ, instance.getAvailabilityZone(), null);
@@ -133,7 +140,14 @@ public class InstanceDataDAOCassandra {
         columnListMutation.putColumn(CN_ASGNAME, instance.getAsg(), null);
         columnListMutation.putColumn(CN_UPDATETIME, TimeUUIDUtils.getUniqueTimeUUIDinMicros(), null);
 
+        if (lease.isExpired()) {
+            throw new Exception("Lease " + lease + " expired before the instance entry was written");
+        }
+
         mutationBatch.execute();
+
+        // On failure the lease is left to expire, a write that may have been applied stays fenced until then
+        registrationLock.release(lease);
     }
 
     public RaigadInstance getInstance(String cluster, String region, String instanceId) {
@@ -150,37 +164,39 @@ public class InstanceDataDAOCassandra {
 
     public List<RaigadInstance> getAllInstances(String cluster) {
         List<RaigadInstance> list = new ArrayList<RaigadInstance>();
+        Stopwatch stopwatch = getAllInstancesLatency.start();
 
         try {
-            String selectClause;
+            PreparedCqlQuery<String, String> preparedQuery;
 
             if (config.isMultiDC() || config.amISourceClusterForTribeNodeInMultiDC()) {
-                selectClause = String.format("SELECT * FROM %s WHERE %s = '%s' ",
-                        CF_NAME_INSTANCES, CN_CLUSTER, cluster);
+                preparedQuery = selectByCluster.asPreparedStatement()
+                        .withStringValue(cluster);
             }
             else {
-                selectClause = String.format("SELECT * FROM %s WHERE %s = '%s' AND %s = '%s' ",
-                        CF_NAME_INSTANCES, CN_CLUSTER, cluster, CN_LOCATION, config.getDC());
+                preparedQuery = selectByClusterAndLocation.asPreparedStatement()
+                        .withStringValue(cluster)
+                        .withStringValue(config.getDC());
             }
 
             if (config.isDebugEnabled()) {
-                logger.debug("Getting nodes for {}: {}", cluster, selectClause);
+                logger.debug("Getting nodes for {} in {}", cluster, config.getDC());
             }
 
-            final ColumnFamily<String, String> CF_INSTANCES_NEW = ColumnFamily.newColumnFamily(
-                    KS_NAME, StringSerializer.get(), StringSerializer.get());
-
-            OperationResult<CqlResult<String, String>> result =
-                    bootKeyspace.prepareQuery(CF_INSTANCES_NEW).withCql(selectClause).execute();
+            OperationResult<CqlResult<String, String>> result = preparedQuery.execute();
 
             for (Row<String, String> row : result.getResult().getRows()) {
                 list.add(transform(row.getColumns()));
             }
         }
         catch (Exception e) {
+            getAllInstancesErrors.increment();
             logger.warn("Caught unknown exception while reading: {}", e.getMessage());
             throw new RuntimeException(e);
         }
+        finally {
+            stopwatch.stop();
+        }
 
         if (config.isDebugEnabled()) {
             for (RaigadInstance instance : list) {
@@ -195,32 +211,25 @@ public class InstanceDataDAOCassandra {
         logger.info("Deleting dead instance entry");
 
         // Acquire the lock first
-        getLock(instance);
+        RegistrationLease lease = registrationLock.acquire(getLockingKey(instance), instance.getInstanceId());
 
-        // Delete the row
         String key = findKey(instance.getApp(), instance.getInstanceId(), instance.getDC());
 
-        if (key == null) {
-            return;  // don't fail it
+        if (lease.isExpired()) {
+            throw new Exception("Lease " + lease + " expired before the instance entry was deleted");
         }
 
-        MutationBatch m = bootKeyspace.prepareMutationBatch();
-        m.withRow(CF_INSTANCES, key).delete();
-        m.execute();
-
-        key = getLockingKey(instance);
+        // Deleted as of the fencing token, a stale holder's delete cannot remove a newer registration. The instance row,
+        // the choosing row left behind by older versions of the lock and the lease itself go away in a single batch.
+        MutationBatch mutationBatch = bootKeyspace.prepareMutationBatch().setTimestamp(lease.getFencingToken());
 
-        // Delete key
-        m = bootKeyspace.prepareMutationBatch();
-        m.withRow(CF_LOCKS, key).delete();
-        m.execute();
+        if (key != null) {
+            mutationBatch.withRow(CF_INSTANCES, key).delete();
+        }
 
-        // Have to delete choosing key as well to avoid issues with delete
-        // followed by immediate writes
-        key = getChoosingKey(instance);
-        m = bootKeyspace.prepareMutationBatch();
-        m.withRow(CF_LOCKS, key).delete();
-        m.execute();
+        mutationBatch.withRow(CF_LOCKS, getChoosingKey(instance)).delete();
+        mutationBatch.withRow(CF_LOCKS, lease.getLockKey()).delete();
+        mutationBatch.execute();
     }
 
     protected void sort(List<RaigadInstance> list) {
@@ -239,61 +248,17 @@ public class InstanceDataDAOCassandra {
         });
     }
 
-    /*
-     * To get a lock on the row - Create a choosing row and make sure there are
-     * no contenders. If there are bail out. Also delete the column when bailing
-     * out. - Once there are no contenders, grab the lock if it is not already
-     * taken.
-     */
-    private void getLock(RaigadInstance instance) throws Exception {
-        String choosingkey = getChoosingKey(instance);
-        MutationBatch m = bootKeyspace.prepareMutationBatch();
-        ColumnListMutation<String> clm = m.withRow(CF_LOCKS, choosingkey);
-
-        // Expire in 6 sec
-        clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(6));
-        m.execute();
-        int count = bootKeyspace.prepareQuery(CF_LOCKS).getKey(choosingkey).getCount().execute().getResult();
-        if (count > 1) {
-            // Need to delete my entry
-            m.withRow(CF_LOCKS, choosingkey).deleteColumn(instance.getInstanceId());
-            m.execute();
-            throw new Exception(String.format("More than 1 contender for lock %s %d", choosingkey, count));
-        }
-
-        String lockKey = getLockingKey(instance);
-        OperationResult<ColumnList<String>> result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey).execute();
-        if (result.getResult().size() > 0 && !result.getResult().getColumnByIndex(0).getName().equals(instance.getInstanceId())) {
-            throw new Exception(String.format("Lock already taken %s", lockKey));
-        }
-
-        clm = m.withRow(CF_LOCKS, lockKey);
-        clm.putColumn(instance.getInstanceId(), instance.getInstanceId(), new Integer(600));
-        m.execute();
-        Thread.sleep(100);
-        result = bootKeyspace.prepareQuery(CF_LOCKS).getKey(lockKey).execute();
-        if (result.getResult().size() == 1 && result.getResult().getColumnByIndex(0).getName().equals(instance.getInstanceId())) {
-            logger.info("Got lock " + lockKey);
-            return;
-        }
-        else {
-            throw new Exception(String.format("Cannot insert lock %s", lockKey));
-        }
-    }
-
     public String findKey(String cluster, String instanceId, String dc) {
-        try {
-            final String selectClause = String.format(
-                    "SELECT * FROM %s WHERE %s = '%s' and %s = '%s' and %s = '%s'  ", CF_NAME_INSTANCES,
-                    CN_CLUSTER, cluster, CN_INSTANCEID, instanceId, CN_LOCATION, dc);
+        Stopwatch stopwatch = findKeyLatency.start();
 
-            logger.info(selectClause);
-
-            final ColumnFamily<String, String> CF_INSTANCES_NEW = ColumnFamily.newColumnFamily(KS_NAME,
-                    StringSerializer.get(), StringSerializer.get());
+        try {
+            logger.info("Looking up row key for cluster [{}], id [{}], and region [{}]", cluster, instanceId, dc);
 
-            OperationResult<CqlResult<String, String>> result = bootKeyspace.prepareQuery(CF_INSTANCES_NEW)
-                    .withCql(selectClause).execute();
+            OperationResult<CqlResult<String, String>> result = selectByClusterInstanceAndLocation.asPreparedStatement()
+                    .withStringValue(cluster)
+                    .withStringValue(instanceId)
+                    .withStringValue(dc)
+                    .execute();
 
             if (result == null || result.getResult().getRows().size() == 0) {
                 return null;
@@ -304,11 +269,15 @@ public class InstanceDataDAOCassandra {
 
         }
         catch (Exception e) {
+            findKeyErrors.increment();
             logger.warn("Caught an Unknown Exception during find a row matching cluster[" + cluster +
                     "], id[" + instanceId + "], and region[" + dc + "]  ... -> "
                     + e.getMessage());
             throw new RuntimeException(e);
         }
+        finally {
+            stopwatch.stop();
+        }
     }
 
     private RaigadInstance transform(ColumnList<String> columns) {
@@ -345,70 +314,4 @@ public class InstanceDataDAOCassandra {
     private String getRowKey(RaigadInstance instance) {
         return instance.getApp() + "_" + instance.getDC() + "_" + instance.getInstanceId();
     }
-
-    private AstyanaxContext<Keyspace> initWithThriftDriverWithEurekaHostsSupplier() {
-        logger.info("Boot cluster (BOOT_CLUSTER) is {}, keyspace name (KS_NAME) is {}", BOOT_CLUSTER, KS_NAME);
-
-        return new AstyanaxContext.Builder()
-                .forCluster(BOOT_CLUSTER)
-                .forKeyspace(KS_NAME)
-                .withAstyanaxConfiguration(
-                        new AstyanaxConfigurationImpl()
-                                .setDiscoveryType(
-                                        NodeDiscoveryType.DISCOVERY_SERVICE))
-                .withConnectionPoolConfiguration(
-                        new ConnectionPoolConfigurationImpl(
-                                "MyConnectionPool")
-                                .setMaxConnsPerHost(3)
-                                .setPort(thriftPortForAstyanax))
-                .withHostSupplier(eurekaHostsSupplier.getSupplier(BOOT_CLUSTER))
-                .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
-                .buildKeyspace(ThriftFamilyFactory.getInstance());
-
-    }
-
-    private AstyanaxContext<Keyspace> initWithThriftDriverWithExternalHostsSupplier() {
-        logger.info("Boot cluster (BOOT_CLUSTER) is {}, keyspace name (KS_NAME) is {}", BOOT_CLUSTER, KS_NAME);
-
-        return new AstyanaxContext.Builder()
-                .forCluster(BOOT_CLUSTER)
-                .forKeyspace(KS_NAME)
-                .withAstyanaxConfiguration(
-                        new AstyanaxConfigurationImpl()
-                                .setDiscoveryType(
-                                        NodeDiscoveryType.DISCOVERY_SERVICE)
-                                .setConnectionPoolType(
-                                        ConnectionPoolType.ROUND_ROBIN))
-                .withConnectionPoolConfiguration(
-                        new ConnectionPoolConfigurationImpl(
-                                "MyConnectionPool")
-                                .setMaxConnsPerHost(3)
-                                .setPort(thriftPortForAstyanax))
-                .withHostSupplier(getSupplier())
-                .withConnectionPoolMonitor(new CountingConnectionPoolMonitor())
-                .buildKeyspace(ThriftFamilyFactory.getInstance());
-
-    }
-
-    private Supplier<List<Host>> getSupplier() {
-        return new Supplier<List<Host>>() {
-            @Override
-            public List<Host> get() {
-                List<Host> hosts = new ArrayList<>();
-                List<String> cassandraHostnames = new ArrayList<>(Arrays.asList(StringUtils.split(config.getCommaSeparatedCassandraHostNames(), ",")));
-
-                if (cassandraHostnames.size() == 0) {
-                    throw new RuntimeException("Cassandra host names can not be blank, at least one host is needed." +
-                            "Please use getCommaSeparatedCassandraHostNames() property.");
-                }
-
-                for (String cassHost : cassandraHostnames) {
-                    logger.info("Adding Cassandra host {}", cassHost);
-                    hosts.add(new Host(cassHost, thriftPortForAstyanax));
-                }
-
-                return hosts;
-            }
-        };
-    }
 }
@@ -42,13 +42,16 @@ public class InstanceManager {
 	private final IRaigadInstanceFactory instanceFactory;
 	private final IMembership membership;
 	private final IConfiguration config;
+	private final MembershipWatcher membershipWatcher;
 	private RaigadInstance thisInstance;
 
 	@Inject
-	public InstanceManager(IRaigadInstanceFactory instanceFactory, IMembership membership, IConfiguration config) throws Exception {
+	public InstanceManager(IRaigadInstanceFactory instanceFactory, IMembership membership, IConfiguration config,
+						   MembershipWatcher membershipWatcher) throws Exception {
 		this.instanceFactory = instanceFactory;
 		this.membership = membership;
 		this.config = config;
+		this.membershipWatcher = membershipWatcher;
 		init();
 	}
 
@@ -83,7 +86,11 @@ public class InstanceManager {
 	}
 
 	private void deregisterInstance(IRaigadInstanceFactory instanceFactory, IConfiguration config) throws Exception {
-		final List<RaigadInstance> allInstances = getInstanceList();
+		// Dead instances are looked up in the registry directly, never in a possibly stale snapshot
+		final List<RaigadInstance> allInstances = new ArrayList<>();
+		for (String clusterName : getClusterNames()) {
+			allInstances.addAll(instanceFactory.getAllIds(clusterName));
+		}
 
 		HashSet<String> asgNames = new HashSet<>();
 		for (RaigadInstance raigadInstance : allInstances) {
@@ -136,12 +143,46 @@ public class InstanceManager {
 		return thisInstance;
 	}
 
+	/**
+	 * Get all known instances, served from the latest {@link MembershipWatcher} snapshot
+	 */
 	public List<RaigadInstance> getAllInstances() {
-		return getInstanceList();
+		List<RaigadInstance> instances = new ArrayList<RaigadInstance>();
+
+		for (String clusterName : getClusterNames()) {
+			instances.addAll(membershipWatcher.getInstances(clusterName));
+		}
+
+		if (config.isDebugEnabled()) {
+			for (RaigadInstance instance : instances) {
+				logger.debug(instance.toString());
+			}
+		}
+
+		return instances;
 	}
 
-	private List<RaigadInstance> getInstanceList() {
-		List<RaigadInstance> instances = new ArrayList<RaigadInstance>();
+	/**
+	 * @return version of the membership returned by {@link #getAllInstances()}, grows on every change
+	 */
+	public long getMembershipVersion() {
+		return membershipWatcher.getVersion();
+	}
+
+	/**
+	 * Wait for the membership version to move past the given one, at most for the given time
+	 *
+	 * @return current membership version
+	 */
+	public long awaitMembershipChange(long sinceVersion, long timeoutMs) throws InterruptedException {
+		return membershipWatcher.awaitVersionChange(sinceVersion, timeoutMs);
+	}
+
+	private List<String> getClusterNames() {
+		List<String> clusterNames = new ArrayList<>();
+
+		// Adding current cluster
+		clusterNames.add(config.getAppName());
 
 		// Considering same cluster will not serve as a tribe node and source cluster for the tribe node
 		if (config.amITribeNode()) {
@@ -151,40 +192,15 @@ public class InstanceManager {
 			String[] clusters = StringUtils.split(clusterParams, COMMA_SEPARATOR);
 			assert (clusters.length != 0) : "One or more clusters needed";
 
-			List<String> sourceClusters = new ArrayList<>();
-
-			// Adding current cluster
-			sourceClusters.add(config.getAppName());
-
 			// Common settings
 			for (int i = 0; i < clusters.length; i ++) {
 				String[] clusterAndPort = clusters[i].split(PARAM_SEPARATOR);
 				assert (clusterAndPort.length != 2) : "Cluster name or transport port is missing in configuration";
-				sourceClusters.add(clusterAndPort[0]);
-				logger.info("Adding cluster = <{}> ", clusterAndPort[0]);
-			}
-
-			for (String sourceClusterName : sourceClusters) {
-				instances.addAll(instanceFactory.getAllIds(sourceClusterName));
-			}
-
-			logger.info("Printing tribe node related nodes...");
-
-			for (RaigadInstance instance:instances) {
-				logger.info(instance.toString());
-			}
-		}
-		else {
-			instances.addAll(instanceFactory.getAllIds(config.getAppName()));
-		}
-
-		if (config.isDebugEnabled()) {
-			for (RaigadInstance instance : instances) {
-				logger.debug(instance.toString());
+				clusterNames.add(clusterAndPort[0]);
 			}
 		}
 
-		return instances;
+		return clusterNames;
 	}
 
 	public List<RaigadInstance> getAllInstancesPerCluster(String clusterName) {
@@ -193,7 +209,7 @@ public class InstanceManager {
 
 	private List<RaigadInstance> getInstanceListPerCluster(String clusterName) {
 		List<RaigadInstance> instances = new ArrayList<RaigadInstance>();
-		instances.addAll(instanceFactory.getAllIds(clusterName.trim().toLowerCase()));
+		instances.addAll(membershipWatcher.getInstances(clusterName.trim().toLowerCase()));
 
 		if (config.isDebugEnabled()) {
 			for (RaigadInstance instance : instances) {
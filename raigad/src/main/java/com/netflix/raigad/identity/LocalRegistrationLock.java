@@ -0,0 +1,54 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.Singleton;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IRegistrationLock} held in memory, for registries that are not shared through Cassandra.
+ * Locks only exclude owners within this process, tokens are strictly increasing microsecond timestamps.
+ */
+@Singleton
+public class LocalRegistrationLock implements IRegistrationLock {
+    private final Map<String, RegistrationLease> leases = new HashMap<>();
+    private long lastToken;
+
+    @Override
+    public synchronized RegistrationLease acquire(String lockKey, String owner) throws Exception {
+        RegistrationLease holder = leases.get(lockKey);
+        if (holder != null && !holder.isExpired() && !owner.equals(holder.getOwner())) {
+            throw new Exception(String.format("Lock %s already taken by %s", lockKey, holder.getOwner()));
+        }
+
+        long now = System.currentTimeMillis();
+        lastToken = Math.max(lastToken + 1, TimeUnit.MILLISECONDS.toMicros(now));
+
+        RegistrationLease lease = new RegistrationLease(lockKey, owner, lastToken,
+                now + TimeUnit.SECONDS.toMillis(CassandraRegistrationLock.DEFAULT_LEASE_SECONDS));
+        leases.put(lockKey, lease);
+        return lease;
+    }
+
+    @Override
+    public synchronized void release(RegistrationLease lease) {
+        leases.remove(lease.getLockKey(), lease);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Difference between two successive membership snapshots of a cluster
+ */
+public class MembershipChange {
+    private final String cluster;
+    private final long version;
+    private final List<RaigadInstance> added;
+    private final List<RaigadInstance> removed;
+    private final List<RaigadInstance> changed;
+
+    public MembershipChange(String cluster, long version,
+                            List<RaigadInstance> added, List<RaigadInstance> removed, List<RaigadInstance> changed) {
+        this.cluster = cluster;
+        this.version = version;
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.changed = Collections.unmodifiableList(changed);
+    }
+
+    public String getCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return membership version after this change was applied
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public List<RaigadInstance> getAdded() {
+        return added;
+    }
+
+    public List<RaigadInstance> getRemoved() {
+        return removed;
+    }
+
+    public List<RaigadInstance> getChanged() {
+        return changed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s v%d: %d added, %d removed, %d changed",
+                cluster, version, added.size(), removed.size(), changed.size());
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.raigad.scheduler.SimpleTimer;
+import com.netflix.raigad.scheduler.Task;
+import com.netflix.raigad.scheduler.TaskTimer;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the latest membership snapshot of every cluster that was asked for and periodically
+ * re-reads it from {@link IRaigadInstanceFactory}. Differences between successive snapshots
+ * are published to registered listeners together with a version that grows on every change,
+ * so consumers can tell cheaply whether there is anything new to act on.
+ * <p>
+ * Registries able to notify about changes are not polled, a cluster is re-read when its registry reports a change.
+ */
+@Singleton
+public class MembershipWatcher extends Task {
+    private static final Logger logger = LoggerFactory.getLogger(MembershipWatcher.class);
+
+    public static final String JOB_NAME = "MembershipWatcher";
+    private static final long REFRESH_INTERVAL_MS = 10 * 1000;
+    // Every waiter holds a request thread, callers past this many are answered right away
+    static final int MAX_WAITERS = 128;
+
+    private final IRaigadInstanceFactory instanceFactory;
+    private final ConcurrentMap<String, Map<String, RaigadInstance>> snapshots = new ConcurrentHashMap<>();
+    private final List<IMembershipListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong readSequence = new AtomicLong();
+    private final Map<String, Long> appliedReads = new HashMap<>();
+    private final boolean notified;
+    private int waiters;
+
+    @Inject
+    public MembershipWatcher(IConfiguration config, IRaigadInstanceFactory instanceFactory) {
+        super(config);
+        this.instanceFactory = instanceFactory;
+        this.notified = instanceFactory.addChangeListener(this::onRegistryChange);
+    }
+
+    @Override
+    public void execute() {
+        if (notified) {
+            return;
+        }
+
+        for (String cluster : snapshots.keySet()) {
+            try {
+                refresh(cluster);
+            }
+            catch (Exception e) {
+                logger.warn("Failed to refresh membership of " + cluster, e);
+            }
+        }
+    }
+
+    /**
+     * Get the latest known instances of a cluster. The first call for a cluster reads it
+     * from the instance factory, later calls are served from the snapshot.
+     */
+    public List<RaigadInstance> getInstances(String cluster) {
+        Map<String, RaigadInstance> snapshot = snapshots.get(cluster);
+
+        if (snapshot == null) {
+            refresh(cluster);
+            snapshot = snapshots.get(cluster);
+        }
+
+        return new ArrayList<>(snapshot.values());
+    }
+
+    /**
+     * Re-read a cluster from the instance factory and publish the difference to the previous snapshot
+     */
+    public MembershipChange refresh(String cluster) {
+        MembershipChange change = update(cluster);
+
+        // Listeners run outside of the lock, they are free to read from the watcher again
+        if (!change.isEmpty()) {
+            publish(change);
+        }
+
+        return change;
+    }
+
+    private MembershipChange update(String cluster) {
+        // The registry is read without holding the lock, a slow read must not hold up other clusters or readers
+        long readId = readSequence.incrementAndGet();
+        List<RaigadInstance> instances = instanceFactory.getAllIds(cluster);
+
+        return apply(cluster, readId, instances);
+    }
+
+    private synchronized MembershipChange apply(String cluster, long readId, List<RaigadInstance> instances) {
+        // A read that started before the one already applied is stale
+        Long appliedRead = appliedReads.get(cluster);
+        if (appliedRead != null && appliedRead > readId) {
+            return new MembershipChange(cluster, version.get(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        }
+        appliedReads.put(cluster, readId);
+
+        Map<String, RaigadInstance> current = new LinkedHashMap<>();
+        for (RaigadInstance instance : instances) {
+            current.put(getKey(instance), instance);
+        }
+
+        Map<String, RaigadInstance> previous = snapshots.get(cluster);
+        if (previous == null) {
+            previous = Collections.emptyMap();
+        }
+
+        List<RaigadInstance> added = new ArrayList<>();
+        List<RaigadInstance> changed = new ArrayList<>();
+        List<RaigadInstance> removed = new ArrayList<>();
+
+        for (Map.Entry<String, RaigadInstance> entry : current.entrySet()) {
+            RaigadInstance before = previous.get(entry.getKey());
+            if (before == null) {
+                added.add(entry.getValue());
+            }
+            else if (!isSame(before, entry.getValue())) {
+                changed.add(entry.getValue());
+            }
+        }
+
+        for (Map.Entry<String, RaigadInstance> entry : previous.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                removed.add(entry.getValue());
+            }
+        }
+
+        boolean firstSnapshot = !snapshots.containsKey(cluster);
+        snapshots.put(cluster, Collections.unmodifiableMap(current));
+
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty() && !firstSnapshot) {
+            return new MembershipChange(cluster, version.get(), added, removed, changed);
+        }
+
+        MembershipChange change = new MembershipChange(cluster, version.incrementAndGet(), added, removed, changed);
+        logger.info("Membership changed: {}", change);
+
+        // Wake up long-polling readers, see awaitVersionChange
+        notifyAll();
+        return change;
+    }
+
+    private void onRegistryChange(String cluster) {
+        // Only clusters somebody asked for are watched
+        if (!snapshots.containsKey(cluster)) {
+            return;
+        }
+
+        try {
+            refresh(cluster);
+        }
+        catch (Exception e) {
+            logger.warn("Failed to refresh membership of " + cluster, e);
+        }
+    }
+
+    /**
+     * @return version that grows every time the membership of any watched cluster changes
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Block until the version moves past the given one or the timeout expires. A version ahead of the current one
+     * is from before a restart, there is nothing to wait for. Neither is there with {@link #MAX_WAITERS} waiting already.
+     *
+     * @return version at the time of returning
+     */
+    public synchronized long awaitVersionChange(long sinceVersion, long timeoutMs) throws InterruptedException {
+        if (sinceVersion > version.get() || waiters >= MAX_WAITERS) {
+            return version.get();
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        waiters++;
+
+        try {
+            while (version.get() <= sinceVersion) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+
+                wait(remaining);
+            }
+        } finally {
+            waiters--;
+        }
+
+        return version.get();
+    }
+
+    public void addListener(IMembershipListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(IMembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void publish(MembershipChange change) {
+        for (IMembershipListener listener : listeners) {
+            try {
+                listener.onMembershipChange(change);
+            }
+            catch (Exception e) {
+                logger.warn("Membership listener failed on " + change, e);
+            }
+        }
+    }
+
+    private static String getKey(RaigadInstance instance) {
+        return instance.getDC() + "." + instance.getInstanceId();
+    }
+
+    private static boolean isSame(RaigadInstance a, RaigadInstance b) {
+        return StringUtils.equals(a.getHostIP(), b.getHostIP()) &&
+                StringUtils.equals(a.getHostName(), b.getHostName()) &&
+                StringUtils.equals(a.getAvailabilityZone(), b.getAvailabilityZone()) &&
+                StringUtils.equals(a.getAsg(), b.getAsg()) &&
+                StringUtils.equals(a.getId(), b.getId()) &&
+                a.getUpdatetime() == b.getUpdatetime();
+    }
+
+    public static TaskTimer getTimer() {
+        return new SimpleTimer(JOB_NAME, REFRESH_INTERVAL_MS);
+    }
+
+    @Override
+    public String getName() {
+        return JOB_NAME;
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+/**
+ * Lease handed out by {@link IRegistrationLock}. The fencing token is used as
+ * the write timestamp of everything done under the lease, so writes from an
+ * older, expired holder can never override the ones made by a newer holder.
+ */
+public class RegistrationLease {
+    private final String lockKey;
+    private final String owner;
+    private final long fencingToken;
+    private final long expiresAtMillis;
+
+    public RegistrationLease(String lockKey, String owner, long fencingToken, long expiresAtMillis) {
+        this.lockKey = lockKey;
+        this.owner = owner;
+        this.fencingToken = fencingToken;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    public String getLockKey() {
+        return lockKey;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s held by %s (token %d)", lockKey, owner, fencingToken);
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.identity;
+
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.netflix.raigad.configuration.IConfiguration;
+
+/**
+ * Picks the {@link IRegistrationLock} going with the registry {@link RaigadInstanceFactoryProvider} picks,
+ * a file based registry needs no Cassandra to start up
+ */
+public class RegistrationLockProvider implements Provider<IRegistrationLock> {
+    private final IConfiguration config;
+    private final Injector injector;
+
+    @Inject
+    public RegistrationLockProvider(IConfiguration config, Injector injector) {
+        this.config = config;
+        this.injector = injector;
+    }
+
+    @Override
+    public IRegistrationLock get() {
+        if (RaigadInstanceFactoryProvider.FILE.equalsIgnoreCase(config.getInstanceFactory())) {
+            return injector.getInstance(LocalRegistrationLock.class);
+        }
+
+        return injector.getInstance(CassandraRegistrationLock.class);
+    }
+}
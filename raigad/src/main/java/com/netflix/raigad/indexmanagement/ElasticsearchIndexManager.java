@@ -16,25 +16,61 @@
 
 package com.netflix.raigad.indexmanagement;
 
+import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.indexmanagement.exception.UnsupportedAutoIndexException;
 import com.netflix.raigad.scheduler.CronTimer;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.annotations.Monitor;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import com.netflix.servo.monitor.Stopwatch;
 import com.netflix.raigad.scheduler.Task;
 import com.netflix.raigad.scheduler.TaskTimer;
 import com.netflix.raigad.utils.*;
+import org.elasticsearch.ResourceAlreadyExistsException;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
+import org.elasticsearch.action.admin.cluster.repositories.get.GetRepositoriesResponse;
+import org.elasticsearch.action.admin.cluster.snapshots.get.GetSnapshotsResponse;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexResponse;
-import org.elasticsearch.action.admin.indices.stats.IndexStats;
-import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.admin.indices.rollover.RolloverRequestBuilder;
+import org.elasticsearch.action.admin.indices.rollover.RolloverResponse;
+import org.elasticsearch.action.admin.indices.stats.CommonStatsFlags;
+import org.elasticsearch.action.support.ActiveShardCount;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.IndexTemplateMetaData;
+import org.elasticsearch.cluster.metadata.RepositoryMetaData;
+import org.elasticsearch.common.regex.Regex;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.snapshots.SnapshotInfo;
+import org.elasticsearch.snapshots.SnapshotState;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * Index retention will delete indices older than certain date e.g. if the current date is 10/28/2014,
@@ -49,19 +85,70 @@ import java.util.Set;
  * Index to be deleted is test_index20141024.
  * <p>
  * If pre-create option is enabled, then one future index will be pre-created. Using the input data from above,
- * the following index will be pre-created: test_index20141029
+ * the following index will be pre-created: test_index20141029. More periods can be created ahead with preCreatePeriods,
+ * with a preCreatePeriods of 2 test_index20141030 is created as well.
  */
 @Singleton
 public class ElasticsearchIndexManager extends Task {
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchIndexManager.class);
 
     public static String JOB_NAME = "ElasticsearchIndexManager";
+
+    private static final BasicTimer retentionDeleteLatency = new BasicTimer(
+            MonitorConfig.builder("retentionDeleteLatency").withTag("class", "ElasticsearchIndexManager").build(), TimeUnit.MILLISECONDS);
+    private static final BasicCounter indicesDeleted = new BasicCounter(
+            MonitorConfig.builder("indicesDeleted").withTag("class", "ElasticsearchIndexManager").build());
+    private static final BasicCounter indicesClosed = new BasicCounter(
+            MonitorConfig.builder("indicesClosed").withTag("class", "ElasticsearchIndexManager").build());
+    private static final BasicCounter indicesOpenedOnDemand = new BasicCounter(
+            MonitorConfig.builder("indicesOpenedOnDemand").withTag("class", "ElasticsearchIndexManager").build());
+    private static final BasicCounter indicesPreCreated = new BasicCounter(
+            MonitorConfig.builder("indicesPreCreated").withTag("class", "ElasticsearchIndexManager").build());
+
+    private static final AtomicLong hotTierBytes = new AtomicLong();
+    private static final AtomicLong warmTierBytes = new AtomicLong();
+    private static final AtomicLong coldTierBytes = new AtomicLong();
+
+    static {
+        Monitors.registerObject(retentionDeleteLatency);
+        Monitors.registerObject(indicesDeleted);
+        Monitors.registerObject(indicesClosed);
+        Monitors.registerObject(indicesOpenedOnDemand);
+        Monitors.registerObject(indicesPreCreated);
+        Monitors.registerObject(new Elasticsearch_IndexTierReporter());
+    }
+
+    public static class Elasticsearch_IndexTierReporter {
+        @Monitor(name = "hot_tier_size_in_bytes", type = DataSourceType.GAUGE)
+        public long getHotTierSizeInBytes() {
+            return hotTierBytes.get();
+        }
+
+        @Monitor(name = "warm_tier_size_in_bytes", type = DataSourceType.GAUGE)
+        public long getWarmTierSizeInBytes() {
+            return warmTierBytes.get();
+        }
+
+        @Monitor(name = "cold_tier_size_in_bytes", type = DataSourceType.GAUGE)
+        public long getColdTierSizeInBytes() {
+            return coldTierBytes.get();
+        }
+    }
+
     private final HttpModule httpModule;
+    private final AdminOperationGate adminOperationGate;
+    private final IndexForceMerger indexForceMerger;
+    private final IndexShrinker indexShrinker;
+    private final OnDemandIndices onDemandIndices;
 
     @Inject
-    protected ElasticsearchIndexManager(IConfiguration config, HttpModule httpModule) {
+    protected ElasticsearchIndexManager(IConfiguration config, HttpModule httpModule, AdminOperationGate adminOperationGate) {
         super(config);
         this.httpModule = httpModule;
+        this.adminOperationGate = adminOperationGate;
+        this.indexForceMerger = new IndexForceMerger(config);
+        this.indexShrinker = new IndexShrinker(config);
+        this.onDemandIndices = new OnDemandIndices();
     }
 
     Client getTransportClient() throws ElasticsearchTransportClientConnectionException {
@@ -83,13 +170,18 @@ public class ElasticsearchIndexManager extends Task {
             }
 
             // Only active master can perform index management
-            if (!ElasticsearchUtils.amIMasterNode(config, httpModule)) {
+            if (!isActiveMaster()) {
                 if (config.isDebugEnabled()) {
                     logger.debug("Cannot perform index management: current node is not an active master node");
                 }
                 return;
             }
 
+            if (config.isIndexManagementDryRun()) {
+                logger.info("Index management dry run, nothing is changed: {}", planIndexManagement());
+                return;
+            }
+
             runIndexManagement();
         } catch (Exception e) {
             logger.warn("Exception while performing index management", e);
@@ -116,15 +208,77 @@ public class ElasticsearchIndexManager extends Task {
     }
 
     void runIndexManagement(Client esTransportClient, List<IndexMetadata> indexMetadataList, DateTime dateTime) {
-        // Find all the indices
-        IndicesStatsResponse indicesStatsResponse = getIndicesStatsResponse(esTransportClient);
-        Map<String, IndexStats> indexStatsMap = indicesStatsResponse.getIndices();
+        // Find all the indices, once for the whole run
+        IndexCatalog indexCatalog = getIndexCatalog(esTransportClient);
 
-        if (indexStatsMap == null || indexStatsMap.isEmpty()) {
+        if (indexCatalog.isEmpty()) {
             logger.info("Cluster is empty, no indices found");
             return;
         }
 
+        IndexManagementPlan plan = planIndexManagement(esTransportClient, indexCatalog, indexMetadataList, dateTime);
+        if (plan != null) {
+            executePlan(esTransportClient, indexCatalog, plan);
+        }
+    }
+
+    /**
+     * Works out what a run would do right now without changing anything, with the cost of each action
+     */
+    public IndexManagementPlan planIndexManagement() throws Exception {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(config.getIndexMetadata());
+        Client esTransportClient = getTransportClient();
+        IndexCatalog indexCatalog = getIndexCatalog(esTransportClient);
+
+        IndexManagementPlan plan = planIndexManagement(esTransportClient, indexCatalog, indexMetadataList, new DateTime());
+        if (plan == null) {
+            throw new IllegalStateException("Index metadata could not be evaluated, see the log for details");
+        }
+
+        // Sizes read while planning are reused, the estimate goes by the same snapshot
+        plan.estimate(indexCatalog, getIndexSizes(esTransportClient, indexCatalog, indexMetadataList, plan),
+                config.getNumOfShards(), config.getNumOfReplicas(),
+                config.getIndexPlanRecoveryMbPerSec() * 1024L * 1024L, config.getIndexReplicaMaxRecoveries(),
+                config.getIndexPlanMergeMbPerSec() * 1024L * 1024L);
+        return plan;
+    }
+
+    /**
+     * @return shard advice for every date based index metadata with a complete period to go by
+     */
+    public List<ShardSizingAdvisor.ShardAdvice> getShardAdvice() throws Exception {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(config.getIndexMetadata());
+        Client esTransportClient = getTransportClient();
+        IndexCatalog indexCatalog = getIndexCatalog(esTransportClient);
+        DateTime dateTime = new DateTime();
+
+        // Only the periods advice goes by are read, in a single stats request
+        Set<String> historyIndices = new TreeSet<>();
+        for (IndexMetadata indexMetadata : indexMetadataList) {
+            historyIndices.addAll(ShardSizingAdvisor.getHistoryIndices(indexMetadata, indexCatalog, dateTime));
+        }
+        Map<String, IndexManagementPlan.IndexSize> indexSizes = getIndexSizes(esTransportClient, historyIndices);
+
+        List<ShardSizingAdvisor.ShardAdvice> shardAdvice = new ArrayList<>();
+        for (IndexMetadata indexMetadata : indexMetadataList) {
+            ShardSizingAdvisor.ShardAdvice advice = ShardSizingAdvisor.advise(indexMetadata, indexCatalog, indexSizes, dateTime);
+            if (advice != null) {
+                shardAdvice.add(advice);
+            }
+        }
+
+        return shardAdvice;
+    }
+
+    /**
+     * Evaluates every index metadata against the catalog, only reading from the cluster
+     *
+     * @return the plan, null if an index metadata could not be evaluated
+     */
+    IndexManagementPlan planIndexManagement(Client esTransportClient, IndexCatalog indexCatalog, List<IndexMetadata> indexMetadataList, DateTime dateTime) {
+        // Actions of all index metadata are collected first, expired indices are deleted together
+        IndexManagementPlan plan = new IndexManagementPlan(dateTime);
+
         for (IndexMetadata indexMetadata : indexMetadataList) {
             if (!indexMetadata.isActionable()) {
                 logger.warn(String.format("Index metadata %s is not actionable, skipping", indexMetadata));
@@ -132,16 +286,579 @@ public class ElasticsearchIndexManager extends Task {
             }
 
             try {
-                checkIndexRetention(esTransportClient, indexStatsMap.keySet(), indexMetadata, dateTime);
+                if (indexMetadata.isTiered()) {
+                    plan.getTierTransitions().putAll(checkIndexTiers(indexCatalog, indexMetadata, dateTime));
+                    plan.setTiered(true);
+                }
+
+                if (indexMetadata.isForceMerge()) {
+                    plan.getForceMergeCandidates().putAll(checkForceMerge(indexCatalog, indexMetadata, dateTime));
+                }
+
+                if (indexMetadata.isShrink()) {
+                    plan.getShrinkCandidates().putAll(checkShrink(indexCatalog, indexMetadata, dateTime));
+                }
+
+                if (indexMetadata.isClose()) {
+                    plan.getIndicesToClose().addAll(checkIndexClose(indexCatalog, indexMetadata, dateTime));
+                }
+
+                if (indexMetadata.hasReplicaSchedule()) {
+                    plan.getReplicaChanges().putAll(checkReplicaSchedule(indexCatalog, indexMetadata, dateTime));
+                }
+
+                if (indexMetadata.isRollover()) {
+                    plan.getRollovers().add(indexMetadata.getRollover());
+
+                    if (indexMetadata.getRetentionPeriod() != null) {
+                        plan.getExpiredIndices().addAll(checkRolloverRetention(indexCatalog, indexMetadata, dateTime));
+                    }
+                    continue;
+                }
+
+                if (indexMetadata.getRetentionPeriod() != null) {
+                    plan.getExpiredIndices().addAll(checkIndexRetention(esTransportClient, indexCatalog.getIndexNames(), indexMetadata, dateTime));
+                }
 
                 if (indexMetadata.isPreCreate()) {
-                    preCreateIndex(esTransportClient, indexMetadata, dateTime);
+                    Map<String, Settings> indicesToCreate = checkPreCreate(esTransportClient, indexCatalog, indexMetadata, dateTime);
+
+                    if (indexMetadata.isAutoShards() && !indicesToCreate.isEmpty()) {
+                        // Index stats are only read once per run, and only when there is something to size
+                        Map<String, IndexManagementPlan.IndexSize> indexSizes =
+                                getIndexSizes(esTransportClient, indexCatalog, indexMetadataList, plan);
+
+                        ShardSizingAdvisor.ShardAdvice shardAdvice = ShardSizingAdvisor.advise(indexMetadata, indexCatalog, indexSizes, dateTime);
+                        logger.info("Shard advice for {}: {}", indexMetadata.getIndexNamePattern(), shardAdvice);
+                        indicesToCreate = ShardSizingAdvisor.applyAdvice(indicesToCreate, indexMetadata, shardAdvice, dateTime);
+                    }
+
+                    plan.getIndicesToCreate().putAll(indicesToCreate);
                 }
             } catch (Exception e) {
                 logger.error("Caught an exception while building index metadata information from configuration property", e);
-                return;
+                return null;
+            }
+        }
+
+        plan.prune(indexCatalog);
+        return plan;
+    }
+
+    void executePlan(Client esTransportClient, IndexCatalog indexCatalog, IndexManagementPlan plan) {
+        for (RolloverPolicy rollover : plan.getRollovers()) {
+            if (!admitAdminOperation(esTransportClient)) {
+                logger.warn("Master is still busy, leaving rollover of {} for the next run", rollover.getAlias());
+                continue;
+            }
+            rolloverIndex(esTransportClient, indexCatalog, rollover, plan.getDateTime());
+        }
+
+        deleteExpiredIndices(esTransportClient, plan.getExpiredIndices());
+
+        for (Map.Entry<String, Settings> entry : plan.getIndicesToCreate().entrySet()) {
+            if (!admitAdminOperation(esTransportClient)) {
+                logger.warn("Master is still busy, leaving creation of {} for the next run", entry.getKey());
+                continue;
+            }
+            createIndex(esTransportClient, indexCatalog, entry.getKey(), entry.getValue());
+        }
+
+        // Indices opened on demand go back to closed once idle
+        Set<String> indicesToClose = new TreeSet<>(plan.getIndicesToClose());
+        indicesToClose.addAll(onDemandIndices.removeIdle(System.currentTimeMillis(),
+                TimeUnit.MINUTES.toMillis(config.getIndexOnDemandIdleMinutes())));
+        indicesToClose.removeAll(plan.getExpiredIndices());
+        indicesToClose.removeIf(indexName -> IndexShrinker.isShrinking(indexCatalog, indexName));
+        closeAgedIndices(esTransportClient, indexCatalog, indicesToClose);
+
+        // Idle on-demand indices closed just now are out of the later stages as well
+        plan.prune(indexCatalog);
+
+        if (plan.isTiered()) {
+            applyTierTransitions(esTransportClient, indexCatalog, plan.getTierTransitions());
+            reportTierSizes(esTransportClient);
+        }
+
+        applyReplicaSchedule(esTransportClient, indexCatalog, plan.getReplicaChanges());
+
+        if (!plan.getShrinkCandidates().isEmpty()) {
+            getIndexShrinker().shrink(esTransportClient, indexCatalog, plan.getShrinkCandidates());
+        }
+
+        if (!plan.getForceMergeCandidates().isEmpty()) {
+            getIndexForceMerger().forceMerge(esTransportClient, indexCatalog, plan.getForceMergeCandidates(), plan.getDateTime());
+        }
+    }
+
+    IndexForceMerger getIndexForceMerger() {
+        return indexForceMerger;
+    }
+
+    IndexShrinker getIndexShrinker() {
+        return indexShrinker;
+    }
+
+    /**
+     * @return true if the index is of the index metadata and nothing is written to it anymore
+     */
+    private boolean isReadOnlyIndex(IndexCatalog indexCatalog, IndexMetadata indexMetadata, String indexName, DateTime dateTime) {
+        if (indexMetadata.isRollover()) {
+            RolloverPolicy rollover = indexMetadata.getRollover();
+            return rollover.isRolloverIndex(indexName) && !indexCatalog.getIndicesForAlias(rollover.getAlias()).contains(indexName);
+        }
+
+        return indexMetadata.isIndexOf(indexName) && indexMetadata.isPastIndex(indexName, dateTime);
+    }
+
+    /**
+     * @return indices nothing is written to anymore, with the size of the shards to shrink them to
+     */
+    Map<String, ByteSizeValue> checkShrink(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        Map<String, ByteSizeValue> shrinkCandidates = new TreeMap<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            if (isReadOnlyIndex(indexCatalog, indexMetadata, indexName, dateTime)) {
+                shrinkCandidates.put(indexName, indexMetadata.getShrinkShardSize());
+            }
+        }
+
+        return shrinkCandidates;
+    }
+
+    /**
+     * @return indices nothing is written to anymore, with the number of segments per shard to merge them down to
+     */
+    Map<String, Integer> checkForceMerge(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        Map<String, Integer> forceMergeCandidates = new TreeMap<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            if (isReadOnlyIndex(indexCatalog, indexMetadata, indexName, dateTime)) {
+                forceMergeCandidates.put(indexName, indexMetadata.getForceMergeSegments());
+            }
+        }
+
+        return forceMergeCandidates;
+    }
+
+    /**
+     * @return date the age of the index goes by, null if the index is not of the index metadata or is the rollover write index
+     */
+    private DateTime getIndexDate(IndexCatalog indexCatalog, IndexMetadata indexMetadata, String indexName) {
+        if (indexMetadata.isRollover()) {
+            RolloverPolicy rollover = indexMetadata.getRollover();
+
+            // The write index stays as it is whatever its age
+            if (!rollover.isRolloverIndex(indexName) || indexCatalog.getIndicesForAlias(rollover.getAlias()).contains(indexName)) {
+                return null;
+            }
+            return indexCatalog.getCreationDate(indexName);
+        }
+
+        return indexMetadata.isIndexOf(indexName) ? indexMetadata.getDateForIndexName(indexName) : null;
+    }
+
+    /**
+     * @return open indices old enough to be closed, apart from the ones opened on demand
+     */
+    Set<String> checkIndexClose(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        Set<String> indicesToClose = new TreeSet<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            if (indexCatalog.isClosed(indexName) || onDemandIndices.contains(indexName)) {
+                continue;
+            }
+
+            DateTime indexDate = getIndexDate(indexCatalog, indexMetadata, indexName);
+
+            if (indexDate != null && !indexDate.plus(indexMetadata.getCloseAfter()).isAfter(dateTime)) {
+                indicesToClose.add(indexName);
+            }
+        }
+
+        return indicesToClose;
+    }
+
+    /**
+     * Close indices a batch at a time, like deletes they are cluster state updates on the master
+     */
+    void closeAgedIndices(Client esTransportClient, IndexCatalog indexCatalog, Set<String> indicesToClose) {
+        if (indicesToClose.isEmpty()) {
+            return;
+        }
+
+        int closed = 0;
+
+        for (List<String> batch : Iterables.partition(indicesToClose, Math.max(1, config.getIndexRetentionDeleteBatchSize()))) {
+            if (!admitAdminOperation(esTransportClient)) {
+                logger.warn("Master is still busy, leaving {} indices to close for the next run", indicesToClose.size() - closed);
+                break;
+            }
+
+            closeIndices(esTransportClient, batch);
+            batch.forEach(indexName -> indexCatalog.setClosed(indexName, true));
+            closed += batch.size();
+            indicesClosed.increment(batch.size());
+        }
+
+        logger.info("Closed {} of {} indices", closed, indicesToClose.size());
+    }
+
+    /**
+     * Open a closed index for searching, it is closed again once idle or when too many indices are open on demand.
+     * Only index management on the active master knows which indices are open on demand, other nodes refuse.
+     *
+     * @return false if the index is open and was not opened on demand
+     * @throws IllegalArgumentException if there is no such index
+     * @throws IllegalStateException    if this is not the active master, or the master is too busy
+     */
+    public boolean openIndexOnDemand(String indexName) throws Exception {
+        if (!isActiveMaster()) {
+            throw new IllegalStateException("Not the active master, open " + indexName + " through the Raigad of the active master");
+        }
+
+        Client esTransportClient = getTransportClient();
+        IndexMetaData.State state = getIndexState(esTransportClient, indexName);
+
+        if (state == null) {
+            throw new IllegalArgumentException("Index " + indexName + " does not exist");
+        }
+
+        if (state == IndexMetaData.State.OPEN && !onDemandIndices.contains(indexName)) {
+            return false;
+        }
+
+        List<String> evictedIndices = onDemandIndices.touch(indexName, System.currentTimeMillis(), config.getIndexOnDemandMaxOpen());
+
+        if (state == IndexMetaData.State.CLOSE && !admitAdminOperation(esTransportClient)) {
+            throw new IllegalStateException("Master is under pressure, not opening " + indexName);
+        }
+
+        if (state == IndexMetaData.State.CLOSE) {
+            logger.info("Opening index {} on demand", indexName);
+            openIndex(esTransportClient, indexName);
+            indicesOpenedOnDemand.increment();
+        }
+
+        if (!evictedIndices.isEmpty()) {
+            logger.info("Closing least recently opened indices {} to make room for {}", evictedIndices, indexName);
+            closeIndices(esTransportClient, evictedIndices);
+            indicesClosed.increment(evictedIndices.size());
+        }
+
+        return true;
+    }
+
+    boolean isActiveMaster() throws Exception {
+        return ElasticsearchUtils.amIMasterNode(config, httpModule);
+    }
+
+    /**
+     * @return indices open on demand with the time they were last opened
+     */
+    public Map<String, Long> getOnDemandIndices() {
+        return onDemandIndices.getLastAccessTimes();
+    }
+
+    /**
+     * @return state of the index or null if there is no such index
+     */
+    IndexMetaData.State getIndexState(Client esTransportClient, String indexName) {
+        IndexMetaData indexMetaData = esTransportClient.admin().cluster().prepareState()
+                .clear()
+                .setMetaData(true)
+                .setIndices(indexName)
+                .setIndicesOptions(IndicesOptions.fromOptions(true, true, true, true))
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getState().metaData().index(indexName);
+
+        return indexMetaData == null ? null : indexMetaData.getState();
+    }
+
+    void openIndex(Client esTransportClient, String indexName) {
+        esTransportClient.admin().indices().prepareOpen(indexName)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+
+    void closeIndices(Client esTransportClient, List<String> indexNames) {
+        esTransportClient.admin().indices().prepareClose(indexNames.toArray(new String[indexNames.size()]))
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+
+    /**
+     * @return indices with another replica count than their replica schedule asks for, with the count to set
+     */
+    Map<String, Integer> checkReplicaSchedule(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        Map<String, Integer> replicaChanges = new TreeMap<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            DateTime indexDate = getIndexDate(indexCatalog, indexMetadata, indexName);
+            if (indexDate == null) {
+                continue;
+            }
+
+            ReplicaStep replicaStep = indexMetadata.getReplicaStep(indexDate, dateTime);
+            Integer replicas = indexCatalog.getSettings(indexName).getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, null);
+
+            if (replicaStep != null && (replicas == null || replicas != replicaStep.getReplicas())) {
+                replicaChanges.put(indexName, replicaStep.getReplicas());
+            }
+        }
+
+        return replicaChanges;
+    }
+
+    /**
+     * Fewer replicas only drop shard copies, they go out a batch at a time. More replicas need recoveries,
+     * those stop once as many shards are initializing as configured and the rest waits for the next run.
+     * Indices only go down to no replicas once a snapshot has them, it is their only other copy then.
+     */
+    void applyReplicaSchedule(Client esTransportClient, IndexCatalog indexCatalog, Map<String, Integer> replicaChanges) {
+        if (replicaChanges.isEmpty()) {
+            return;
+        }
+
+        if (replicaChanges.containsValue(0)) {
+            Set<String> snapshottedIndices = getSnapshottedIndices(esTransportClient);
+
+            replicaChanges.entrySet().removeIf(entry -> {
+                if (entry.getValue() == 0 && !snapshottedIndices.contains(entry.getKey())) {
+                    logger.warn("Index {} is in no successful snapshot, keeping its replicas", entry.getKey());
+                    return true;
+                }
+                return false;
+            });
+        }
+
+        Map<Integer, List<String>> reductions = new TreeMap<>();
+        List<String> increases = new ArrayList<>();
+
+        replicaChanges.forEach((indexName, replicas) -> {
+            if (replicas < indexCatalog.getSettings(indexName).getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 1)) {
+                reductions.computeIfAbsent(replicas, count -> new ArrayList<>()).add(indexName);
+            } else {
+                increases.add(indexName);
+            }
+        });
+
+        for (Map.Entry<Integer, List<String>> entry : reductions.entrySet()) {
+            for (List<String> batch : Iterables.partition(entry.getValue(), Math.max(1, config.getIndexRetentionDeleteBatchSize()))) {
+                if (!admitAdminOperation(esTransportClient)) {
+                    logger.warn("Master is still busy, leaving replica reductions for the next run");
+                    return;
+                }
+
+                logger.info("Reducing replicas of {} to {}", batch, entry.getKey());
+                updateReplicas(esTransportClient, indexCatalog, batch, entry.getKey());
+            }
+        }
+
+        int maxRecoveries = Math.max(1, config.getIndexReplicaMaxRecoveries());
+        int initializingShards = increases.isEmpty() ? 0 : getInitializingShards(esTransportClient);
+
+        for (String indexName : increases) {
+            if (initializingShards >= maxRecoveries) {
+                logger.info("{} shards are initializing, leaving replica increases for the next run", initializingShards);
+                break;
+            }
+
+            if (!admitAdminOperation(esTransportClient)) {
+                logger.warn("Master is still busy, leaving replica increases for the next run");
+                break;
+            }
+
+            Settings settings = indexCatalog.getSettings(indexName);
+            int replicas = replicaChanges.get(indexName);
+            int addedReplicas = replicas - settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 0);
+
+            logger.info("Restoring replicas of {} to {}", indexName, replicas);
+            updateReplicas(esTransportClient, indexCatalog, Collections.singletonList(indexName), replicas);
+            initializingShards += settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1) * Math.max(1, addedReplicas);
+        }
+    }
+
+    void updateReplicas(Client esTransportClient, IndexCatalog indexCatalog, List<String> indexNames, int replicas) {
+        Settings settings = Settings.builder().put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, replicas).build();
+
+        esTransportClient.admin().indices().prepareUpdateSettings(indexNames.toArray(new String[indexNames.size()]))
+                .setSettings(settings)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        indexNames.forEach(indexName -> indexCatalog.updateSettings(indexName, settings));
+    }
+
+    int getInitializingShards(Client esTransportClient) {
+        return esTransportClient.admin().cluster().prepareHealth()
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getInitializingShards();
+    }
+
+    /**
+     * @return indices in any successful snapshot of the repositories registered with the cluster
+     */
+    Set<String> getSnapshottedIndices(Client esTransportClient) {
+        Set<String> snapshottedIndices = new HashSet<>();
+
+        GetRepositoriesResponse getRepositoriesResponse = esTransportClient.admin().cluster().prepareGetRepositories()
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        for (RepositoryMetaData repositoryMetaData : getRepositoriesResponse.repositories()) {
+            GetSnapshotsResponse getSnapshotsResponse = esTransportClient.admin().cluster()
+                    .prepareGetSnapshots(repositoryMetaData.name())
+                    .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+            for (SnapshotInfo snapshotInfo : getSnapshotsResponse.getSnapshots()) {
+                if (snapshotInfo.state() == SnapshotState.SUCCESS) {
+                    snapshottedIndices.addAll(snapshotInfo.indices());
+                }
             }
         }
+
+        return snapshottedIndices;
+    }
+
+    /**
+     * @return indices old enough for a tier they are not on yet, with the transition to apply
+     */
+    Map<String, TierTransition> checkIndexTiers(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        String tierAttribute = config.getIndexTierAttribute();
+        Map<String, TierTransition> tierTransitions = new TreeMap<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            DateTime indexDate = getIndexDate(indexCatalog, indexMetadata, indexName);
+            if (indexDate == null) {
+                continue;
+            }
+
+            TierTransition tierTransition = indexMetadata.getTierTransition(indexDate, dateTime);
+
+            if (tierTransition != null && !tierTransition.isAppliedTo(indexCatalog.getSettings(indexName), tierAttribute)) {
+                tierTransitions.put(indexName, tierTransition);
+            }
+        }
+
+        return tierTransitions;
+    }
+
+    /**
+     * Move indices to their tiers, a few at a time. Every shard copy of a moved index relocates,
+     * moving stops once as many shards are relocating as configured and the rest waits for the next run.
+     */
+    void applyTierTransitions(Client esTransportClient, IndexCatalog indexCatalog, Map<String, TierTransition> tierTransitions) {
+        if (tierTransitions.isEmpty()) {
+            return;
+        }
+
+        String tierAttribute = config.getIndexTierAttribute();
+        int maxRelocatingShards = Math.max(1, config.getIndexTierMaxRelocatingShards());
+        int relocatingShards = getRelocatingShards(esTransportClient);
+        int applied = 0;
+
+        for (Map.Entry<String, TierTransition> entry : tierTransitions.entrySet()) {
+            if (relocatingShards >= maxRelocatingShards) {
+                logger.info("{} shards are relocating, leaving {} tier transitions for the next run",
+                        relocatingShards, tierTransitions.size() - applied);
+                break;
+            }
+
+            if (!admitAdminOperation(esTransportClient)) {
+                logger.warn("Master is still busy, leaving {} tier transitions for the next run", tierTransitions.size() - applied);
+                break;
+            }
+
+            String indexName = entry.getKey();
+            TierTransition tierTransition = entry.getValue();
+            Settings currentSettings = indexCatalog.getSettings(indexName);
+            Settings tierSettings = tierTransition.getIndexSettings(tierAttribute);
+
+            logger.info("Moving index {} from the {} tier to {}", indexName, TierTransition.getTier(currentSettings, tierAttribute), tierTransition);
+            updateIndexSettings(esTransportClient, indexName, tierSettings);
+            indexCatalog.updateSettings(indexName, tierSettings);
+            applied++;
+
+            if (TierTransition.getTier(currentSettings, tierAttribute) != tierTransition.getTier()) {
+                Settings settings = indexCatalog.getSettings(indexName);
+                relocatingShards += settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1) *
+                        (1 + settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 1));
+            }
+        }
+    }
+
+    /**
+     * Store size of the data nodes of each tier, from node level stats which are cheap next to index stats
+     */
+    void reportTierSizes(Client esTransportClient) {
+        String tierAttribute = config.getIndexTierAttribute();
+        Map<TierTransition.Tier, Long> tierSizes = new EnumMap<>(TierTransition.Tier.class);
+
+        NodesStatsResponse nodesStatsResponse = esTransportClient.admin().cluster().prepareNodesStats()
+                .clear()
+                .setIndices(new CommonStatsFlags(CommonStatsFlags.Flag.Store))
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        for (NodeStats nodeStats : nodesStatsResponse.getNodes()) {
+            TierTransition.Tier tier = TierTransition.Tier.fromAttributeValue(nodeStats.getNode().getAttributes().get(tierAttribute));
+
+            if (tier != null && nodeStats.getIndices() != null) {
+                tierSizes.merge(tier, nodeStats.getIndices().getStore().getSizeInBytes(), Long::sum);
+            }
+        }
+
+        hotTierBytes.set(tierSizes.getOrDefault(TierTransition.Tier.HOT, 0L));
+        warmTierBytes.set(tierSizes.getOrDefault(TierTransition.Tier.WARM, 0L));
+        coldTierBytes.set(tierSizes.getOrDefault(TierTransition.Tier.COLD, 0L));
+
+        logger.info("Tier sizes in bytes: {}", tierSizes);
+    }
+
+    int getRelocatingShards(Client esTransportClient) {
+        return esTransportClient.admin().cluster().prepareHealth()
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getRelocatingShards();
+    }
+
+    void updateIndexSettings(Client esTransportClient, String indexName, Settings settings) {
+        esTransportClient.admin().indices().prepareUpdateSettings(indexName)
+                .setSettings(settings)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+
+    /**
+     * Delete expired indices a batch at a time, holding off while the master is busy with other cluster state updates
+     */
+    void deleteExpiredIndices(Client esTransportClient, Set<String> expiredIndices) {
+        if (expiredIndices.isEmpty()) {
+            return;
+        }
+
+        int batchSize = Math.max(1, config.getIndexRetentionDeleteBatchSize());
+        int deleted = 0;
+        Stopwatch stopwatch = retentionDeleteLatency.start();
+
+        try {
+            for (List<String> batch : Iterables.partition(expiredIndices, batchSize)) {
+                if (!admitAdminOperation(esTransportClient)) {
+                    logger.warn("Master is still busy, leaving {} expired indices for the next run", expiredIndices.size() - deleted);
+                    break;
+                }
+
+                deleteIndices(esTransportClient, batch, config.getAutoCreateIndexTimeout());
+                deleted += batch.size();
+                indicesDeleted.increment(batch.size());
+            }
+        } finally {
+            stopwatch.stop();
+            logger.info("Index retention deleted {} of {} expired indices in {} ms",
+                    deleted, expiredIndices.size(), stopwatch.getDuration(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * @return true once the master can take another batch of cluster state updates, false if it stayed busy
+     */
+    boolean admitAdminOperation(Client esTransportClient) {
+        return adminOperationGate.admit(esTransportClient, JOB_NAME);
     }
 
     @Override
@@ -153,67 +870,275 @@ public class ElasticsearchIndexManager extends Task {
         return new CronTimer(config.getAutoCreateIndexScheduleMinutes(), 0, JOB_NAME);
     }
 
-    void checkIndexRetention(Client esTransportClient, Set<String> indices, IndexMetadata indexMetadata, DateTime dateTime) throws UnsupportedAutoIndexException {
+    /**
+     * @return indices past the retention date of the given index metadata, to be deleted by the caller
+     */
+    Set<String> checkIndexRetention(Client esTransportClient, Set<String> indices, IndexMetadata indexMetadata, DateTime dateTime) throws UnsupportedAutoIndexException {
         // Calculate the past retention date
         DateTime pastRetentionCutoffDate = indexMetadata.getPastRetentionCutoffDate(dateTime);
-        logger.info("Deleting indices that are older than {}", pastRetentionCutoffDate);
+        logger.info("Looking for indices that are older than {}", pastRetentionCutoffDate);
+
+        Set<String> expiredIndices = new TreeSet<>();
 
         indices.forEach(indexName -> {
-            logger.info("Processing index [{}]", indexName);
+            logger.debug("Processing index [{}]", indexName);
 
-            if (indexMetadata.getIndexNameFilter().filter(indexName)) {
+            if (indexMetadata.isIndexOf(indexName)) {
 
                 // Extract date from the index name
                 DateTime indexDate = indexMetadata.getDateForIndexName(indexName);
 
                 if (indexDate.isBefore(pastRetentionCutoffDate)) {
                     logger.info("Date {} for index {} is past the retention date of {}, deleting it", indexDate, indexName, pastRetentionCutoffDate);
-                    deleteIndices(esTransportClient, indexName, config.getAutoCreateIndexTimeout());
+                    expiredIndices.add(indexName);
                 }
             }
         });
+
+        return expiredIndices;
     }
 
-    void preCreateIndex(Client client, IndexMetadata indexMetadata, DateTime dateTime) throws UnsupportedAutoIndexException {
-        logger.info("Pre-creating indices for {}*", indexMetadata.getIndexNamePattern());
+    /**
+     * @return indices rolled over behind the alias which were created before the retention period, never the write index
+     */
+    Set<String> checkRolloverRetention(IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) {
+        RolloverPolicy rollover = indexMetadata.getRollover();
+        DateTime retentionCutoffDate = dateTime.minus(indexMetadata.getRetentionPeriod());
+        Set<String> writeIndices = indexCatalog.getIndicesForAlias(rollover.getAlias());
+
+        Set<String> expiredIndices = new TreeSet<>();
+
+        for (String indexName : indexCatalog.getIndexNames()) {
+            if (rollover.isRolloverIndex(indexName) && !writeIndices.contains(indexName)) {
+                DateTime creationDate = indexCatalog.getCreationDate(indexName);
+
+                if (creationDate.isBefore(retentionCutoffDate)) {
+                    logger.info("Index {} was created on {}, past the retention date of {}, deleting it", indexName, creationDate, retentionCutoffDate);
+                    expiredIndices.add(indexName);
+                }
+            }
+        }
 
-        IndicesStatsResponse indicesStatsResponse = getIndicesStatsResponse(client);
-        Map<String, IndexStats> indexStatsMap = indicesStatsResponse.getIndices();
+        return expiredIndices;
+    }
 
-        if (indexStatsMap == null || indexStatsMap.isEmpty()) {
-            logger.info("No existing indices, no need to pre-create");
+    /**
+     * Roll the alias over to a new index once the write index meets any of the policy conditions.
+     * The size condition is checked here, the Rollover API of this Elasticsearch version only knows age and doc count.
+     */
+    void rolloverIndex(Client client, IndexCatalog indexCatalog, RolloverPolicy rollover, DateTime dateTime) {
+        String alias = rollover.getAlias();
+        Set<String> writeIndices = indexCatalog.getIndicesForAlias(alias);
+
+        if (writeIndices.isEmpty()) {
+            String firstIndexName = rollover.getFirstIndexName();
+            logger.info("Alias {} does not exist yet, creating it with index {}", alias, firstIndexName);
+
+            client.admin().indices().prepareCreate(firstIndexName).addAlias(new Alias(alias))
+                    .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+            indexCatalog.add(firstIndexName, dateTime.getMillis());
+            indexCatalog.setAlias(alias, firstIndexName);
             return;
         }
 
-        indexStatsMap.keySet().stream()
-            .filter(indexName -> indexMetadata.getIndexNameFilter().filter(indexName))
-            .findFirst()
-            .ifPresent(indexName -> {
-                try {
-                    createIndex(client, indexMetadata.getIndexNameToPreCreate(dateTime));
-                } catch (UnsupportedAutoIndexException e) {
-                    logger.error("Invalid index metadata: " + indexMetadata.toString(), e);
-                }
-            });
+        if (writeIndices.size() > 1) {
+            logger.warn("Alias {} points to more than one index {}, not rolling it over", alias, writeIndices);
+            return;
+        }
+
+        String writeIndex = writeIndices.iterator().next();
+        DateTime creationDate = indexCatalog.getCreationDate(writeIndex);
+        long primarySizeInBytes = getPrimarySizeInBytes(client, writeIndex);
+
+        RolloverRequestBuilder rolloverRequest = client.admin().indices().prepareRolloverIndex(alias);
+
+        if (rollover.isSizeExceeded(primarySizeInBytes)) {
+            // Without conditions the rollover is unconditional
+            logger.info("Index {} holds {} bytes, over the limit of {}", writeIndex, primarySizeInBytes, rollover.getMaxSize());
+        } else if (rollover.getMaxAge() == null && rollover.getMaxDocs() == null) {
+            return;
+        } else {
+            if (rollover.getMaxAge() != null) {
+                rolloverRequest.addMaxIndexAgeCondition(TimeValue.timeValueMillis(rollover.getMaxAge().toDurationFrom(creationDate).getMillis()));
+            }
+
+            if (rollover.getMaxDocs() != null) {
+                rolloverRequest.addMaxIndexDocsCondition(rollover.getMaxDocs());
+            }
+        }
+
+        Integer shardCount = rollover.getShardCount(primarySizeInBytes, creationDate, dateTime);
+        if (shardCount != null) {
+            rolloverRequest.settings(Settings.builder().put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, shardCount).build());
+        }
+
+        RolloverResponse rolloverResponse = rolloverRequest.execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        if (rolloverResponse.isRolledOver()) {
+            logger.info("Rolled alias {} over from {} to {} with {} shards", alias, rolloverResponse.getOldIndex(),
+                    rolloverResponse.getNewIndex(), shardCount == null ? "default" : shardCount);
+
+            indexCatalog.add(rolloverResponse.getNewIndex(), dateTime.getMillis());
+            indexCatalog.setAlias(alias, rolloverResponse.getNewIndex());
+        } else if (config.isDebugEnabled()) {
+            logger.debug("No rollover conditions met for alias {}: {}", alias, rolloverResponse.getConditionStatus());
+        }
+    }
+
+    /**
+     * @return store size of the managed indices, read from the cluster once per plan
+     */
+    private Map<String, IndexManagementPlan.IndexSize> getIndexSizes(Client client, IndexCatalog indexCatalog,
+                                                                     List<IndexMetadata> indexMetadataList, IndexManagementPlan plan) {
+        if (plan.getIndexSizes() == null) {
+            plan.setIndexSizes(getIndexSizes(client, getManagedIndexNames(indexCatalog, indexMetadataList)));
+        }
+
+        return plan.getIndexSizes();
+    }
+
+    /**
+     * @return open indices of any of the index metadata, closed indices have no stats
+     */
+    Set<String> getManagedIndexNames(IndexCatalog indexCatalog, List<IndexMetadata> indexMetadataList) {
+        return indexCatalog.getIndexNames().stream()
+                .filter(indexName -> !indexCatalog.isClosed(indexName))
+                .filter(indexName -> indexMetadataList.stream().anyMatch(indexMetadata -> indexMetadata.isRollover() ?
+                        indexMetadata.getRollover().isRolloverIndex(indexName) : indexMetadata.isIndexOf(indexName)))
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * @return store size and documents of the given indices, leaving out the rest of the cluster
+     */
+    Map<String, IndexManagementPlan.IndexSize> getIndexSizes(Client client, Set<String> indexNames) {
+        Map<String, IndexManagementPlan.IndexSize> indexSizes = new TreeMap<>();
+        if (indexNames.isEmpty()) {
+            // No names would mean stats of every index
+            return indexSizes;
+        }
+
+        // Indices deleted since the catalog was read are skipped rather than failing the request
+        client.admin().indices().prepareStats(indexNames.toArray(new String[indexNames.size()]))
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .clear().setStore(true).setDocs(true)
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getIndices().forEach((indexName, indexStats) -> indexSizes.put(indexName, new IndexManagementPlan.IndexSize(
+                        indexStats.getPrimaries().getStore().getSizeInBytes(), indexStats.getTotal().getStore().getSizeInBytes(),
+                        indexStats.getPrimaries().getDocs().getCount())));
+
+        return indexSizes;
+    }
+
+    /**
+     * Store size of the primaries of a single index, cheap compared to stats of all indices
+     */
+    long getPrimarySizeInBytes(Client client, String indexName) {
+        return client.admin().indices().prepareStats(indexName).clear().setStore(true)
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getPrimaries().getStore().getSizeInBytes();
     }
 
-    void createIndex(Client client, String indexName) {
-        if (!client.admin().indices().prepareExists(indexName).execute().actionGet(config.getAutoCreateIndexTimeout()).isExists()) {
-            client.admin().indices().prepareCreate(indexName).execute().actionGet(config.getAutoCreateIndexTimeout());
-            logger.info(indexName + " has been created");
+    /**
+     * @return indices of the coming periods to create, with the settings to create them with
+     */
+    Map<String, Settings> checkPreCreate(Client client, IndexCatalog indexCatalog, IndexMetadata indexMetadata, DateTime dateTime) throws UnsupportedAutoIndexException {
+        logger.info("Pre-creating indices for {}*", indexMetadata.getIndexNamePattern());
+
+        Map<String, Settings> indicesToCreate = new TreeMap<>();
+        List<String> indexNames = indexMetadata.getIndexNamesToPreCreate(dateTime);
+        indexNames.removeIf(indexCatalog::exists);
+        if (indexNames.isEmpty()) {
+            logger.debug("Indices of the next {} periods already exist", indexMetadata.getPreCreatePeriods());
+            return indicesToCreate;
+        }
+
+        String template = indexMetadata.getTemplate();
+        if (template == null) {
+            // Without a template the mappings come from the first writes, only patterns in use are pre-created
+            if (indexCatalog.getIndexNames().stream().noneMatch(indexName -> indexMetadata.getIndexNameFilter().filter(indexName))) {
+                logger.info("No existing indices, no need to pre-create");
+                return indicesToCreate;
+            }
         } else {
+            List<String> templatePatterns = getTemplatePatterns(client, template);
+            if (templatePatterns == null) {
+                logger.error("Index template {} does not exist, not pre-creating {}", template, indexNames);
+                return indicesToCreate;
+            }
+
+            // An index the template does not apply to would be stuck with dynamic mappings for the whole period
+            List<String> unmatched = indexNames.stream()
+                    .filter(indexName -> templatePatterns.stream().noneMatch(pattern -> Regex.simpleMatch(pattern, indexName)))
+                    .collect(Collectors.toList());
+            if (!unmatched.isEmpty()) {
+                logger.error("Index template {} with patterns {} does not apply to {}, not pre-creating them", template, templatePatterns, unmatched);
+                indexNames.removeAll(unmatched);
+            }
+        }
+
+        for (String indexName : indexNames) {
+            indicesToCreate.put(indexName, indexMetadata.getCreateSettings());
+        }
+        return indicesToCreate;
+    }
+
+    /**
+     * Creates the index and waits for its primaries, so the first writes to it do not wait for allocation. Replicas are
+     * not waited for: ones that cannot all be allocated would hold the run for the whole timeout for every index.
+     * Primaries still recovering after the timeout are only logged, pre-created indices have until their period starts.
+     */
+    void createIndex(Client client, IndexCatalog indexCatalog, String indexName, Settings settings) {
+        if (indexCatalog.exists(indexName)) {
+            logger.debug(indexName + " already exists");
+            return;
+        }
+
+        try {
+            CreateIndexResponse createIndexResponse = client.admin().indices().prepareCreate(indexName)
+                    .setSettings(settings)
+                    .setWaitForActiveShards(ActiveShardCount.DEFAULT)
+                    .setTimeout(TimeValue.timeValueMillis(config.getAutoCreateIndexTimeout()))
+                    .execute().actionGet(config.getAutoCreateIndexTimeout());
+            indexCatalog.add(indexName, System.currentTimeMillis());
+            indicesPreCreated.increment();
+
+            if (createIndexResponse.isShardsAcked()) {
+                logger.info(indexName + " has been created");
+            } else {
+                logger.warn("{} has been created, not all of its primaries are active yet", indexName);
+            }
+        } catch (ResourceAlreadyExistsException e) {
+            // Created after the catalog was read
             logger.warn(indexName + " already exists");
         }
     }
 
-    void deleteIndices(Client client, String indexName, int timeout) {
-        DeleteIndexResponse deleteIndexResponse = client.admin().indices().prepareDelete(indexName).execute().actionGet(timeout);
+    /**
+     * @return index patterns of the template, null if there is no such template
+     */
+    List<String> getTemplatePatterns(Client client, String template) {
+        return client.admin().indices().prepareGetTemplates(template)
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getIndexTemplates().stream()
+                .filter(indexTemplate -> indexTemplate.getName().equals(template))
+                .map(IndexTemplateMetaData::patterns)
+                .findFirst()
+                .orElse(null);
+    }
+
+    void deleteIndices(Client client, List<String> indexNames, int timeout) {
+        DeleteIndexResponse deleteIndexResponse = client.admin().indices()
+                .prepareDelete(indexNames.toArray(new String[indexNames.size()]))
+                .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                .execute().actionGet(timeout);
 
         if (deleteIndexResponse.isAcknowledged()) {
-            logger.info(indexName + " deleted");
+            logger.info(indexNames + " deleted");
         } else {
-            logger.warn("Failed to delete " + indexName);
-            throw new RuntimeException("Failed to delete " + indexName);
+            logger.warn("Failed to delete " + indexNames);
+            throw new RuntimeException("Failed to delete " + indexNames);
         }
     }
 
@@ -223,7 +1148,7 @@ public class ElasticsearchIndexManager extends Task {
      * @param esTransportClient
      * @return
      */
-    IndicesStatsResponse getIndicesStatsResponse(Client esTransportClient) {
-        return esTransportClient.admin().indices().prepareStats("_all").execute().actionGet(config.getAutoCreateIndexTimeout());
+    IndexCatalog getIndexCatalog(Client esTransportClient) {
+        return IndexCatalog.load(esTransportClient, config.getAutoCreateIndexTimeout());
     }
 }
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Names, creation dates, aliases and settings of the indices in the cluster, read once per index management run.
+ * <p>
+ * Only the metadata part of the cluster state is requested. The master answers that from memory,
+ * while index stats make every shard in the cluster collect and send back its statistics.
+ */
+public class IndexCatalog {
+    private final Map<String, Long> creationDates;
+    private final Map<String, Set<String>> indicesByAlias;
+    private final Map<String, Settings> indexSettings;
+    private final Set<String> closedIndices = new HashSet<>();
+
+    IndexCatalog(Map<String, Long> creationDates) {
+        this(creationDates, Collections.emptyMap());
+    }
+
+    IndexCatalog(Map<String, Long> creationDates, Map<String, Set<String>> indicesByAlias) {
+        this(creationDates, indicesByAlias, Collections.emptyMap());
+    }
+
+    IndexCatalog(Map<String, Long> creationDates, Map<String, Set<String>> indicesByAlias, Map<String, Settings> indexSettings) {
+        this.creationDates = new TreeMap<>(creationDates);
+        this.indicesByAlias = new HashMap<>();
+        indicesByAlias.forEach((alias, indices) -> this.indicesByAlias.put(alias, new TreeSet<>(indices)));
+        this.indexSettings = new HashMap<>(indexSettings);
+    }
+
+    public static IndexCatalog load(Client client, long timeoutMs) {
+        ClusterStateResponse clusterStateResponse = client.admin().cluster().prepareState()
+                .clear()
+                .setMetaData(true)
+                .execute().actionGet(timeoutMs);
+
+        return fromMetaData(clusterStateResponse.getState().metaData());
+    }
+
+    static IndexCatalog fromMetaData(MetaData metaData) {
+        Map<String, Long> creationDates = new TreeMap<>();
+        Map<String, Set<String>> indicesByAlias = new HashMap<>();
+        Map<String, Settings> indexSettings = new HashMap<>();
+
+        for (IndexMetaData indexMetaData : metaData) {
+            String indexName = indexMetaData.getIndex().getName();
+            creationDates.put(indexName, indexMetaData.getCreationDate());
+            indexSettings.put(indexName, indexMetaData.getSettings());
+
+            for (Iterator<String> aliases = indexMetaData.getAliases().keysIt(); aliases.hasNext(); ) {
+                indicesByAlias.computeIfAbsent(aliases.next(), alias -> new TreeSet<>()).add(indexName);
+            }
+        }
+
+        IndexCatalog indexCatalog = new IndexCatalog(creationDates, indicesByAlias, indexSettings);
+
+        for (IndexMetaData indexMetaData : metaData) {
+            if (indexMetaData.getState() == IndexMetaData.State.CLOSE) {
+                indexCatalog.setClosed(indexMetaData.getIndex().getName(), true);
+            }
+        }
+
+        return indexCatalog;
+    }
+
+    public boolean isEmpty() {
+        return creationDates.isEmpty();
+    }
+
+    public int size() {
+        return creationDates.size();
+    }
+
+    public Set<String> getIndexNames() {
+        return Collections.unmodifiableSet(creationDates.keySet());
+    }
+
+    public boolean exists(String indexName) {
+        return creationDates.containsKey(indexName);
+    }
+
+    /**
+     * @return creation date of the index or null if there is no such index
+     */
+    public DateTime getCreationDate(String indexName) {
+        Long creationDate = creationDates.get(indexName);
+        return creationDate == null ? null : new DateTime(creationDate, DateTimeZone.UTC);
+    }
+
+    /**
+     * @return indices the alias points to, empty if there is no such alias
+     */
+    public Set<String> getIndicesForAlias(String alias) {
+        Set<String> indices = indicesByAlias.get(alias);
+        return indices == null ? Collections.emptySet() : Collections.unmodifiableSet(indices);
+    }
+
+    /**
+     * @return aliases pointing to the index
+     */
+    public Set<String> getAliases(String indexName) {
+        Set<String> aliases = new TreeSet<>();
+
+        indicesByAlias.forEach((alias, indices) -> {
+            if (indices.contains(indexName)) {
+                aliases.add(alias);
+            }
+        });
+
+        return aliases;
+    }
+
+    /**
+     * @return settings of the index, empty if there is no such index
+     */
+    public Settings getSettings(String indexName) {
+        Settings settings = indexSettings.get(indexName);
+        return settings == null ? Settings.EMPTY : settings;
+    }
+
+    /**
+     * Keep the catalog in line with settings updated during the run
+     */
+    void updateSettings(String indexName, Settings settings) {
+        indexSettings.put(indexName, Settings.builder().put(getSettings(indexName)).put(settings).build());
+    }
+
+    public boolean isClosed(String indexName) {
+        return closedIndices.contains(indexName);
+    }
+
+    /**
+     * Keep the catalog in line with indices opened or closed during the run
+     */
+    void setClosed(String indexName, boolean closed) {
+        if (closed) {
+            closedIndices.add(indexName);
+        } else {
+            closedIndices.remove(indexName);
+        }
+    }
+
+    /**
+     * Keep the catalog in line with indices created during the run
+     */
+    void add(String indexName, long creationDate) {
+        creationDates.put(indexName, creationDate);
+    }
+
+    /**
+     * Keep the catalog in line with an alias moved during the run
+     */
+    void setAlias(String alias, String indexName) {
+        indicesByAlias.put(alias, new TreeSet<>(Collections.singleton(indexName)));
+    }
+}
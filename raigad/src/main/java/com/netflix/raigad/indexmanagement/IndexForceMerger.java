@@ -0,0 +1,320 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeResponse;
+import org.elasticsearch.action.admin.indices.stats.CommonStatsFlags;
+import org.elasticsearch.action.admin.indices.stats.IndexStats;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.RoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Force merges indices which are not written to anymore down to a few segments, during an off-peak window.
+ * <p>
+ * Merges are started without waiting for them, merging a big index takes longer than an index management run.
+ * Running merges show up in the force_merge thread pool of the nodes holding the shards, which is what keeps
+ * the number of merges across the cluster down to the configured maximum. Nodes already merging, on their own
+ * or for a force merge, are under I/O pressure and indices with shards on them wait for a later run.
+ */
+public class IndexForceMerger {
+    private static final Logger logger = LoggerFactory.getLogger(IndexForceMerger.class);
+
+    private static final BasicCounter forceMergesStarted = new BasicCounter(
+            MonitorConfig.builder("forceMergesStarted").withTag("class", "IndexForceMerger").build());
+    private static final BasicCounter segmentsBeforeForceMerge = new BasicCounter(
+            MonitorConfig.builder("segmentsBeforeForceMerge").withTag("class", "IndexForceMerger").build());
+    private static final BasicCounter segmentsAfterForceMerge = new BasicCounter(
+            MonitorConfig.builder("segmentsAfterForceMerge").withTag("class", "IndexForceMerger").build());
+
+    static {
+        Monitors.registerObject(forceMergesStarted);
+        Monitors.registerObject(segmentsBeforeForceMerge);
+        Monitors.registerObject(segmentsAfterForceMerge);
+    }
+
+    private final IConfiguration config;
+
+    // Indices found merged down, not looked at again
+    private final Set<String> mergedIndices = ConcurrentHashMap.newKeySet();
+
+    // Segment counts of the indices merges were started for
+    private final Map<String, Long> startedMerges = new ConcurrentHashMap<>();
+
+    public IndexForceMerger(IConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * @param candidates read-only indices with the number of segments per shard to merge them down to
+     */
+    public void forceMerge(Client esTransportClient, IndexCatalog indexCatalog, Map<String, Integer> candidates, DateTime dateTime) {
+        if (!isOffPeak(config.getIndexForceMergeWindow(), dateTime)) {
+            logger.debug("Outside of the force merge window {}, not merging", config.getIndexForceMergeWindow());
+            return;
+        }
+
+        // Forget about deleted indices
+        mergedIndices.retainAll(candidates.keySet());
+        startedMerges.keySet().retainAll(candidates.keySet());
+
+        Set<String> unmergedIndices = new TreeSet<>(candidates.keySet());
+        unmergedIndices.removeAll(mergedIndices);
+
+        if (unmergedIndices.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> segmentCounts = getSegmentCounts(esTransportClient, unmergedIndices);
+        List<String> indicesToMerge = new ArrayList<>();
+
+        for (String indexName : unmergedIndices) {
+            Long segmentCount = segmentCounts.get(indexName);
+            if (segmentCount == null) {
+                continue;
+            }
+
+            int shards = indexCatalog.getSettings(indexName).getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1);
+
+            if (segmentCount <= (long) candidates.get(indexName) * shards) {
+                mergedIndices.add(indexName);
+
+                Long segmentCountBefore = startedMerges.remove(indexName);
+                if (segmentCountBefore != null) {
+                    logger.info("Force merge of index {} is done, {} segments down to {}", indexName, segmentCountBefore, segmentCount);
+                    segmentsAfterForceMerge.increment(segmentCount);
+                }
+            } else {
+                indicesToMerge.add(indexName);
+            }
+        }
+
+        if (indicesToMerge.isEmpty()) {
+            return;
+        }
+
+        NodeLoad nodeLoad = getNodeLoad(esTransportClient);
+        int slots = config.getIndexForceMergeMaxConcurrent() - nodeLoad.runningForceMerges;
+
+        if (slots <= 0) {
+            logger.info("{} force merges are running, leaving {} indices for the next run", nodeLoad.runningForceMerges, indicesToMerge.size());
+            return;
+        }
+
+        Map<String, Set<String>> shardNodes = getShardNodes(esTransportClient, indicesToMerge);
+        Set<String> busyNodes = new HashSet<>(nodeLoad.busyNodes);
+
+        for (String indexName : indicesToMerge) {
+            if (slots == 0) {
+                break;
+            }
+
+            Set<String> nodes = shardNodes.getOrDefault(indexName, Collections.emptySet());
+
+            if (nodes.isEmpty() || !Collections.disjoint(nodes, busyNodes)) {
+                logger.debug("Shards of index {} are unassigned or on nodes under I/O pressure, not merging it", indexName);
+                continue;
+            }
+
+            long segmentCount = segmentCounts.get(indexName);
+            logger.info("Force merging index {} from {} segments down to {} per shard", indexName, segmentCount, candidates.get(indexName));
+
+            startForceMerge(esTransportClient, indexName, candidates.get(indexName));
+            forceMergesStarted.increment();
+
+            if (startedMerges.putIfAbsent(indexName, segmentCount) == null) {
+                segmentsBeforeForceMerge.increment(segmentCount);
+            }
+
+            // One merge per node at a time, its force_merge thread pool has a single thread anyway
+            busyNodes.addAll(nodes);
+            slots--;
+        }
+    }
+
+    /**
+     * @return true if the time of day is within the HH:mm-HH:mm window in UTC, which may span midnight
+     */
+    static boolean isOffPeak(String window, DateTime dateTime) {
+        if (window == null || window.trim().isEmpty()) {
+            return true;
+        }
+
+        String[] bounds = window.trim().split("-");
+        LocalTime start;
+        LocalTime end;
+
+        try {
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("expected HH:mm-HH:mm");
+            }
+            start = LocalTime.parse(bounds[0].trim());
+            end = LocalTime.parse(bounds[1].trim());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Invalid force merge window {}: {}", window, e.getMessage());
+            return false;
+        }
+
+        LocalTime time = dateTime.withZone(DateTimeZone.UTC).toLocalTime();
+
+        if (start.isAfter(end)) {
+            return !time.isBefore(start) || time.isBefore(end);
+        }
+
+        return !time.isBefore(start) && time.isBefore(end);
+    }
+
+    /**
+     * @return total number of segments in the primaries of each index
+     */
+    Map<String, Long> getSegmentCounts(Client esTransportClient, Collection<String> indexNames) {
+        IndicesStatsResponse indicesStatsResponse = esTransportClient.admin().indices()
+                .prepareStats(indexNames.toArray(new String[indexNames.size()]))
+                .clear()
+                .setSegments(true)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        Map<String, Long> segmentCounts = new HashMap<>();
+
+        for (Map.Entry<String, IndexStats> entry : indicesStatsResponse.getIndices().entrySet()) {
+            segmentCounts.put(entry.getKey(), entry.getValue().getPrimaries().getSegments().getCount());
+        }
+
+        return segmentCounts;
+    }
+
+    NodeLoad getNodeLoad(Client esTransportClient) {
+        NodesStatsResponse nodesStatsResponse = esTransportClient.admin().cluster().prepareNodesStats()
+                .clear()
+                .setThreadPool(true)
+                .setIndices(new CommonStatsFlags(CommonStatsFlags.Flag.Merge))
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        NodeLoad nodeLoad = new NodeLoad();
+
+        for (NodeStats nodeStats : nodesStatsResponse.getNodes()) {
+            String nodeId = nodeStats.getNode().getId();
+
+            if (nodeStats.getThreadPool() != null) {
+                for (ThreadPoolStats.Stats threadPoolStats : nodeStats.getThreadPool()) {
+                    if (ThreadPool.Names.FORCE_MERGE.equals(threadPoolStats.getName()) && threadPoolStats.getActive() + threadPoolStats.getQueue() > 0) {
+                        nodeLoad.runningForceMerges += threadPoolStats.getActive() + threadPoolStats.getQueue();
+                        nodeLoad.busyNodes.add(nodeId);
+                    }
+                }
+            }
+
+            if (nodeStats.getIndices() != null && nodeStats.getIndices().getMerge().getCurrent() >= config.getIndexForceMergeMaxNodeMerges()) {
+                nodeLoad.busyNodes.add(nodeId);
+            }
+        }
+
+        return nodeLoad;
+    }
+
+    /**
+     * @return ids of the nodes each index has shards on
+     */
+    Map<String, Set<String>> getShardNodes(Client esTransportClient, Collection<String> indexNames) {
+        RoutingTable routingTable = esTransportClient.admin().cluster().prepareState()
+                .clear()
+                .setRoutingTable(true)
+                .setIndices(indexNames.toArray(new String[indexNames.size()]))
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getState().getRoutingTable();
+
+        Map<String, Set<String>> shardNodes = new HashMap<>();
+
+        for (String indexName : indexNames) {
+            IndexRoutingTable indexRoutingTable = routingTable.index(indexName);
+            if (indexRoutingTable == null) {
+                continue;
+            }
+
+            Set<String> nodes = new HashSet<>();
+
+            for (IndexShardRoutingTable indexShardRoutingTable : indexRoutingTable) {
+                for (ShardRouting shardRouting : indexShardRoutingTable) {
+                    // Shards still being allocated or relocated are left for a later run
+                    if (!shardRouting.started()) {
+                        nodes.clear();
+                        break;
+                    }
+                    nodes.add(shardRouting.currentNodeId());
+                }
+
+                if (nodes.isEmpty()) {
+                    break;
+                }
+            }
+
+            shardNodes.put(indexName, nodes);
+        }
+
+        return shardNodes;
+    }
+
+    void startForceMerge(Client esTransportClient, String indexName, int maxNumSegments) {
+        esTransportClient.admin().indices().prepareForceMerge(indexName)
+                .setMaxNumSegments(maxNumSegments)
+                .execute(new ActionListener<ForceMergeResponse>() {
+                    @Override
+                    public void onResponse(ForceMergeResponse forceMergeResponse) {
+                        logger.info("Force merge of index {} finished on {} of {} shards", indexName,
+                                forceMergeResponse.getSuccessfulShards(), forceMergeResponse.getTotalShards());
+                    }
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        logger.warn("Force merge of index " + indexName + " failed", e);
+                    }
+                });
+    }
+
+    static class NodeLoad {
+        int runningForceMerges;
+        final Set<String> busyNodes = new HashSet<>();
+    }
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Everything one index management run is going to do, worked out from the index catalog before anything is changed.
+ * <p>
+ * Actions are listed in the order they are executed, each with the bytes and shards it touches and the time it is
+ * expected to take. Only copying data takes time in the estimate, metadata only changes are counted as instant.
+ */
+public class IndexManagementPlan {
+
+    public enum ActionType {
+        ROLLOVER,
+        DELETE,
+        CREATE,
+        CLOSE,
+        RELOCATE,
+        REPLICAS,
+        SHRINK,
+        FORCE_MERGE
+    }
+
+    public static class Action {
+        private final ActionType type;
+        private final String target;
+        private final String detail;
+        private final long bytes;
+        private final int shards;
+        private final long seconds;
+
+        Action(ActionType type, String target, String detail, long bytes, int shards, long seconds) {
+            this.type = type;
+            this.target = target;
+            this.detail = detail;
+            this.bytes = bytes;
+            this.shards = shards;
+            this.seconds = seconds;
+        }
+
+        public ActionType getType() {
+            return type;
+        }
+
+        /**
+         * @return index the action is applied to, alias for rollovers
+         */
+        public String getTarget() {
+            return target;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public long getEstimatedBytes() {
+            return bytes;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public long getEstimatedSeconds() {
+            return seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s (%s): %d bytes, %d shards, %d s", type, target, detail, bytes, shards, seconds);
+        }
+    }
+
+    /**
+     * Store size and documents of an index as reported by index stats, closed indices have none
+     */
+    static class IndexSize {
+        static final IndexSize NONE = new IndexSize(0, 0, 0);
+
+        final long primaryBytes;
+        final long totalBytes;
+        final long primaryDocs;
+
+        IndexSize(long primaryBytes, long totalBytes, long primaryDocs) {
+            this.primaryBytes = primaryBytes;
+            this.totalBytes = totalBytes;
+            this.primaryDocs = primaryDocs;
+        }
+    }
+
+    private final DateTime dateTime;
+    private final List<RolloverPolicy> rollovers = new ArrayList<>();
+    private final Set<String> expiredIndices = new TreeSet<>();
+    private final Map<String, Settings> indicesToCreate = new TreeMap<>();
+    private final Set<String> indicesToClose = new TreeSet<>();
+    private final Map<String, TierTransition> tierTransitions = new TreeMap<>();
+    private final Map<String, Integer> replicaChanges = new TreeMap<>();
+    private final Map<String, ByteSizeValue> shrinkCandidates = new TreeMap<>();
+    private final Map<String, Integer> forceMergeCandidates = new TreeMap<>();
+    private boolean tiered;
+    private Map<String, IndexSize> indexSizes;
+
+    private List<Action> actions;
+
+    IndexManagementPlan(DateTime dateTime) {
+        this.dateTime = dateTime;
+    }
+
+    public DateTime getDateTime() {
+        return dateTime;
+    }
+
+    List<RolloverPolicy> getRollovers() {
+        return rollovers;
+    }
+
+    Set<String> getExpiredIndices() {
+        return expiredIndices;
+    }
+
+    Map<String, Settings> getIndicesToCreate() {
+        return indicesToCreate;
+    }
+
+    Set<String> getIndicesToClose() {
+        return indicesToClose;
+    }
+
+    Map<String, TierTransition> getTierTransitions() {
+        return tierTransitions;
+    }
+
+    Map<String, Integer> getReplicaChanges() {
+        return replicaChanges;
+    }
+
+    Map<String, ByteSizeValue> getShrinkCandidates() {
+        return shrinkCandidates;
+    }
+
+    Map<String, Integer> getForceMergeCandidates() {
+        return forceMergeCandidates;
+    }
+
+    boolean isTiered() {
+        return tiered;
+    }
+
+    void setTiered(boolean tiered) {
+        this.tiered = tiered;
+    }
+
+    /**
+     * @return store size of the managed indices, null until read from the cluster
+     */
+    Map<String, IndexSize> getIndexSizes() {
+        return indexSizes;
+    }
+
+    void setIndexSizes(Map<String, IndexSize> indexSizes) {
+        this.indexSizes = indexSizes;
+    }
+
+    /**
+     * Drops what later stages cannot or need not touch: expired and closed indices, indices about to be closed,
+     * and indices pinned to a node for shrinking. Shrunk indices are merged rather than their sources.
+     */
+    void prune(IndexCatalog indexCatalog) {
+        indicesToClose.removeAll(expiredIndices);
+        indicesToClose.removeIf(indexName -> IndexShrinker.isShrinking(indexCatalog, indexName));
+
+        for (Set<String> indexNames : Arrays.asList(tierTransitions.keySet(), replicaChanges.keySet(),
+                shrinkCandidates.keySet(), forceMergeCandidates.keySet())) {
+            indexNames.removeAll(expiredIndices);
+            indexNames.removeAll(indicesToClose);
+            indexNames.removeIf(indexCatalog::isClosed);
+        }
+
+        tierTransitions.keySet().removeIf(indexName -> IndexShrinker.isShrinking(indexCatalog, indexName));
+        replicaChanges.keySet().removeIf(indexName -> IndexShrinker.isShrinking(indexCatalog, indexName));
+        forceMergeCandidates.keySet().removeIf(indexName -> IndexShrinker.isShrinking(indexCatalog, indexName));
+    }
+
+    /**
+     * @return the actions, in execution order, null until estimated
+     */
+    public List<Action> getActions() {
+        return actions;
+    }
+
+    public long getEstimatedBytes() {
+        return actions == null ? 0 : actions.stream().mapToLong(Action::getEstimatedBytes).sum();
+    }
+
+    public long getEstimatedSeconds() {
+        return actions == null ? 0 : actions.stream().mapToLong(Action::getEstimatedSeconds).sum();
+    }
+
+    /**
+     * Works out the actions with their cost
+     *
+     * @param indexCatalog        shard and replica counts of existing indices
+     * @param indexSizes          store size of the managed indices
+     * @param defaultShards       shards of created indices the settings have no shard count for
+     * @param defaultReplicas     replicas of created indices the settings have no replica count for
+     * @param recoveryBytesPerSec rate a single shard copy recovers or relocates at
+     * @param maxRecoveries       shard copies recovering or relocating at the same time
+     * @param mergeBytesPerSec    rate a single shard is force merged at
+     */
+    void estimate(IndexCatalog indexCatalog, Map<String, IndexSize> indexSizes, int defaultShards, int defaultReplicas,
+                  long recoveryBytesPerSec, int maxRecoveries, long mergeBytesPerSec) {
+        List<Action> actions = new ArrayList<>();
+        long copyBytesPerSec = Math.max(1, recoveryBytesPerSec * Math.max(1, maxRecoveries));
+
+        for (RolloverPolicy rollover : rollovers) {
+            actions.add(new Action(ActionType.ROLLOVER, rollover.getAlias(), "if the conditions are met", 0, 0, 0));
+        }
+
+        for (String indexName : expiredIndices) {
+            actions.add(new Action(ActionType.DELETE, indexName, "expired",
+                    getSize(indexSizes, indexName).totalBytes, getShards(indexCatalog, indexName), 0));
+        }
+
+        indicesToCreate.forEach((indexName, settings) -> {
+            int shards = settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, defaultShards);
+            int replicas = settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, defaultReplicas);
+            actions.add(new Action(ActionType.CREATE, indexName, settings.getAsMap().toString(), 0, shards * (1 + replicas), 0));
+        });
+
+        for (String indexName : indicesToClose) {
+            actions.add(new Action(ActionType.CLOSE, indexName, "aged",
+                    getSize(indexSizes, indexName).totalBytes, getShards(indexCatalog, indexName), 0));
+        }
+
+        tierTransitions.forEach((indexName, tierTransition) -> {
+            // Every copy moves
+            long bytes = getSize(indexSizes, indexName).totalBytes;
+            actions.add(new Action(ActionType.RELOCATE, indexName, "to " + tierTransition.getTier(),
+                    bytes, getShards(indexCatalog, indexName), bytes / copyBytesPerSec));
+        });
+
+        replicaChanges.forEach((indexName, replicas) -> {
+            Settings settings = indexCatalog.getSettings(indexName);
+            int primaries = settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1);
+            int currentReplicas = settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 1);
+            int changedCopies = Math.abs(replicas - currentReplicas);
+
+            // Removed copies are freed right away, added ones are copied from the primaries
+            long bytes = getSize(indexSizes, indexName).primaryBytes * changedCopies;
+            long seconds = replicas > currentReplicas ? bytes / copyBytesPerSec : 0;
+            actions.add(new Action(ActionType.REPLICAS, indexName, currentReplicas + " to " + replicas + " replicas",
+                    bytes, primaries * changedCopies, seconds));
+        });
+
+        shrinkCandidates.forEach((indexName, shardSize) -> {
+            // Primaries are copied one at a time onto a single node
+            long bytes = getSize(indexSizes, indexName).primaryBytes;
+            actions.add(new Action(ActionType.SHRINK, indexName, "to shards of " + shardSize,
+                    bytes, getShards(indexCatalog, indexName), bytes / Math.max(1, recoveryBytesPerSec)));
+        });
+
+        forceMergeCandidates.forEach((indexName, segments) -> {
+            // Copies are merged at the same time, each rewriting its whole shard
+            IndexSize size = getSize(indexSizes, indexName);
+            actions.add(new Action(ActionType.FORCE_MERGE, indexName, "to " + segments + " segments",
+                    size.totalBytes, getShards(indexCatalog, indexName), size.primaryBytes / Math.max(1, mergeBytesPerSec)));
+        });
+
+        this.actions = actions;
+    }
+
+    private static IndexSize getSize(Map<String, IndexSize> indexSizes, String indexName) {
+        return indexSizes.getOrDefault(indexName, IndexSize.NONE);
+    }
+
+    /**
+     * @return shard copies of the index, primaries and replicas
+     */
+    private static int getShards(IndexCatalog indexCatalog, String indexName) {
+        Settings settings = indexCatalog.getSettings(indexName);
+        return settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1) *
+                (1 + settings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 1));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"dateTime\": \"%s\", \"actions\": %s, \"estimatedBytes\": %d, \"estimatedSeconds\": %d}",
+                dateTime, actions, getEstimatedBytes(), getEstimatedSeconds());
+    }
+}
@@ -16,15 +16,24 @@
 package com.netflix.raigad.indexmanagement;
 
 import com.netflix.raigad.indexmanagement.exception.UnsupportedAutoIndexException;
-import com.netflix.raigad.indexmanagement.indexfilters.DatePatternIndexNameFilter;
+import com.netflix.raigad.indexmanagement.indexfilters.CompiledIndexNameFilter;
 import org.codehaus.jackson.annotate.JsonCreator;
 import org.codehaus.jackson.annotate.JsonProperty;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISOPeriodFormat;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 
 public class IndexMetadata {
 
@@ -55,8 +64,20 @@ public class IndexMetadata {
     private final String indexNamePattern;
     private final DateTimeFormatter formatter;
     private final Period retentionPeriod;
-    private final IIndexNameFilter indexNameFilter;
+    private final CompiledIndexNameFilter indexNameFilter;
     private final boolean preCreate;
+    private final RolloverPolicy rollover;
+    private final List<TierTransition> tiers;
+    private final Integer forceMergeSegments;
+    private final ByteSizeValue shrinkShardSize;
+    private final Period closeAfter;
+    private final List<ReplicaStep> replicaSchedule;
+    private final int preCreatePeriods;
+    private final Settings createSettings;
+    private final String template;
+    private final boolean autoShards;
+    private final ByteSizeValue targetShardSize;
+    private final int maxShards;
 
     @JsonCreator
     public IndexMetadata(
@@ -64,7 +85,21 @@ public class IndexMetadata {
             @JsonProperty("indexNamePattern") String indexNamePattern,
             @JsonProperty("retentionType") String retentionType,
             @JsonProperty("retentionPeriod") String retentionPeriod,
-            @JsonProperty("preCreate") Boolean preCreate) throws UnsupportedAutoIndexException {
+            @JsonProperty("preCreate") Boolean preCreate,
+            @JsonProperty("rollover") RolloverPolicy rollover,
+            @JsonProperty("tiers") List<TierTransition> tiers,
+            @JsonProperty("forceMergeSegments") Integer forceMergeSegments,
+            @JsonProperty("shrinkShardSize") String shrinkShardSize,
+            @JsonProperty("closeAfter") String closeAfter,
+            @JsonProperty("replicaSchedule") List<ReplicaStep> replicaSchedule,
+            @JsonProperty("preCreatePeriods") Integer preCreatePeriods,
+            @JsonProperty("shards") Integer shards,
+            @JsonProperty("replicas") Integer replicas,
+            @JsonProperty("refreshInterval") String refreshInterval,
+            @JsonProperty("template") String template,
+            @JsonProperty("autoShards") Boolean autoShards,
+            @JsonProperty("targetShardSize") String targetShardSize,
+            @JsonProperty("maxShards") Integer maxShards) throws UnsupportedAutoIndexException {
 
         if (retentionType == null) {
             retentionType = "DAILY";
@@ -84,7 +119,7 @@ public class IndexMetadata {
             : namePattern;
 
         this.formatter = DateTimeFormat.forPattern(namePattern).withZoneUTC();
-        this.indexNameFilter = new DatePatternIndexNameFilter(formatter);
+        this.indexNameFilter = new CompiledIndexNameFilter(namePattern, formatter);
 
         if (retentionPeriod == null) {
             this.retentionPeriod = null;
@@ -97,12 +132,71 @@ public class IndexMetadata {
         }
 
         this.preCreate = preCreate == null ? false : preCreate;
+        this.rollover = rollover;
+
+        if (tiers == null) {
+            this.tiers = Collections.emptyList();
+        } else {
+            // Youngest first, periods can only be compared from a given date
+            DateTime epoch = new DateTime(0, DateTimeZone.UTC);
+            this.tiers = new ArrayList<>(tiers);
+            this.tiers.sort(Comparator.comparing(tier -> epoch.plus(tier.getAfter())));
+        }
+
+        if (forceMergeSegments != null && forceMergeSegments < 1) {
+            throw new IllegalArgumentException("Indices cannot be force merged to less than one segment");
+        }
+        this.forceMergeSegments = forceMergeSegments;
+        this.shrinkShardSize = shrinkShardSize == null ? null : ByteSizeValue.parseBytesSizeValue(shrinkShardSize, "shrinkShardSize");
+        this.closeAfter = closeAfter == null ? null : ISOPeriodFormat.standard().parsePeriod(closeAfter);
+
+        if (replicaSchedule == null) {
+            this.replicaSchedule = Collections.emptyList();
+        } else {
+            DateTime epoch = new DateTime(0, DateTimeZone.UTC);
+            this.replicaSchedule = new ArrayList<>(replicaSchedule);
+            this.replicaSchedule.sort(Comparator.comparing(step -> epoch.plus(step.getAfter())));
+        }
+
+        // Both would set the replica count, each run undoing the other with a recovery of whole copies
+        if (!this.replicaSchedule.isEmpty() && this.tiers.stream().anyMatch(tier -> tier.getReplicas() != null)) {
+            throw new IllegalArgumentException("Replicas are either set by tiers or by a replica schedule, not both");
+        }
+
+        if (preCreatePeriods != null && preCreatePeriods < 1) {
+            throw new IllegalArgumentException("At least one period has to be pre-created");
+        }
+        this.preCreatePeriods = preCreatePeriods == null ? 1 : preCreatePeriods;
+
+        // Only what is configured goes in, index templates provide the rest
+        Settings.Builder createSettings = Settings.builder();
+        if (shards != null) {
+            createSettings.put("index.number_of_shards", shards);
+        }
+        if (replicas != null) {
+            createSettings.put("index.number_of_replicas", replicas);
+        }
+        if (refreshInterval != null) {
+            createSettings.put("index.refresh_interval", TimeValue.parseTimeValue(refreshInterval, "refreshInterval").getStringRep());
+        }
+        this.createSettings = createSettings.build();
+        this.template = template;
+
+        this.autoShards = autoShards == null ? false : autoShards;
+        if (this.autoShards && shards != null) {
+            throw new IllegalArgumentException("Shard count is either fixed or advised, not both");
+        }
+        this.targetShardSize = targetShardSize == null
+                ? ShardSizingAdvisor.DEFAULT_TARGET_SHARD_SIZE
+                : ByteSizeValue.parseBytesSizeValue(targetShardSize, "targetShardSize");
+        this.maxShards = maxShards == null ? ShardSizingAdvisor.DEFAULT_MAX_SHARDS : maxShards;
     }
 
     @Override
     public String toString() {
-        return String.format("{\"indexNamePattern\": \"%s\", \"retentionPeriod\": \"%s\", \"preCreate\": %b}",
-                indexNamePattern, retentionPeriod, preCreate);
+        return String.format("{\"indexNamePattern\": \"%s\", \"retentionPeriod\": \"%s\", \"preCreate\": %b, \"rollover\": %s, \"tiers\": %s, \"forceMergeSegments\": %s, \"shrinkShardSize\": \"%s\", \"closeAfter\": \"%s\", \"replicaSchedule\": %s, \"preCreatePeriods\": %d, \"createSettings\": \"%s\", \"template\": \"%s\", \"autoShards\": %b, \"targetShardSize\": \"%s\", \"maxShards\": %d}",
+                indexNamePattern, retentionPeriod, preCreate, rollover, tiers, forceMergeSegments, shrinkShardSize, closeAfter, replicaSchedule,
+                preCreatePeriods, createSettings.getAsMap(), template, autoShards, targetShardSize, maxShards);
     }
 
     public String getIndexNamePattern() {
@@ -121,8 +215,142 @@ public class IndexMetadata {
         return preCreate;
     }
 
+    /**
+     * @return number of future periods indices are created ahead for
+     */
+    public int getPreCreatePeriods() {
+        return preCreatePeriods;
+    }
+
+    /**
+     * @return settings pre-created indices are created with, empty if left to the index templates
+     */
+    public Settings getCreateSettings() {
+        return createSettings;
+    }
+
+    /**
+     * @return name of the index template pre-created indices get their mappings from, null if not checked
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return true if pre-created indices get the shard count advised from the growth of the pattern
+     */
+    public boolean isAutoShards() {
+        return autoShards;
+    }
+
+    public ByteSizeValue getTargetShardSize() {
+        return targetShardSize;
+    }
+
+    public int getMaxShards() {
+        return maxShards;
+    }
+
+    public RolloverPolicy getRollover() {
+        return rollover;
+    }
+
+    /**
+     * Rolled over indices are found through their alias, retention goes by index creation date
+     */
+    public boolean isRollover() {
+        return rollover != null;
+    }
+
+    public List<TierTransition> getTiers() {
+        return tiers;
+    }
+
+    public boolean isTiered() {
+        return !tiers.isEmpty();
+    }
+
+    /**
+     * @return the last tier transition an index of the given date is old enough for, null if none
+     */
+    public TierTransition getTierTransition(DateTime indexDate, DateTime currentDateTime) {
+        TierTransition tierTransition = null;
+
+        for (TierTransition tier : tiers) {
+            if (tier.appliesTo(indexDate, currentDateTime)) {
+                tierTransition = tier;
+            }
+        }
+
+        return tierTransition;
+    }
+
+    /**
+     * @return number of segments per shard read-only indices are merged down to, null if they are not merged
+     */
+    public Integer getForceMergeSegments() {
+        return forceMergeSegments;
+    }
+
+    public boolean isForceMerge() {
+        return forceMergeSegments != null;
+    }
+
+    /**
+     * @return size of the shards read-only indices are shrunk to, null if they are not shrunk
+     */
+    public ByteSizeValue getShrinkShardSize() {
+        return shrinkShardSize;
+    }
+
+    public boolean isShrink() {
+        return shrinkShardSize != null;
+    }
+
+    /**
+     * @return age after which indices are closed, opened again only on demand, null if they stay open
+     */
+    public Period getCloseAfter() {
+        return closeAfter;
+    }
+
+    public boolean isClose() {
+        return closeAfter != null;
+    }
+
+    public List<ReplicaStep> getReplicaSchedule() {
+        return replicaSchedule;
+    }
+
+    public boolean hasReplicaSchedule() {
+        return !replicaSchedule.isEmpty();
+    }
+
+    /**
+     * @return the last replica step an index of the given date is old enough for, null if none
+     */
+    public ReplicaStep getReplicaStep(DateTime indexDate, DateTime currentDateTime) {
+        ReplicaStep replicaStep = null;
+
+        for (ReplicaStep step : replicaSchedule) {
+            if (step.appliesTo(indexDate, currentDateTime)) {
+                replicaStep = step;
+            }
+        }
+
+        return replicaStep;
+    }
+
     public boolean isActionable() {
-        return indexNamePattern != null && retentionPeriod != null;
+        return isRollover() || (indexNamePattern != null &&
+                (retentionPeriod != null || preCreate || isTiered() || isForceMerge() || isShrink() || isClose() || hasReplicaSchedule()));
+    }
+
+    /**
+     * @return true if the index name is of this pattern, shrunk indices included
+     */
+    public boolean isIndexOf(String name) {
+        return indexNameFilter.filter(IndexShrinker.getSourceIndexName(name));
     }
 
     public DateTime getPastRetentionCutoffDate(DateTime currentDateTime) {
@@ -141,15 +369,44 @@ public class IndexMetadata {
     }
 
     public DateTime getDateForIndexName(String name) {
-        return formatter.parseDateTime(name);
+        name = IndexShrinker.getSourceIndexName(name);
+        DateTime date = indexNameFilter.getDate(name);
+
+        // Not a name of this pattern, let Joda explain why
+        return date != null ? date : formatter.parseDateTime(name);
+    }
+
+    /**
+     * @return true if the index is of a past period, nothing is written to it anymore
+     */
+    public boolean isPastIndex(String name, DateTime currentDateTime) {
+        DateTime currentPeriod = formatter.parseDateTime(formatter.print(currentDateTime));
+        return getDateForIndexName(name).isBefore(currentPeriod);
     }
 
     public String getIndexNameToPreCreate(DateTime currentDateTime) throws UnsupportedAutoIndexException {
+        return formatter.print(currentDateTime.plus(getPreCreateAmount(currentDateTime)));
+    }
+
+    /**
+     * @return names of the indices of the next {@link #getPreCreatePeriods()} periods, nearest first
+     */
+    public List<String> getIndexNamesToPreCreate(DateTime currentDateTime) throws UnsupportedAutoIndexException {
+        Period amount = getPreCreateAmount(currentDateTime);
+
+        List<String> indexNames = new ArrayList<>(preCreatePeriods);
+        for (int i = 1; i <= preCreatePeriods; ++i) {
+            indexNames.add(formatter.print(currentDateTime.plus(amount.multipliedBy(i))));
+        }
+        return indexNames;
+    }
+
+    private Period getPreCreateAmount(DateTime currentDateTime) throws UnsupportedAutoIndexException {
         String currentIndexName = formatter.print(currentDateTime);
         for (int i = 0; i < AMOUNTS.length; ++i) {
             String newIndexName = formatter.print(currentDateTime.plus(AMOUNTS[i]));
             if (!currentIndexName.equals(newIndexName)) {
-                return newIndexName;
+                return AMOUNTS[i];
             }
         }
         throw new UnsupportedAutoIndexException("Invalid date pattern, do not know how to pre create");
@@ -0,0 +1,383 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.admin.indices.stats.IndexStats;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shrinks read-only indices down to as many shards as their size needs, e.g. a daily index created with
+ * ten shards which ended up holding 20gb is shrunk to a single shard. Steps for each index:
+ * <ol>
+ * <li>block writes and pin the index to one node, which relocates a copy of every shard there</li>
+ * <li>shrink it into [index]-shrunk once the copies are in place</li>
+ * <li>once the shrunk index is green, move the aliases over, delete the source and alias its name to the shrunk index,
+ * all in a single aliases request</li>
+ * </ol>
+ * Progress is never kept here, each run reads it back from the cluster state: a pinned source is relocating,
+ * a source with a shrunk copy is shrinking. Every step can be repeated, so a restart picks up where it was left.
+ * A shrunk index left without its source name, swapped by a version deleting the source separately, gets the name back.
+ */
+public class IndexShrinker {
+    private static final Logger logger = LoggerFactory.getLogger(IndexShrinker.class);
+
+    public static final String SHRUNK_SUFFIX = "-shrunk";
+    static final String REQUIRE_ID_SETTING = "index.routing.allocation.require._id";
+    static final String WRITE_BLOCK_SETTING = "index.blocks.write";
+
+    private static final BasicCounter indicesShrunk = new BasicCounter(
+            MonitorConfig.builder("indicesShrunk").withTag("class", "IndexShrinker").build());
+    private static final BasicCounter shardsRemovedByShrink = new BasicCounter(
+            MonitorConfig.builder("shardsRemovedByShrink").withTag("class", "IndexShrinker").build());
+
+    static {
+        Monitors.registerObject(indicesShrunk);
+        Monitors.registerObject(shardsRemovedByShrink);
+    }
+
+    private final IConfiguration config;
+
+    // Indices with no fewer shards worth shrinking to, not looked at again
+    private final Set<String> unshrinkableIndices = ConcurrentHashMap.newKeySet();
+
+    public IndexShrinker(IConfiguration config) {
+        this.config = config;
+    }
+
+    /**
+     * @return name of the index a shrunk index was made from, the name itself otherwise
+     */
+    public static String getSourceIndexName(String indexName) {
+        return indexName.endsWith(SHRUNK_SUFFIX) ? indexName.substring(0, indexName.length() - SHRUNK_SUFFIX.length()) : indexName;
+    }
+
+    /**
+     * @return true if the index is on its way to be shrunk, nothing else should move it around meanwhile
+     */
+    public static boolean isShrinking(IndexCatalog indexCatalog, String indexName) {
+        return indexCatalog.getSettings(indexName).get(REQUIRE_ID_SETTING) != null || indexCatalog.exists(indexName + SHRUNK_SUFFIX);
+    }
+
+    /**
+     * Shrinking can only divide the shards, the target count is the smallest factor of the current one
+     * which keeps shards under the given size
+     */
+    static int getTargetShardCount(long primarySizeInBytes, int shards, ByteSizeValue shardSize) {
+        long neededShards = Math.max(1, (primarySizeInBytes + shardSize.getBytes() - 1) / shardSize.getBytes());
+
+        for (int targetShards = 1; targetShards < shards; targetShards++) {
+            if (shards % targetShards == 0 && targetShards >= neededShards) {
+                return targetShards;
+            }
+        }
+
+        return shards;
+    }
+
+    /**
+     * @param candidates read-only indices with the size of the shards to shrink them to
+     */
+    public void shrink(Client esTransportClient, IndexCatalog indexCatalog, Map<String, ByteSizeValue> candidates) {
+        unshrinkableIndices.retainAll(candidates.keySet());
+
+        List<String> shrinkingIndices = new ArrayList<>();
+        List<String> unshrunkIndices = new ArrayList<>();
+
+        for (String indexName : candidates.keySet()) {
+            if (indexName.endsWith(SHRUNK_SUFFIX)) {
+                repairSourceAlias(esTransportClient, indexCatalog, indexName);
+                continue;
+            }
+
+            if (unshrinkableIndices.contains(indexName)) {
+                continue;
+            }
+
+            if (isShrinking(indexCatalog, indexName)) {
+                shrinkingIndices.add(indexName);
+            } else if (getShards(indexCatalog, indexName) > 1) {
+                unshrunkIndices.add(indexName);
+            }
+        }
+
+        for (String indexName : shrinkingIndices) {
+            try {
+                continueShrink(esTransportClient, indexCatalog, indexName, candidates.get(indexName));
+            } catch (Exception e) {
+                logger.warn("Failed to shrink index " + indexName + ", trying again on the next run", e);
+            }
+        }
+
+        int slots = config.getIndexShrinkMaxConcurrent() - shrinkingIndices.size();
+
+        if (slots <= 0 || unshrunkIndices.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> primarySizes = getPrimarySizes(esTransportClient, unshrunkIndices);
+
+        for (String indexName : unshrunkIndices) {
+            if (slots == 0) {
+                logger.info("{} indices are being shrunk, leaving the rest for the next run", config.getIndexShrinkMaxConcurrent());
+                break;
+            }
+
+            Long primarySize = primarySizes.get(indexName);
+            if (primarySize == null) {
+                continue;
+            }
+
+            int shards = getShards(indexCatalog, indexName);
+            int targetShards = getTargetShardCount(primarySize, shards, candidates.get(indexName));
+
+            if (targetShards >= shards) {
+                unshrinkableIndices.add(indexName);
+                continue;
+            }
+
+            String nodeId = pickNode(getShardsByNode(esTransportClient, indexName));
+            if (nodeId == null) {
+                continue;
+            }
+
+            logger.info("Shrinking index {} of {} bytes from {} to {} shards, moving a copy of each shard to node {}",
+                    indexName, primarySize, shards, targetShards, nodeId);
+
+            Settings settings = Settings.builder().put(REQUIRE_ID_SETTING, nodeId).put(WRITE_BLOCK_SETTING, true).build();
+            updateIndexSettings(esTransportClient, indexName, settings);
+            indexCatalog.updateSettings(indexName, settings);
+            slots--;
+        }
+    }
+
+    /**
+     * Take a shrink on from where it is in the cluster state
+     */
+    void continueShrink(Client esTransportClient, IndexCatalog indexCatalog, String indexName, ByteSizeValue shardSize) {
+        String shrunkIndexName = indexName + SHRUNK_SUFFIX;
+
+        if (indexCatalog.exists(shrunkIndexName)) {
+            if (!isGreen(esTransportClient, shrunkIndexName)) {
+                logger.info("Waiting for shrunk index {} to be allocated", shrunkIndexName);
+                return;
+            }
+
+            swapIndex(esTransportClient, indexCatalog, indexName, shrunkIndexName);
+            return;
+        }
+
+        String nodeId = indexCatalog.getSettings(indexName).get(REQUIRE_ID_SETTING);
+        Map<String, Set<Integer>> shardsByNode = getShardsByNode(esTransportClient, indexName);
+        int shards = getShards(indexCatalog, indexName);
+
+        if (!shardsByNode.containsKey(nodeId)) {
+            logger.warn("Node {} holding index {} for shrinking has left, starting over", nodeId, indexName);
+            unpin(esTransportClient, indexCatalog, indexName);
+            return;
+        }
+
+        if (shardsByNode.get(nodeId).size() < shards) {
+            logger.info("Waiting for {} of {} shards of index {} to move to node {}",
+                    shards - shardsByNode.get(nodeId).size(), shards, indexName, nodeId);
+            return;
+        }
+
+        long primarySize = getPrimarySizes(esTransportClient, Collections.singletonList(indexName)).getOrDefault(indexName, 0L);
+        int targetShards = getTargetShardCount(primarySize, shards, shardSize);
+
+        if (targetShards >= shards) {
+            unpin(esTransportClient, indexCatalog, indexName);
+            return;
+        }
+
+        Settings sourceSettings = indexCatalog.getSettings(indexName);
+        long creationDate = indexCatalog.getCreationDate(indexName).getMillis();
+
+        Settings shrunkIndexSettings = Settings.builder()
+                .put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, targetShards)
+                .put(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, sourceSettings.getAsInt(IndexMetaData.SETTING_NUMBER_OF_REPLICAS, 1))
+                // Retention of rolled over indices goes by creation date, which stays the one of the source
+                .put(IndexMetaData.SETTING_CREATION_DATE, creationDate)
+                .build();
+
+        logger.info("Shrinking index {} into {} with {} shards", indexName, shrunkIndexName, targetShards);
+        shrinkIndex(esTransportClient, indexName, shrunkIndexName, shrunkIndexSettings);
+        indexCatalog.add(shrunkIndexName, creationDate);
+    }
+
+    /**
+     * Aliases move over, the source is deleted and its name turns into an alias of the shrunk index in one cluster state
+     * update, queries by the source name never find nothing
+     */
+    void swapIndex(Client esTransportClient, IndexCatalog indexCatalog, String indexName, String shrunkIndexName) {
+        IndicesAliasesRequestBuilder aliasesRequest = esTransportClient.admin().indices().prepareAliases();
+        for (String alias : indexCatalog.getAliases(indexName)) {
+            aliasesRequest.addAlias(shrunkIndexName, alias).removeAlias(indexName, alias);
+        }
+
+        aliasesRequest.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(indexName))
+                .addAlias(shrunkIndexName, indexName)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        int shardsRemoved = getShards(indexCatalog, indexName) - getShards(indexCatalog, shrunkIndexName);
+        logger.info("Replaced index {} with {}, {} fewer shards", indexName, shrunkIndexName, shardsRemoved);
+
+        indicesShrunk.increment();
+        shardsRemovedByShrink.increment(shardsRemoved);
+    }
+
+    /**
+     * Alias the source name to a shrunk index again if the source is gone without the name pointing anywhere
+     */
+    void repairSourceAlias(Client esTransportClient, IndexCatalog indexCatalog, String shrunkIndexName) {
+        String indexName = getSourceIndexName(shrunkIndexName);
+        if (indexCatalog.exists(indexName) || !indexCatalog.getIndicesForAlias(indexName).isEmpty()) {
+            return;
+        }
+
+        logger.warn("Index {} was deleted without being aliased to {}, aliasing it", indexName, shrunkIndexName);
+        addAlias(esTransportClient, shrunkIndexName, indexName);
+        indexCatalog.setAlias(indexName, shrunkIndexName);
+    }
+
+    void unpin(Client esTransportClient, IndexCatalog indexCatalog, String indexName) {
+        Settings settings = Settings.builder().putNull(REQUIRE_ID_SETTING).build();
+        updateIndexSettings(esTransportClient, indexName, settings);
+        indexCatalog.updateSettings(indexName, settings);
+    }
+
+    /**
+     * @return node holding copies of most shards, the least to relocate
+     */
+    static String pickNode(Map<String, Set<Integer>> shardsByNode) {
+        String nodeId = null;
+        int shards = 0;
+
+        for (Map.Entry<String, Set<Integer>> entry : new TreeMap<>(shardsByNode).entrySet()) {
+            if (nodeId == null || entry.getValue().size() > shards) {
+                nodeId = entry.getKey();
+                shards = entry.getValue().size();
+            }
+        }
+
+        return nodeId;
+    }
+
+    private static int getShards(IndexCatalog indexCatalog, String indexName) {
+        return indexCatalog.getSettings(indexName).getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 1);
+    }
+
+    /**
+     * @return ids of the shards with a started copy on each data node, every data node included
+     */
+    Map<String, Set<Integer>> getShardsByNode(Client esTransportClient, String indexName) {
+        ClusterState clusterState = esTransportClient.admin().cluster().prepareState()
+                .clear()
+                .setNodes(true)
+                .setRoutingTable(true)
+                .setIndices(indexName)
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getState();
+
+        Map<String, Set<Integer>> shardsByNode = new HashMap<>();
+
+        for (Iterator<String> nodeIds = clusterState.getNodes().getDataNodes().keysIt(); nodeIds.hasNext(); ) {
+            shardsByNode.put(nodeIds.next(), new TreeSet<>());
+        }
+
+        IndexRoutingTable indexRoutingTable = clusterState.getRoutingTable().index(indexName);
+        if (indexRoutingTable != null) {
+            for (IndexShardRoutingTable indexShardRoutingTable : indexRoutingTable) {
+                for (ShardRouting shardRouting : indexShardRoutingTable) {
+                    if (shardRouting.started() && shardsByNode.containsKey(shardRouting.currentNodeId())) {
+                        shardsByNode.get(shardRouting.currentNodeId()).add(shardRouting.id());
+                    }
+                }
+            }
+        }
+
+        return shardsByNode;
+    }
+
+    Map<String, Long> getPrimarySizes(Client esTransportClient, Collection<String> indexNames) {
+        IndicesStatsResponse indicesStatsResponse = esTransportClient.admin().indices()
+                .prepareStats(indexNames.toArray(new String[indexNames.size()]))
+                .clear()
+                .setStore(true)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        Map<String, Long> primarySizes = new HashMap<>();
+
+        for (Map.Entry<String, IndexStats> entry : indicesStatsResponse.getIndices().entrySet()) {
+            primarySizes.put(entry.getKey(), entry.getValue().getPrimaries().getStore().getSizeInBytes());
+        }
+
+        return primarySizes;
+    }
+
+    boolean isGreen(Client esTransportClient, String indexName) {
+        return esTransportClient.admin().cluster().prepareHealth(indexName)
+                .execute().actionGet(config.getAutoCreateIndexTimeout())
+                .getStatus() == ClusterHealthStatus.GREEN;
+    }
+
+    void shrinkIndex(Client esTransportClient, String indexName, String shrunkIndexName, Settings settings) {
+        esTransportClient.admin().indices().prepareShrinkIndex(indexName, shrunkIndexName)
+                .setSettings(settings)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+
+    void addAlias(Client esTransportClient, String indexName, String alias) {
+        esTransportClient.admin().indices().prepareAliases()
+                .addAlias(indexName, alias)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+
+    void updateIndexSettings(Client esTransportClient, String indexName, Settings settings) {
+        esTransportClient.admin().indices().prepareUpdateSettings(indexName)
+                .setSettings(settings)
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+    }
+}
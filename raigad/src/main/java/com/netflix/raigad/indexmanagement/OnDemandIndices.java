@@ -0,0 +1,77 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Closed indices opened on demand, least recently used first. They go back to closed once idle,
+ * or to make room when too many are open at once.
+ */
+public class OnDemandIndices {
+    // Access order, the eldest entry is the least recently used index
+    private final LinkedHashMap<String, Long> lastAccessTimes = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Record an access to the index
+     *
+     * @return indices to close to stay within the maximum number of indices open on demand
+     */
+    public synchronized List<String> touch(String indexName, long currentTimeMillis, int maxOpenIndices) {
+        lastAccessTimes.put(indexName, currentTimeMillis);
+
+        List<String> evictedIndices = new ArrayList<>();
+        Iterator<String> indexNames = lastAccessTimes.keySet().iterator();
+
+        while (lastAccessTimes.size() > Math.max(1, maxOpenIndices) && indexNames.hasNext()) {
+            evictedIndices.add(indexNames.next());
+            indexNames.remove();
+        }
+
+        return evictedIndices;
+    }
+
+    /**
+     * @return indices not accessed for the idle time, no longer tracked
+     */
+    public synchronized List<String> removeIdle(long currentTimeMillis, long idleTimeMillis) {
+        List<String> idleIndices = new ArrayList<>();
+
+        for (Iterator<Map.Entry<String, Long>> entries = lastAccessTimes.entrySet().iterator(); entries.hasNext(); ) {
+            Map.Entry<String, Long> entry = entries.next();
+
+            if (currentTimeMillis - entry.getValue() >= idleTimeMillis) {
+                idleIndices.add(entry.getKey());
+                entries.remove();
+            }
+        }
+
+        return idleIndices;
+    }
+
+    public synchronized boolean contains(String indexName) {
+        // Plain lookup, get() would count as an access
+        return lastAccessTimes.containsKey(indexName);
+    }
+
+    public synchronized Map<String, Long> getLastAccessTimes() {
+        return new LinkedHashMap<>(lastAccessTimes);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.joda.time.format.ISOPeriodFormat;
+
+/**
+ * Number of replicas of an index once it is old enough, e.g.
+ * <pre>
+ * {"after": "P1D", "replicas": 1}
+ * </pre>
+ * Indices keep the replicas they were created with until the first step of the schedule.
+ */
+public class ReplicaStep {
+    private final Period after;
+    private final int replicas;
+
+    @JsonCreator
+    public ReplicaStep(
+            @JsonProperty("after") String after,
+            @JsonProperty("replicas") Integer replicas) {
+
+        if (after == null || replicas == null || replicas < 0) {
+            throw new IllegalArgumentException("Replica step needs the age it applies after and a replica count");
+        }
+
+        this.after = ISOPeriodFormat.standard().parsePeriod(after);
+        this.replicas = replicas;
+    }
+
+    public Period getAfter() {
+        return after;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public boolean appliesTo(DateTime indexDate, DateTime currentDateTime) {
+        return !indexDate.plus(after).isAfter(currentDateTime);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"after\": \"%s\", \"replicas\": %d}", after, replicas);
+    }
+}
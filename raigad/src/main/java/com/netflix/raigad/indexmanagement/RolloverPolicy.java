@@ -0,0 +1,140 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.joda.time.format.ISOPeriodFormat;
+
+import java.util.regex.Pattern;
+
+/**
+ * Rollover of an alias to a new index once the current write index is big, full or old enough, e.g.
+ * <pre>
+ * {"alias": "nf_errors_log", "maxSize": "50gb", "maxDocs": 100000000, "maxAge": "P1D", "targetShardSize": "30gb"}
+ * </pre>
+ * Indices behind the alias are named [alias]-000001, [alias]-000002 and so on.
+ */
+public class RolloverPolicy {
+    static final String FIRST_INDEX_SUFFIX = "-000001";
+
+    private static final ByteSizeValue DEFAULT_TARGET_SHARD_SIZE = ByteSizeValue.parseBytesSizeValue("30gb", "targetShardSize");
+    private static final int DEFAULT_MAX_SHARDS = 20;
+
+    private final String alias;
+    private final ByteSizeValue maxSize;
+    private final Long maxDocs;
+    private final Period maxAge;
+    private final ByteSizeValue targetShardSize;
+    private final int maxShards;
+    private final Pattern indexNamePattern;
+
+    @JsonCreator
+    public RolloverPolicy(
+            @JsonProperty("alias") String alias,
+            @JsonProperty("maxSize") String maxSize,
+            @JsonProperty("maxDocs") Long maxDocs,
+            @JsonProperty("maxAge") String maxAge,
+            @JsonProperty("targetShardSize") String targetShardSize,
+            @JsonProperty("maxShards") Integer maxShards) {
+
+        if (alias == null || alias.isEmpty()) {
+            throw new IllegalArgumentException("Rollover needs an alias");
+        }
+
+        this.alias = alias;
+        this.maxSize = maxSize == null ? null : ByteSizeValue.parseBytesSizeValue(maxSize, "maxSize");
+        this.maxDocs = maxDocs;
+        this.maxAge = maxAge == null ? null : ISOPeriodFormat.standard().parsePeriod(maxAge);
+        this.targetShardSize = targetShardSize == null
+                ? DEFAULT_TARGET_SHARD_SIZE
+                : ByteSizeValue.parseBytesSizeValue(targetShardSize, "targetShardSize");
+        this.maxShards = maxShards == null ? DEFAULT_MAX_SHARDS : maxShards;
+        this.indexNamePattern = Pattern.compile(Pattern.quote(alias) + "-\\d+(" + Pattern.quote(IndexShrinker.SHRUNK_SUFFIX) + ")?");
+
+        if (this.maxSize == null && this.maxDocs == null && this.maxAge == null) {
+            throw new IllegalArgumentException("Rollover of " + alias + " needs at least one of maxSize, maxDocs or maxAge");
+        }
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public ByteSizeValue getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getMaxDocs() {
+        return maxDocs;
+    }
+
+    public Period getMaxAge() {
+        return maxAge;
+    }
+
+    public String getFirstIndexName() {
+        return alias + FIRST_INDEX_SUFFIX;
+    }
+
+    /**
+     * @return true if the index is one of the indices rolled over behind the alias, shrunk or not
+     */
+    public boolean isRolloverIndex(String indexName) {
+        return indexNamePattern.matcher(indexName).matches();
+    }
+
+    public boolean isSizeExceeded(long primarySizeInBytes) {
+        return maxSize != null && primarySizeInBytes >= maxSize.getBytes();
+    }
+
+    /**
+     * Number of shards for the next index, sized so that it ends up with shards close to the target size
+     * when it is rolled over, judging by how fast the current write index has been growing.
+     *
+     * @return shard count or null if there is not enough to go by
+     */
+    public Integer getShardCount(long primarySizeInBytes, DateTime creationDate, DateTime now) {
+        long expectedSize = -1;
+
+        if (maxSize != null) {
+            expectedSize = maxSize.getBytes();
+        }
+
+        long ageMillis = now.getMillis() - creationDate.getMillis();
+        if (maxAge != null && ageMillis > 0 && primarySizeInBytes > 0) {
+            long maxAgeMillis = maxAge.toDurationFrom(creationDate).getMillis();
+            long sizeAtMaxAge = (long) (primarySizeInBytes * ((double) maxAgeMillis / ageMillis));
+            expectedSize = expectedSize < 0 ? sizeAtMaxAge : Math.min(expectedSize, sizeAtMaxAge);
+        }
+
+        if (expectedSize <= 0) {
+            return null;
+        }
+
+        long shards = (expectedSize + targetShardSize.getBytes() - 1) / targetShardSize.getBytes();
+        return (int) Math.max(1, Math.min(maxShards, shards));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"alias\": \"%s\", \"maxSize\": \"%s\", \"maxDocs\": %s, \"maxAge\": \"%s\"}",
+                alias, maxSize, maxDocs, maxAge);
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.indexmanagement.exception.UnsupportedAutoIndexException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.joda.time.DateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Advises the shard count of the next indices of a date based pattern from how the indices of past periods grew,
+ * so that their shards end up close to the target shard size. Only indices of complete periods are looked at,
+ * from index stats, so nothing needs to be kept between runs.
+ * <p>
+ * Rolled over indices are sized by {@link RolloverPolicy} instead, from the growth of the current write index.
+ */
+public class ShardSizingAdvisor {
+    static final ByteSizeValue DEFAULT_TARGET_SHARD_SIZE = ByteSizeValue.parseBytesSizeValue("30gb", "targetShardSize");
+    static final int DEFAULT_MAX_SHARDS = 20;
+
+    static final int HISTORY_PERIODS = 7;
+
+    // Growth is extrapolated over a few periods at most, keep a single odd period from running away with it
+    private static final double MIN_GROWTH = 0.5;
+    private static final double MAX_GROWTH = 2.0;
+
+    public static class ShardAdvice {
+        private final String indexNamePattern;
+        private final List<String> indexNames;
+        private final List<Long> primarySizes;
+        private final List<Long> docCounts;
+        private final int currentShards;
+        private final long targetShardSizeInBytes;
+        private final int maxShards;
+
+        ShardAdvice(String indexNamePattern, List<String> indexNames, List<Long> primarySizes, List<Long> docCounts,
+                    int currentShards, ByteSizeValue targetShardSize, int maxShards) {
+            this.indexNamePattern = indexNamePattern;
+            this.indexNames = indexNames;
+            this.primarySizes = primarySizes;
+            this.docCounts = docCounts;
+            this.currentShards = currentShards;
+            this.targetShardSizeInBytes = targetShardSize.getBytes();
+            this.maxShards = maxShards;
+        }
+
+        public String getIndexNamePattern() {
+            return indexNamePattern;
+        }
+
+        /**
+         * @return indices of the complete periods looked at, oldest first
+         */
+        public List<String> getIndexNames() {
+            return indexNames;
+        }
+
+        public List<Long> getPrimarySizes() {
+            return primarySizes;
+        }
+
+        public List<Long> getDocCounts() {
+            return docCounts;
+        }
+
+        /**
+         * @return shard count of the latest complete period
+         */
+        public int getCurrentShards() {
+            return currentShards;
+        }
+
+        /**
+         * @return average growth factor of the primary size from one period to the next
+         */
+        public double getSizeGrowth() {
+            return getGrowth(primarySizes);
+        }
+
+        public double getDocGrowth() {
+            return getGrowth(docCounts);
+        }
+
+        /**
+         * @return expected primary size of the index the given number of periods after the latest complete one
+         */
+        public long getPredictedSize(int periodsAhead) {
+            return (long) (primarySizes.get(primarySizes.size() - 1) * Math.pow(getSizeGrowth(), periodsAhead));
+        }
+
+        public int getRecommendedShards(int periodsAhead) {
+            long shards = (getPredictedSize(periodsAhead) + targetShardSizeInBytes - 1) / targetShardSizeInBytes;
+            return (int) Math.max(1, Math.min(maxShards, shards));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{\"indexNamePattern\": \"%s\", \"indexNames\": %s, \"primarySizes\": %s, \"currentShards\": %d, \"recommendedShards\": %d}",
+                    indexNamePattern, indexNames, primarySizes, currentShards, getRecommendedShards(2));
+        }
+    }
+
+    /**
+     * @return geometric mean of the growth between consecutive values, 1 if there is nothing to go by
+     */
+    static double getGrowth(List<Long> values) {
+        if (values.size() < 2 || values.get(0) <= 0) {
+            return 1;
+        }
+
+        double growth = Math.pow((double) values.get(values.size() - 1) / values.get(0), 1.0 / (values.size() - 1));
+        return Math.max(MIN_GROWTH, Math.min(MAX_GROWTH, growth));
+    }
+
+    /**
+     * @return advice for the index metadata, null if it has no complete period with stats to go by
+     */
+    public static ShardAdvice advise(IndexMetadata indexMetadata, IndexCatalog indexCatalog,
+                                     Map<String, IndexManagementPlan.IndexSize> indexSizes, DateTime dateTime) {
+        List<String> indexNames = getHistoryIndices(indexMetadata, indexCatalog, dateTime);
+        indexNames.removeIf(indexName -> !indexSizes.containsKey(indexName));
+
+        if (indexNames.isEmpty()) {
+            return null;
+        }
+
+        List<Long> primarySizes = new ArrayList<>();
+        List<Long> docCounts = new ArrayList<>();
+        for (String indexName : indexNames) {
+            IndexManagementPlan.IndexSize indexSize = indexSizes.get(indexName);
+            primarySizes.add(indexSize.primaryBytes);
+            docCounts.add(indexSize.primaryDocs);
+        }
+
+        String latestIndexName = indexNames.get(indexNames.size() - 1);
+        int currentShards = indexCatalog.getSettings(latestIndexName).getAsInt(IndexMetaData.SETTING_NUMBER_OF_SHARDS, 0);
+
+        return new ShardAdvice(indexMetadata.getIndexNamePattern(), indexNames, primarySizes, docCounts, currentShards,
+                indexMetadata.getTargetShardSize(), indexMetadata.getMaxShards());
+    }
+
+    /**
+     * @return open indices of the latest complete periods, oldest first, the only ones advice needs stats of
+     */
+    static List<String> getHistoryIndices(IndexMetadata indexMetadata, IndexCatalog indexCatalog, DateTime dateTime) {
+        if (indexMetadata.isRollover() || indexMetadata.getIndexNamePattern() == null) {
+            return new ArrayList<>();
+        }
+
+        // One index per period, a shrunk index holds the same documents as its source
+        TreeMap<DateTime, String> pastIndices = new TreeMap<>();
+        for (String indexName : indexCatalog.getIndexNames()) {
+            if (indexMetadata.isIndexOf(indexName) && indexMetadata.isPastIndex(indexName, dateTime) && !indexCatalog.isClosed(indexName)) {
+                pastIndices.put(indexMetadata.getDateForIndexName(indexName), indexName);
+            }
+        }
+
+        while (pastIndices.size() > HISTORY_PERIODS) {
+            pastIndices.pollFirstEntry();
+        }
+
+        return new ArrayList<>(pastIndices.values());
+    }
+
+    /**
+     * @return the indices to create with the advised shard count in their settings, as they are if there is no advice
+     */
+    public static Map<String, Settings> applyAdvice(Map<String, Settings> indicesToCreate, IndexMetadata indexMetadata,
+                                                    ShardAdvice shardAdvice, DateTime dateTime) throws UnsupportedAutoIndexException {
+        if (shardAdvice == null) {
+            return indicesToCreate;
+        }
+
+        // The current period is still being written, the next one is two periods after the latest complete one
+        List<String> indexNames = indexMetadata.getIndexNamesToPreCreate(dateTime);
+
+        Map<String, Settings> advisedIndices = new TreeMap<>();
+        indicesToCreate.forEach((indexName, settings) -> {
+            int shards = shardAdvice.getRecommendedShards(indexNames.indexOf(indexName) + 2);
+            advisedIndices.put(indexName, Settings.builder().put(settings).put(IndexMetaData.SETTING_NUMBER_OF_SHARDS, shards).build());
+        });
+
+        return advisedIndices;
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.elasticsearch.common.settings.Settings;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.joda.time.format.ISOPeriodFormat;
+
+/**
+ * Move of an index to a colder tier once it is old enough, e.g.
+ * <pre>
+ * {"tier": "warm", "after": "P2D", "replicas": 1}
+ * </pre>
+ * The tier is a node attribute, nodes are started with node.attr.[attribute]: warm and indices are pinned to them
+ * with index.routing.allocation.require.[attribute]. Hot is where new indices are, they carry no requirement.
+ */
+public class TierTransition {
+    public enum Tier {
+        HOT, WARM, COLD;
+
+        public String getAttributeValue() {
+            return name().toLowerCase();
+        }
+
+        /**
+         * @return tier of the attribute value, hot if the index does not require any
+         */
+        public static Tier fromAttributeValue(String value) {
+            if (value == null || value.isEmpty()) {
+                return HOT;
+            }
+
+            for (Tier tier : values()) {
+                if (tier.getAttributeValue().equalsIgnoreCase(value)) {
+                    return tier;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private final Tier tier;
+    private final Period after;
+    private final Integer replicas;
+    private final boolean readOnly;
+
+    @JsonCreator
+    public TierTransition(
+            @JsonProperty("tier") String tier,
+            @JsonProperty("after") String after,
+            @JsonProperty("replicas") Integer replicas,
+            @JsonProperty("readOnly") Boolean readOnly) {
+
+        if (tier == null || after == null) {
+            throw new IllegalArgumentException("Tier transition needs a tier and the age it applies after");
+        }
+
+        this.tier = Tier.valueOf(tier.toUpperCase());
+        this.after = ISOPeriodFormat.standard().parsePeriod(after);
+        this.replicas = replicas;
+        // Indices leaving the hot tier are not written to anymore
+        this.readOnly = readOnly == null ? this.tier != Tier.HOT : readOnly;
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    public Period getAfter() {
+        return after;
+    }
+
+    public Integer getReplicas() {
+        return replicas;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public boolean appliesTo(DateTime indexDate, DateTime currentDateTime) {
+        return !indexDate.plus(after).isAfter(currentDateTime);
+    }
+
+    /**
+     * @return true if the index settings already are what this transition sets
+     */
+    public boolean isAppliedTo(Settings indexSettings, String tierAttribute) {
+        if (getTier(indexSettings, tierAttribute) != tier) {
+            return false;
+        }
+
+        if (replicas != null && !replicas.equals(indexSettings.getAsInt("index.number_of_replicas", null))) {
+            return false;
+        }
+
+        return indexSettings.getAsBoolean("index.blocks.write", false) == readOnly;
+    }
+
+    /**
+     * @return tier the index is required to be on, null if it is not one of the known tiers
+     */
+    public static Tier getTier(Settings indexSettings, String tierAttribute) {
+        return Tier.fromAttributeValue(indexSettings.get("index.routing.allocation.require." + tierAttribute));
+    }
+
+    /**
+     * Write block rather than read_only, the latter blocks metadata changes too and the next transition would fail
+     */
+    public Settings getIndexSettings(String tierAttribute) {
+        String requireSetting = "index.routing.allocation.require." + tierAttribute;
+        Settings.Builder settings = Settings.builder().put("index.blocks.write", readOnly);
+
+        if (tier == Tier.HOT) {
+            settings.putNull(requireSetting);
+        } else {
+            settings.put(requireSetting, tier.getAttributeValue());
+        }
+
+        if (replicas != null) {
+            settings.put("index.number_of_replicas", replicas);
+        }
+
+        return settings.build();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{\"tier\": \"%s\", \"after\": \"%s\", \"replicas\": %s, \"readOnly\": %b}",
+                tier.getAttributeValue(), after, replicas, readOnly);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.indexmanagement.indexfilters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.netflix.raigad.indexmanagement.IIndexNameFilter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index name filter for date patterns made of literals and fixed width numeric fields (YYYY, yyyy, MM, dd, HH).
+ * The pattern is compiled once, matching a name is then a length check, literal comparisons and reading
+ * digits in place, with the same outcome as {@link DatePatternIndexNameFilter}. Patterns using any other
+ * field are handed to {@link DatePatternIndexNameFilter}.
+ * <p>
+ * Dates of matching names are kept in a bounded cache, index management asks for them on every run.
+ */
+public class CompiledIndexNameFilter implements IIndexNameFilter {
+    private static final int PARSE_CACHE_SIZE = 10000;
+
+    private enum Field {
+        YEAR_OF_ERA(4), YEAR(4), MONTH(2), DAY(2), HOUR(2);
+
+        private final int width;
+
+        Field(int width) {
+            this.width = width;
+        }
+    }
+
+    /**
+     * Either a literal or a numeric field, at a fixed offset of the name
+     */
+    private static class Segment {
+        private final int offset;
+        private final String literal;
+        private final Field field;
+
+        Segment(int offset, String literal, Field field) {
+            this.offset = offset;
+            this.literal = literal;
+            this.field = field;
+        }
+    }
+
+    private final DateTimeFormatter formatter;
+    private final DatePatternIndexNameFilter fallback;
+    private final List<Segment> segments;
+    private final int length;
+    private final Cache<String, DateTime> dates = CacheBuilder.newBuilder().maximumSize(PARSE_CACHE_SIZE).build();
+
+    public CompiledIndexNameFilter(String pattern, DateTimeFormatter formatter) {
+        this.formatter = formatter;
+        this.segments = compile(pattern);
+
+        if (segments == null) {
+            fallback = new DatePatternIndexNameFilter(formatter);
+            length = -1;
+        } else {
+            fallback = null;
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            length = last == null ? 0 : last.offset + (last.field == null ? last.literal.length() : last.field.width);
+        }
+    }
+
+    /**
+     * @return true if the pattern could be compiled, false if every name goes through Joda
+     */
+    public boolean isCompiled() {
+        return segments != null;
+    }
+
+    @Override
+    public boolean filter(String name) {
+        return getDate(name) != null;
+    }
+
+    /**
+     * @return date encoded in the index name, null if the name does not match the pattern
+     */
+    public DateTime getDate(String name) {
+        DateTime date = dates.getIfPresent(name);
+        if (date != null) {
+            return date;
+        }
+
+        date = segments == null ? parseWithFallback(name) : parse(name);
+        if (date != null) {
+            dates.put(name, date);
+        }
+
+        return date;
+    }
+
+    private DateTime parseWithFallback(String name) {
+        return fallback.filter(name) ? formatter.parseDateTime(name) : null;
+    }
+
+    private DateTime parse(String name) {
+        if (name.length() != length) {
+            return null;
+        }
+
+        // Joda fills fields missing from the pattern in from 1970-01-01T00:00Z
+        int year = 1970;
+        int minYear = 0;
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+
+        for (Segment segment : segments) {
+            if (segment.field == null) {
+                if (!name.startsWith(segment.literal, segment.offset)) {
+                    return null;
+                }
+                continue;
+            }
+
+            int value = readDigits(name, segment.offset, segment.field.width);
+            if (value < 0) {
+                return null;
+            }
+
+            switch (segment.field) {
+                case YEAR_OF_ERA: year = value; minYear = 1; break;
+                case YEAR: year = value; break;
+                case MONTH: month = value; break;
+                case DAY: day = value; break;
+                case HOUR: hour = value; break;
+            }
+        }
+
+        if (year < minYear || month < 1 || month > 12 || hour > 23 || day < 1) {
+            return null;
+        }
+
+        DateTime startOfMonth = new DateTime(year, month, 1, 0, 0, DateTimeZone.UTC);
+        if (day > startOfMonth.dayOfMonth().getMaximumValue()) {
+            return null;
+        }
+
+        return new DateTime(year, month, day, hour, 0, DateTimeZone.UTC);
+    }
+
+    private static int readDigits(String name, int offset, int width) {
+        int value = 0;
+
+        for (int i = offset; i < offset + width; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Split a Joda pattern into literals and fixed width fields
+     *
+     * @return segments or null if the pattern uses anything we do not compile
+     */
+    private static List<Segment> compile(String pattern) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int offset = 0;
+        int i = 0;
+
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i);
+
+            if (c == '\'') {
+                // Quoted text, two quotes stand for one
+                int end = i + 1;
+                if (end < pattern.length() && pattern.charAt(end) == '\'') {
+                    literal.append('\'');
+                    i = end + 1;
+                    continue;
+                }
+
+                while (true) {
+                    if (end >= pattern.length()) {
+                        return null;
+                    }
+                    if (pattern.charAt(end) == '\'') {
+                        if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+                            literal.append('\'');
+                            end += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    literal.append(pattern.charAt(end++));
+                }
+
+                i = end + 1;
+                continue;
+            }
+
+            if (!Character.isLetter(c)) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            int count = 1;
+            while (i + count < pattern.length() && pattern.charAt(i + count) == c) {
+                count++;
+            }
+
+            Field field = toField(c, count);
+            if (field == null) {
+                return null;
+            }
+
+            if (literal.length() > 0) {
+                segments.add(new Segment(offset, literal.toString(), null));
+                offset += literal.length();
+                literal.setLength(0);
+            }
+
+            segments.add(new Segment(offset, null, field));
+            offset += field.width;
+            i += count;
+        }
+
+        if (literal.length() > 0) {
+            segments.add(new Segment(offset, literal.toString(), null));
+        }
+
+        return segments;
+    }
+
+    private static Field toField(char c, int count) {
+        switch (c) {
+            case 'Y':
+                return count == 4 ? Field.YEAR_OF_ERA : null;
+            case 'y':
+                return count == 4 ? Field.YEAR : null;
+            case 'M':
+                return count == 2 ? Field.MONTH : null;
+            case 'd':
+                return count == 2 ? Field.DAY : null;
+            case 'H':
+                return count == 2 ? Field.HOUR : null;
+            default:
+                return null;
+        }
+    }
+}
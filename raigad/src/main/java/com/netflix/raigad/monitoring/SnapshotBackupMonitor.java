@@ -18,6 +18,7 @@ package com.netflix.raigad.monitoring;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.netflix.raigad.backup.SnapshotBackupManager;
+import com.netflix.raigad.backup.SnapshotJob;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.scheduler.SimpleTimer;
 import com.netflix.raigad.scheduler.Task;
@@ -62,6 +63,13 @@ public class SnapshotBackupMonitor extends Task {
         try {
             snapshotBackupBean.snapshotSuccess = snapshotBackupManager.getNumSnapshotSuccess();
             snapshotBackupBean.snapshotFailure = snapshotBackupManager.getNumSnapshotFailure();
+
+            SnapshotJob latestJob = snapshotBackupManager.getLatestJob();
+            if (latestJob != null) {
+                snapshotBackupBean.snapshotRunning = latestJob.isDone() ? 0 : 1;
+                snapshotBackupBean.snapshotBytesProcessed = latestJob.getProcessedBytes();
+                snapshotBackupBean.snapshotBytesTotal = latestJob.getTotalBytes();
+            }
         } catch (Exception e) {
             logger.warn("failed to load Cluster SnapshotBackup Status", e);
         }
@@ -86,11 +94,29 @@ public class SnapshotBackupMonitor extends Task {
             return snapshotBackupBean.get().snapshotFailure;
         }
 
+        @Monitor(name = "snapshot_running", type = DataSourceType.GAUGE)
+        public int getSnapshotRunning() {
+            return snapshotBackupBean.get().snapshotRunning;
+        }
+
+        @Monitor(name = "snapshot_bytes_processed", type = DataSourceType.GAUGE)
+        public long getSnapshotBytesProcessed() {
+            return snapshotBackupBean.get().snapshotBytesProcessed;
+        }
+
+        @Monitor(name = "snapshot_bytes_total", type = DataSourceType.GAUGE)
+        public long getSnapshotBytesTotal() {
+            return snapshotBackupBean.get().snapshotBytesTotal;
+        }
+
     }
 
     private static class SnapshotBackupBean {
         private int snapshotSuccess;
         private int snapshotFailure;
+        private int snapshotRunning;
+        private long snapshotBytesProcessed;
+        private long snapshotBytesTotal;
     }
 
     public static TaskTimer getTimer(String name) {
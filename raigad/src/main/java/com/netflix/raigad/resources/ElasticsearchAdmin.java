@@ -19,7 +19,13 @@ import com.google.inject.Inject;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.defaultimpl.IElasticsearchProcess;
 import com.netflix.raigad.indexmanagement.ElasticsearchIndexManager;
+import com.netflix.raigad.indexmanagement.IndexManagementPlan;
+import com.netflix.raigad.indexmanagement.ShardSizingAdvisor;
+import com.netflix.raigad.utils.AdminOperationGate;
+import com.netflix.raigad.utils.ElasticsearchTransportClient;
 import com.netflix.raigad.utils.SystemUtils;
+import org.elasticsearch.client.Client;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.slf4j.Logger;
@@ -44,12 +50,15 @@ public class ElasticsearchAdmin {
     private final IConfiguration config;
     private final IElasticsearchProcess esProcess;
     private final ElasticsearchIndexManager esIndexManager;
+    private final AdminOperationGate adminOperationGate;
 
     @Inject
-    public ElasticsearchAdmin(IConfiguration config, IElasticsearchProcess esProcess, ElasticsearchIndexManager esIndexManager) {
+    public ElasticsearchAdmin(IConfiguration config, IElasticsearchProcess esProcess, ElasticsearchIndexManager esIndexManager,
+                              AdminOperationGate adminOperationGate) {
         this.config = config;
         this.esProcess = esProcess;
         this.esIndexManager = esIndexManager;
+        this.adminOperationGate = adminOperationGate;
     }
 
     @GET
@@ -83,6 +92,93 @@ public class ElasticsearchAdmin {
     }
 
 
+    @GET
+    @Path("/index_plan")
+    public Response esIndexPlan() throws Exception {
+        logger.info("Planning index management through a REST call...");
+
+        IndexManagementPlan plan = esIndexManager.planIndexManagement();
+
+        JSONArray actions = new JSONArray();
+        for (IndexManagementPlan.Action action : plan.getActions()) {
+            JSONObject jsonAction = new JSONObject();
+            jsonAction.put("type", action.getType().name());
+            jsonAction.put("target", action.getTarget());
+            jsonAction.put("detail", action.getDetail());
+            jsonAction.put("estimatedBytes", action.getEstimatedBytes());
+            jsonAction.put("shards", action.getShards());
+            jsonAction.put("estimatedSeconds", action.getEstimatedSeconds());
+            actions.add(jsonAction);
+        }
+
+        JSONObject jsonPlan = new JSONObject();
+        jsonPlan.put("dateTime", plan.getDateTime().toString());
+        jsonPlan.put("actions", actions);
+        jsonPlan.put("estimatedBytes", plan.getEstimatedBytes());
+        jsonPlan.put("estimatedSeconds", plan.getEstimatedSeconds());
+
+        return Response.ok(jsonPlan.toJSONString(), MediaType.APPLICATION_JSON).build();
+    }
+
+    @GET
+    @Path("/shard_advice")
+    public Response esShardAdvice() throws Exception {
+        logger.info("Advising shard counts through a REST call...");
+
+        JSONArray shardAdvice = new JSONArray();
+        for (ShardSizingAdvisor.ShardAdvice advice : esIndexManager.getShardAdvice()) {
+            JSONArray indexNames = new JSONArray();
+            indexNames.addAll(advice.getIndexNames());
+            JSONArray primarySizes = new JSONArray();
+            primarySizes.addAll(advice.getPrimarySizes());
+            JSONArray docCounts = new JSONArray();
+            docCounts.addAll(advice.getDocCounts());
+
+            JSONObject jsonAdvice = new JSONObject();
+            jsonAdvice.put("indexNamePattern", advice.getIndexNamePattern());
+            jsonAdvice.put("indexNames", indexNames);
+            jsonAdvice.put("primarySizes", primarySizes);
+            jsonAdvice.put("docCounts", docCounts);
+            jsonAdvice.put("sizeGrowth", advice.getSizeGrowth());
+            jsonAdvice.put("docGrowth", advice.getDocGrowth());
+            jsonAdvice.put("currentShards", advice.getCurrentShards());
+
+            // For the next period, the current one is still being written
+            jsonAdvice.put("predictedSize", advice.getPredictedSize(2));
+            jsonAdvice.put("recommendedShards", advice.getRecommendedShards(2));
+            shardAdvice.add(jsonAdvice);
+        }
+
+        return Response.ok(shardAdvice.toJSONString(), MediaType.APPLICATION_JSON).build();
+    }
+
+    @GET
+    @Path("/open_index/{index}")
+    public Response esOpenIndex(@PathParam("index") String indexName) throws Exception {
+        logger.info("Opening index {} on demand through a REST call...", indexName);
+
+        try {
+            if (!esIndexManager.openIndexOnDemand(indexName)) {
+                return Response.ok("[\"already open\"]", MediaType.APPLICATION_JSON).build();
+            }
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.NOT_FOUND).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(e.getMessage()).type(MediaType.TEXT_PLAIN).build();
+        }
+
+        return Response.ok(REST_SUCCESS, MediaType.APPLICATION_JSON).build();
+    }
+
+    @GET
+    @Path("/open_indices")
+    public Response esOnDemandIndices() {
+        JSONObject lastOpened = new JSONObject();
+        esIndexManager.getOnDemandIndices().forEach(lastOpened::put);
+
+        return Response.ok(lastOpened.toJSONString(), MediaType.APPLICATION_JSON).build();
+    }
+
     @GET
     @Path("/existingRepositories")
     public Response esExistingRepositories() throws Exception {
@@ -97,13 +193,17 @@ public class ElasticsearchAdmin {
 
     @GET
     @Path("/shard_allocation_enable/{type}")
-    public Response esShardAllocationEnable(@PathParam("type") String type) throws IOException {
+    public Response esShardAllocationEnable(@PathParam("type") String type) throws Exception {
         logger.info("Enabling shard allocation through a REST call...");
 
         if (!type.equalsIgnoreCase("transient") && !type.equalsIgnoreCase("persistent")) {
             throw new IOException("Parameter must be equal to transient or persistent");
         }
 
+        if (!admitClusterSettingsUpdate()) {
+            return masterUnderPressure();
+        }
+
         String url = "http://127.0.0.1:" + config.getHttpPort() + "/_cluster/settings";
         JSONObject settings = new JSONObject();
         JSONObject property = new JSONObject();
@@ -117,13 +217,17 @@ public class ElasticsearchAdmin {
 
     @GET
     @Path("/shard_allocation_disable/{type}")
-    public Response esShardAllocationDisable(@PathParam("type") String type) throws IOException {
+    public Response esShardAllocationDisable(@PathParam("type") String type) throws Exception {
         logger.info("Disabling shard allocation through a REST call...");
 
         if (!type.equalsIgnoreCase("transient") && !type.equalsIgnoreCase("persistent")) {
             throw new IOException("Parameter must be equal to transient or persistent");
         }
 
+        if (!admitClusterSettingsUpdate()) {
+            return masterUnderPressure();
+        }
+
         String url = "http://127.0.0.1:" + config.getHttpPort() + "/_cluster/settings";
         JSONObject settings = new JSONObject();
         JSONObject property = new JSONObject();
@@ -135,4 +239,16 @@ public class ElasticsearchAdmin {
         return Response.ok(REST_SUCCESS, MediaType.APPLICATION_JSON).build();
     }
 
+    /**
+     * Allocation is switched around while the cluster recovers, only pending tasks and heap of the master hold it off
+     */
+    private boolean admitClusterSettingsUpdate() throws Exception {
+        Client esTransportClient = ElasticsearchTransportClient.instance(config).getTransportClient();
+        return adminOperationGate.admit(esTransportClient, "cluster settings update", true);
+    }
+
+    private Response masterUnderPressure() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity("Master is under pressure, try again later").type(MediaType.TEXT_PLAIN).build();
+    }
 }
@@ -18,11 +18,15 @@ package com.netflix.raigad.resources;
 import com.google.inject.Inject;
 import com.netflix.raigad.backup.RestoreBackupManager;
 import com.netflix.raigad.backup.SnapshotBackupManager;
+import com.netflix.raigad.backup.SnapshotJob;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
@@ -55,9 +59,52 @@ public class ElasticsearchBackup {
     public Response snapshot() throws Exception {
         logger.info("Running snapshot through a REST call...");
 
-        snapshotBackupManager.runSnapshotBackup();
+        // Returns once the snapshot started, progress is available from /jobs/{id}
+        SnapshotJob job = snapshotBackupManager.runSnapshotBackup();
 
-        return Response.ok(REST_SUCCESS, MediaType.APPLICATION_JSON).build();
+        return Response.ok(toJson(job).toJSONString(), MediaType.APPLICATION_JSON).build();
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    public Response snapshotJob(@PathParam("id") String id) {
+        SnapshotJob job = snapshotBackupManager.getJob(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("Unknown snapshot job " + id).type(MediaType.TEXT_PLAIN).build();
+        }
+
+        JSONArray shards = new JSONArray();
+        for (SnapshotJob.ShardProgress shardProgress : job.getShardProgress()) {
+            JSONObject jsonShard = new JSONObject();
+            jsonShard.put("index", shardProgress.getIndex());
+            jsonShard.put("shard", shardProgress.getShard());
+            jsonShard.put("stage", shardProgress.getStage());
+            jsonShard.put("processedBytes", shardProgress.getProcessedBytes());
+            jsonShard.put("totalBytes", shardProgress.getTotalBytes());
+            shards.add(jsonShard);
+        }
+
+        JSONObject jsonJob = toJson(job);
+        jsonJob.put("shards", shards);
+
+        return Response.ok(jsonJob.toJSONString(), MediaType.APPLICATION_JSON).build();
+    }
+
+    private JSONObject toJson(SnapshotJob job) {
+        JSONObject jsonJob = new JSONObject();
+        jsonJob.put("id", job.getId());
+        jsonJob.put("repository", job.getRepositoryName());
+        jsonJob.put("snapshot", job.getSnapshotName());
+        jsonJob.put("state", job.getState().name());
+        jsonJob.put("startTime", job.getStartTime());
+        jsonJob.put("endTime", job.getEndTime());
+        jsonJob.put("totalShards", job.getTotalShards());
+        jsonJob.put("successfulShards", job.getSuccessfulShards());
+        jsonJob.put("failedShards", job.getFailedShards());
+        jsonJob.put("processedBytes", job.getProcessedBytes());
+        jsonJob.put("totalBytes", job.getTotalBytes());
+        jsonJob.put("failure", job.getFailure());
+        return jsonJob;
     }
 
     @GET
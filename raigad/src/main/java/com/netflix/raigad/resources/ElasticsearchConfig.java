@@ -21,24 +21,27 @@ import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import com.netflix.raigad.configuration.IConfigSource;
 import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.raigad.identity.InstanceManager;
 import com.netflix.raigad.identity.RaigadInstance;
 import com.netflix.raigad.startup.RaigadServer;
-import com.netflix.raigad.utils.ElasticsearchUtils;
 import com.netflix.raigad.utils.TribeUtils;
 import org.apache.commons.lang.StringUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 /**
@@ -48,34 +51,50 @@ import java.util.stream.Stream;
 public class ElasticsearchConfig {
     private static final Logger logger = LoggerFactory.getLogger(ElasticsearchConfig.class);
 
+    public static final String NODES_VERSION_HEADER = "X-Raigad-Nodes-Version";
+    private static final String LOCAL_NODES_KEY = "";
+    private static final long MAX_WAIT_MS = 60 * 1000;
+
     private final RaigadServer raigadServer;
     private final TribeUtils tribeUtils;
     private final IConfigSource configSrc;
+    private final NodesResponseCache nodesResponseCache;
 
     @Inject
-    public ElasticsearchConfig(RaigadServer raigadServer, TribeUtils tribeUtils, @Named("custom") IConfigSource configSrc, IConfiguration config) {
+    public ElasticsearchConfig(RaigadServer raigadServer, TribeUtils tribeUtils, NodesResponseCache nodesResponseCache,
+                               @Named("custom") IConfigSource configSrc, IConfiguration config) {
         this.raigadServer = raigadServer;
         this.tribeUtils = tribeUtils;
+        this.nodesResponseCache = nodesResponseCache;
         this.configSrc = configSrc;
         this.configSrc.initialize(config);
     }
 
     @GET
     @Path("/get_nodes")
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response getNodes() {
+    @Produces({MediaType.TEXT_PLAIN, NodesResponseCache.NODES_V2_MEDIA_TYPE})
+    public Response getNodes(@HeaderParam(HttpHeaders.ACCEPT) String accept,
+                             @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                             @QueryParam("sinceVersion") Long sinceVersion,
+                             @QueryParam("wait") String wait) {
         try {
-            logger.info("Getting cluster nodes");
-            final List<RaigadInstance> instances = raigadServer.getInstanceManager().getAllInstances();
+            logger.debug("Getting cluster nodes");
+            final InstanceManager instanceManager = raigadServer.getInstanceManager();
+
+            NodesResponseCache.Entry nodes = getNodes(instanceManager, LOCAL_NODES_KEY, accept, ifNoneMatch, sinceVersion, wait, () -> {
+                List<RaigadInstance> instances = instanceManager.getAllInstances();
+                if (instances != null) {
+                    logger.info("Got {} instances", instances.size());
+                }
+                return instances;
+            });
 
-            if (instances == null) {
+            if (nodes == null) {
                 logger.error("Error getting cluster nodes");
                 return Response.serverError().build();
             }
 
-            logger.info("Got {} instances", instances.size());
-            JSONObject raigadJson = ElasticsearchUtils.transformRaigadInstanceToJson(instances);
-            return Response.ok(raigadJson.toString()).build();
+            return toResponse(nodes, ifNoneMatch);
         } catch (Exception e) {
             logger.error("Error getting nodes (getNodes)", e);
             return Response.serverError().build();
@@ -84,10 +103,14 @@ public class ElasticsearchConfig {
 
     @GET
     @Path("/get_tribe_nodes/{id}")
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response getTribeNodes(@PathParam("id") String id) {
+    @Produces({MediaType.TEXT_PLAIN, NodesResponseCache.NODES_V2_MEDIA_TYPE})
+    public Response getTribeNodes(@PathParam("id") String id,
+                                  @HeaderParam(HttpHeaders.ACCEPT) String accept,
+                                  @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                  @QueryParam("sinceVersion") Long sinceVersion,
+                                  @QueryParam("wait") String wait) {
         try {
-            logger.info("Getting nodes for the source tribe cluster [{}]", id);
+            logger.debug("Getting nodes for the source tribe cluster [{}]", id);
 
             // Find source cluster name from the tribe ID by reading YAML file
             String sourceTribeClusterName = tribeUtils.getTribeClusterNameFromId(id);
@@ -97,25 +120,81 @@ public class ElasticsearchConfig {
                 return Response.serverError().build();
             }
 
-            logger.info("Found source tribe cluster {} with ID [{}]", sourceTribeClusterName, id);
+            final InstanceManager instanceManager = raigadServer.getInstanceManager();
 
-            final List<RaigadInstance> instances =
-                    raigadServer.getInstanceManager().getAllInstancesPerCluster(sourceTribeClusterName);
+            NodesResponseCache.Entry nodes = getNodes(instanceManager, sourceTribeClusterName, accept, ifNoneMatch, sinceVersion, wait, () -> {
+                List<RaigadInstance> instances = instanceManager.getAllInstancesPerCluster(sourceTribeClusterName);
+                if (instances != null) {
+                    logger.info("Got {} instances for {}", instances.size(), sourceTribeClusterName);
+                }
+                return instances;
+            });
 
-            if (instances == null) {
+            if (nodes == null) {
                 logger.error("Error getting source tribe cluster nodes for {}", sourceTribeClusterName);
                 return Response.serverError().build();
             }
 
-            logger.info("Got {} instances for {}", instances.size(), sourceTribeClusterName);
-            JSONObject raigadJson = ElasticsearchUtils.transformRaigadInstanceToJson(instances);
-            return Response.ok(raigadJson.toString()).build();
+            return toResponse(nodes, ifNoneMatch);
         } catch (Exception e) {
             logger.error("Exception getting nodes (getTribeNodes)", e);
             return Response.serverError().build();
         }
     }
 
+    /**
+     * Long-poll: a caller which already has the current nodes, by ETag and sinceVersion, is held until membership
+     * changes or the wait (e.g. 30s, 500ms, capped at a minute) is over, after which it gets the usual response or a 304.
+     * Callers with nodes from before a restart, where versions started over, get the current ones right away.
+     */
+    private NodesResponseCache.Entry getNodes(InstanceManager instanceManager, String cluster, String accept, String ifNoneMatch,
+                                              Long sinceVersion, String wait, Supplier<List<RaigadInstance>> loader) throws Exception {
+        NodesResponseCache.Format format = NodesResponseCache.Format.fromAcceptHeader(accept);
+        NodesResponseCache.Entry nodes = nodesResponseCache.get(cluster, format, instanceManager.getMembershipVersion(), loader);
+
+        if (nodes == null || !nodes.matches(ifNoneMatch) || sinceVersion == null || sinceVersion > nodes.getVersion() ||
+                StringUtils.isBlank(wait)) {
+            return nodes;
+        }
+
+        long waitMs = Math.min(parseWait(wait), MAX_WAIT_MS);
+        if (waitMs <= 0) {
+            return nodes;
+        }
+
+        instanceManager.awaitMembershipChange(sinceVersion, waitMs);
+        return nodesResponseCache.get(cluster, format, instanceManager.getMembershipVersion(), loader);
+    }
+
+    static long parseWait(String wait) {
+        String value = wait.trim().toLowerCase();
+
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2));
+        }
+
+        if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1);
+        }
+
+        return TimeUnit.SECONDS.toMillis(Long.parseLong(value));
+    }
+
+    /**
+     * Nodes which already have the current version only get a 304, others get the pre-serialized body.
+     * Plugins asking for the compact format get it, everything else keeps getting the legacy one.
+     */
+    private Response toResponse(NodesResponseCache.Entry nodes, String ifNoneMatch) {
+        if (nodes.matches(ifNoneMatch)) {
+            return Response.notModified().header(HttpHeaders.ETAG, nodes.getETag()).build();
+        }
+
+        return Response.ok(nodes.getBody(), nodes.getFormat().getMediaType())
+                .header(HttpHeaders.ETAG, nodes.getETag())
+                .header(NODES_VERSION_HEADER, nodes.getVersion())
+                .build();
+    }
+
     @GET
     @Path("/get_prop/{names}")
     @Produces(MediaType.APPLICATION_JSON)
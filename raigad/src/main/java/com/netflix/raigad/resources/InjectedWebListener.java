@@ -35,10 +35,12 @@ import com.netflix.raigad.configuration.CompositeConfigSource;
 import com.netflix.raigad.configuration.CustomConfigSource;
 import com.netflix.raigad.configuration.IConfigSource;
 import com.netflix.raigad.configuration.IConfiguration;
-import com.netflix.raigad.identity.CassandraInstanceFactory;
 import com.netflix.raigad.identity.EurekaHostsSupplier;
 import com.netflix.raigad.identity.HostSupplier;
 import com.netflix.raigad.identity.IRaigadInstanceFactory;
+import com.netflix.raigad.identity.IRegistrationLock;
+import com.netflix.raigad.identity.RaigadInstanceFactoryProvider;
+import com.netflix.raigad.identity.RegistrationLockProvider;
 import com.netflix.raigad.scheduler.GuiceJobFactory;
 import com.netflix.raigad.startup.RaigadServer;
 import com.sun.jersey.api.core.PackagesResourceConfig;
@@ -105,7 +107,7 @@ public class InjectedWebListener extends GuiceServletContextListener {
             // Fix bug in Jersey-Guice integration exposed by child injectors
             binder().bind(GuiceContainer.class).asEagerSingleton();
             binder().bind(GuiceJobFactory.class).asEagerSingleton();
-            binder().bind(IRaigadInstanceFactory.class).to(CassandraInstanceFactory.class);
+            binder().bind(IRaigadInstanceFactory.class).toProvider(RaigadInstanceFactoryProvider.class).in(Scopes.SINGLETON);
 
             // TODO: Use config.getCredentialProvider() instead of IAMCredential
             binder().bind(ICredential.class).to(IAMCredential.class);
@@ -113,6 +115,7 @@ public class InjectedWebListener extends GuiceServletContextListener {
             binder().bind(AbstractRepositorySettingsParams.class).annotatedWith(Names.named("s3")).to(S3RepositorySettingsParams.class);
             bind(SchedulerFactory.class).to(StdSchedulerFactory.class).asEagerSingleton();
             bind(HostSupplier.class).to(EurekaHostsSupplier.class).in(Scopes.SINGLETON);
+            bind(IRegistrationLock.class).toProvider(RegistrationLockProvider.class).in(Scopes.SINGLETON);
             binder().bind(IConfigSource.class).annotatedWith(Names.named("custom")).to(CompositeConfigSource.class);
         }
     }
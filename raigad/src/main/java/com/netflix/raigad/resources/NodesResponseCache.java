@@ -0,0 +1,149 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.netflix.raigad.resources;
+
+import com.google.inject.Singleton;
+import com.netflix.raigad.identity.RaigadInstance;
+import com.netflix.raigad.utils.ElasticsearchUtils;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Pre-serialized get_nodes responses per cluster. A response is only rebuilt when the membership
+ * version moved past the one it was built for, so serving a discovery ping costs a map lookup
+ * no matter how many nodes ping or how large the cluster is.
+ */
+@Singleton
+public class NodesResponseCache {
+    public static final String NODES_V2_MEDIA_TYPE = "application/vnd.raigad.nodes.v2+json";
+
+    // Versions restart with the process, the start time keeps ETags from before a restart from matching
+    private final long epoch = System.currentTimeMillis();
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Wire formats of the node list, negotiated through the Accept header
+     */
+    public enum Format {
+        // {"instances":{"instance-0":{...},...}}, understood by every plugin version
+        LEGACY(MediaType.TEXT_PLAIN, ""),
+        // {"version":N,"instances":[{...},...]}, written and read in a single streaming pass
+        COMPACT(NODES_V2_MEDIA_TYPE, "-v2");
+
+        private final String mediaType;
+        private final String eTagSuffix;
+
+        Format(String mediaType, String eTagSuffix) {
+            this.mediaType = mediaType;
+            this.eTagSuffix = eTagSuffix;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public static Format fromAcceptHeader(String accept) {
+            return accept != null && accept.contains(NODES_V2_MEDIA_TYPE) ? COMPACT : LEGACY;
+        }
+
+        byte[] serialize(List<RaigadInstance> instances, long version) throws IOException {
+            if (this == COMPACT) {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256 * (instances.size() + 1));
+                ElasticsearchUtils.writeRaigadInstancesCompact(instances, version, outputStream);
+                return outputStream.toByteArray();
+            }
+
+            return ElasticsearchUtils.transformRaigadInstanceToJson(instances).toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    public static class Entry {
+        private final Format format;
+        private final long version;
+        private final String eTag;
+        private final byte[] body;
+
+        Entry(Format format, long version, String eTag, byte[] body) {
+            this.format = format;
+            this.version = version;
+            this.eTag = eTag;
+            this.body = body;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public boolean matches(String ifNoneMatch) {
+            return ifNoneMatch != null && ifNoneMatch.equals(eTag);
+        }
+    }
+
+    /**
+     * Get the response for a cluster as of the given membership version, loading and serializing
+     * the instances only if there is no response for that version yet.
+     *
+     * @param cluster cache key of the cluster
+     * @param format  wire format of the response
+     * @param version membership version, read before loading the instances
+     * @param loader  instances of the cluster, may return null on failure
+     * @return cached response or null if the instances could not be loaded
+     */
+    public Entry get(String cluster, Format format, long version, Supplier<List<RaigadInstance>> loader) throws IOException {
+        String key = format + ":" + cluster;
+        Entry entry = entries.get(key);
+
+        if (entry != null && entry.getVersion() >= version) {
+            return entry;
+        }
+
+        List<RaigadInstance> instances = loader.get();
+        if (instances == null) {
+            return null;
+        }
+
+        byte[] body = format.serialize(instances, version);
+        Entry built = new Entry(format, version, "\"" + epoch + "-" + version + format.eTagSuffix + "\"", body);
+
+        // Concurrent rebuilds are harmless, only a newer response replaces an older one
+        entries.merge(key, built, (previous, current) -> previous.getVersion() >= current.getVersion() ? previous : current);
+        return built;
+    }
+
+    public void invalidate() {
+        entries.clear();
+    }
+}
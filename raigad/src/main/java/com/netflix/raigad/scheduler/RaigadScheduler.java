@@ -92,6 +92,14 @@ public class RaigadScheduler
         }).start();
     }
     
+    /**
+     * Fire an added task right away on the scheduler's own threads, without waiting for it
+     */
+    public void triggerTask(String name) throws SchedulerException
+    {
+        scheduler.triggerJob(name, Scheduler.DEFAULT_GROUP);
+    }
+
     public void runTaskNow(Class<? extends Task> taskclass) throws Exception
     {
         jobFactory.guice.getInstance(taskclass).execute(null);
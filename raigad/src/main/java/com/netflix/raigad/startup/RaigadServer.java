@@ -23,9 +23,11 @@ import com.netflix.raigad.aws.UpdateSecuritySettings;
 import com.netflix.raigad.aws.UpdateTribeSecuritySettings;
 import com.netflix.raigad.backup.RestoreBackupManager;
 import com.netflix.raigad.backup.SnapshotBackupManager;
+import com.netflix.raigad.backup.SnapshotJobPoller;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.defaultimpl.IElasticsearchProcess;
 import com.netflix.raigad.identity.InstanceManager;
+import com.netflix.raigad.identity.MembershipWatcher;
 import com.netflix.raigad.indexmanagement.ElasticsearchIndexManager;
 import com.netflix.raigad.monitoring.*;
 import com.netflix.raigad.scheduler.RaigadScheduler;
@@ -57,6 +59,7 @@ public class RaigadServer {
     private final SnapshotBackupManager snapshotBackupManager;
     private final HttpModule httpModule;
     private final SetVPCSecurityGroupID setVPCSecurityGroupID;
+    private final MembershipWatcher membershipWatcher;
 
     @Inject
     public RaigadServer(IConfiguration config,
@@ -67,7 +70,8 @@ public class RaigadServer {
                         InstanceManager instanceManager,
                         ElasticsearchIndexManager esIndexManager,
                         SnapshotBackupManager snapshotBackupManager,
-                        SetVPCSecurityGroupID setVPCSecurityGroupID) {
+                        SetVPCSecurityGroupID setVPCSecurityGroupID,
+                        MembershipWatcher membershipWatcher) {
         this.config = config;
         this.scheduler = scheduler;
         this.httpModule = httpModule;
@@ -77,6 +81,7 @@ public class RaigadServer {
         this.esIndexManager = esIndexManager;
         this.snapshotBackupManager = snapshotBackupManager;
         this.setVPCSecurityGroupID = setVPCSecurityGroupID;
+        this.membershipWatcher = membershipWatcher;
     }
 
     public void initialize() throws Exception {
@@ -90,6 +95,9 @@ public class RaigadServer {
         // Start to schedule jobs
         scheduler.start();
 
+        // Keep membership snapshots fresh for security group updates and discovery
+        scheduler.addTask(MembershipWatcher.JOB_NAME, MembershipWatcher.class, MembershipWatcher.getTimer());
+
         if (!config.isLocalModeEnabled()) {
             if (config.amITribeNode()) {
                 logger.info("Updating security setting for the tribe node");
@@ -110,6 +118,7 @@ public class RaigadServer {
                 scheduler.addTask(UpdateTribeSecuritySettings.JOB_NAME,
                         UpdateTribeSecuritySettings.class,
                         UpdateTribeSecuritySettings.getTimer(instanceManager));
+                runOnMembershipChange(UpdateTribeSecuritySettings.JOB_NAME);
             } else {
                 if (config.isSecurityGroupInMultiDC()) {
                     logger.info("Updating security setting");
@@ -131,6 +140,10 @@ public class RaigadServer {
                         scheduler.addTask(UpdateSecuritySettings.JOB_NAME,
                                 UpdateSecuritySettings.class,
                                 UpdateSecuritySettings.getTimer(instanceManager));
+
+                        if (instanceManager.isMaster()) {
+                            runOnMembershipChange(UpdateSecuritySettings.JOB_NAME);
+                        }
                     }
                 }
             }
@@ -181,6 +194,9 @@ public class RaigadServer {
             scheduler.addTaskWithDelay(HealthMonitor.METRIC_NAME, HealthMonitor.class, HealthMonitor.getTimer("HealthMonitor"), ES_HEALTH_MONITOR_DELAY);
         }
 
+        // Snapshots can also be started through the REST API, their progress is polled on every node
+        scheduler.addTask(SnapshotJobPoller.JOB_NAME, SnapshotJobPoller.class, SnapshotJobPoller.getTimer(config));
+
         /*
          * Starting Monitoring Jobs
          */
@@ -201,6 +217,22 @@ public class RaigadServer {
         scheduler.addTaskWithDelay(NodeHealthMonitor.METRIC_NAME, NodeHealthMonitor.class, NodeHealthMonitor.getTimer("NodeHealthMonitor"), ES_NODE_HEALTH_MONITOR_DELAY);
     }
 
+    /**
+     * React to membership changes right away instead of waiting for the next scheduled run.
+     * The task only gets triggered here and runs on a scheduler thread, the notifying thread
+     * is the membership refresh or a discovery request and must not wait for AWS calls.
+     */
+    private void runOnMembershipChange(final String jobName) {
+        membershipWatcher.addListener(change -> {
+            try {
+                scheduler.triggerTask(jobName);
+            }
+            catch (Exception e) {
+                logger.warn("Failed to trigger " + jobName + " after membership change " + change, e);
+            }
+        });
+    }
+
     public InstanceManager getInstanceManager() {
         return instanceManager;
     }
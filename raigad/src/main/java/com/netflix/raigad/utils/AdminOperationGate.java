@@ -0,0 +1,160 @@
+/**
+ * Copyright 2017 Netflix, Inc.
+ * <p>
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.netflix.raigad.utils;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.netflix.raigad.configuration.IConfiguration;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.annotations.Monitor;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Monitors;
+import com.netflix.servo.monitor.Stopwatch;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for cluster state changing admin operations: index management, snapshots, restores and
+ * REST triggered changes. Each batch waits here while the master is under pressure, with growing waits in between
+ * checks, so maintenance backs off rather than piling more cluster state updates on a struggling master.
+ * <p>
+ * The master counts as under pressure when it has too many pending cluster tasks, its heap use is too high,
+ * or the cluster is red.
+ */
+@Singleton
+public class AdminOperationGate {
+    private static final Logger logger = LoggerFactory.getLogger(AdminOperationGate.class);
+
+    private static final long MIN_WAIT_MS = 1000;
+    private static final long MAX_WAIT_MS = 16000;
+
+    private static final AtomicInteger waitingOperations = new AtomicInteger();
+    private static final BasicTimer admissionWait = new BasicTimer(
+            MonitorConfig.builder("adminOperationWait").withTag("class", "AdminOperationGate").build(), TimeUnit.MILLISECONDS);
+    private static final BasicCounter operationsDelayed = new BasicCounter(
+            MonitorConfig.builder("adminOperationsDelayed").withTag("class", "AdminOperationGate").build());
+    private static final BasicCounter operationsRejected = new BasicCounter(
+            MonitorConfig.builder("adminOperationsRejected").withTag("class", "AdminOperationGate").build());
+
+    static {
+        Monitors.registerObject(admissionWait);
+        Monitors.registerObject(operationsDelayed);
+        Monitors.registerObject(operationsRejected);
+        Monitors.registerObject(new Elasticsearch_AdminOperationGateReporter());
+    }
+
+    public static class Elasticsearch_AdminOperationGateReporter {
+        @Monitor(name = "waiting_admin_operations", type = DataSourceType.GAUGE)
+        public int getWaitingOperations() {
+            return waitingOperations.get();
+        }
+    }
+
+    private final IConfiguration config;
+    private final Sleeper sleeper;
+
+    @Inject
+    public AdminOperationGate(IConfiguration config, Sleeper sleeper) {
+        this.config = config;
+        this.sleeper = sleeper;
+    }
+
+    public boolean admit(Client client, String operation) {
+        return admit(client, operation, false);
+    }
+
+    /**
+     * Waits until the master can take another batch of the operation
+     *
+     * @param redAllowed restores are what brings a red cluster back, they do not wait for it
+     * @return true once the master can take the operation, false if it stayed under pressure for the longest wait
+     */
+    public boolean admit(Client client, String operation, boolean redAllowed) {
+        long maxWaitMs = TimeUnit.SECONDS.toMillis(config.getAdminMaxWaitSeconds());
+        long waitedMs = 0;
+        long waitMs = MIN_WAIT_MS;
+
+        String pressure = getMasterPressure(client, redAllowed);
+        if (pressure == null) {
+            return true;
+        }
+
+        operationsDelayed.increment();
+        waitingOperations.incrementAndGet();
+        Stopwatch stopwatch = admissionWait.start();
+
+        try {
+            while (pressure != null) {
+                if (waitedMs + waitMs > maxWaitMs) {
+                    logger.warn("Master is still under pressure ({}), giving up on {}", pressure, operation);
+                    operationsRejected.increment();
+                    return false;
+                }
+
+                logger.info("Master is under pressure ({}), holding {} for {} ms", pressure, operation, waitMs);
+                sleeper.sleep(waitMs);
+                waitedMs += waitMs;
+                waitMs = Math.min(MAX_WAIT_MS, waitMs * 2);
+
+                pressure = getMasterPressure(client, redAllowed);
+            }
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            stopwatch.stop();
+            waitingOperations.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return why the master is under pressure, null if it is not
+     */
+    String getMasterPressure(Client client, boolean redAllowed) {
+        ClusterHealthResponse clusterHealthResponse = client.admin().cluster().prepareHealth()
+                .execute().actionGet(config.getAutoCreateIndexTimeout());
+
+        if (!redAllowed && clusterHealthResponse.getStatus() == ClusterHealthStatus.RED) {
+            return "cluster is red";
+        }
+
+        int pendingTasks = clusterHealthResponse.getNumberOfPendingTasks();
+        if (pendingTasks > config.getAdminMaxPendingTasks()) {
+            return pendingTasks + " pending tasks";
+        }
+
+        for (NodeStats nodeStats : client.admin().cluster().prepareNodesStats("_master").clear().setJvm(true)
+                .execute().actionGet(config.getAutoCreateIndexTimeout()).getNodes()) {
+            short heapUsedPercent = nodeStats.getJvm().getMem().getHeapUsedPercent();
+            if (heapUsedPercent > config.getAdminMaxMasterHeapPercent()) {
+                return "heap " + heapUsedPercent + "% used";
+            }
+        }
+
+        return null;
+    }
+}
@@ -19,6 +19,9 @@ package com.netflix.raigad.utils;
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.identity.RaigadInstance;
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.elasticsearch.action.admin.cluster.snapshots.get.GetSnapshotsResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.snapshots.SnapshotInfo;
@@ -32,6 +35,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -46,6 +51,9 @@ public class ElasticsearchUtils {
     private static final String PUBLIC_IP = "public_ip";
     private static final String DC = "dc";
     private static final String UPDATE_TIME = "update_time";
+    private static final String VERSION = "version";
+    private static final String INSTANCES = "instances";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
     private static final String HTTP_TAG = "http://";
     private static final String URL_PORT_SEPARATOR = ":";
     private static final String ELASTICSEARCH_HTTP_PORT = "7104";
@@ -114,6 +122,42 @@ public class ElasticsearchUtils {
         return raigadInstances;
     }
 
+    /**
+     * Write instances in the compact nodes format, {"version":N,"instances":[{...},...]}, straight to the stream
+     */
+    public static void writeRaigadInstancesCompact(List<RaigadInstance> instances, long version, OutputStream outputStream) throws IOException {
+        JsonGenerator generator = JSON_FACTORY.createJsonGenerator(outputStream, JsonEncoding.UTF8);
+
+        generator.writeStartObject();
+        generator.writeNumberField(VERSION, version);
+        generator.writeArrayFieldStart(INSTANCES);
+
+        for (RaigadInstance instance : instances) {
+            generator.writeStartObject();
+            writeStringField(generator, HOST_NAME, instance.getHostName());
+            writeStringField(generator, ID, instance.getId());
+            writeStringField(generator, APP_NAME, instance.getApp());
+            writeStringField(generator, INSTANCE_ID, instance.getInstanceId());
+            writeStringField(generator, AVAILABILITY_ZONE, instance.getAvailabilityZone());
+            writeStringField(generator, PUBLIC_IP, instance.getHostIP());
+            writeStringField(generator, DC, instance.getDC());
+            generator.writeNumberField(UPDATE_TIME, instance.getUpdatetime());
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    private static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value == null) {
+            generator.writeNullField(name);
+        } else {
+            generator.writeStringField(name, value);
+        }
+    }
+
     public static boolean amIMasterNode(IConfiguration config, HttpModule httpModule) throws Exception {
         String URL = httpModule.findMasterNodeURL();
         String response = SystemUtils.runHttpGetCommand(URL);
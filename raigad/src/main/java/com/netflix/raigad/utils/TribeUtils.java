@@ -27,6 +27,7 @@ import org.yaml.snakeyaml.Yaml;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Map;
 
 @Singleton
@@ -34,23 +35,50 @@ public class TribeUtils {
     private static final Logger logger = LoggerFactory.getLogger(TribeUtils.class);
     private final IConfiguration config;
 
+    private Map yamlMap;
+    private String yamlPath;
+    private long yamlLastModified;
+
     @Inject
     public TribeUtils(IConfiguration config) {
         this.config = config;
     }
 
     public String getTribeClusterNameFromId(String tribeId) throws FileNotFoundException {
+        Map map = getYaml();
+        String sourceClusterName = (String) map.get("tribe." + tribeId + ".cluster.name");
+
+        logger.debug("Source cluster associated with tribe ID {} is {}", tribeId, sourceClusterName);
+
+        return sourceClusterName;
+    }
+
+    /**
+     * elasticsearch.yml is asked for on every tribe discovery ping, it is only parsed again once the file changed
+     */
+    private synchronized Map getYaml() throws FileNotFoundException {
+        File yamlFile = new File(config.getYamlLocation());
+        long lastModified = yamlFile.lastModified();
+
+        if (yamlMap != null && yamlFile.getPath().equals(yamlPath) && lastModified == yamlLastModified) {
+            return yamlMap;
+        }
+
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
 
         Yaml yaml = new Yaml(options);
-        File yamlFile = new File(config.getYamlLocation());
+        try (FileInputStream inputStream = new FileInputStream(yamlFile)) {
+            yamlMap = (Map) yaml.load(inputStream);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            logger.warn("Failed to close " + yamlFile, e);
+        }
 
-        Map map = (Map) yaml.load(new FileInputStream(yamlFile));
-        String sourceClusterName = (String) map.get("tribe." + tribeId + ".cluster.name");
-
-        logger.info("Source cluster associated with tribe ID {} is {}", tribeId, sourceClusterName);
+        yamlPath = yamlFile.getPath();
+        yamlLastModified = lastModified;
 
-        return sourceClusterName;
+        return yamlMap;
     }
 }
@@ -0,0 +1,127 @@
+package com.netflix.raigad.aws;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.*;
+import com.netflix.raigad.configuration.IConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class TestAWSMembership {
+    private static final int TRANSPORT_PORT = 7102;
+
+    private AmazonEC2 ec2Client;
+    private AWSMembership membership;
+    private int clientsCreated;
+
+    @Before
+    public void setUp() {
+        IConfiguration config = mock(IConfiguration.class);
+        when(config.isDeployedInVPC()).thenReturn(false);
+        when(config.getACLGroupName()).thenReturn("es_test");
+
+        ec2Client = mock(AmazonEC2.class);
+        when(ec2Client.describeSecurityGroups(any(DescribeSecurityGroupsRequest.class))).thenReturn(
+                new DescribeSecurityGroupsResult().withSecurityGroups(new SecurityGroup()
+                        .withGroupName("es_test")
+                        .withIpPermissions(new IpPermission()
+                                .withFromPort(TRANSPORT_PORT)
+                                .withToPort(TRANSPORT_PORT)
+                                .withIpRanges("10.0.0.1/32", "10.0.0.2/32"))));
+
+        // Local stand-in for EC2
+        membership = new AWSMembership(config, mock(ICredential.class)) {
+            @Override
+            protected AmazonEC2 createEc2Client() {
+                clientsCreated++;
+                return ec2Client;
+            }
+        };
+    }
+
+    @Test
+    public void testDescribeIsCachedAndClientReused() {
+        List<String> acls = membership.listACL(TRANSPORT_PORT, TRANSPORT_PORT);
+        assertEquals(Arrays.asList("10.0.0.1/32", "10.0.0.2/32"), acls);
+
+        membership.listACL(TRANSPORT_PORT, TRANSPORT_PORT);
+        assertEquals(2, membership.getACLPortMap("10.0.0.1/32").get("10.0.0.1/32").size());
+
+        verify(ec2Client, times(1)).describeSecurityGroups(any(DescribeSecurityGroupsRequest.class));
+        assertEquals(1, clientsCreated);
+    }
+
+    @Test
+    public void testOwnWritesInvalidateCache() {
+        membership.listACL(TRANSPORT_PORT, TRANSPORT_PORT);
+        membership.addACL(Arrays.asList("10.0.0.3/32"), TRANSPORT_PORT, TRANSPORT_PORT);
+        membership.listACL(TRANSPORT_PORT, TRANSPORT_PORT);
+
+        membership.removeACL(Arrays.asList("10.0.0.3/32"), TRANSPORT_PORT, TRANSPORT_PORT);
+        membership.listACL(TRANSPORT_PORT, TRANSPORT_PORT);
+
+        verify(ec2Client, times(3)).describeSecurityGroups(any(DescribeSecurityGroupsRequest.class));
+        verify(ec2Client, times(1)).authorizeSecurityGroupIngress(any(AuthorizeSecurityGroupIngressRequest.class));
+        verify(ec2Client, times(1)).revokeSecurityGroupIngress(any(RevokeSecurityGroupIngressRequest.class));
+        assertEquals(1, clientsCreated);
+
+        membership.shutdown();
+        verify(ec2Client, times(1)).shutdown();
+    }
+
+    @Test
+    public void testBatchesCoverAllPortsWithinRuleLimit() {
+        List<String> ranges = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            ranges.add("10.0.1." + i + "/32");
+        }
+
+        List<List<IpPermission>> batches = AWSMembership.toBatches(ranges, Arrays.asList(TRANSPORT_PORT, 7104));
+        assertEquals(3, batches.size());
+
+        int total = 0;
+        for (List<IpPermission> batch : batches) {
+            assertEquals(2, batch.size());
+            assertEquals(batch.get(0).getIpRanges(), batch.get(1).getIpRanges());
+            assertTrue(batch.get(0).getIpRanges().size() * batch.size() <= AWSMembership.MAX_RULES_PER_REQUEST);
+            total += batch.get(0).getIpRanges().size();
+        }
+        assertEquals(120, total);
+    }
+
+    @Test
+    public void testAddACLsSendsOneRequestPerBatch() {
+        membership.addACLs(Arrays.asList("10.0.0.3/32", "10.0.0.4/32"), Arrays.asList(TRANSPORT_PORT, 7104));
+        verify(ec2Client, times(1)).authorizeSecurityGroupIngress(any(AuthorizeSecurityGroupIngressRequest.class));
+    }
+
+    @Test
+    public void testAddACLsFallsBackToSingleRulesOnDuplicate() {
+        AmazonServiceException duplicate = new AmazonServiceException("the specified rule already exists");
+        duplicate.setErrorCode("InvalidPermission.Duplicate");
+
+        // The batch and the rule for 10.0.0.1 on the transport port are rejected, everything else goes in
+        when(ec2Client.authorizeSecurityGroupIngress(any(AuthorizeSecurityGroupIngressRequest.class))).thenAnswer(invocation -> {
+            AuthorizeSecurityGroupIngressRequest request = invocation.getArgument(0);
+            IpPermission first = request.getIpPermissions().get(0);
+            if (request.getIpPermissions().size() > 1 ||
+                    (first.getFromPort() == TRANSPORT_PORT && first.getIpRanges().contains("10.0.0.1/32"))) {
+                throw duplicate;
+            }
+            return null;
+        });
+
+        membership.addACLs(Arrays.asList("10.0.0.1/32", "10.0.0.3/32"), Arrays.asList(TRANSPORT_PORT, 7104));
+
+        // One rejected batch, then one request per range and port
+        verify(ec2Client, times(5)).authorizeSecurityGroupIngress(any(AuthorizeSecurityGroupIngressRequest.class));
+    }
+}
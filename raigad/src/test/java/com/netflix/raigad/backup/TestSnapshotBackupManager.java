@@ -0,0 +1,67 @@
+package com.netflix.raigad.backup;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.snapshots.SnapshotId;
+import org.elasticsearch.snapshots.SnapshotInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TestSnapshotBackupManager {
+    private Client elasticsearchClient;
+    private SnapshotBackupManager snapshotBackupManager;
+
+    @Before
+    public void setUp() {
+        elasticsearchClient = mock(Client.class);
+        snapshotBackupManager = spy(new SnapshotBackupManager(mock(IConfiguration.class), null, null, null));
+    }
+
+    @Test
+    public void testCompleteJob_CountsOnce() {
+        SnapshotJob job = new SnapshotJob("repo", "snap", 1000L);
+        job.updateProgress(Collections.singletonList(new SnapshotJob.ShardProgress("index1", 0, "STARTED", 10, 100)));
+
+        // The final status has every byte of the snapshot
+        doReturn(Arrays.asList(
+                new SnapshotJob.ShardProgress("index1", 0, "DONE", 100, 100),
+                new SnapshotJob.ShardProgress("index1", 1, "DONE", 50, 50)))
+                .when(snapshotBackupManager).getShardProgress(elasticsearchClient, "repo", "snap");
+
+        SnapshotInfo snapshotInfo = new SnapshotInfo(new SnapshotId("snap", "uuid"), Collections.singletonList("index1"),
+                1000L, null, 5000L, 2, Collections.emptyList());
+
+        snapshotBackupManager.completeJob(elasticsearchClient, job, snapshotInfo, null);
+
+        assertTrue(job.isDone());
+        assertEquals(SnapshotJob.State.SUCCESS, job.getState());
+        assertEquals(2, job.getTotalShards());
+        assertEquals(2, job.getSuccessfulShards());
+        assertEquals(5000L, job.getEndTime());
+        assertEquals(150, job.getProcessedBytes());
+        assertEquals(1, snapshotBackupManager.getNumSnapshotSuccess());
+
+        // Completing a job that is done again changes nothing and is not counted
+        snapshotBackupManager.completeJob(elasticsearchClient, job, snapshotInfo, null);
+
+        assertTrue(job.isDone());
+        assertEquals(1, snapshotBackupManager.getNumSnapshotSuccess());
+        assertEquals(0, snapshotBackupManager.getNumSnapshotFailure());
+        verify(snapshotBackupManager, times(1)).getShardProgress(elasticsearchClient, "repo", "snap");
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                new ObjectName("com.netflix.raigad.scheduler:type=" + SnapshotBackupManager.class.getName()));
+    }
+}
@@ -0,0 +1,68 @@
+package com.netflix.raigad.backup;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TestSnapshotJob {
+
+    @Test
+    public void testUpdateProgress() {
+        SnapshotJob job = new SnapshotJob("repo", "snap", 1000L);
+        assertEquals("snap", job.getId());
+        assertEquals(SnapshotJob.State.STARTED, job.getState());
+        assertFalse(job.isDone());
+        assertEquals(0, job.getTotalBytes());
+
+        job.updateProgress(Arrays.asList(
+                new SnapshotJob.ShardProgress("index1", 0, "DONE", 100, 100),
+                new SnapshotJob.ShardProgress("index1", 1, "STARTED", 20, 80),
+                new SnapshotJob.ShardProgress("index2", 0, "FAILURE", 0, 50)));
+
+        assertEquals(SnapshotJob.State.IN_PROGRESS, job.getState());
+        assertFalse(job.isDone());
+        assertEquals(3, job.getTotalShards());
+        assertEquals(1, job.getSuccessfulShards());
+        assertEquals(1, job.getFailedShards());
+        assertEquals(120, job.getProcessedBytes());
+        assertEquals(230, job.getTotalBytes());
+    }
+
+    @Test
+    public void testComplete() {
+        SnapshotJob job = new SnapshotJob("repo", "snap", 1000L);
+        job.updateProgress(Arrays.asList(new SnapshotJob.ShardProgress("index1", 0, "STARTED", 10, 100)));
+
+        job.complete(SnapshotJob.State.PARTIAL, 2, 1, 1, 5000L, "shard failed");
+
+        assertTrue(job.isDone());
+        assertEquals(SnapshotJob.State.PARTIAL, job.getState());
+        assertEquals(2, job.getTotalShards());
+        assertEquals(1, job.getSuccessfulShards());
+        assertEquals(1, job.getFailedShards());
+        assertEquals(5000L, job.getEndTime());
+        assertEquals("shard failed", job.getFailure());
+
+        // Status read after completion only fills in the bytes
+        job.updateProgress(Arrays.asList(new SnapshotJob.ShardProgress("index1", 0, "DONE", 100, 100)));
+
+        assertTrue(job.isDone());
+        assertEquals(SnapshotJob.State.PARTIAL, job.getState());
+        assertEquals(2, job.getTotalShards());
+        assertEquals(100, job.getProcessedBytes());
+    }
+
+    @Test
+    public void testFail() {
+        SnapshotJob job = new SnapshotJob("repo", "snap", 1000L);
+
+        job.fail("repository missing", 2000L);
+
+        assertTrue(job.isDone());
+        assertEquals(SnapshotJob.State.FAILED, job.getState());
+        assertEquals(2000L, job.getEndTime());
+        assertEquals("repository missing", job.getFailure());
+    }
+}
@@ -505,4 +505,99 @@ public class FakeConfiguration implements IConfiguration {
     public String getMacIdForInstance() {
         return null;
     }
+
+    @Override
+    public String getInstanceFactory() {
+        return "cassandra";
+    }
+
+    @Override
+    public String getInstanceStoreLocation() {
+        return System.getProperty("java.io.tmpdir");
+    }
+
+    @Override
+    public int getIndexRetentionDeleteBatchSize() {
+        return 50;
+    }
+
+    @Override
+    public int getAdminMaxPendingTasks() {
+        return 100;
+    }
+
+    @Override
+    public String getIndexTierAttribute() {
+        return "box_type";
+    }
+
+    @Override
+    public int getIndexTierMaxRelocatingShards() {
+        return 4;
+    }
+
+    @Override
+    public String getIndexForceMergeWindow() {
+        return "01:00-05:00";
+    }
+
+    @Override
+    public int getIndexForceMergeMaxConcurrent() {
+        return 2;
+    }
+
+    @Override
+    public int getIndexForceMergeMaxNodeMerges() {
+        return 2;
+    }
+
+    @Override
+    public int getIndexShrinkMaxConcurrent() {
+        return 1;
+    }
+
+    @Override
+    public int getIndexOnDemandIdleMinutes() {
+        return 60;
+    }
+
+    @Override
+    public int getIndexOnDemandMaxOpen() {
+        return 10;
+    }
+
+    @Override
+    public int getIndexReplicaMaxRecoveries() {
+        return 4;
+    }
+
+    @Override
+    public boolean isIndexManagementDryRun() {
+        return false;
+    }
+
+    @Override
+    public int getIndexPlanRecoveryMbPerSec() {
+        return 40;
+    }
+
+    @Override
+    public int getIndexPlanMergeMbPerSec() {
+        return 20;
+    }
+
+    @Override
+    public int getAdminMaxMasterHeapPercent() {
+        return 85;
+    }
+
+    @Override
+    public int getAdminMaxWaitSeconds() {
+        return 0;
+    }
+
+    @Override
+    public int getSnapshotPollSeconds() {
+        return 1;
+    }
 }
@@ -0,0 +1,133 @@
+package com.netflix.raigad.identity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestFileInstanceStore {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private List<FileInstanceStore> stores = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        directory = temporaryFolder.newFolder("instances").toPath();
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        for (FileInstanceStore store : stores) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPutGetAndDelete() throws IOException {
+        FileInstanceStore store = open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD);
+
+        store.put(instance("es_test", "i-1"));
+        store.put(instance("es_test", "i-2"));
+        store.put(instance("es_other", "i-3"));
+
+        assertEquals(2, store.getAll("es_test").size());
+        assertEquals(1, store.getAll("es_other").size());
+        assertEquals("host-i-1", store.get("es_test", "us-east-1", "i-1").getHostName());
+        assertNull(store.get("es_test", "us-west-2", "i-1"));
+
+        store.delete(instance("es_test", "i-1"));
+
+        assertNull(store.get("es_test", "us-east-1", "i-1"));
+        assertEquals(1, store.getAll("es_test").size());
+    }
+
+    @Test
+    public void testChangesVisibleToOtherStores() throws IOException {
+        FileInstanceStore writer = open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD);
+        FileInstanceStore reader = open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD);
+
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        reader.addListener(changes::add);
+
+        writer.put(instance("es_test", "i-1"));
+        assertEquals(1, reader.getAll("es_test").size());
+        assertEquals(1, changes.size());
+        assertEquals("es_test", changes.get(0));
+
+        writer.delete(instance("es_test", "i-1"));
+        assertTrue(reader.getAll("es_test").isEmpty());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        FileInstanceStore writer = open(3);
+        FileInstanceStore reader = open(3);
+
+        writer.put(instance("es_test", "i-1"));
+        assertEquals(1, reader.getAll("es_test").size());
+
+        writer.put(instance("es_test", "i-2"));
+        writer.delete(instance("es_test", "i-1"));
+        assertEquals(0, writer.getLogRecords());
+
+        writer.put(instance("es_test", "i-3"));
+        assertEquals(1, writer.getLogRecords());
+
+        List<RaigadInstance> instances = reader.getAll("es_test");
+        assertEquals(2, instances.size());
+        assertNull(reader.get("es_test", "us-east-1", "i-1"));
+        assertNotNull(reader.get("es_test", "us-east-1", "i-2"));
+        assertNotNull(reader.get("es_test", "us-east-1", "i-3"));
+
+        assertEquals(2, open(3).getAll("es_test").size());
+    }
+
+    @Test
+    public void testIncompleteRecordIgnored() throws IOException {
+        FileInstanceStore writer = open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD);
+        writer.put(instance("es_test", "i-1"));
+
+        try (RandomAccessFile log = new RandomAccessFile(directory.resolve(FileInstanceStore.LOG_FILE).toFile(), "rw")) {
+            log.seek(log.length());
+            log.writeInt(1000);
+            log.writeInt(42);
+        }
+
+        FileInstanceStore reader = open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD);
+        assertEquals(1, reader.getAll("es_test").size());
+
+        reader.put(instance("es_test", "i-2"));
+        assertEquals(2, open(FileInstanceStore.DEFAULT_COMPACTION_THRESHOLD).getAll("es_test").size());
+    }
+
+    private FileInstanceStore open(int compactionThreshold) throws IOException {
+        FileInstanceStore store = new FileInstanceStore(directory, compactionThreshold);
+        stores.add(store);
+        return store;
+    }
+
+    private static RaigadInstance instance(String app, String instanceId) {
+        RaigadInstance instance = new RaigadInstance();
+        instance.setApp(app);
+        instance.setDC("us-east-1");
+        instance.setId("us-east-1." + instanceId);
+        instance.setInstanceId(instanceId);
+        instance.setHostName("host-" + instanceId);
+        instance.setHostIP("10.0.0.1");
+        instance.setAvailabilityZone("us-east-1a");
+        instance.setAsg(app + "-v000");
+        return instance;
+    }
+}
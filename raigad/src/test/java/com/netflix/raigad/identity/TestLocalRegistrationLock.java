@@ -0,0 +1,28 @@
+package com.netflix.raigad.identity;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestLocalRegistrationLock {
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        LocalRegistrationLock registrationLock = new LocalRegistrationLock();
+
+        RegistrationLease lease = registrationLock.acquire("cluster_us-east-1a_1", "i-1");
+        assertFalse(lease.isExpired());
+
+        try {
+            registrationLock.acquire("cluster_us-east-1a_1", "i-2");
+            fail("Lock held by i-1 was handed to i-2");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("i-1"));
+        }
+
+        // Tokens keep growing for later holders
+        registrationLock.release(lease);
+        RegistrationLease nextLease = registrationLock.acquire("cluster_us-east-1a_1", "i-2");
+        assertTrue(nextLease.getFencingToken() > lease.getFencingToken());
+    }
+}
@@ -0,0 +1,147 @@
+package com.netflix.raigad.identity;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TestMembershipWatcher {
+    private IRaigadInstanceFactory instanceFactory;
+    private MembershipWatcher membershipWatcher;
+
+    @Before
+    public void setUp() {
+        instanceFactory = mock(IRaigadInstanceFactory.class);
+        membershipWatcher = new MembershipWatcher(mock(IConfiguration.class), instanceFactory);
+    }
+
+    @Test
+    public void testSnapshotIsLoadedOnce() {
+        when(instanceFactory.getAllIds("es_test")).thenReturn(Arrays.asList(instance("i-1", "10.0.0.1")));
+
+        assertEquals(1, membershipWatcher.getInstances("es_test").size());
+        assertEquals(1, membershipWatcher.getInstances("es_test").size());
+        assertEquals(1, membershipWatcher.getVersion());
+
+        verify(instanceFactory, times(1)).getAllIds("es_test");
+    }
+
+    @Test
+    public void testAwaitVersionChange() throws Exception {
+        when(instanceFactory.getAllIds("es_test")).thenReturn(Arrays.asList(instance("i-1", "10.0.0.1")));
+        membershipWatcher.getInstances("es_test");
+
+        // Nothing changes, the wait runs out
+        assertEquals(1, membershipWatcher.awaitVersionChange(1, 50));
+
+        // Already past the given version, no waiting at all
+        assertEquals(1, membershipWatcher.awaitVersionChange(0, 60 * 1000));
+
+        // A version from before a restart is never reached, no waiting either
+        assertEquals(1, membershipWatcher.awaitVersionChange(42, 60 * 1000));
+
+        when(instanceFactory.getAllIds("es_test")).thenReturn(
+                Arrays.asList(instance("i-1", "10.0.0.1"), instance("i-2", "10.0.0.2")));
+
+        Thread refresher = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            membershipWatcher.execute();
+        });
+        refresher.start();
+
+        long start = System.currentTimeMillis();
+        assertEquals(2, membershipWatcher.awaitVersionChange(1, 60 * 1000));
+        assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+        refresher.join();
+    }
+
+    @Test
+    public void testChangesArePublished() {
+        final List<MembershipChange> changes = new ArrayList<>();
+        membershipWatcher.addListener(changes::add);
+
+        when(instanceFactory.getAllIds("es_test")).thenReturn(
+                Arrays.asList(instance("i-1", "10.0.0.1"), instance("i-2", "10.0.0.2")));
+        membershipWatcher.getInstances("es_test");
+
+        assertEquals(1, changes.size());
+        assertEquals(2, changes.get(0).getAdded().size());
+
+        // Nothing changed
+        membershipWatcher.execute();
+        assertEquals(1, changes.size());
+        assertEquals(1, membershipWatcher.getVersion());
+
+        when(instanceFactory.getAllIds("es_test")).thenReturn(
+                Arrays.asList(instance("i-2", "10.0.0.20"), instance("i-3", "10.0.0.3")));
+        membershipWatcher.execute();
+
+        assertEquals(2, changes.size());
+        MembershipChange change = changes.get(1);
+        assertEquals(2, change.getVersion());
+        assertEquals("i-3", change.getAdded().get(0).getInstanceId());
+        assertEquals("i-1", change.getRemoved().get(0).getInstanceId());
+        assertEquals("10.0.0.20", change.getChanged().get(0).getHostIP());
+        assertEquals(2, membershipWatcher.getInstances("es_test").size());
+    }
+
+    @Test
+    public void testRegistryNotifications() throws Exception {
+        cleanUp();
+
+        final List<IRaigadInstanceFactory.ChangeListener> registryListeners = new ArrayList<>();
+        when(instanceFactory.addChangeListener(any())).thenAnswer(invocation -> {
+            registryListeners.add(invocation.getArgument(0));
+            return true;
+        });
+        membershipWatcher = new MembershipWatcher(mock(IConfiguration.class), instanceFactory);
+        assertEquals(1, registryListeners.size());
+
+        when(instanceFactory.getAllIds("es_test")).thenReturn(Arrays.asList(instance("i-1", "10.0.0.1")));
+        membershipWatcher.getInstances("es_test");
+
+        // Not polled when the registry notifies
+        when(instanceFactory.getAllIds("es_test")).thenReturn(
+                Arrays.asList(instance("i-1", "10.0.0.1"), instance("i-2", "10.0.0.2")));
+        membershipWatcher.execute();
+        assertEquals(1, membershipWatcher.getVersion());
+
+        // Clusters nobody asked for are not read
+        registryListeners.get(0).onChange("es_other");
+        verify(instanceFactory, never()).getAllIds("es_other");
+
+        registryListeners.get(0).onChange("es_test");
+        assertEquals(2, membershipWatcher.getVersion());
+        assertEquals(2, membershipWatcher.getInstances("es_test").size());
+    }
+
+    @After
+    public void cleanUp() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                new ObjectName("com.netflix.raigad.scheduler:type=" + MembershipWatcher.class.getName()));
+    }
+
+    private static RaigadInstance instance(String instanceId, String ip) {
+        RaigadInstance instance = new RaigadInstance();
+        instance.setApp("es_test");
+        instance.setDC("us-east-1");
+        instance.setId("us-east-1." + instanceId);
+        instance.setInstanceId(instanceId);
+        instance.setHostIP(ip);
+        instance.setAvailabilityZone("us-east-1a");
+        return instance;
+    }
+}
@@ -0,0 +1,115 @@
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.indexmanagement.indexfilters.CompiledIndexNameFilter;
+import com.netflix.raigad.indexmanagement.indexfilters.DatePatternIndexNameFilter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestCompiledIndexNameFilter {
+    private static final int NAME_COUNT = 50000;
+
+    private static final String[] PATTERNS = {
+            "'abcd'YYYY",
+            "'abcd'YYYYMM",
+            "'abcd'YYYYMMdd",
+            "'abcd'YYYYMMddHH",
+            "'abcd'YYYY-MM-dd",
+            "'abcd'YYYY.MM.dd",
+            "'abcd'YYYY-MM-dd'ghi'",
+            "'nf_errors_log'yyyyMMdd",
+            "'it''s'YYYYMM",
+            "'abcd'-YYYY-ww",
+            "'abcd'-YYYY-MM-dd-aa"
+    };
+
+    @Test
+    public void testCompiledPatterns() {
+        assertTrue(filter("'abcd'YYYYMMddHH").isCompiled());
+        assertTrue(filter("'abcd'YYYY-MM-dd'ghi'").isCompiled());
+        assertTrue(filter("'it''s'YYYYMM").isCompiled());
+
+        // Week and half day fields are left to Joda
+        assertFalse(filter("'abcd'-YYYY-ww").isCompiled());
+        assertFalse(filter("'abcd'-YYYY-MM-dd-aa").isCompiled());
+    }
+
+    @Test
+    public void testDates() {
+        CompiledIndexNameFilter filter = filter("'abcd'YYYYMMddHH");
+        assertEquals(new DateTime(2018, 2, 3, 23, 0, DateTimeZone.UTC), filter.getDate("abcd2018020323"));
+        assertNull(filter.getDate("abcd2018022923"));
+        assertNull(filter.getDate("ABCD2018020323"));
+
+        filter = filter("'abcd'YYYY");
+        assertEquals(new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC), filter.getDate("abcd2018"));
+        assertNull(filter.getDate("abcd201802"));
+        assertNull(filter.getDate("abcd0000"));
+
+        assertEquals(new DateTime(2016, 2, 29, 0, 0, DateTimeZone.UTC), filter("'abcd'YYYY-MM-dd").getDate("abcd2016-02-29"));
+    }
+
+    /**
+     * Compiled filters must accept exactly the names the Joda based filter accepts, with the same dates
+     */
+    @Test
+    public void testSameAsDatePatternFilter() {
+        for (String pattern : PATTERNS) {
+            DateTimeFormatter formatter = DateTimeFormat.forPattern(pattern).withZoneUTC();
+            DatePatternIndexNameFilter expected = new DatePatternIndexNameFilter(formatter);
+            CompiledIndexNameFilter actual = new CompiledIndexNameFilter(pattern, formatter);
+
+            List<String> names = generateNames(formatter, new Random(pattern.hashCode()));
+
+            for (String name : names) {
+                boolean matches = expected.filter(name);
+                assertEquals(pattern + " " + name, matches, actual.filter(name));
+
+                if (matches) {
+                    assertEquals(pattern + " " + name, formatter.parseDateTime(name), actual.getDate(name));
+                }
+            }
+        }
+    }
+
+    private static CompiledIndexNameFilter filter(String pattern) {
+        return new CompiledIndexNameFilter(pattern, DateTimeFormat.forPattern(pattern).withZoneUTC());
+    }
+
+    /**
+     * Valid names of the pattern mixed with near misses: other digits, wrong case, other lengths and other prefixes
+     */
+    private static List<String> generateNames(DateTimeFormatter formatter, Random random) {
+        List<String> names = new ArrayList<>(NAME_COUNT);
+        DateTime start = new DateTime(1990, 1, 1, 0, 0, DateTimeZone.UTC);
+
+        while (names.size() < NAME_COUNT) {
+            String name = formatter.print(start.plusHours(random.nextInt(50 * 365 * 24)));
+            names.add(name);
+
+            char[] chars = name.toCharArray();
+            int position = random.nextInt(chars.length);
+            if (Character.isDigit(chars[position])) {
+                chars[position] = (char) ('0' + random.nextInt(10));
+            } else {
+                chars[position] = Character.isUpperCase(chars[position])
+                        ? Character.toLowerCase(chars[position]) : Character.toUpperCase(chars[position]);
+            }
+            names.add(new String(chars));
+
+            names.add(name + random.nextInt(10));
+            names.add(name.substring(0, name.length() - 1));
+            names.add("other" + name);
+        }
+
+        return names;
+    }
+}
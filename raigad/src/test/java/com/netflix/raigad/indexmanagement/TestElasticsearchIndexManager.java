@@ -2,10 +2,9 @@ package com.netflix.raigad.indexmanagement;
 
 import com.netflix.raigad.configuration.IConfiguration;
 import com.netflix.raigad.indexmanagement.exception.UnsupportedAutoIndexException;
-import org.elasticsearch.action.admin.indices.stats.IndexStats;
-import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
-import org.elasticsearch.action.admin.indices.stats.ShardStats;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.settings.Settings;
 import org.joda.time.DateTime;
 import org.junit.After;
 import org.junit.Before;
@@ -16,6 +15,7 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.util.*;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class TestElasticsearchIndexManager {
@@ -33,10 +33,11 @@ public class TestElasticsearchIndexManager {
 
         elasticsearchClient = mock(Client.class);
 
-        elasticsearchIndexManager = spy(new ElasticsearchIndexManager(config, null));
+        elasticsearchIndexManager = spy(new ElasticsearchIndexManager(config, null, null));
         doReturn(elasticsearchClient).when(elasticsearchIndexManager).getTransportClient();
 
-        doNothing().when(elasticsearchIndexManager).deleteIndices(eq(elasticsearchClient), anyString(), anyInt());
+        doNothing().when(elasticsearchIndexManager).deleteIndices(eq(elasticsearchClient), anyList(), anyInt());
+        doReturn(true).when(elasticsearchIndexManager).admitAdminOperation(elasticsearchClient);
     }
 
     @Test
@@ -44,18 +45,15 @@ public class TestElasticsearchIndexManager {
         String serializedIndexMetadata = "[{\"retentionType\": \"yearly\", \"retentionPeriod\": 20}]";
         when(config.getIndexMetadata()).thenReturn(serializedIndexMetadata);
 
-        Map<String, IndexStats> indexStats = new HashMap<>();
-        indexStats.put("nf_errors_log2018", new IndexStats("nf_errors_log2018", new ShardStats[]{}));
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2018", 0L);
 
-        IndicesStatsResponse indicesStatsResponse = mock(IndicesStatsResponse.class);
-        when(indicesStatsResponse.getIndices()).thenReturn(indexStats);
-
-        doReturn(indicesStatsResponse).when(elasticsearchIndexManager).getIndicesStatsResponse(elasticsearchClient);
+        doReturn(new IndexCatalog(indices)).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
 
         elasticsearchIndexManager.runIndexManagement();
 
         verify(elasticsearchIndexManager, times(0)).checkIndexRetention(any(Client.class), anySet(), any(IndexMetadata.class), any(DateTime.class));
-        verify(elasticsearchIndexManager, times(0)).preCreateIndex(any(Client.class), any(IndexMetadata.class), any(DateTime.class));
+        verify(elasticsearchIndexManager, times(0)).checkPreCreate(any(Client.class), any(IndexCatalog.class), any(IndexMetadata.class), any(DateTime.class));
     }
 
     @Test
@@ -63,18 +61,15 @@ public class TestElasticsearchIndexManager {
         String serializedIndexMetadata = "[{\"retentionType\": \"yearly\", \"indexName\": \"nf_errors_log\"}]";
         when(config.getIndexMetadata()).thenReturn(serializedIndexMetadata);
 
-        Map<String, IndexStats> indexStats = new HashMap<>();
-        indexStats.put("nf_errors_log2018", new IndexStats("nf_errors_log2018", new ShardStats[]{}));
-
-        IndicesStatsResponse indicesStatsResponse = mock(IndicesStatsResponse.class);
-        when(indicesStatsResponse.getIndices()).thenReturn(indexStats);
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2018", 0L);
 
-        doReturn(indicesStatsResponse).when(elasticsearchIndexManager).getIndicesStatsResponse(elasticsearchClient);
+        doReturn(new IndexCatalog(indices)).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
 
         elasticsearchIndexManager.runIndexManagement();
 
         verify(elasticsearchIndexManager, times(0)).checkIndexRetention(any(Client.class), anySet(), any(IndexMetadata.class), any(DateTime.class));
-        verify(elasticsearchIndexManager, times(0)).preCreateIndex(any(Client.class), any(IndexMetadata.class), any(DateTime.class));
+        verify(elasticsearchIndexManager, times(0)).checkPreCreate(any(Client.class), any(IndexCatalog.class), any(IndexMetadata.class), any(DateTime.class));
     }
 
     @Test
@@ -82,28 +77,25 @@ public class TestElasticsearchIndexManager {
         String serializedIndexMetadata = "[{\"retentionType\": \"yearly\", \"retentionPeriod\": 3, \"indexName\": \"nf_errors_log\"}]";
         when(config.getIndexMetadata()).thenReturn(serializedIndexMetadata);
 
-        Map<String, IndexStats> indexStats = new HashMap<>();
-        indexStats.put("nf_errors_log2018", new IndexStats("nf_errors_log2018", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2017", new IndexStats("nf_errors_log2017", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2016", new IndexStats("nf_errors_log2016", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2015", new IndexStats("nf_errors_log2015", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2014", new IndexStats("nf_errors_log2014", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2013", new IndexStats("nf_errors_log2013", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2012", new IndexStats("nf_errors_log2012", new ShardStats[]{}));
-
-        IndicesStatsResponse indicesStatsResponse = mock(IndicesStatsResponse.class);
-        when(indicesStatsResponse.getIndices()).thenReturn(indexStats);
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2018", 0L);
+        indices.put("nf_errors_log2017", 0L);
+        indices.put("nf_errors_log2016", 0L);
+        indices.put("nf_errors_log2015", 0L);
+        indices.put("nf_errors_log2014", 0L);
+        indices.put("nf_errors_log2013", 0L);
+        indices.put("nf_errors_log2012", 0L);
 
-        doReturn(indicesStatsResponse).when(elasticsearchIndexManager).getIndicesStatsResponse(elasticsearchClient);
+        doReturn(new IndexCatalog(indices)).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
 
         elasticsearchIndexManager.runIndexManagement();
 
         verify(elasticsearchIndexManager, times(1)).checkIndexRetention(any(Client.class), anySet(), any(IndexMetadata.class), any(DateTime.class));
 
-        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq("nf_errors_log2012"), eq(AUTO_CREATE_INDEX_TIMEOUT));
-        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq("nf_errors_log2013"), eq(AUTO_CREATE_INDEX_TIMEOUT));
+        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq(Collections.singletonList("nf_errors_log2012")), eq(AUTO_CREATE_INDEX_TIMEOUT));
+        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq(Collections.singletonList("nf_errors_log2013")), eq(AUTO_CREATE_INDEX_TIMEOUT));
 
-        verify(elasticsearchIndexManager, times(0)).preCreateIndex(any(Client.class), any(IndexMetadata.class), any(DateTime.class));
+        verify(elasticsearchIndexManager, times(0)).checkPreCreate(any(Client.class), any(IndexCatalog.class), any(IndexMetadata.class), any(DateTime.class));
     }
 
     @Test
@@ -115,9 +107,39 @@ public class TestElasticsearchIndexManager {
         Set<String> indices = new HashSet<>(
                 Arrays.asList("nf_errors_log2017062210", "nf_errors_log2017062211", "nf_errors_log2017062212", "nf_errors_log2017062213", "nf_errors_log2017062214"));
 
-        elasticsearchIndexManager.checkIndexRetention(elasticsearchClient, indices, indexMetadata, new DateTime("2017-06-22T13:30Z"));
+        Set<String> expiredIndices = elasticsearchIndexManager.checkIndexRetention(elasticsearchClient, indices, indexMetadata, new DateTime("2017-06-22T13:30Z"));
+
+        assertEquals(Collections.singleton("nf_errors_log2017062210"), expiredIndices);
+        verify(elasticsearchIndexManager, never()).deleteIndices(any(Client.class), anyList(), anyInt());
+    }
+
+    @Test
+    public void testDeleteExpiredIndices_Batched() {
+        when(config.getIndexRetentionDeleteBatchSize()).thenReturn(2);
+
+        Set<String> expiredIndices = new TreeSet<>(
+                Arrays.asList("nf_errors_log2012", "nf_errors_log2013", "nf_errors_log2014", "nf_errors_log2015", "nf_errors_log2016"));
+
+        elasticsearchIndexManager.deleteExpiredIndices(elasticsearchClient, expiredIndices);
+
+        verify(elasticsearchIndexManager).deleteIndices(elasticsearchClient, Arrays.asList("nf_errors_log2012", "nf_errors_log2013"), AUTO_CREATE_INDEX_TIMEOUT);
+        verify(elasticsearchIndexManager).deleteIndices(elasticsearchClient, Arrays.asList("nf_errors_log2014", "nf_errors_log2015"), AUTO_CREATE_INDEX_TIMEOUT);
+        verify(elasticsearchIndexManager).deleteIndices(elasticsearchClient, Collections.singletonList("nf_errors_log2016"), AUTO_CREATE_INDEX_TIMEOUT);
+        verify(elasticsearchIndexManager, times(3)).admitAdminOperation(elasticsearchClient);
+    }
+
+    @Test
+    public void testDeleteExpiredIndices_MasterBusy() {
+        when(config.getIndexRetentionDeleteBatchSize()).thenReturn(2);
+        doReturn(true, false).when(elasticsearchIndexManager).admitAdminOperation(elasticsearchClient);
+
+        Set<String> expiredIndices = new TreeSet<>(
+                Arrays.asList("nf_errors_log2012", "nf_errors_log2013", "nf_errors_log2014", "nf_errors_log2015"));
+
+        elasticsearchIndexManager.deleteExpiredIndices(elasticsearchClient, expiredIndices);
 
-        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq("nf_errors_log2017062210"), eq(AUTO_CREATE_INDEX_TIMEOUT));
+        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), anyList(), anyInt());
+        verify(elasticsearchIndexManager).deleteIndices(elasticsearchClient, Arrays.asList("nf_errors_log2012", "nf_errors_log2013"), AUTO_CREATE_INDEX_TIMEOUT);
     }
 
     @Test
@@ -126,21 +148,362 @@ public class TestElasticsearchIndexManager {
                 "{\"preCreate\": false, \"retentionType\": \"yearly\", \"retentionPeriod\": 3, \"indexName\": \"nf_errors_log201712\"}]";
         List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(serializedIndexMetadata);
 
-        Map<String, IndexStats> indexStats = new HashMap<>();
-        indexStats.put("nf_errors_log2017121110", new IndexStats("nf_errors_log2017121110", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2017121111", new IndexStats("nf_errors_log2017121111", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2017121112", new IndexStats("nf_errors_log2017121112", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2017121113", new IndexStats("nf_errors_log2017121113", new ShardStats[]{}));
-        indexStats.put("nf_errors_log2017121114", new IndexStats("nf_errors_log2017121114", new ShardStats[]{}));
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2017121110", 0L);
+        indices.put("nf_errors_log2017121111", 0L);
+        indices.put("nf_errors_log2017121112", 0L);
+        indices.put("nf_errors_log2017121113", 0L);
+        indices.put("nf_errors_log2017121114", 0L);
 
-        IndicesStatsResponse indicesStatsResponse = mock(IndicesStatsResponse.class);
-        when(indicesStatsResponse.getIndices()).thenReturn(indexStats);
-
-        doReturn(indicesStatsResponse).when(elasticsearchIndexManager).getIndicesStatsResponse(elasticsearchClient);
+        doReturn(new IndexCatalog(indices)).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
 
         elasticsearchIndexManager.runIndexManagement(elasticsearchClient, indexMetadataList, new DateTime("2017-12-11T13:30Z"));
 
         verify(elasticsearchIndexManager, times(2)).checkIndexRetention(any(Client.class), anySet(), any(IndexMetadata.class), any(DateTime.class));
+
+        // Indices matched by both index metadata are only deleted once
+        verify(elasticsearchIndexManager, times(1)).deleteIndices(any(Client.class), eq(Collections.singletonList("nf_errors_log2017121110")), anyInt());
+    }
+
+    @Test
+    public void testRunIndexManagement_Rollover() throws Exception {
+        String serializedIndexMetadata = "[{\"retentionPeriod\": \"P7D\", \"rollover\": {\"alias\": \"nf_errors_log\", \"maxAge\": \"P1D\"}}]";
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(serializedIndexMetadata);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log-000001", new DateTime("2017-12-01T00:00Z").getMillis());
+        indices.put("nf_errors_log-000002", new DateTime("2017-12-02T00:00Z").getMillis());
+        indices.put("nf_errors_log-000003", new DateTime("2017-12-10T00:00Z").getMillis());
+        indices.put("nf_errors_log-000004", new DateTime("2017-12-11T00:00Z").getMillis());
+        indices.put("nf_errors_log2017120100", 0L);
+
+        Map<String, Set<String>> aliases = new HashMap<>();
+        aliases.put("nf_errors_log", Collections.singleton("nf_errors_log-000004"));
+
+        doReturn(new IndexCatalog(indices, aliases)).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
+        doNothing().when(elasticsearchIndexManager).rolloverIndex(eq(elasticsearchClient), any(IndexCatalog.class), any(RolloverPolicy.class), any(DateTime.class));
+
+        elasticsearchIndexManager.runIndexManagement(elasticsearchClient, indexMetadataList, new DateTime("2017-12-11T13:30Z"));
+
+        verify(elasticsearchIndexManager, times(1)).rolloverIndex(eq(elasticsearchClient), any(IndexCatalog.class), any(RolloverPolicy.class), any(DateTime.class));
+        verify(elasticsearchIndexManager, never()).checkIndexRetention(any(Client.class), anySet(), any(IndexMetadata.class), any(DateTime.class));
+        verify(elasticsearchIndexManager, never()).checkPreCreate(any(Client.class), any(IndexCatalog.class), any(IndexMetadata.class), any(DateTime.class));
+
+        // Only indices behind the alias and past retention by creation date are deleted
+        verify(elasticsearchIndexManager, times(1)).deleteIndices(elasticsearchClient, Arrays.asList("nf_errors_log-000001", "nf_errors_log-000002"), AUTO_CREATE_INDEX_TIMEOUT);
+    }
+
+    @Test
+    public void testCheckRolloverRetention_KeepsWriteIndex() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionPeriod\": \"P1D\", \"rollover\": {\"alias\": \"nf_errors_log\", \"maxDocs\": 1000}}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log-000001", 0L);
+
+        Map<String, Set<String>> aliases = new HashMap<>();
+        aliases.put("nf_errors_log", Collections.singleton("nf_errors_log-000001"));
+
+        Set<String> expiredIndices = elasticsearchIndexManager.checkRolloverRetention(
+                new IndexCatalog(indices, aliases), indexMetadata, new DateTime("2017-12-11T13:30Z"));
+
+        assertEquals(0, expiredIndices.size());
+    }
+
+    @Test
+    public void testCheckIndexTiers() throws Exception {
+        when(config.getIndexTierAttribute()).thenReturn("box_type");
+
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"tiers\": [" +
+                        "{\"tier\": \"cold\", \"after\": \"P14D\", \"replicas\": 0}, {\"tier\": \"warm\", \"after\": \"P2D\", \"replicas\": 1}]}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log20171211", 0L);
+        indices.put("nf_errors_log20171208", 0L);
+        indices.put("nf_errors_log20171201", 0L);
+        indices.put("nf_errors_log20171120", 0L);
+
+        Map<String, Settings> settings = new HashMap<>();
+        settings.put("nf_errors_log20171201", Settings.builder()
+                .put("index.routing.allocation.require.box_type", "warm")
+                .put("index.number_of_replicas", 1)
+                .put("index.blocks.write", true)
+                .build());
+
+        Map<String, TierTransition> tierTransitions = elasticsearchIndexManager.checkIndexTiers(
+                new IndexCatalog(indices, Collections.emptyMap(), settings), indexMetadata, new DateTime("2017-12-11T13:30Z"));
+
+        // Today's index stays hot, the warm one is already in place
+        assertEquals(2, tierTransitions.size());
+        assertEquals(TierTransition.Tier.WARM, tierTransitions.get("nf_errors_log20171208").getTier());
+        assertEquals(TierTransition.Tier.COLD, tierTransitions.get("nf_errors_log20171120").getTier());
+    }
+
+    @Test
+    public void testApplyTierTransitions_Throttled() {
+        when(config.getIndexTierAttribute()).thenReturn("box_type");
+        when(config.getIndexTierMaxRelocatingShards()).thenReturn(4);
+
+        doReturn(2).when(elasticsearchIndexManager).getRelocatingShards(elasticsearchClient);
+        doNothing().when(elasticsearchIndexManager).updateIndexSettings(eq(elasticsearchClient), anyString(), any(Settings.class));
+
+        Map<String, Long> indices = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        Map<String, TierTransition> tierTransitions = new TreeMap<>();
+
+        for (String indexName : Arrays.asList("nf_errors_log20171120", "nf_errors_log20171121", "nf_errors_log20171122")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_shards", 1).put("index.number_of_replicas", 1).build());
+            tierTransitions.put(indexName, new TierTransition("warm", "P2D", null, null));
+        }
+
+        IndexCatalog indexCatalog = new IndexCatalog(indices, Collections.emptyMap(), settings);
+        elasticsearchIndexManager.applyTierTransitions(elasticsearchClient, indexCatalog, tierTransitions);
+
+        // Two shards were relocating already, the first move adds two more and reaches the limit
+        verify(elasticsearchIndexManager, times(1)).updateIndexSettings(eq(elasticsearchClient), anyString(), any(Settings.class));
+        assertEquals("warm", indexCatalog.getSettings("nf_errors_log20171120").get("index.routing.allocation.require.box_type"));
+        assertTrue(indexCatalog.getSettings("nf_errors_log20171120").getAsBoolean("index.blocks.write", false));
+    }
+
+    @Test
+    public void testCheckForceMerge() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"hourly\", \"indexName\": \"nf_errors_log\", \"forceMergeSegments\": 1}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2017121112", 0L);
+        indices.put("nf_errors_log2017121113", 0L);
+        indices.put("nf_errors_log2017121114", 0L);
+        indices.put("nf_errors_log_other", 0L);
+
+        Map<String, Integer> forceMergeCandidates = elasticsearchIndexManager.checkForceMerge(
+                new IndexCatalog(indices), indexMetadata, new DateTime("2017-12-11T13:30Z"));
+
+        // Current and pre-created indices are still written to
+        assertEquals(Collections.singletonMap("nf_errors_log2017121112", 1), forceMergeCandidates);
+    }
+
+    @Test
+    public void testRunIndexManagement_Close() throws Exception {
+        String serializedIndexMetadata = "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"retentionPeriod\": 90, \"closeAfter\": \"P30D\"}]";
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(serializedIndexMetadata);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log20171001", 0L);
+        indices.put("nf_errors_log20171002", 0L);
+        indices.put("nf_errors_log20171201", 0L);
+        indices.put("nf_errors_log20171211", 0L);
+
+        IndexCatalog indexCatalog = new IndexCatalog(indices);
+        indexCatalog.setClosed("nf_errors_log20171001", true);
+
+        doReturn(indexCatalog).when(elasticsearchIndexManager).getIndexCatalog(elasticsearchClient);
+        doNothing().when(elasticsearchIndexManager).closeIndices(eq(elasticsearchClient), anyList());
+
+        elasticsearchIndexManager.runIndexManagement(elasticsearchClient, indexMetadataList, new DateTime("2017-12-11T13:30Z"));
+
+        // Closed already and too young to close are left alone
+        verify(elasticsearchIndexManager, times(1)).closeIndices(elasticsearchClient, Collections.singletonList("nf_errors_log20171002"));
+        verify(elasticsearchIndexManager, never()).deleteIndices(any(Client.class), anyList(), anyInt());
+        assertTrue(indexCatalog.isClosed("nf_errors_log20171002"));
+    }
+
+    @Test
+    public void testOpenIndexOnDemand() throws Exception {
+        when(config.getIndexOnDemandMaxOpen()).thenReturn(1);
+
+        doReturn(true).when(elasticsearchIndexManager).isActiveMaster();
+        doNothing().when(elasticsearchIndexManager).openIndex(eq(elasticsearchClient), anyString());
+        doNothing().when(elasticsearchIndexManager).closeIndices(eq(elasticsearchClient), anyList());
+        doReturn(IndexMetaData.State.CLOSE).when(elasticsearchIndexManager).getIndexState(eq(elasticsearchClient), anyString());
+        doReturn(IndexMetaData.State.OPEN).when(elasticsearchIndexManager).getIndexState(elasticsearchClient, "nf_errors_log20171211");
+        doReturn(null).when(elasticsearchIndexManager).getIndexState(elasticsearchClient, "nf_errors_log20170101");
+
+        assertTrue(elasticsearchIndexManager.openIndexOnDemand("nf_errors_log20171001"));
+        verify(elasticsearchIndexManager).openIndex(elasticsearchClient, "nf_errors_log20171001");
+
+        // Only one index is kept open on demand
+        assertTrue(elasticsearchIndexManager.openIndexOnDemand("nf_errors_log20171002"));
+        verify(elasticsearchIndexManager).closeIndices(elasticsearchClient, Collections.singletonList("nf_errors_log20171001"));
+        assertEquals(Collections.singleton("nf_errors_log20171002"), elasticsearchIndexManager.getOnDemandIndices().keySet());
+
+        // Indices open anyway are not tracked
+        assertFalse(elasticsearchIndexManager.openIndexOnDemand("nf_errors_log20171211"));
+
+        try {
+            elasticsearchIndexManager.openIndexOnDemand("nf_errors_log20170101");
+            fail("Missing index cannot be opened");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testOpenIndexOnDemand_NotMaster() throws Exception {
+        doReturn(false).when(elasticsearchIndexManager).isActiveMaster();
+
+        // Index management of the master would not know the index is open on demand, and close it again
+        try {
+            elasticsearchIndexManager.openIndexOnDemand("nf_errors_log20171001");
+            fail("Indices are only opened on demand on the active master");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        verify(elasticsearchIndexManager, never()).openIndex(any(Client.class), anyString());
+        assertTrue(elasticsearchIndexManager.getOnDemandIndices().isEmpty());
+    }
+
+    @Test
+    public void testCheckReplicaSchedule() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"replicaSchedule\": [" +
+                        "{\"after\": \"P30D\", \"replicas\": 0}, {\"after\": \"P1D\", \"replicas\": 1}]}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        for (String indexName : Arrays.asList("nf_errors_log20171211", "nf_errors_log20171205", "nf_errors_log20171204", "nf_errors_log20171101")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_replicas", 2).build());
+        }
+        settings.put("nf_errors_log20171204", Settings.builder().put("index.number_of_replicas", 1).build());
+
+        Map<String, Integer> replicaChanges = elasticsearchIndexManager.checkReplicaSchedule(
+                new IndexCatalog(indices, Collections.emptyMap(), settings), indexMetadata, new DateTime("2017-12-11T13:30Z"));
+
+        Map<String, Integer> expectedChanges = new TreeMap<>();
+        expectedChanges.put("nf_errors_log20171101", 0);
+        expectedChanges.put("nf_errors_log20171205", 1);
+        assertEquals(expectedChanges, replicaChanges);
+    }
+
+    @Test
+    public void testApplyReplicaSchedule() {
+        when(config.getIndexReplicaMaxRecoveries()).thenReturn(4);
+
+        doReturn(Collections.singleton("nf_errors_log20171101")).when(elasticsearchIndexManager).getSnapshottedIndices(elasticsearchClient);
+        doReturn(3).when(elasticsearchIndexManager).getInitializingShards(elasticsearchClient);
+        doNothing().when(elasticsearchIndexManager).updateReplicas(eq(elasticsearchClient), any(IndexCatalog.class), anyList(), anyInt());
+
+        Map<String, Long> indices = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        for (String indexName : Arrays.asList("nf_errors_log20171101", "nf_errors_log20171102", "nf_errors_log20171205")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_replicas", 2).build());
+        }
+        for (String indexName : Arrays.asList("nf_errors_log20171206", "nf_errors_log20171207")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_shards", 1).put("index.number_of_replicas", 0).build());
+        }
+
+        Map<String, Integer> replicaChanges = new TreeMap<>();
+        replicaChanges.put("nf_errors_log20171101", 0);
+        replicaChanges.put("nf_errors_log20171102", 0);
+        replicaChanges.put("nf_errors_log20171205", 1);
+        replicaChanges.put("nf_errors_log20171206", 2);
+        replicaChanges.put("nf_errors_log20171207", 2);
+
+        IndexCatalog indexCatalog = new IndexCatalog(indices, Collections.emptyMap(), settings);
+        elasticsearchIndexManager.applyReplicaSchedule(elasticsearchClient, indexCatalog, replicaChanges);
+
+        // No replicas only for the index a snapshot has
+        verify(elasticsearchIndexManager).updateReplicas(elasticsearchClient, indexCatalog, Collections.singletonList("nf_errors_log20171101"), 0);
+        verify(elasticsearchIndexManager).updateReplicas(elasticsearchClient, indexCatalog, Collections.singletonList("nf_errors_log20171205"), 1);
+
+        // The first increase brings initializing shards over the limit
+        verify(elasticsearchIndexManager).updateReplicas(elasticsearchClient, indexCatalog, Collections.singletonList("nf_errors_log20171206"), 2);
+        verify(elasticsearchIndexManager, times(3)).updateReplicas(eq(elasticsearchClient), any(IndexCatalog.class), anyList(), anyInt());
+    }
+
+    @Test
+    public void testCheckPreCreate() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"hourly\", \"indexName\": \"nf_errors_log\", \"preCreate\": true, \"preCreatePeriods\": 3," +
+                        " \"shards\": 4, \"template\": \"nf_errors_log\"}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log2017121114", 0L);
+        IndexCatalog indexCatalog = new IndexCatalog(indices);
+
+        doReturn(Collections.singletonList("nf_errors_log20171211*")).when(elasticsearchIndexManager).getTemplatePatterns(elasticsearchClient, "nf_errors_log");
+
+        // The existing index is skipped, no pattern index is needed with a template
+        Map<String, Settings> indicesToCreate = elasticsearchIndexManager.checkPreCreate(
+                elasticsearchClient, indexCatalog, indexMetadata, new DateTime("2017-12-11T13:30Z"));
+        assertEquals(new HashSet<>(Arrays.asList("nf_errors_log2017121115", "nf_errors_log2017121116")), indicesToCreate.keySet());
+        assertEquals("4", indicesToCreate.get("nf_errors_log2017121115").get("index.number_of_shards"));
+
+        // Indices the template does not apply to are not created
+        indicesToCreate = elasticsearchIndexManager.checkPreCreate(
+                elasticsearchClient, indexCatalog, indexMetadata, new DateTime("2017-12-11T22:30Z"));
+        assertEquals(Collections.singleton("nf_errors_log2017121123"), indicesToCreate.keySet());
+    }
+
+    @Test
+    public void testGetManagedIndexNames() throws Exception {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"retentionPeriod\": 90}," +
+                        " {\"retentionPeriod\": \"P7D\", \"rollover\": {\"alias\": \"nf_access_log\", \"maxAge\": \"P1D\"}}]");
+
+        Map<String, Long> indices = new HashMap<>();
+        for (String indexName : Arrays.asList("nf_errors_log20171130", "nf_errors_log20171201", "nf_access_log-000001", "kibana", "other_log20171201")) {
+            indices.put(indexName, 0L);
+        }
+        IndexCatalog indexCatalog = new IndexCatalog(indices);
+        indexCatalog.setClosed("nf_errors_log20171130", true);
+
+        // Stats are only requested for open indices of the index metadata
+        assertEquals(new TreeSet<>(Arrays.asList("nf_access_log-000001", "nf_errors_log20171201")),
+                elasticsearchIndexManager.getManagedIndexNames(indexCatalog, indexMetadataList));
+        assertTrue(elasticsearchIndexManager.getIndexSizes(elasticsearchClient, Collections.emptySet()).isEmpty());
+        verifyZeroInteractions(elasticsearchClient);
+    }
+
+    @Test
+    public void testPlanIndexManagement_DoesNotExecute() throws Exception {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"retentionPeriod\": 90, \"preCreate\": true," +
+                        " \"closeAfter\": \"P30D\", \"replicaSchedule\": [{\"after\": \"P7D\", \"replicas\": 1}], \"forceMergeSegments\": 1}]");
+
+        Map<String, Long> indices = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        for (String indexName : Arrays.asList("nf_errors_log20170901", "nf_errors_log20171101", "nf_errors_log20171201", "nf_errors_log20171211")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_shards", 2).put("index.number_of_replicas", 2).build());
+        }
+        IndexCatalog indexCatalog = new IndexCatalog(indices, Collections.emptyMap(), settings);
+
+        IndexManagementPlan plan = elasticsearchIndexManager.planIndexManagement(
+                elasticsearchClient, indexCatalog, indexMetadataList, new DateTime("2017-12-11T13:30Z"));
+
+        Map<String, IndexManagementPlan.IndexSize> indexSizes = new HashMap<>();
+        indexSizes.put("nf_errors_log20171201", new IndexManagementPlan.IndexSize(100L * 1024 * 1024, 300L * 1024 * 1024, 1000));
+        plan.estimate(indexCatalog, indexSizes, 5, 1, 1024 * 1024, 4, 1024 * 1024);
+
+        List<String> actions = new ArrayList<>();
+        plan.getActions().forEach(action -> actions.add(action.getType() + " " + action.getTarget()));
+
+        // Expired and closed indices are left out of the later stages
+        assertEquals(Arrays.asList(
+                "DELETE nf_errors_log20170901",
+                "CREATE nf_errors_log20171212",
+                "CLOSE nf_errors_log20171101",
+                "REPLICAS nf_errors_log20171201",
+                "FORCE_MERGE nf_errors_log20171201"), actions);
+
+        // One replica less frees a copy, merging takes the primary size at the merge rate
+        IndexManagementPlan.Action replicas = plan.getActions().get(3);
+        assertEquals(100L * 1024 * 1024, replicas.getEstimatedBytes());
+        assertEquals(2, replicas.getShards());
+        assertEquals(0, replicas.getEstimatedSeconds());
+        assertEquals(100, plan.getActions().get(4).getEstimatedSeconds());
+        assertEquals(10, plan.getActions().get(1).getShards());
+
+        verify(elasticsearchIndexManager, never()).deleteIndices(any(Client.class), anyList(), anyInt());
+        verify(elasticsearchIndexManager, never()).closeIndices(any(Client.class), anyList());
+        verify(elasticsearchIndexManager, never()).createIndex(any(Client.class), any(IndexCatalog.class), anyString(), any(Settings.class));
     }
 
     @After
@@ -0,0 +1,81 @@
+package com.netflix.raigad.indexmanagement;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ListenableActionFuture;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateRequestBuilder;
+import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TestIndexCatalog {
+    private static final int INDEX_COUNT = 10000;
+    private static final long CREATION_DATE = new DateTime(2017, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLoadReadsMetadataOnly() {
+        ClusterState clusterState = ClusterState.builder(ClusterName.DEFAULT).metaData(buildMetaData()).build();
+
+        ClusterStateResponse clusterStateResponse = mock(ClusterStateResponse.class);
+        when(clusterStateResponse.getState()).thenReturn(clusterState);
+
+        ListenableActionFuture<ClusterStateResponse> future = mock(ListenableActionFuture.class);
+        when(future.actionGet(anyLong())).thenReturn(clusterStateResponse);
+
+        ClusterStateRequestBuilder clusterStateRequestBuilder = mock(ClusterStateRequestBuilder.class);
+        when(clusterStateRequestBuilder.clear()).thenReturn(clusterStateRequestBuilder);
+        when(clusterStateRequestBuilder.setMetaData(true)).thenReturn(clusterStateRequestBuilder);
+        when(clusterStateRequestBuilder.execute()).thenReturn(future);
+
+        Client client = mock(Client.class, RETURNS_DEEP_STUBS);
+        when(client.admin().cluster().prepareState()).thenReturn(clusterStateRequestBuilder);
+
+        IndexCatalog indexCatalog = IndexCatalog.load(client, 1000);
+
+        assertEquals(INDEX_COUNT, indexCatalog.size());
+        assertTrue(indexCatalog.exists("nf_errors_log" + (INDEX_COUNT - 1)));
+        assertEquals(new DateTime(CREATION_DATE + 42, DateTimeZone.UTC), indexCatalog.getCreationDate("nf_errors_log42"));
+        assertNull(indexCatalog.getCreationDate("nf_errors_log" + INDEX_COUNT));
+
+        // Nothing but metadata is asked for, no shard is involved
+        verify(clusterStateRequestBuilder).clear();
+        verify(clusterStateRequestBuilder).setMetaData(true);
+        verify(clusterStateRequestBuilder, never()).setRoutingTable(anyBoolean());
+        verify(client.admin().indices(), never()).prepareStats(any());
+    }
+
+    @Test
+    public void testFromMetaData() {
+        IndexCatalog indexCatalog = IndexCatalog.fromMetaData(buildMetaData());
+
+        assertEquals(INDEX_COUNT, indexCatalog.getIndexNames().size());
+
+        indexCatalog.add("nf_errors_log_new", CREATION_DATE);
+        assertTrue(indexCatalog.exists("nf_errors_log_new"));
+        assertEquals(INDEX_COUNT + 1, indexCatalog.size());
+    }
+
+    private static MetaData buildMetaData() {
+        MetaData.Builder metaData = MetaData.builder();
+
+        for (int i = 0; i < INDEX_COUNT; i++) {
+            metaData.put(IndexMetaData.builder("nf_errors_log" + i)
+                    .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                    .creationDate(CREATION_DATE + i)
+                    .numberOfShards(1)
+                    .numberOfReplicas(0), false);
+        }
+
+        return metaData.build();
+    }
+}
@@ -0,0 +1,93 @@
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import org.elasticsearch.client.Client;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class TestIndexForceMerger {
+    private Client elasticsearchClient;
+    private IConfiguration config;
+    private IndexForceMerger indexForceMerger;
+
+    @Before
+    public void setUp() {
+        config = mock(IConfiguration.class);
+        when(config.getIndexForceMergeWindow()).thenReturn("");
+        when(config.getIndexForceMergeMaxConcurrent()).thenReturn(2);
+
+        elasticsearchClient = mock(Client.class);
+        indexForceMerger = spy(new IndexForceMerger(config));
+        doNothing().when(indexForceMerger).startForceMerge(eq(elasticsearchClient), anyString(), anyInt());
+    }
+
+    @Test
+    public void testIsOffPeak() {
+        assertTrue(IndexForceMerger.isOffPeak("", new DateTime("2017-12-11T13:30Z")));
+        assertTrue(IndexForceMerger.isOffPeak("01:00-05:00", new DateTime("2017-12-11T01:00Z")));
+        assertFalse(IndexForceMerger.isOffPeak("01:00-05:00", new DateTime("2017-12-11T05:00Z")));
+
+        // Window across midnight
+        assertTrue(IndexForceMerger.isOffPeak("22:00-04:00", new DateTime("2017-12-11T23:30Z")));
+        assertTrue(IndexForceMerger.isOffPeak("22:00-04:00", new DateTime("2017-12-11T03:59Z")));
+        assertFalse(IndexForceMerger.isOffPeak("22:00-04:00", new DateTime("2017-12-11T13:30Z")));
+
+        assertFalse(IndexForceMerger.isOffPeak("after midnight", new DateTime("2017-12-11T01:00Z")));
+    }
+
+    @Test
+    public void testForceMerge_SkipsBusyNodes() {
+        Map<String, Integer> candidates = new TreeMap<>();
+        Map<String, Long> indices = new HashMap<>();
+        for (String indexName : Arrays.asList("nf_errors_log20171207", "nf_errors_log20171208", "nf_errors_log20171209", "nf_errors_log20171210")) {
+            candidates.put(indexName, 1);
+            indices.put(indexName, 0L);
+        }
+
+        Map<String, Long> segmentCounts = new HashMap<>();
+        segmentCounts.put("nf_errors_log20171207", 1L);
+        segmentCounts.put("nf_errors_log20171208", 20L);
+        segmentCounts.put("nf_errors_log20171209", 30L);
+        segmentCounts.put("nf_errors_log20171210", 40L);
+        doReturn(segmentCounts).when(indexForceMerger).getSegmentCounts(eq(elasticsearchClient), anyCollection());
+
+        IndexForceMerger.NodeLoad nodeLoad = new IndexForceMerger.NodeLoad();
+        nodeLoad.busyNodes.add("node2");
+        doReturn(nodeLoad).when(indexForceMerger).getNodeLoad(elasticsearchClient);
+
+        Map<String, Set<String>> shardNodes = new HashMap<>();
+        shardNodes.put("nf_errors_log20171208", Collections.singleton("node1"));
+        shardNodes.put("nf_errors_log20171209", Collections.singleton("node2"));
+        shardNodes.put("nf_errors_log20171210", Collections.singleton("node3"));
+        doReturn(shardNodes).when(indexForceMerger).getShardNodes(eq(elasticsearchClient), anyCollection());
+
+        indexForceMerger.forceMerge(elasticsearchClient, new IndexCatalog(indices), candidates, new DateTime("2017-12-11T13:30Z"));
+
+        // Already merged index is left alone, the one on a busy node waits
+        verify(indexForceMerger).startForceMerge(elasticsearchClient, "nf_errors_log20171208", 1);
+        verify(indexForceMerger).startForceMerge(elasticsearchClient, "nf_errors_log20171210", 1);
+        verify(indexForceMerger, times(2)).startForceMerge(eq(elasticsearchClient), anyString(), anyInt());
+
+        // Merged index is not looked at again
+        indexForceMerger.forceMerge(elasticsearchClient, new IndexCatalog(indices), candidates, new DateTime("2017-12-11T14:30Z"));
+        verify(indexForceMerger).getSegmentCounts(eq(elasticsearchClient),
+                argThat((Collection<String> indexNames) -> indexNames.size() == 3 && !indexNames.contains("nf_errors_log20171207")));
+    }
+
+    @Test
+    public void testForceMerge_OutsideWindow() {
+        when(config.getIndexForceMergeWindow()).thenReturn("01:00-05:00");
+
+        indexForceMerger.forceMerge(elasticsearchClient, new IndexCatalog(Collections.singletonMap("nf_errors_log20171207", 0L)),
+                Collections.singletonMap("nf_errors_log20171207", 1), new DateTime("2017-12-11T13:30Z"));
+
+        verify(indexForceMerger, never()).getSegmentCounts(any(Client.class), anyCollection());
+    }
+}
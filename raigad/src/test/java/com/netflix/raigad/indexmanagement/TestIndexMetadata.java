@@ -2,6 +2,7 @@ package com.netflix.raigad.indexmanagement;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
+import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.junit.Test;
 
@@ -167,4 +168,107 @@ public class TestIndexMetadata {
         assertEquals(indexMetadata.getRetentionPeriod().toString(), "P20D");
         assertTrue(indexMetadata.isActionable());
     }
+
+    @Test
+    public void testRollover() throws IOException {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(
+                "[{\"retentionPeriod\": \"P30D\", \"rollover\": {\"alias\": \"nf_errors_log\", \"maxSize\": \"50gb\", \"maxAge\": \"P1D\", \"targetShardSize\": \"10gb\"}}]");
+
+        assertEquals(indexMetadataList.size(), 1);
+        IndexMetadata indexMetadata = indexMetadataList.get(0);
+
+        assertTrue(indexMetadata.isRollover());
+        assertTrue(indexMetadata.isActionable());
+        assertEquals(indexMetadata.getRetentionPeriod().toString(), "P30D");
+
+        RolloverPolicy rollover = indexMetadata.getRollover();
+        assertEquals(rollover.getAlias(), "nf_errors_log");
+        assertEquals(rollover.getFirstIndexName(), "nf_errors_log-000001");
+        assertTrue(rollover.isRolloverIndex("nf_errors_log-000042"));
+        assertFalse(rollover.isRolloverIndex("nf_errors_log20171211"));
+        assertTrue(rollover.isRolloverIndex("nf_errors_log-000042-shrunk"));
+        assertFalse(rollover.isRolloverIndex("nf_errors_log-000042-copy"));
+
+        long gb = 1024L * 1024 * 1024;
+        assertFalse(rollover.isSizeExceeded(49 * gb));
+        assertTrue(rollover.isSizeExceeded(50 * gb));
+
+        // 6 hours in with 5gb, 20gb expected by the end of the day: 2 shards of 10gb
+        DateTime creationDate = new DateTime("2017-12-11T00:00Z");
+        assertEquals(rollover.getShardCount(5 * gb, creationDate, creationDate.plusHours(6)), Integer.valueOf(2));
+
+        // Growing fast enough to hit maxSize first
+        assertEquals(rollover.getShardCount(40 * gb, creationDate, creationDate.plusHours(6)), Integer.valueOf(5));
+
+        // Nothing to go by yet
+        assertNull(rollover.getShardCount(0, creationDate, creationDate.plusHours(6)));
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testRolloverWithoutConditions() throws IOException {
+        IndexUtils.parseIndexMetadata("[{\"rollover\": {\"alias\": \"nf_errors_log\"}}]");
+    }
+
+    @Test
+    public void testTiers() throws IOException {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", " +
+                        "\"tiers\": [{\"tier\": \"cold\", \"after\": \"P14D\"}, {\"tier\": \"warm\", \"after\": \"P2D\", \"readOnly\": false}]}]");
+
+        IndexMetadata indexMetadata = indexMetadataList.get(0);
+
+        // Tiers alone are enough to act on
+        assertNull(indexMetadata.getRetentionPeriod());
+        assertTrue(indexMetadata.isTiered());
+        assertTrue(indexMetadata.isActionable());
+
+        DateTime now = new DateTime("2017-12-11T13:30Z");
+        assertNull(indexMetadata.getTierTransition(new DateTime("2017-12-10T00:00Z"), now));
+
+        TierTransition warm = indexMetadata.getTierTransition(new DateTime("2017-12-09T00:00Z"), now);
+        assertEquals(TierTransition.Tier.WARM, warm.getTier());
+        assertFalse(warm.isReadOnly());
+
+        TierTransition cold = indexMetadata.getTierTransition(new DateTime("2017-11-20T00:00Z"), now);
+        assertEquals(TierTransition.Tier.COLD, cold.getTier());
+        assertTrue(cold.isReadOnly());
+        assertEquals("cold", cold.getIndexSettings("box_type").get("index.routing.allocation.require.box_type"));
+    }
+
+    @Test
+    public void testReplicaSchedule() throws IOException {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", " +
+                        "\"replicaSchedule\": [{\"after\": \"P30D\", \"replicas\": 0}, {\"after\": \"P1D\", \"replicas\": 1}]}]").get(0);
+
+        assertTrue(indexMetadata.hasReplicaSchedule());
+        assertTrue(indexMetadata.isActionable());
+
+        DateTime now = new DateTime("2017-12-11T13:30Z");
+        assertNull(indexMetadata.getReplicaStep(new DateTime("2017-12-11T00:00Z"), now));
+        assertEquals(1, indexMetadata.getReplicaStep(new DateTime("2017-12-10T00:00Z"), now).getReplicas());
+        assertEquals(0, indexMetadata.getReplicaStep(new DateTime("2017-11-01T00:00Z"), now).getReplicas());
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testReplicaScheduleNegative() throws IOException {
+        IndexUtils.parseIndexMetadata("[{\"indexName\": \"nf_errors_log\", \"replicaSchedule\": [{\"after\": \"P1D\", \"replicas\": -1}]}]");
+    }
+
+    @Test
+    public void testReplicaScheduleWithTiers() throws IOException {
+        // Tiers only moving indices go along with a replica schedule
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"tiers\": [{\"tier\": \"warm\", \"after\": \"P2D\"}], " +
+                        "\"replicaSchedule\": [{\"after\": \"P1D\", \"replicas\": 1}]}]").get(0);
+        assertTrue(indexMetadata.isTiered());
+        assertTrue(indexMetadata.hasReplicaSchedule());
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testReplicaScheduleWithTierReplicas() throws IOException {
+        IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"tiers\": [{\"tier\": \"warm\", \"after\": \"P2D\", \"replicas\": 0}], " +
+                        "\"replicaSchedule\": [{\"after\": \"P1D\", \"replicas\": 1}]}]");
+    }
 }
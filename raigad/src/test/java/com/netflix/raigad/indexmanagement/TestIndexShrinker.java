@@ -0,0 +1,162 @@
+package com.netflix.raigad.indexmanagement;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.*;
+
+public class TestIndexShrinker {
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final ByteSizeValue SHARD_SIZE = ByteSizeValue.parseBytesSizeValue("30gb", "shrinkShardSize");
+    private static final String INDEX_NAME = "nf_errors_log20171201";
+
+    private Client elasticsearchClient;
+    private IConfiguration config;
+    private IndexShrinker indexShrinker;
+
+    @Before
+    public void setUp() {
+        config = mock(IConfiguration.class);
+        when(config.getIndexShrinkMaxConcurrent()).thenReturn(1);
+
+        elasticsearchClient = mock(Client.class);
+        indexShrinker = spy(new IndexShrinker(config));
+        doNothing().when(indexShrinker).updateIndexSettings(eq(elasticsearchClient), anyString(), any(Settings.class));
+        doNothing().when(indexShrinker).shrinkIndex(eq(elasticsearchClient), anyString(), anyString(), any(Settings.class));
+        doNothing().when(indexShrinker).swapIndex(eq(elasticsearchClient), any(IndexCatalog.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testGetTargetShardCount() {
+        assertEquals(1, IndexShrinker.getTargetShardCount(20 * GB, 10, SHARD_SIZE));
+        assertEquals(1, IndexShrinker.getTargetShardCount(0, 10, SHARD_SIZE));
+
+        // Three shards are needed, five is the next factor of ten
+        assertEquals(5, IndexShrinker.getTargetShardCount(70 * GB, 10, SHARD_SIZE));
+
+        // Nothing to gain
+        assertEquals(5, IndexShrinker.getTargetShardCount(200 * GB, 5, SHARD_SIZE));
+    }
+
+    @Test
+    public void testGetSourceIndexName() {
+        assertEquals(INDEX_NAME, IndexShrinker.getSourceIndexName(INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX));
+        assertEquals(INDEX_NAME, IndexShrinker.getSourceIndexName(INDEX_NAME));
+    }
+
+    @Test
+    public void testPickNode() {
+        Map<String, Set<Integer>> shardsByNode = new HashMap<>();
+        shardsByNode.put("node1", new HashSet<>(Arrays.asList(0, 1)));
+        shardsByNode.put("node2", new HashSet<>(Arrays.asList(2, 3, 4)));
+        shardsByNode.put("node3", new HashSet<>());
+
+        assertEquals("node2", IndexShrinker.pickNode(shardsByNode));
+        assertNull(IndexShrinker.pickNode(Collections.emptyMap()));
+    }
+
+    @Test
+    public void testShrink_Steps() {
+        IndexCatalog indexCatalog = newIndexCatalog();
+        Map<String, ByteSizeValue> candidates = Collections.singletonMap(INDEX_NAME, SHARD_SIZE);
+
+        doReturn(Collections.singletonMap(INDEX_NAME, 20 * GB)).when(indexShrinker).getPrimarySizes(eq(elasticsearchClient), anyCollection());
+
+        Map<String, Set<Integer>> shardsByNode = new HashMap<>();
+        shardsByNode.put("node1", new HashSet<>(Arrays.asList(0, 1, 2)));
+        shardsByNode.put("node2", new HashSet<>(Arrays.asList(3, 4)));
+        doReturn(shardsByNode).when(indexShrinker).getShardsByNode(elasticsearchClient, INDEX_NAME);
+
+        // Pinned to the node with most shards and blocked for writes
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, candidates);
+        assertEquals("node1", indexCatalog.getSettings(INDEX_NAME).get(IndexShrinker.REQUIRE_ID_SETTING));
+        assertEquals("true", indexCatalog.getSettings(INDEX_NAME).get(IndexShrinker.WRITE_BLOCK_SETTING));
+
+        // Still relocating
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, candidates);
+        verify(indexShrinker, never()).shrinkIndex(eq(elasticsearchClient), anyString(), anyString(), any(Settings.class));
+
+        // Every shard is on the node
+        shardsByNode.put("node1", new HashSet<>(Arrays.asList(0, 1, 2, 3, 4)));
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, candidates);
+
+        ArgumentCaptor<Settings> settings = ArgumentCaptor.forClass(Settings.class);
+        verify(indexShrinker).shrinkIndex(eq(elasticsearchClient), eq(INDEX_NAME), eq(INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX), settings.capture());
+        assertEquals("1", settings.getValue().get("index.number_of_shards"));
+        assertEquals(String.valueOf(new DateTime("2017-12-01T00:00Z").getMillis()), settings.getValue().get("index.creation_date"));
+
+        // Shrunk index is not allocated yet
+        doReturn(false).when(indexShrinker).isGreen(elasticsearchClient, INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX);
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, candidates);
+        verify(indexShrinker, never()).swapIndex(eq(elasticsearchClient), any(IndexCatalog.class), anyString(), anyString());
+
+        doReturn(true).when(indexShrinker).isGreen(elasticsearchClient, INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX);
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, candidates);
+        verify(indexShrinker).swapIndex(elasticsearchClient, indexCatalog, INDEX_NAME, INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX);
+        verify(indexShrinker, times(1)).shrinkIndex(eq(elasticsearchClient), anyString(), anyString(), any(Settings.class));
+    }
+
+    @Test
+    public void testShrink_RepairsInterruptedSwap() {
+        String shrunkIndexName = INDEX_NAME + IndexShrinker.SHRUNK_SUFFIX;
+        doNothing().when(indexShrinker).addAlias(eq(elasticsearchClient), anyString(), anyString());
+
+        // Source deleted, its name never aliased to the shrunk index
+        IndexCatalog indexCatalog = new IndexCatalog(Collections.singletonMap(shrunkIndexName, 0L));
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, Collections.singletonMap(shrunkIndexName, SHARD_SIZE));
+
+        verify(indexShrinker).addAlias(elasticsearchClient, shrunkIndexName, INDEX_NAME);
+        assertEquals(Collections.singleton(shrunkIndexName), indexCatalog.getIndicesForAlias(INDEX_NAME));
+
+        // Nothing to repair once the name is an alias
+        indexShrinker.shrink(elasticsearchClient, indexCatalog, Collections.singletonMap(shrunkIndexName, SHARD_SIZE));
+        verify(indexShrinker, times(1)).addAlias(eq(elasticsearchClient), anyString(), anyString());
+        verify(indexShrinker, never()).updateIndexSettings(eq(elasticsearchClient), anyString(), any(Settings.class));
+    }
+
+    @Test
+    public void testShrink_Bounded() {
+        when(config.getIndexShrinkMaxConcurrent()).thenReturn(1);
+
+        Map<String, Long> creationDates = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        Map<String, ByteSizeValue> candidates = new TreeMap<>();
+
+        for (String indexName : Arrays.asList("nf_errors_log20171201", "nf_errors_log20171202")) {
+            creationDates.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_shards", 5).build());
+            candidates.put(indexName, SHARD_SIZE);
+        }
+
+        // First index is pinned already
+        settings.put("nf_errors_log20171201", Settings.builder().put(settings.get("nf_errors_log20171201"))
+                .put(IndexShrinker.REQUIRE_ID_SETTING, "node1").build());
+
+        doReturn(Collections.singletonMap("node1", Collections.singleton(0))).when(indexShrinker).getShardsByNode(eq(elasticsearchClient), anyString());
+
+        indexShrinker.shrink(elasticsearchClient, new IndexCatalog(creationDates, Collections.emptyMap(), settings), candidates);
+
+        verify(indexShrinker, never()).getPrimarySizes(eq(elasticsearchClient), anyCollection());
+        verify(indexShrinker, never()).updateIndexSettings(eq(elasticsearchClient), anyString(), any(Settings.class));
+    }
+
+    private IndexCatalog newIndexCatalog() {
+        return new IndexCatalog(
+                Collections.singletonMap(INDEX_NAME, new DateTime("2017-12-01T00:00Z").getMillis()),
+                Collections.emptyMap(),
+                Collections.singletonMap(INDEX_NAME, Settings.builder()
+                        .put("index.number_of_shards", 5)
+                        .put("index.number_of_replicas", 1)
+                        .build()));
+    }
+}
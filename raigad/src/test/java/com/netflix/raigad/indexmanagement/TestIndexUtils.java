@@ -6,9 +6,12 @@ import org.joda.time.format.DateTimeFormat;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestIndexUtils {
 
@@ -60,4 +63,25 @@ public class TestIndexUtils {
         assertEquals("nf_errors_log_useast120171116", dailyMetadata.getIndexNameToPreCreate(currentDateTime));
         assertEquals("index12017111513", hourlyMetadata.getIndexNameToPreCreate(currentDateTime));
     }
+
+    @Test
+    public void testIndexNamesToPreCreate() throws IOException, UnsupportedAutoIndexException {
+        List<IndexMetadata> indexMetadataList = IndexUtils.parseIndexMetadata(
+                "[ { \"retentionType\": \"monthly\", \"indexName\": \"index\", \"preCreate\": true, \"preCreatePeriods\": 3 }," +
+                        "{ \"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"preCreate\": true," +
+                        " \"shards\": 6, \"replicas\": 2, \"refreshInterval\": \"30s\" }]");
+
+        IndexMetadata monthlyMetadata = indexMetadataList.get(0);
+        IndexMetadata dailyMetadata = indexMetadataList.get(1);
+
+        DateTime currentDateTime = new DateTime("2017-11-30T12:34:56Z");
+
+        assertEquals(Arrays.asList("index201712", "index201801", "index201802"), monthlyMetadata.getIndexNamesToPreCreate(currentDateTime));
+        assertTrue(monthlyMetadata.getCreateSettings().isEmpty());
+
+        assertEquals(Collections.singletonList("nf_errors_log20171201"), dailyMetadata.getIndexNamesToPreCreate(currentDateTime));
+        assertEquals("6", dailyMetadata.getCreateSettings().get("index.number_of_shards"));
+        assertEquals("2", dailyMetadata.getCreateSettings().get("index.number_of_replicas"));
+        assertEquals("30s", dailyMetadata.getCreateSettings().get("index.refresh_interval"));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.netflix.raigad.indexmanagement;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOnDemandIndices {
+    @Test
+    public void testLeastRecentlyOpenedEvicted() {
+        OnDemandIndices onDemandIndices = new OnDemandIndices();
+
+        assertTrue(onDemandIndices.touch("nf_errors_log20171001", 1000, 2).isEmpty());
+        assertTrue(onDemandIndices.touch("nf_errors_log20171002", 2000, 2).isEmpty());
+
+        // Opened again, the other one is now the least recently used
+        assertTrue(onDemandIndices.touch("nf_errors_log20171001", 3000, 2).isEmpty());
+
+        assertEquals(Collections.singletonList("nf_errors_log20171002"), onDemandIndices.touch("nf_errors_log20171003", 4000, 2));
+        assertFalse(onDemandIndices.contains("nf_errors_log20171002"));
+        assertTrue(onDemandIndices.contains("nf_errors_log20171001"));
+    }
+
+    @Test
+    public void testRemoveIdle() {
+        OnDemandIndices onDemandIndices = new OnDemandIndices();
+        onDemandIndices.touch("nf_errors_log20171001", 1000, 10);
+        onDemandIndices.touch("nf_errors_log20171002", 2000, 10);
+        onDemandIndices.touch("nf_errors_log20171003", 5000, 10);
+
+        assertEquals(Arrays.asList("nf_errors_log20171001", "nf_errors_log20171002"), onDemandIndices.removeIdle(6000, 4000));
+        assertEquals(Collections.singleton("nf_errors_log20171003"), onDemandIndices.getLastAccessTimes().keySet());
+    }
+}
@@ -0,0 +1,106 @@
+package com.netflix.raigad.indexmanagement;
+
+import org.elasticsearch.common.settings.Settings;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TestShardSizingAdvisor {
+    private static final long GB = 1024L * 1024 * 1024;
+    private static final DateTime DATE_TIME = new DateTime("2017-12-11T13:30Z");
+
+    @Test
+    public void testGetGrowth() {
+        assertEquals(1, ShardSizingAdvisor.getGrowth(Collections.singletonList(10L)), 0.001);
+        assertEquals(2, ShardSizingAdvisor.getGrowth(Arrays.asList(10L, 20L, 40L)), 0.001);
+
+        // A single odd period is not extrapolated as is
+        assertEquals(2, ShardSizingAdvisor.getGrowth(Arrays.asList(1L, 100L)), 0.001);
+        assertEquals(1, ShardSizingAdvisor.getGrowth(Arrays.asList(0L, 100L)), 0.001);
+    }
+
+    @Test
+    public void testAdvise() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"preCreate\": true, \"preCreatePeriods\": 2, \"autoShards\": true}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        Map<String, Settings> settings = new HashMap<>();
+        Map<String, IndexManagementPlan.IndexSize> indexSizes = new HashMap<>();
+        long size = 10 * GB;
+        for (String indexName : Arrays.asList("nf_errors_log20171207", "nf_errors_log20171208", "nf_errors_log20171209", "nf_errors_log20171210")) {
+            indices.put(indexName, 0L);
+            settings.put(indexName, Settings.builder().put("index.number_of_shards", 5).build());
+            indexSizes.put(indexName, new IndexManagementPlan.IndexSize(size, 2 * size, size / 1000));
+            size *= 2;
+        }
+
+        // The current period is still being written, closed indices have no stats
+        indices.put("nf_errors_log20171211", 0L);
+        indexSizes.put("nf_errors_log20171211", new IndexManagementPlan.IndexSize(GB, 2 * GB, 1000));
+        indices.put("nf_errors_log20171201", 0L);
+
+        IndexCatalog indexCatalog = new IndexCatalog(indices, Collections.emptyMap(), settings);
+        ShardSizingAdvisor.ShardAdvice shardAdvice = ShardSizingAdvisor.advise(indexMetadata, indexCatalog, indexSizes, DATE_TIME);
+
+        assertEquals(Arrays.asList("nf_errors_log20171207", "nf_errors_log20171208", "nf_errors_log20171209", "nf_errors_log20171210"),
+                shardAdvice.getIndexNames());
+        assertEquals(5, shardAdvice.getCurrentShards());
+        assertEquals(2, shardAdvice.getSizeGrowth(), 0.001);
+        assertEquals(2, shardAdvice.getDocGrowth(), 0.001);
+
+        // 320gb expected for tomorrow, more than the maximum of shards the day after
+        Map<String, Settings> indicesToCreate = new TreeMap<>();
+        indicesToCreate.put("nf_errors_log20171212", Settings.EMPTY);
+        indicesToCreate.put("nf_errors_log20171213", Settings.EMPTY);
+
+        Map<String, Settings> advisedIndices = ShardSizingAdvisor.applyAdvice(indicesToCreate, indexMetadata, shardAdvice, DATE_TIME);
+        assertEquals("11", advisedIndices.get("nf_errors_log20171212").get("index.number_of_shards"));
+        assertEquals("20", advisedIndices.get("nf_errors_log20171213").get("index.number_of_shards"));
+    }
+
+    @Test
+    public void testGetHistoryIndices() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"preCreate\": true, \"autoShards\": true}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        for (int day = 1; day <= 11; day++) {
+            indices.put(String.format("nf_errors_log201712%02d", day), 0L);
+        }
+        indices.put("kibana", 0L);
+        IndexCatalog indexCatalog = new IndexCatalog(indices);
+        indexCatalog.setClosed("nf_errors_log20171209", true);
+
+        // Stats are only needed for the latest open indices of complete periods
+        assertEquals(Arrays.asList("nf_errors_log20171203", "nf_errors_log20171204", "nf_errors_log20171205", "nf_errors_log20171206",
+                "nf_errors_log20171207", "nf_errors_log20171208", "nf_errors_log20171210"),
+                ShardSizingAdvisor.getHistoryIndices(indexMetadata, indexCatalog, DATE_TIME));
+    }
+
+    @Test
+    public void testAdvise_NoHistory() throws Exception {
+        IndexMetadata indexMetadata = IndexUtils.parseIndexMetadata(
+                "[{\"retentionType\": \"daily\", \"indexName\": \"nf_errors_log\", \"preCreate\": true, \"autoShards\": true}]").get(0);
+
+        Map<String, Long> indices = new HashMap<>();
+        indices.put("nf_errors_log20171211", 0L);
+        Map<String, IndexManagementPlan.IndexSize> indexSizes = new HashMap<>();
+        indexSizes.put("nf_errors_log20171211", new IndexManagementPlan.IndexSize(GB, 2 * GB, 1000));
+
+        ShardSizingAdvisor.ShardAdvice shardAdvice = ShardSizingAdvisor.advise(indexMetadata, new IndexCatalog(indices), indexSizes, DATE_TIME);
+        assertNull(shardAdvice);
+
+        Map<String, Settings> indicesToCreate = Collections.singletonMap("nf_errors_log20171212", Settings.EMPTY);
+        assertSame(indicesToCreate, ShardSizingAdvisor.applyAdvice(indicesToCreate, indexMetadata, null, DATE_TIME));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedAndAdvisedShards() throws Exception {
+        new IndexMetadata("nf_errors_log", null, "daily", null, true, null, null, null, null, null, null,
+                null, 5, null, null, null, true, null, null);
+    }
+}
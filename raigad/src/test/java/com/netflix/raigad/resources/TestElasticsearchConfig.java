@@ -9,12 +9,14 @@ import com.netflix.raigad.utils.TribeUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 
 import static java.util.Arrays.asList;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class TestElasticsearchConfig {
@@ -47,9 +49,9 @@ public class TestElasticsearchConfig {
         RaigadServer raigadServer = mock(RaigadServer.class);
         when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
 
-        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new CustomConfigSource(), config);
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
 
-        Response response = elasticsearchConfig.getNodes();
+        Response response = elasticsearchConfig.getNodes(null, null, null, null);
         assertEquals(200, response.getStatus());
 
         verify(raigadServer, times(1)).getInstanceManager();
@@ -64,9 +66,9 @@ public class TestElasticsearchConfig {
         RaigadServer raigadServer = mock(RaigadServer.class);
         when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
 
-        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new CustomConfigSource(), config);
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
 
-        Response response = elasticsearchConfig.getNodes();
+        Response response = elasticsearchConfig.getNodes(null, null, null, null);
         assertEquals(200, response.getStatus());
 
         verify(raigadServer, times(1)).getInstanceManager();
@@ -81,9 +83,9 @@ public class TestElasticsearchConfig {
         RaigadServer raigadServer = mock(RaigadServer.class);
         when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
 
-        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new CustomConfigSource(), config);
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
 
-        Response response = elasticsearchConfig.getNodes();
+        Response response = elasticsearchConfig.getNodes(null, null, null, null);
         assertEquals(500, response.getStatus());
 
         verify(raigadServer, times(1)).getInstanceManager();
@@ -98,12 +100,146 @@ public class TestElasticsearchConfig {
         RaigadServer raigadServer = mock(RaigadServer.class);
         when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
 
-        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new CustomConfigSource(), config);
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
 
-        Response response = elasticsearchConfig.getNodes();
+        Response response = elasticsearchConfig.getNodes(null, null, null, null);
         assertEquals(500, response.getStatus());
 
         verify(raigadServer, times(1)).getInstanceManager();
         verify(instanceManager, times(1)).getAllInstances();
     }
+
+    @Test
+    public void getNodes_servedFromCacheUntilMembershipChanges() {
+        RaigadInstance raigadInstance = new RaigadInstance();
+        raigadInstance.setApp("fake-app1");
+
+        InstanceManager instanceManager = mock(InstanceManager.class);
+        when(instanceManager.getAllInstances()).thenReturn(Collections.singletonList(raigadInstance));
+        when(instanceManager.getMembershipVersion()).thenReturn(1L, 1L, 2L);
+
+        RaigadServer raigadServer = mock(RaigadServer.class);
+        when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
+
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
+
+        Response first = elasticsearchConfig.getNodes(null, null, null, null);
+        assertEquals(200, first.getStatus());
+        String eTag = (String) first.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertNotNull(eTag);
+
+        Response second = elasticsearchConfig.getNodes(null, null, null, null);
+        assertEquals(200, second.getStatus());
+        assertArrayEquals((byte[]) first.getEntity(), (byte[]) second.getEntity());
+        verify(instanceManager, times(1)).getAllInstances();
+
+        // Membership moved on, the old ETag no longer matches
+        Response third = elasticsearchConfig.getNodes(null, eTag, null, null);
+        assertEquals(200, third.getStatus());
+        assertNotEquals(eTag, third.getMetadata().getFirst(HttpHeaders.ETAG));
+        verify(instanceManager, times(2)).getAllInstances();
+    }
+
+    @Test
+    public void getNodes_notModified() {
+        InstanceManager instanceManager = mock(InstanceManager.class);
+        when(instanceManager.getAllInstances()).thenReturn(Collections.emptyList());
+
+        RaigadServer raigadServer = mock(RaigadServer.class);
+        when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
+
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
+
+        Response response = elasticsearchConfig.getNodes(null, null, null, null);
+        String eTag = (String) response.getMetadata().getFirst(HttpHeaders.ETAG);
+
+        response = elasticsearchConfig.getNodes(null, eTag, null, null);
+        assertEquals(304, response.getStatus());
+        verify(instanceManager, times(1)).getAllInstances();
+    }
+
+    @Test
+    public void getNodes_compactFormat() {
+        InstanceManager instanceManager = mock(InstanceManager.class);
+        when(instanceManager.getAllInstances()).thenReturn(Collections.emptyList());
+
+        RaigadServer raigadServer = mock(RaigadServer.class);
+        when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
+
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
+
+        Response compact = elasticsearchConfig.getNodes(NodesResponseCache.NODES_V2_MEDIA_TYPE, null, null, null);
+        assertEquals(200, compact.getStatus());
+        assertEquals("{\"version\":0,\"instances\":[]}", new String((byte[]) compact.getEntity(), StandardCharsets.UTF_8));
+
+        // Older plugins keep getting the legacy format, with an ETag of its own
+        Response legacy = elasticsearchConfig.getNodes("text/plain", null, null, null);
+        assertEquals(200, legacy.getStatus());
+        assertNotEquals(compact.getMetadata().getFirst(HttpHeaders.ETAG), legacy.getMetadata().getFirst(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void getNodes_longPoll() throws Exception {
+        InstanceManager instanceManager = mock(InstanceManager.class);
+        when(instanceManager.getAllInstances()).thenReturn(Collections.emptyList());
+
+        RaigadServer raigadServer = mock(RaigadServer.class);
+        when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
+
+        when(instanceManager.getMembershipVersion()).thenReturn(7L);
+
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
+        String eTag = (String) elasticsearchConfig.getNodes(null, null, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+
+        Response response = elasticsearchConfig.getNodes(null, eTag, 7L, "5s");
+        assertEquals(304, response.getStatus());
+        verify(instanceManager).awaitMembershipChange(7L, 5000L);
+
+        // Waits are capped at a minute
+        elasticsearchConfig.getNodes(null, eTag, 7L, "600");
+        verify(instanceManager).awaitMembershipChange(7L, 60 * 1000L);
+
+        // No version, no waiting
+        elasticsearchConfig.getNodes(null, eTag, null, "5s");
+        verify(instanceManager, times(2)).awaitMembershipChange(anyLong(), anyLong());
+
+        // Nodes other than the current ones are returned right away
+        assertEquals(200, elasticsearchConfig.getNodes(null, null, 7L, "5s").getStatus());
+        verify(instanceManager, times(2)).awaitMembershipChange(anyLong(), anyLong());
+    }
+
+    @Test
+    public void getNodes_longPollAfterRestart() throws Exception {
+        InstanceManager instanceManager = mock(InstanceManager.class);
+        when(instanceManager.getAllInstances()).thenReturn(Collections.emptyList());
+        when(instanceManager.getMembershipVersion()).thenReturn(42L);
+
+        RaigadServer raigadServer = mock(RaigadServer.class);
+        when(raigadServer.getInstanceManager()).thenReturn(instanceManager);
+
+        String eTag = (String) new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config)
+                .getNodes(null, null, null, null).getMetadata().getFirst(HttpHeaders.ETAG);
+
+        // Versions start over with the restarted process
+        when(instanceManager.getMembershipVersion()).thenReturn(3L);
+        ElasticsearchConfig elasticsearchConfig = new ElasticsearchConfig(raigadServer, tribeUtils, new NodesResponseCache(), new CustomConfigSource(), config);
+
+        // A version from before the restart is ahead of the current one, nothing to wait for
+        Response response = elasticsearchConfig.getNodes(null, eTag, 42L, "60s");
+        assertEquals(200, response.getStatus());
+        assertEquals(3L, response.getMetadata().getFirst(ElasticsearchConfig.NODES_VERSION_HEADER));
+        verify(instanceManager, never()).awaitMembershipChange(anyLong(), anyLong());
+
+        // Neither with the current ETag but a version from before the restart
+        String currentETag = (String) response.getMetadata().getFirst(HttpHeaders.ETAG);
+        assertEquals(304, elasticsearchConfig.getNodes(null, currentETag, 42L, "60s").getStatus());
+        verify(instanceManager, never()).awaitMembershipChange(anyLong(), anyLong());
+    }
+
+    @Test
+    public void parseWait() {
+        assertEquals(30 * 1000, ElasticsearchConfig.parseWait("30s"));
+        assertEquals(30 * 1000, ElasticsearchConfig.parseWait("30"));
+        assertEquals(500, ElasticsearchConfig.parseWait("500ms"));
+    }
 }
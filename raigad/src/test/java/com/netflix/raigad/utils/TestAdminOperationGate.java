@@ -0,0 +1,55 @@
+package com.netflix.raigad.utils;
+
+import com.netflix.raigad.configuration.IConfiguration;
+import org.elasticsearch.client.Client;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class TestAdminOperationGate {
+    private Client client;
+    private IConfiguration config;
+    private Sleeper sleeper;
+    private AdminOperationGate adminOperationGate;
+
+    @Before
+    public void setUp() {
+        client = mock(Client.class);
+        config = mock(IConfiguration.class);
+        sleeper = mock(Sleeper.class);
+        adminOperationGate = spy(new AdminOperationGate(config, sleeper));
+    }
+
+    @Test
+    public void testAdmit_NoPressure() throws Exception {
+        doReturn(null).when(adminOperationGate).getMasterPressure(client, false);
+
+        assertTrue(adminOperationGate.admit(client, "test"));
+        verify(sleeper, never()).sleep(anyLong());
+    }
+
+    @Test
+    public void testAdmit_WaitsWithGrowingDelays() throws Exception {
+        when(config.getAdminMaxWaitSeconds()).thenReturn(60);
+        doReturn("150 pending tasks", "120 pending tasks", null).when(adminOperationGate).getMasterPressure(client, false);
+
+        assertTrue(adminOperationGate.admit(client, "test"));
+        verify(sleeper).sleep(1000);
+        verify(sleeper).sleep(2000);
+        verify(sleeper, times(2)).sleep(anyLong());
+    }
+
+    @Test
+    public void testAdmit_GivesUp() throws Exception {
+        when(config.getAdminMaxWaitSeconds()).thenReturn(5);
+        doReturn("heap 95% used").when(adminOperationGate).getMasterPressure(client, true);
+
+        // Waits of 1 and 2 seconds fit, the next one of 4 would not
+        assertFalse(adminOperationGate.admit(client, "test", true));
+        verify(sleeper, times(2)).sleep(anyLong());
+    }
+}
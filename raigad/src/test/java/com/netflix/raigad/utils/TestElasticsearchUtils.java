@@ -7,11 +7,15 @@ import mockit.Mock;
 import mockit.MockUp;
 import mockit.Mocked;
 import mockit.integration.junit4.JMockit;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -31,6 +35,33 @@ public class TestElasticsearchUtils {
         }
     }
 
+    @Test
+    public void TestInstancesCompactRoundTrip() throws Exception {
+        List<RaigadInstance> instances = getRaigadInstances();
+        instances.get(2).setHostName(null);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ElasticsearchUtils.writeRaigadInstancesCompact(instances, 42, outputStream);
+
+        String json = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertTrue(json.startsWith("{\"version\":42,\"instances\":["));
+
+        // The discovery plugin reads this format, here it is only checked to be what the plugin expects
+        JSONObject jsonObject = (JSONObject) new JSONParser().parse(json);
+        Assert.assertEquals(42L, jsonObject.get("version"));
+
+        JSONArray returnedInstances = (JSONArray) jsonObject.get("instances");
+        Assert.assertEquals(instances.size(), returnedInstances.size());
+        for (int i = 0; i < instances.size(); i++) {
+            JSONObject returnedInstance = (JSONObject) returnedInstances.get(i);
+            Assert.assertEquals(instances.get(i).getId(), returnedInstance.get("id"));
+            Assert.assertEquals(instances.get(i).getHostIP(), returnedInstance.get("public_ip"));
+            Assert.assertEquals(instances.get(i).getHostName(), returnedInstance.get("host_name"));
+            Assert.assertEquals(instances.get(i).getAvailabilityZone(), returnedInstance.get("availability_zone"));
+            Assert.assertEquals(instances.get(i).getUpdatetime(), returnedInstance.get("update_time"));
+        }
+    }
+
     @Test
     public void TestAmIMasterNode(@Mocked IConfiguration config) throws Exception {
         String expectedIp = "100.0.0.1";